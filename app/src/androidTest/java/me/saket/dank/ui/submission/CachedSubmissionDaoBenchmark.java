@@ -0,0 +1,147 @@
+package me.saket.dank.ui.submission;
+
+import static junit.framework.Assert.assertEquals;
+
+import android.arch.persistence.room.Room;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.dean.jraw.models.Submission;
+import net.dean.jraw.models.SubredditSort;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import me.saket.dank.data.AppDatabase;
+import me.saket.dank.walkthrough.SyntheticSubmission;
+
+/**
+ * Compares {@link CachedSubmissionDao#saveNewSubmissions} with the row-by-row inserts it replaced, over pages
+ * of different sizes saved into a database that already has a few thousand submissions. A fifth of every
+ * page is already present in its folder, like when reddit's listings shift between two page fetches.
+ */
+@Ignore("Benchmark. Run manually.")
+@RunWith(AndroidJUnit4.class)
+public class CachedSubmissionDaoBenchmark {
+
+  private static final int[] PAGE_SIZES = { 25, 100, 500 };
+  private static final int POPULATED_FOLDERS = 20;
+  private static final int POPULATED_SUBMISSIONS_PER_FOLDER = 250;
+  private static final int MEASURED_PAGES = 20;
+
+  private final SubmissionRoomTypeConverter converter = new SubmissionRoomTypeConverter();
+  private String submissionJsonTemplate;
+  private AppDatabase database;
+  private int nextSubmissionId;
+
+  @Before
+  public void setUp() {
+    database = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getTargetContext(), AppDatabase.class).build();
+    submissionJsonTemplate = converter.toJson(new SyntheticSubmission(0));
+
+    for (int i = 0; i < POPULATED_FOLDERS; i++) {
+      database.submissionDao().saveNewSubmissions("populated_" + i, SortingAndTimePeriod.create(SubredditSort.HOT), newSubmissions(POPULATED_SUBMISSIONS_PER_FOLDER));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    database.close();
+  }
+
+  @Test
+  public void measureIngestion() {
+    System.out.println("page size | row-by-row ms/page | bulk ms/page");
+
+    for (int pageSize : PAGE_SIZES) {
+      SortingAndTimePeriod sorting = SortingAndTimePeriod.create(SubredditSort.NEW);
+      // Both paths save the same pages, but into different folders.
+      List<List<Submission>> pages = pagesWithRepeats(pageSize);
+
+      long rowByRowStartNanos = System.nanoTime();
+      int rowByRowSavedCount = 0;
+      for (List<Submission> page : pages) {
+        rowByRowSavedCount += saveRowByRow("row_by_row_" + pageSize, sorting, page);
+      }
+      long rowByRowNanos = System.nanoTime() - rowByRowStartNanos;
+
+      long bulkStartNanos = System.nanoTime();
+      int bulkSavedCount = 0;
+      for (List<Submission> page : pages) {
+        bulkSavedCount += database.submissionDao().saveNewSubmissions("bulk_" + pageSize, sorting, page).size();
+      }
+      long bulkNanos = System.nanoTime() - bulkStartNanos;
+
+      assertEquals(rowByRowSavedCount, bulkSavedCount);
+      System.out.println(String.format("%9d | %18.2f | %12.2f", pageSize, rowByRowNanos / 1e6 / MEASURED_PAGES, bulkNanos / 1e6 / MEASURED_PAGES));
+    }
+  }
+
+  /**
+   * Like SubmissionRepository#saveSubmissions() used to, except that it skips already present
+   * submissions so that both paths save the same rows.
+   */
+  private int saveRowByRow(String subredditName, SortingAndTimePeriod sorting, List<Submission> page) {
+    int[] savedCount = { 0 };
+    database.runInTransaction(() -> {
+      for (int i = 0; i < page.size(); i++) {
+        Submission submission = page.get(i);
+        long saveTimeMillis = System.currentTimeMillis() + i;
+        CachedSubmission cachedSubmission = new CachedSubmission(submission.getId(), submission, submission.getSubreddit(), saveTimeMillis);
+
+        boolean isNew = database.submissionDao()
+            .existingSubmissionIds(subredditName, sorting, Collections.singletonList(submission.getId()))
+            .isEmpty();
+        if (isNew) {
+          CachedSubmissionId2 cachedSubmissionId = new CachedSubmissionId2(submission.getId(), subredditName, sorting, saveTimeMillis);
+          database.submissionDao().saveSubmissionIds(Collections.singletonList(cachedSubmissionId));
+          database.submissionDao().saveSubmission(cachedSubmission);
+          savedCount[0]++;
+        }
+      }
+    });
+    return savedCount[0];
+  }
+
+  /**
+   * Every page repeats a fifth of the submissions of the page before it.
+   */
+  private List<List<Submission>> pagesWithRepeats(int pageSize) {
+    int repeatCount = pageSize / 5;
+
+    List<List<Submission>> pages = new ArrayList<>(MEASURED_PAGES);
+    List<Submission> previousPage = Collections.emptyList();
+    for (int i = 0; i < MEASURED_PAGES; i++) {
+      List<Submission> page = new ArrayList<>(pageSize);
+      page.addAll(previousPage.subList(Math.max(0, previousPage.size() - repeatCount), previousPage.size()));
+      page.addAll(newSubmissions(pageSize - page.size()));
+      pages.add(page);
+      previousPage = page;
+    }
+    return pages;
+  }
+
+  private List<Submission> newSubmissions(int count) {
+    List<Submission> submissions = new ArrayList<>(count);
+    try {
+      for (int i = 0; i < count; i++) {
+        String id = Integer.toString(nextSubmissionId++, 36);
+        JSONObject json = new JSONObject(submissionJsonTemplate);
+        json.put("id", id);
+        json.put("name", "t3_" + id);
+        submissions.add(converter.fromJson(json.toString()));
+      }
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+    return submissions;
+  }
+}
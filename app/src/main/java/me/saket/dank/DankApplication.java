@@ -13,6 +13,7 @@ import com.facebook.stetho.Stetho;
 import com.gabrielittner.threetenbp.LazyThreeTen;
 import com.tspoon.traceur.Traceur;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.util.ArrayList;
@@ -26,7 +27,13 @@ import io.reactivex.exceptions.OnErrorNotImplementedException;
 import io.reactivex.functions.Consumer;
 import io.reactivex.plugins.RxJavaPlugins;
 import io.reactivex.schedulers.Schedulers;
+import me.saket.dank.cache.CacheModule;
 import me.saket.dank.di.Dank;
+import me.saket.dank.startup.AppStartupTasks;
+import me.saket.dank.startup.StartupRunner;
+import me.saket.dank.startup.StartupTask;
+import me.saket.dank.startup.StartupTrace;
+import me.saket.dank.utils.Files2;
 import timber.log.Timber;
 
 public class DankApplication extends Application {
@@ -40,7 +47,9 @@ public class DankApplication extends Application {
   @Override
   public void onCreate() {
     super.onCreate();
+    StartupTrace.Span onCreateSpan = Dank.startupTrace().beginSpan("Application#onCreate");
 
+    // Only creates the providers. Dependencies get created when they're first used.
     Dank.initDependencies(this);
     RxJavaPlugins.setErrorHandler(undeliveredExceptionsHandler());
 
@@ -51,7 +60,6 @@ public class DankApplication extends Application {
     }
 
     if (BuildConfig.DEBUG) {
-      Stetho.initializeWithDefaults(this);
       Traceur.enableLogging();  // Throws an exception in every operator, so better enable only on debug builds
 
       StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
@@ -64,17 +72,61 @@ public class DankApplication extends Application {
           .build());
     }
 
-    ViewPump.init(ViewPump.builder()
-        .addInterceptor(Dank.dependencyInjector().typefaceInflationInterceptor())
-        .build());
+    StartupRunner startupRunner = new StartupRunner(Dank.startupTrace(), runnable -> Schedulers.io().scheduleDirect(runnable));
+    referenceHolders.add(
+        startupRunner.run(startupTasks())
+            .subscribe(() -> Timber.i("Background startup tasks done")));
 
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-      registerNotificationChannels();
+    onCreateSpan.end();
+  }
 
-      // Android doesn't print stack-traces on Oreo anymore if a custom exception handler is set.
-      Thread.setDefaultUncaughtExceptionHandler(new LoggingUncaughtExceptionHandler(Thread.getDefaultUncaughtExceptionHandler()));
-    }
+  private List<StartupTask> startupTasks() {
+    return AppStartupTasks.create(new AppStartupTasks.Initializers() {
+      @Override
+      public void initStetho() {
+        Stetho.initializeWithDefaults(DankApplication.this);
+      }
+
+      @Override
+      public void initViewPump() {
+        ViewPump.init(ViewPump.builder()
+            .addInterceptor(chain -> Dank.dependencyInjector().typefaceInflationInterceptor().intercept(chain))
+            .build());
+      }
+
+      @Override
+      public void preloadTypeface() {
+        Dank.dependencyInjector().typefaceInflationInterceptor().preload(getResources());
+      }
+
+      @Override
+      public void registerNotificationChannels() {
+        DankApplication.this.registerNotificationChannels();
+      }
+
+      @Override
+      public void setUncaughtExceptionHandler() {
+        Thread.setDefaultUncaughtExceptionHandler(new LoggingUncaughtExceptionHandler(Thread.getDefaultUncaughtExceptionHandler()));
+      }
+
+      @Override
+      public void initRedditClient() {
+        Dank.dependencyInjector().reddit();
+      }
 
+      @Override
+      public void initThreeTen() {
+        LazyThreeTen.init(DankApplication.this);
+      }
+
+      @Override
+      public void startDelayedTasks() {
+        DankApplication.this.startDelayedTasks();
+      }
+    }, BuildConfig.DEBUG, Build.VERSION.SDK_INT);
+  }
+
+  private void startDelayedTasks() {
     Observable<Long> initialDelayStream = Observable.timer(5, TimeUnit.SECONDS, Schedulers.io())
         .replay()
         .refCount();
@@ -86,10 +138,12 @@ public class DankApplication extends Application {
             .startWith(initialDelayStream)
             .subscribe());
 
-    LazyThreeTen.init(this);
     referenceHolders.add(
         initialDelayStream.subscribe(o -> LazyThreeTen.cacheZones()));
 
+    referenceHolders.add(
+        initialDelayStream.subscribe(o -> deleteOrphanedVideoCache()));
+
     referenceHolders.add(
         initialDelayStream
             .filter(o -> Build.VERSION.SDK_INT >= Build.VERSION_CODES.N_MR1)
@@ -98,6 +152,21 @@ public class DankApplication extends Application {
             .subscribe());
   }
 
+  /**
+   * Videos used to be cached in the video cache's default directory, which is on external storage when it's
+   * available. They're cached in the internal cache directory now, but older installs still have the old one.
+   */
+  private void deleteOrphanedVideoCache() {
+    File externalCacheDir = getExternalCacheDir();
+    if (externalCacheDir == null) {
+      return;
+    }
+    File oldVideoCacheDir = new File(externalCacheDir, CacheModule.VIDEO_CACHE_DIRECTORY);
+    if (oldVideoCacheDir.exists() && !Files2.INSTANCE.deleteRecursively(oldVideoCacheDir)) {
+      Timber.w("Couldn't delete %s", oldVideoCacheDir);
+    }
+  }
+
   @TargetApi(Build.VERSION_CODES.O)
   private void registerNotificationChannels() {
     NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
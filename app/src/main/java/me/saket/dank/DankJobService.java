@@ -29,6 +29,7 @@ public abstract class DankJobService extends JobService {
    */
   protected static final int ID_GENERIC_DEBUG = -99;
   protected static final int ID_DEBUG_RECYCLING = -98;
+  protected static final int ID_DEBUG_OFFLINE_SYNC = -97;
 
   protected static final int ID_SUBSCRIPTIONS_RECURRING_JOB = 0;
   protected static final int ID_SUBSCRIPTIONS_ONE_TIME_JOB = 1;
@@ -47,6 +48,8 @@ public abstract class DankJobService extends JobService {
 
   protected static final int ID_RECYCLE_OLD_SUBMISSIONS = 10;
 
+  protected static final int ID_OFFLINE_SYNC = 11;
+
   private CompositeDisposable onDestroyDisposables;
   private Relay<Object> onDestroyStream = PublishRelay.create();
 
@@ -0,0 +1,187 @@
+package me.saket.dank.cache;
+
+import android.support.annotation.CheckResult;
+import android.support.annotation.Nullable;
+
+import com.f2prateek.rx.preferences2.Preference;
+import com.google.auto.value.AutoValue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import dagger.Lazy;
+import io.reactivex.Single;
+import timber.log.Timber;
+
+/**
+ * Keeps the combined size of all {@link CacheTier}s within one budget. Each tier still enforces its own
+ * maximum size, but this evicts across tiers: items that haven't been used for the longest time, relative
+ * to their cost of being fetched again, go first.
+ */
+@Singleton
+public class CacheBudgetManager {
+
+  /**
+   * Items used this recently are never evicted, because they're probably still on screen.
+   */
+  static final long MIN_IDLE_MILLIS_FOR_EVICTION = TimeUnit.HOURS.toMillis(1);
+
+  private final Lazy<List<CacheTier>> tiers;
+  private final Preference<Long> budgetBytes;
+
+  @Inject
+  public CacheBudgetManager(@Named("cache_tiers") Lazy<List<CacheTier>> tiers, @Named("cache_budget_bytes") Preference<Long> budgetBytes) {
+    this.tiers = tiers;
+    this.budgetBytes = budgetBytes;
+  }
+
+  @CheckResult
+  public Single<CacheUsage> usage() {
+    return Single.fromCallable(() -> CacheUsage.create(listItems(), budgetBytes.get()));
+  }
+
+  /**
+   * @return Usage after eviction.
+   */
+  @CheckResult
+  public Single<CacheUsage> enforceBudget() {
+    return Single.fromCallable(() -> {
+      List<CachedItem> items = listItems();
+      List<CachedItem> itemsToEvict = selectForEviction(items, budgetBytes.get(), System.currentTimeMillis());
+
+      Map<String, List<CachedItem>> itemsToEvictByTier = new LinkedHashMap<>();
+      for (CachedItem item : itemsToEvict) {
+        List<CachedItem> tierItems = itemsToEvictByTier.get(item.tierName());
+        if (tierItems == null) {
+          tierItems = new ArrayList<>();
+          itemsToEvictByTier.put(item.tierName(), tierItems);
+        }
+        tierItems.add(item);
+      }
+
+      for (CacheTier tier : tiers.get()) {
+        List<CachedItem> tierItems = itemsToEvictByTier.get(tier.name());
+        if (tierItems == null) {
+          continue;
+        }
+        try {
+          tier.evict(tierItems);
+        } catch (IOException e) {
+          Timber.e(e, "Couldn't evict %s items of %s", tierItems.size(), tier.name());
+        }
+      }
+
+      // Listed again because caches can refuse to remove entries, like ones that are being written.
+      CacheUsage usage = CacheUsage.create(listItems(), budgetBytes.get());
+      Timber.i("Evicted %s cached items. Usage: %s", itemsToEvict.size(), usage);
+      return usage;
+    });
+  }
+
+  private List<CachedItem> listItems() {
+    List<CachedItem> items = new ArrayList<>();
+    for (CacheTier tier : tiers.get()) {
+      try {
+        items.addAll(tier.items());
+      } catch (IOException e) {
+        Timber.e(e, "Couldn't list items of %s", tier.name());
+      }
+    }
+    return items;
+  }
+
+  /**
+   * @return Items to evict for staying within <var>budgetBytes</var>, in the order they should be evicted. Can
+   * still be over budget if too many items were used recently.
+   */
+  static List<CachedItem> selectForEviction(List<CachedItem> items, long budgetBytes, long nowMillis) {
+    long totalBytes = 0;
+    List<CachedItem> candidates = new ArrayList<>(items.size());
+    for (CachedItem item : items) {
+      totalBytes += item.sizeBytes();
+      if (nowMillis - item.lastAccessTimeMillis() >= MIN_IDLE_MILLIS_FOR_EVICTION) {
+        candidates.add(item);
+      }
+    }
+
+    if (totalBytes <= budgetBytes) {
+      return Collections.emptyList();
+    }
+
+    Collections.sort(candidates, (first, second) -> Double.compare(evictionScore(second, nowMillis), evictionScore(first, nowMillis)));
+
+    List<CachedItem> itemsToEvict = new ArrayList<>();
+    for (CachedItem candidate : candidates) {
+      if (totalBytes <= budgetBytes) {
+        break;
+      }
+      itemsToEvict.add(candidate);
+      totalBytes -= candidate.sizeBytes();
+    }
+    return itemsToEvict;
+  }
+
+  /**
+   * Higher scores get evicted first.
+   */
+  private static double evictionScore(CachedItem item, long nowMillis) {
+    return (nowMillis - item.lastAccessTimeMillis()) / (double) item.refetchCost();
+  }
+
+  @AutoValue
+  public abstract static class CacheUsage {
+
+    public abstract long totalBytes();
+
+    public abstract long budgetBytes();
+
+    public abstract Map<String, Long> bytesByTier();
+
+    /**
+     * Only covers tiers whose items can be attributed to a subreddit. Largest first.
+     */
+    public abstract Map<String, Long> bytesBySubreddit();
+
+    static CacheUsage create(List<CachedItem> items, long budgetBytes) {
+      long totalBytes = 0;
+      Map<String, Long> bytesByTier = new LinkedHashMap<>();
+      Map<String, Long> bytesBySubreddit = new HashMap<>();
+
+      for (CachedItem item : items) {
+        totalBytes += item.sizeBytes();
+        addTo(bytesByTier, item.tierName(), item.sizeBytes());
+        addTo(bytesBySubreddit, item.subredditName(), item.sizeBytes());
+      }
+
+      List<Map.Entry<String, Long>> subreddits = new ArrayList<>(bytesBySubreddit.entrySet());
+      Collections.sort(subreddits, (first, second) -> Long.compare(second.getValue(), first.getValue()));
+      Map<String, Long> sortedBytesBySubreddit = new LinkedHashMap<>(subreddits.size());
+      for (Map.Entry<String, Long> subreddit : subreddits) {
+        sortedBytesBySubreddit.put(subreddit.getKey(), subreddit.getValue());
+      }
+
+      return new AutoValue_CacheBudgetManager_CacheUsage(
+          totalBytes,
+          budgetBytes,
+          Collections.unmodifiableMap(bytesByTier),
+          Collections.unmodifiableMap(sortedBytesBySubreddit));
+    }
+
+    private static void addTo(Map<String, Long> bytesByKey, @Nullable String key, long bytes) {
+      if (key == null) {
+        return;
+      }
+      Long existingBytes = bytesByKey.get(key);
+      bytesByKey.put(key, existingBytes == null ? bytes : existingBytes + bytes);
+    }
+  }
+}
@@ -1,9 +1,13 @@
 package me.saket.dank.cache;
 
 import android.app.Application;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
 
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
+import com.bumptech.glide.load.engine.cache.DiskCache;
 import com.danikula.videocache.HttpProxyCacheServer;
 import com.jakewharton.disklrucache.DiskLruCache;
 import com.nytimes.android.external.cache3.Cache;
@@ -12,25 +16,36 @@ import com.nytimes.android.external.fs3.filesystem.FileSystem;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import dagger.Lazy;
 import dagger.Module;
 import dagger.Provides;
 import io.reactivex.Scheduler;
 import io.reactivex.exceptions.Exceptions;
 import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.BuildConfig;
+import me.saket.dank.data.AppDatabase;
 import me.saket.dank.data.AppInfo;
 import me.saket.dank.data.FileSize;
 import me.saket.dank.urlparser.Link;
 import me.saket.dank.utils.DeviceInfo;
 import me.saket.dank.utils.FileSizeUnit;
+import me.saket.dank.utils.glide.GlideDiskCache;
+import me.saket.dank.utils.okhttp.OkHttpCore;
+import me.saket.dank.utils.okhttp.RequestPriority;
 
 @Module
 public class CacheModule {
 
+  private static final String DISK_LRU_CACHE_DIRECTORY = "disk_lru_cache";
+  public static final String VIDEO_CACHE_DIRECTORY = "video-cache";
+
   @Provides
   @Singleton
   FileSystem provideCacheFileSystem(StoreLruFileSystem lruFileSystem) {
@@ -38,9 +53,10 @@ public class CacheModule {
   }
 
   @Provides
+  @Singleton
   DiskLruCache diskLruCache(Application appContext, AppInfo appInfo) {
     FileSize maxCacheSize = FileSize.create(100, FileSizeUnit.MB);
-    File cacheDirectory = new File(appContext.getCacheDir(), "disk_lru_cache");
+    File cacheDirectory = new File(appContext.getCacheDir(), DISK_LRU_CACHE_DIRECTORY);
     try {
       int valuesPerCacheEntry = 1;  // No idea what this means. Glide uses 1.
       return DiskLruCache.open(cacheDirectory, appInfo.appVersionCode(), valuesPerCacheEntry, (long) maxCacheSize.bytes());
@@ -55,13 +71,87 @@ public class CacheModule {
   @Provides
   @Singleton
   HttpProxyCacheServer provideHttpProxyCacheServer(Application appContext) {
-    return new HttpProxyCacheServer(appContext);
+    // The default directory can be on external storage, where CacheBudgetManager won't look.
+    return new HttpProxyCacheServer.Builder(appContext)
+        .cacheDirectory(new File(appContext.getCacheDir(), VIDEO_CACHE_DIRECTORY))
+        .build();
+  }
+
+  /**
+   * Every disk cache whose size is counted towards {@link CacheBudgetManager}'s budget. Refetch costs are
+   * relative to each other.
+   */
+  @Provides
+  @Named("cache_tiers")
+  List<CacheTier> provideCacheTiers(
+      Application appContext,
+      OkHttpCore okHttpCore,
+      Lazy<AppDatabase> database,
+      Lazy<GlideDiskCache> glideDiskCache,
+      Lazy<DiskLruCache> storeDiskLruCache)
+  {
+    File cacheDir = appContext.getCacheDir();
+    File videoCacheDir = new File(cacheDir, VIDEO_CACHE_DIRECTORY);
+    okhttp3.Cache okHttpCache = okHttpCore.diskCache();
+
+    return Arrays.asList(
+        new SubmissionFolderCacheTier(database),
+        // The video cache can't remove files itself, but it touches them on reads and evicts by deleting them.
+        new FileDirectoryCacheTier("videos", videoCacheDir, 3f, FileDirectoryCacheTier.fileDeletingEvictor(videoCacheDir)),
+        new FileDirectoryCacheTier("images", new File(cacheDir, DiskCache.Factory.DEFAULT_DISK_CACHE_DIR), 2f, FileDirectoryCacheTier.glideDiskCacheEvictor(glideDiskCache)),
+        new FileDirectoryCacheTier("store", new File(cacheDir, DISK_LRU_CACHE_DIRECTORY), 2f, FileDirectoryCacheTier.diskLruCacheEvictor(storeDiskLruCache)),
+        new FileDirectoryCacheTier("http_responses", okHttpCache.directory(), 1f, FileDirectoryCacheTier.okHttpCacheEvictor(okHttpCache))
+    );
   }
 
+  /**
+   * Bounded by {@link PreFillQueue}'s concurrency limits, which this pool only needs to have enough threads for.
+   */
   @Provides
+  @Singleton
   @Named("cache_pre_filling")
   Scheduler cachePreFillingScheduler() {
-    return Schedulers.from(Executors.newCachedThreadPool());
+    int threadCount = 0;
+    for (PreFillQueue.Resource resource : PreFillQueue.Resource.values()) {
+      threadCount += resource.maxConcurrency;
+    }
+
+    AtomicInteger threadNumber = new AtomicInteger();
+    return Schedulers.from(Executors.newFixedThreadPool(threadCount, runnable -> {
+      Thread thread = new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        RequestPriority.setForCurrentThread(RequestPriority.PRE_FILL);
+        runnable.run();
+      });
+      thread.setName("cache-pre-fill-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }));
+  }
+
+  /**
+   * {@link OfflineSnapshotSync} fetches one thing at a time, so that its requests can be counted on its thread.
+   */
+  @Provides
+  @Singleton
+  @Named("offline_sync")
+  Scheduler offlineSyncScheduler() {
+    return Schedulers.from(Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        RequestPriority.setForCurrentThread(RequestPriority.PRE_FILL);
+        runnable.run();
+      });
+      thread.setName("offline-sync");
+      thread.setDaemon(true);
+      return thread;
+    }));
+  }
+
+  @Provides
+  @Named("cache_pre_filling")
+  SharedPreferences provideSharedPrefsForCompletedPreFills(Application appContext) {
+    return appContext.getSharedPreferences("cache_pre_filling", Context.MODE_PRIVATE);
   }
 
   @Provides
@@ -5,7 +5,6 @@ import android.graphics.drawable.Drawable;
 import android.support.annotation.CheckResult;
 import android.support.annotation.Px;
 
-import com.bumptech.glide.Glide;
 import com.bumptech.glide.Priority;
 import com.bumptech.glide.request.RequestOptions;
 import com.f2prateek.rx.preferences2.Preference;
@@ -13,10 +12,9 @@ import com.f2prateek.rx.preferences2.Preference;
 import net.dean.jraw.models.Submission;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -24,7 +22,6 @@ import javax.inject.Singleton;
 import dagger.Lazy;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
-import io.reactivex.Scheduler;
 import io.reactivex.Single;
 import io.reactivex.functions.Predicate;
 import me.saket.dank.data.CachePreFillThing;
@@ -32,6 +29,7 @@ import me.saket.dank.data.LinkMetadataRepository;
 import me.saket.dank.reddit.Reddit;
 import me.saket.dank.ui.media.MediaHostRepository;
 import me.saket.dank.ui.preferences.NetworkStrategy;
+import me.saket.dank.cache.PreFillQueue.Resource;
 import me.saket.dank.ui.submission.AuditedCommentSort;
 import me.saket.dank.ui.submission.AuditedCommentSort.SelectedBy;
 import me.saket.dank.ui.submission.SubmissionImageLoader;
@@ -48,28 +46,29 @@ import me.saket.dank.utils.NetworkStateListener;
 import me.saket.dank.utils.Optional;
 import me.saket.dank.utils.Pair;
 import me.saket.dank.utils.RxUtils;
+import me.saket.dank.utils.glide.AsyncImageLoader;
+import me.saket.dank.utils.glide.GlideUtils;
+import me.saket.dank.utils.okhttp.RequestPriority;
 
 /**
- * Pre-fetches submission content and comments.
+ * Pre-fetches submission content and comments. Work is run by {@link PreFillQueue}, nearest to the
+ * user's scroll position first. All network requests are made with {@link RequestPriority#PRE_FILL}.
  */
 @Singleton
 public class CachePreFiller {
 
-  private static final int SUBMISSION_LIMIT_PER_SUBREDDIT = 30;
-
   private final Application appContext;
   private final SubmissionRepository submissionRepository;
   private final NetworkStateListener networkStateListener;
   private final MediaHostRepository mediaHostRepository;
   private final LinkMetadataRepository linkMetadataRepository;
 
-  private final Lazy<Scheduler> preFillingScheduler;
+  private final Lazy<PreFillQueue> preFillQueue;
+  private final Lazy<CompletedPreFills> completedPreFills;
   private final Lazy<Map<CachePreFillThing, Preference<NetworkStrategy>>> preFillingNetworkStrategies;
   private final Lazy<UrlParser> urlParser;
   private final Lazy<SubmissionImageLoader> submissionImageLoader;
-
-  // Key: <submission-fullname>_<CachePreFillThing>.
-  private Set<String> completedPreFills = new HashSet<>(50);
+  private final Lazy<AsyncImageLoader> asyncImageLoader;
 
   @Inject
   public CachePreFiller(
@@ -80,7 +79,9 @@ public class CachePreFiller {
       LinkMetadataRepository linkMetadataRepository,
       Lazy<UrlParser> urlParser,
       Lazy<SubmissionImageLoader> submissionImageLoader,
-      @Named("cache_pre_filling") Lazy<Scheduler> preFillingScheduler,
+      Lazy<AsyncImageLoader> asyncImageLoader,
+      Lazy<PreFillQueue> preFillQueue,
+      Lazy<CompletedPreFills> completedPreFills,
       @Named("cache_pre_filling_network_strategies") Lazy<Map<CachePreFillThing, Preference<NetworkStrategy>>> preFillingNetworkStrategies)
   {
     this.appContext = appContext;
@@ -90,21 +91,40 @@ public class CachePreFiller {
     this.linkMetadataRepository = linkMetadataRepository;
     this.urlParser = urlParser;
     this.submissionImageLoader = submissionImageLoader;
+    this.asyncImageLoader = asyncImageLoader;
     this.preFillingNetworkStrategies = preFillingNetworkStrategies;
-    this.preFillingScheduler = preFillingScheduler;
+    this.preFillQueue = preFillQueue;
+    this.completedPreFills = completedPreFills;
   }
 
   private void log(String message, Object... args) {
     //Timber.d(message, args);
   }
 
+  /**
+   * @param position Position of the first visible submission. Used for prioritizing pre-fills.
+   */
+  public void updateScrollPosition(int position) {
+    preFillQueue.get().updateScrollPosition(position);
+  }
+
   @CheckResult
   public Completable preFillInParallelThreads(List<Submission> submissions, @Px int submissionAlbumLinkThumbnailWidth) {
     log("Pre-filling");
 
+    // Key: submission full-name. The same submission can show up twice if it moved between pages.
+    Map<String, Integer> submissionPositions = new HashMap<>(submissions.size());
+    List<Submission> uniqueSubmissions = new ArrayList<>(submissions.size());
+    for (int i = 0; i < submissions.size(); i++) {
+      Submission submission = submissions.get(i);
+      if (!submissionPositions.containsKey(submission.getFullName())) {
+        submissionPositions.put(submission.getFullName(), i);
+        uniqueSubmissions.add(submission);
+      }
+    }
+
     // WARNING: this Observable is intentionally not shared to allow parallel execution of its subscribers.
-    Observable<Pair<Submission, Link>> submissionAndContentLinkStream = Observable.fromIterable(submissions)
-        .take(SUBMISSION_LIMIT_PER_SUBREDDIT)
+    Observable<Pair<Submission, Link>> submissionAndContentLinkStream = Observable.fromIterable(uniqueSubmissions)
         .map(submission -> {
           Link contentLink = urlParser.get().parse(submission.getUrl(), submission);
           return Pair.create(submission, contentLink);
@@ -131,14 +151,15 @@ public class CachePreFiller {
 
           return submissionAndContentLinkStream
               .filter(submissionContentAreStaticImages())
-              .concatMap(submissionAndLink -> {
+              .flatMap(submissionAndLink -> {
                 Submission submission = submissionAndLink.first();
                 MediaLink mediaLink = (MediaLink) submissionAndLink.second();
-                return preFillImageOrAlbum(submission, mediaLink, submissionAlbumLinkThumbnailWidth)
-                    .subscribeOn(preFillingScheduler.get())
+                Completable preFill = Completable.defer(() -> preFillImageOrAlbum(submission, mediaLink, submissionAlbumLinkThumbnailWidth))
                     //.doOnSubscribe(d -> log("Caching image: %s", submissionAndLink.first().getTitle()))
                     //.doOnComplete(() -> log("Cached image: %s", submissionAndLink.first().getTitle()))
-                    .onErrorComplete()
+                    .onErrorComplete();
+                return preFillQueue.get()
+                    .enqueue(Resource.DECODE, submissionPositions.get(submission.getFullName()), preFill)
                     .toObservable();
               });
         });
@@ -156,13 +177,15 @@ public class CachePreFiller {
 
           return submissionAndContentLinkStream
               .filter(submissionContentIsExternalLink())
-              .concatMap(
-                  submissionAndLink -> preFillLinkMetadata(submissionAndLink.first(), submissionAndLink.second(), submissionAlbumLinkThumbnailWidth)
-                      .subscribeOn(preFillingScheduler.get())
-                      //.doOnSubscribe(d -> Timber.i("Caching link: %s", submissionAndLink.first().getTitle()))
-                      .toObservable()
-                      .onErrorResumeNext(Observable.empty())
-              );
+              .flatMap(submissionAndLink -> {
+                Submission submission = submissionAndLink.first();
+                Completable preFill = Completable.defer(() -> preFillLinkMetadata(submission, submissionAndLink.second(), submissionAlbumLinkThumbnailWidth))
+                    //.doOnSubscribe(d -> Timber.i("Caching link: %s", submissionAndLink.first().getTitle()))
+                    .onErrorComplete();
+                return preFillQueue.get()
+                    .enqueue(Resource.NETWORK, submissionPositions.get(submission.getFullName()), preFill)
+                    .toObservable();
+              });
         });
 
     // Comments.
@@ -176,11 +199,15 @@ public class CachePreFiller {
 
           //log("Pre-filling comments for %s submissions", submissions.size());
 
-          return submissionAndContentLinkStream.concatMap(submissionAndLink -> preFillComment(submissionAndLink.first())
-              .subscribeOn(preFillingScheduler.get())
-              //.doOnSubscribe(d -> Timber.i("Caching comments: %s", submissionAndLink.first().getTitle()))
-              .toObservable())
-              .onErrorResumeNext(Observable.empty());
+          return submissionAndContentLinkStream.flatMap(submissionAndLink -> {
+            Submission submission = submissionAndLink.first();
+            Completable preFill = Completable.defer(() -> preFillComment(submission))
+                //.doOnSubscribe(d -> Timber.i("Caching comments: %s", submissionAndLink.first().getTitle()))
+                .onErrorComplete();
+            return preFillQueue.get()
+                .enqueue(Resource.DISK, submissionPositions.get(submission.getFullName()), preFill)
+                .toObservable();
+          });
         });
 
     return Observable.merge(imageCachePreFillStream, linkCacheFillStream, commentCacheFillStream).ignoreElements();
@@ -216,18 +243,18 @@ public class CachePreFiller {
 
     Observable<Drawable> singleImageLoad = replayedResolvedLinks
         .filter(resolvedLink -> resolvedLink.isImageOrGif())
-        .flatMapSingle(resolvedLink -> submissionImageLoader.get().load(appContext, resolvedLink, submission.getPreview(), imageLoadOptions));
+        .flatMapSingle(resolvedLink -> submissionImageLoader.get().load(appContext, resolvedLink, submission.getPreview(), imageLoadOptions, RequestPriority.PRE_FILL));
 
     Observable<Drawable> albumImagesLoad = replayedResolvedLinks
         .filter(resolvedLink -> resolvedLink.isMediaAlbum())
         .cast(ImgurAlbumLink.class)
         .flatMap(albumLink -> {
           ImgurLink firstImage = albumLink.images().get(0);
-          Single<Drawable> firstImageLoad = submissionImageLoader.get().load(appContext, firstImage, imageLoadOptions);
+          Single<Drawable> firstImageLoad = submissionImageLoader.get().load(appContext, firstImage, null, imageLoadOptions, RequestPriority.PRE_FILL);
 
           ImageWithMultipleVariants redditSuppliedImages = ImageWithMultipleVariants.Companion.of(submission.getPreview());
           String optimizedCoverImageUrl = redditSuppliedImages.findNearestFor(submissionAlbumLinkThumbnailWidth, albumLink.coverImageUrl());
-          Single<Drawable> coverImageLoad = submissionImageLoader.get().loadImage(appContext, optimizedCoverImageUrl, imageLoadOptions);
+          Single<Drawable> coverImageLoad = submissionImageLoader.get().loadImage(appContext, optimizedCoverImageUrl, imageLoadOptions, RequestPriority.PRE_FILL);
 
           return coverImageLoad
               .mergeWith(firstImageLoad)
@@ -272,16 +299,12 @@ public class CachePreFiller {
           }
           return imagesToDownload;
         })
-        .flatMapCompletable(imageUrls -> Completable.fromAction(() -> {
-          for (String imageUrl : imageUrls) {
-            // Glide internally also maintains a queue, but we want to load them sequentially
-            // ourselves so that this Rx chain can be canceled later when the subreddit changes.
-            Glide.with(appContext)
-                .load(imageUrl)
-                .submit()
-                .get();
-          }
-        }))
+        // Glide internally also maintains a queue, but we want to load them sequentially
+        // ourselves so that this Rx chain can be canceled later when the subreddit changes.
+        .flatMapObservable(imageUrls -> Observable.fromIterable(imageUrls))
+        .concatMapCompletable(imageUrl -> asyncImageLoader.get()
+            .load(appContext, Priority.LOW, glide -> glide.load(GlideUtils.modelWithPriority(imageUrl, RequestPriority.PRE_FILL)))
+            .toCompletable())
         .doOnComplete(() -> log("Link done: %s", submission.getTitle()))
         .doOnComplete(() -> markThingAsPreFilled(submission, CachePreFillThing.LINK_METADATA));
   }
@@ -300,7 +323,7 @@ public class CachePreFiller {
         .commentSort(auditedSort)
         .build();
 
-    return submissionRepository.submissionWithComments(request)
+    return submissionRepository.submissionWithComments(request, RequestPriority.PRE_FILL)
         .take(1)
         .ignoreElements()
         .onErrorComplete()
@@ -309,10 +332,10 @@ public class CachePreFiller {
   }
 
   private boolean isThingAlreadyPreFilled(Submission submission, CachePreFillThing thing) {
-    return completedPreFills.contains(submission.getFullName() + "_" + thing.name());
+    return completedPreFills.get().contains(submission, thing);
   }
 
   private void markThingAsPreFilled(Submission submission, CachePreFillThing thing) {
-    completedPreFills.add(submission.getFullName() + "_" + thing.name());
+    completedPreFills.get().add(submission, thing);
   }
 }
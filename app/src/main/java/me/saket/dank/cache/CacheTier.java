@@ -0,0 +1,24 @@
+package me.saket.dank.cache;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * One of Dank's disk caches, whose size is enforced by {@link CacheBudgetManager}.
+ */
+public interface CacheTier {
+
+  String name();
+
+  /**
+   * Called on a background thread.
+   */
+  List<CachedItem> items() throws IOException;
+
+  /**
+   * Evicted together so that tiers can remove them in one pass.
+   *
+   * @param items Some of the items last returned by {@link #items()}.
+   */
+  void evict(List<CachedItem> items) throws IOException;
+}
@@ -0,0 +1,42 @@
+package me.saket.dank.cache;
+
+import android.support.annotation.Nullable;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Something stored by a {@link CacheTier} that can be evicted on its own.
+ */
+@AutoValue
+public abstract class CachedItem {
+
+  public abstract String tierName();
+
+  /**
+   * Unique within its tier.
+   */
+  public abstract String key();
+
+  public abstract long sizeBytes();
+
+  /**
+   * When the item was last read, or last written if its tier doesn't track reads.
+   */
+  public abstract long lastAccessTimeMillis();
+
+  /**
+   * How expensive fetching this item again is, relative to other items. Items with a higher
+   * cost are kept around for longer after they were last used.
+   */
+  public abstract float refetchCost();
+
+  /**
+   * Null if the item can't be attributed to a subreddit.
+   */
+  @Nullable
+  public abstract String subredditName();
+
+  public static CachedItem create(String tierName, String key, long sizeBytes, long lastAccessTimeMillis, float refetchCost, @Nullable String subredditName) {
+    return new AutoValue_CachedItem(tierName, key, sizeBytes, lastAccessTimeMillis, refetchCost, subredditName);
+  }
+}
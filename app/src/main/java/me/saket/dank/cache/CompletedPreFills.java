@@ -0,0 +1,86 @@
+package me.saket.dank.cache;
+
+import android.content.SharedPreferences;
+
+import net.dean.jraw.models.Submission;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import dagger.Lazy;
+import me.saket.dank.data.CachePreFillThing;
+
+/**
+ * Remembers things that were pre-filled by {@link CachePreFiller} across app restarts, so that they
+ * aren't fetched again. Entries expire after {@link #RETAIN_DURATION_MILLIS} because the caches they
+ * were written to get recycled too.
+ */
+@Singleton
+public class CompletedPreFills {
+
+  private static final long RETAIN_DURATION_MILLIS = TimeUnit.HOURS.toMillis(12);
+
+  private final Lazy<SharedPreferences> sharedPrefs;
+
+  /** Key: <submission-fullname>_<CachePreFillThing>, value: completion time. Lazily loaded from shared prefs. */
+  private volatile Map<String, Long> completionTimes;
+
+  @Inject
+  public CompletedPreFills(@Named("cache_pre_filling") Lazy<SharedPreferences> sharedPrefs) {
+    this.sharedPrefs = sharedPrefs;
+  }
+
+  public boolean contains(Submission submission, CachePreFillThing thing) {
+    Long completionTime = completionTimes().get(keyFor(submission, thing));
+    return completionTime != null && !isExpired(completionTime);
+  }
+
+  public void add(Submission submission, CachePreFillThing thing) {
+    String key = keyFor(submission, thing);
+    long now = System.currentTimeMillis();
+    completionTimes().put(key, now);
+    sharedPrefs.get().edit().putLong(key, now).apply();
+  }
+
+  private Map<String, Long> completionTimes() {
+    Map<String, Long> times = completionTimes;
+    if (times == null) {
+      synchronized (this) {
+        times = completionTimes;
+        if (times == null) {
+          times = readAndRecycleCompletionTimes();
+          completionTimes = times;
+        }
+      }
+    }
+    return times;
+  }
+
+  private Map<String, Long> readAndRecycleCompletionTimes() {
+    Map<String, ?> savedValues = sharedPrefs.get().getAll();
+    Map<String, Long> times = new ConcurrentHashMap<>(savedValues.size());
+    SharedPreferences.Editor expiredEntriesRemover = sharedPrefs.get().edit();
+
+    for (Map.Entry<String, ?> entry : savedValues.entrySet()) {
+      if (entry.getValue() instanceof Long && !isExpired((Long) entry.getValue())) {
+        times.put(entry.getKey(), (Long) entry.getValue());
+      } else {
+        expiredEntriesRemover.remove(entry.getKey());
+      }
+    }
+    expiredEntriesRemover.apply();
+    return times;
+  }
+
+  private static boolean isExpired(long completionTime) {
+    return System.currentTimeMillis() - completionTime > RETAIN_DURATION_MILLIS;
+  }
+
+  private static String keyFor(Submission submission, CachePreFillThing thing) {
+    return submission.getFullName() + "_" + thing.name();
+  }
+}
@@ -14,15 +14,20 @@ import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.BuildConfig;
 import me.saket.dank.DankJobService;
 import me.saket.dank.di.Dank;
+import me.saket.dank.reply.ReplyRepository;
 import me.saket.dank.ui.submission.SubmissionRepository;
 import timber.log.Timber;
 
 /**
- * Runs every day, recycles DB rows older than 30 days (1 for debug variants).
+ * Runs every day, recycles DB rows older than 30 days (1 for debug variants) and reply drafts
+ * older than {@link ReplyRepository}'s retain duration. Caches are then trimmed to fit within
+ * {@link CacheBudgetManager}'s budget.
  */
 public class DatabaseCacheRecyclerJobService extends DankJobService {
 
   @Inject SubmissionRepository submissionRepository;
+  @Inject ReplyRepository replyRepository;
+  @Inject CacheBudgetManager cacheBudgetManager;
 
   public static void schedule(Context context) {
     JobInfo.Builder builder = new JobInfo.Builder(ID_RECYCLE_OLD_SUBMISSIONS, new ComponentName(context, DatabaseCacheRecyclerJobService.class))
@@ -59,6 +64,8 @@ public class DatabaseCacheRecyclerJobService extends DankJobService {
         durationTimeUnit.toDays(durationFromNow));
 
     submissionRepository.recycleAllCachedBefore(durationFromNow, durationTimeUnit)
+        .zipWith(replyRepository.recycleOldDrafts(), (deletedSubmissionRows, deletedDraftRows) -> deletedSubmissionRows + deletedDraftRows)
+        .flatMap(deletedRows -> cacheBudgetManager.enforceBudget().map(usage -> deletedRows))
         .subscribeOn(Schedulers.io())
         .takeUntil(lifecycleOnDestroy().ignoreElements())
         .subscribe(
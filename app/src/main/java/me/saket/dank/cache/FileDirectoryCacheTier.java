@@ -0,0 +1,155 @@
+package me.saket.dank.cache;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import dagger.Lazy;
+import me.saket.dank.utils.glide.GlideDiskCache;
+import okhttp3.Cache;
+import okio.ByteString;
+
+/**
+ * A cache that stores its entries as files in a directory. This covers every DiskLruCache (Glide's, OkHttp's
+ * and Store's) and the video cache.
+ * <p>
+ * DiskLruCache stores values of an entry as "key.0", "key.1", etc. and these are evicted together.
+ * Journals and files that are still being written are skipped. An entry's last access time is the latest
+ * modification time of its files, which each cache updates when the entry is read.
+ */
+public class FileDirectoryCacheTier implements CacheTier {
+
+  private final String name;
+  private final File directory;
+  private final float refetchCost;
+  private final Evictor evictor;
+
+  public FileDirectoryCacheTier(String name, File directory, float refetchCost, Evictor evictor) {
+    this.name = name;
+    this.directory = directory;
+    this.refetchCost = refetchCost;
+    this.evictor = evictor;
+  }
+
+  @Override
+  public String name() {
+    return name;
+  }
+
+  @Override
+  public List<CachedItem> items() {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return Collections.emptyList();
+    }
+
+    Map<String, long[]> sizeAndLastAccessByKey = new HashMap<>(files.length);
+    for (File file : files) {
+      if (!file.isFile() || isSkipped(file.getName())) {
+        continue;
+      }
+
+      String key = keyOf(file.getName());
+      long[] sizeAndLastAccess = sizeAndLastAccessByKey.get(key);
+      if (sizeAndLastAccess == null) {
+        sizeAndLastAccess = new long[2];
+        sizeAndLastAccessByKey.put(key, sizeAndLastAccess);
+      }
+      sizeAndLastAccess[0] += file.length();
+      sizeAndLastAccess[1] = Math.max(sizeAndLastAccess[1], file.lastModified());
+    }
+
+    List<CachedItem> items = new ArrayList<>(sizeAndLastAccessByKey.size());
+    for (Map.Entry<String, long[]> entry : sizeAndLastAccessByKey.entrySet()) {
+      long[] sizeAndLastAccess = entry.getValue();
+      items.add(CachedItem.create(name, entry.getKey(), sizeAndLastAccess[0], sizeAndLastAccess[1], refetchCost, null));
+    }
+    return items;
+  }
+
+  @Override
+  public void evict(List<CachedItem> items) throws IOException {
+    Set<String> keys = new HashSet<>(items.size());
+    for (CachedItem item : items) {
+      keys.add(item.key());
+    }
+    evictor.evict(keys);
+  }
+
+  /**
+   * Removes entries through the cache that owns them, so that its journal and size stay correct.
+   */
+  public interface Evictor {
+    /**
+     * @param keys Names of the entries' files, without their extensions.
+     */
+    void evict(Set<String> keys) throws IOException;
+  }
+
+  public static Evictor diskLruCacheEvictor(Lazy<DiskLruCache> diskLruCache) {
+    return keys -> {
+      for (String key : keys) {
+        diskLruCache.get().remove(key);
+      }
+    };
+  }
+
+  public static Evictor glideDiskCacheEvictor(Lazy<GlideDiskCache> glideDiskCache) {
+    return keys -> {
+      for (String key : keys) {
+        glideDiskCache.get().remove(key);
+      }
+    };
+  }
+
+  /**
+   * OkHttp names its entries after the MD5 of their URLs and can only remove them through its URL iterator.
+   */
+  public static Evictor okHttpCacheEvictor(Cache okHttpCache) {
+    return keys -> {
+      Iterator<String> urls = okHttpCache.urls();
+      while (urls.hasNext()) {
+        if (keys.contains(ByteString.encodeUtf8(urls.next()).md5().hex())) {
+          urls.remove();
+        }
+      }
+    };
+  }
+
+  /**
+   * For caches that can't remove entries themselves and tolerate files that get deleted from under them.
+   */
+  public static Evictor fileDeletingEvictor(File directory) {
+    return keys -> {
+      File[] files = directory.listFiles();
+      if (files == null) {
+        return;
+      }
+      for (File file : files) {
+        if (file.isFile() && !isSkipped(file.getName()) && keys.contains(keyOf(file.getName()))) {
+          if (!file.delete() && file.exists()) {
+            throw new IOException("Couldn't delete " + file);
+          }
+        }
+      }
+    };
+  }
+
+  static boolean isSkipped(String fileName) {
+    return fileName.startsWith("journal") || fileName.endsWith(".tmp") || fileName.endsWith(".download");
+  }
+
+  static String keyOf(String fileName) {
+    int extensionStart = fileName.lastIndexOf('.');
+    return extensionStart > 0 ? fileName.substring(0, extensionStart) : fileName;
+  }
+}
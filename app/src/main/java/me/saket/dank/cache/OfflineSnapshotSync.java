@@ -0,0 +1,225 @@
+package me.saket.dank.cache;
+
+import android.app.Application;
+import android.support.annotation.CheckResult;
+
+import com.f2prateek.rx.preferences2.Preference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import dagger.Lazy;
+import io.reactivex.Single;
+import me.saket.dank.data.AppDatabase;
+import me.saket.dank.reddit.Reddit;
+import me.saket.dank.ui.submission.CachedFolderSize;
+import me.saket.dank.ui.submission.CachedSubmissionFolder;
+import me.saket.dank.ui.submission.FolderSnapshotTooLargeException;
+import me.saket.dank.ui.submission.SavedFolderSnapshot;
+import me.saket.dank.ui.submission.SortingAndTimePeriod;
+import me.saket.dank.ui.submission.SubmissionRepository;
+import me.saket.dank.ui.submission.SubmissionRepository.OfflineSnapshot;
+import me.saket.dank.utils.okhttp.ResponseByteCounter;
+import timber.log.Timber;
+
+/**
+ * Syncs subreddits chosen by the user for reading them offline. The first {@link #SUBMISSIONS_PER_SUBREDDIT}
+ * submissions of each subreddit are fetched along with the comments of the first {@link #COMMENT_TREES_PER_SUBREDDIT},
+ * and replace the subreddit's folder in a single transaction. Opening the subreddit later only reads from the DB.
+ * <p>
+ * Subreddits are synced in alphabetical order, until the next one doesn't fit within the storage ceiling. Its size
+ * is estimated before it's fetched, so that a subreddit that's not going to fit doesn't get fetched only to be thrown
+ * away, and is checked again while it's saved. Run by {@link OfflineSyncJobService}.
+ */
+@Singleton
+public class OfflineSnapshotSync {
+
+  static final int SUBMISSIONS_PER_SUBREDDIT = 100;
+  static final int COMMENT_TREES_PER_SUBREDDIT = 25;
+  private static final int MAX_STORED_RUNS = 30;
+
+  /**
+   * Only the folder that a subreddit opens with is synced.
+   */
+  private static final SortingAndTimePeriod SYNCED_SORTING = SortingAndTimePeriod.create(Reddit.Companion.getDEFAULT_SUBREDDIT_SORT());
+
+  private final Application appContext;
+  private final Lazy<SubmissionRepository> submissionRepository;
+  private final Lazy<AppDatabase> database;
+  private final Preference<Set<String>> subredditNames;
+  private final Preference<Long> storageCeilingBytes;
+
+  /** Sizes of snapshots that were fetched but didn't fit within the storage ceiling. */
+  private final Map<String, Long> unsavedSnapshotBytes = new ConcurrentHashMap<>();
+
+  @Inject
+  public OfflineSnapshotSync(
+      Application appContext,
+      Lazy<SubmissionRepository> submissionRepository,
+      Lazy<AppDatabase> database,
+      @Named("offline_sync_subreddits") Preference<Set<String>> subredditNames,
+      @Named("offline_sync_storage_ceiling_bytes") Preference<Long> storageCeilingBytes)
+  {
+    this.appContext = appContext;
+    this.submissionRepository = submissionRepository;
+    this.database = database;
+    this.subredditNames = subredditNames;
+    this.storageCeilingBytes = storageCeilingBytes;
+  }
+
+  public boolean isSynced(String subredditName) {
+    return subredditNames.get().contains(subredditName);
+  }
+
+  /**
+   * Also schedules {@link OfflineSyncJobService}, or cancels it if no subreddits are left to sync.
+   */
+  public void setSynced(String subredditName, boolean synced) {
+    Set<String> updatedNames = new HashSet<>(subredditNames.get());
+    if (synced) {
+      updatedNames.add(subredditName);
+    } else {
+      updatedNames.remove(subredditName);
+    }
+    subredditNames.set(updatedNames);
+
+    if (updatedNames.isEmpty()) {
+      OfflineSyncJobService.cancel(appContext);
+    } else {
+      OfflineSyncJobService.schedule(appContext);
+    }
+  }
+
+  /**
+   * Requests are counted on the subscribing thread, so this expects to run on a thread that makes them synchronously.
+   */
+  @CheckResult
+  public Single<OfflineSyncRun> sync() {
+    return Single.create(emitter -> {
+      long startTimeMillis = System.currentTimeMillis();
+      long startTimeNanos = System.nanoTime();
+      ResponseByteCounter byteCounter = new ResponseByteCounter();
+      byteCounter.attachToCurrentThread();
+
+      List<String> names = new ArrayList<>(subredditNames.get());
+      Collections.sort(names, String.CASE_INSENSITIVE_ORDER);
+      long ceilingBytes = storageCeilingBytes.get();
+
+      Map<String, Long> syncedBytesBySubreddit = new HashMap<>(names.size());
+      long syncedBytes = 0;
+      for (CachedFolderSize folder : database.get().submissionDao().folderSizes()) {
+        if (folder.getSortingAndTimePeriod().equals(SYNCED_SORTING) && names.contains(folder.getSubredditName())) {
+          syncedBytesBySubreddit.put(folder.getSubredditName(), folder.getBytes());
+          syncedBytes += folder.getBytes();
+        }
+      }
+
+      // Existing snapshots and the ones fetched in this run.
+      Map<String, Long> knownBytesBySubreddit = new HashMap<>(syncedBytesBySubreddit);
+
+      int writtenRowCount = 0;
+      int syncedCount = 0;
+      int failedCount = 0;
+      int skippedCount = 0;
+
+      try {
+        for (int i = 0; i < names.size() && !emitter.isDisposed(); i++) {
+          String subredditName = names.get(i);
+          Long existingBytes = syncedBytesBySubreddit.get(subredditName);
+          long otherSubredditsBytes = syncedBytes - (existingBytes != null ? existingBytes : 0);
+          long estimatedBytes = estimateSnapshotBytes(subredditName, knownBytesBySubreddit);
+          if (otherSubredditsBytes >= ceilingBytes || otherSubredditsBytes + estimatedBytes > ceilingBytes) {
+            Timber.i("%s probably doesn't fit within the storage ceiling for offline reading", subredditName);
+            skippedCount = names.size() - i;
+            break;
+          }
+
+          OfflineSnapshot snapshot;
+          try {
+            CachedSubmissionFolder folder = CachedSubmissionFolder.create(subredditName, SYNCED_SORTING);
+            snapshot = submissionRepository.get().fetchOfflineSnapshot(folder, SUBMISSIONS_PER_SUBREDDIT, COMMENT_TREES_PER_SUBREDDIT);
+          } catch (RuntimeException e) {
+            Timber.e(e, "Couldn't sync %s for offline reading", subredditName);
+            failedCount++;
+            continue;
+          }
+
+          SavedFolderSnapshot savedSnapshot;
+          try {
+            savedSnapshot = submissionRepository.get().saveOfflineSnapshot(snapshot, ceilingBytes - otherSubredditsBytes);
+          } catch (FolderSnapshotTooLargeException e) {
+            Timber.i("%s doesn't fit within the storage ceiling for offline reading", subredditName);
+            knownBytesBySubreddit.put(subredditName, e.bytes());
+            unsavedSnapshotBytes.put(subredditName, e.bytes());
+            skippedCount = names.size() - i;
+            break;
+          }
+
+          knownBytesBySubreddit.put(subredditName, savedSnapshot.getBytes());
+          unsavedSnapshotBytes.remove(subredditName);
+          writtenRowCount += savedSnapshot.getWrittenRowCount();
+          syncedBytes = otherSubredditsBytes + savedSnapshot.getBytes();
+          syncedCount++;
+        }
+
+      } finally {
+        byteCounter.detachFromCurrentThread();
+      }
+
+      OfflineSyncRun run = new OfflineSyncRun(
+          startTimeMillis,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimeNanos),
+          byteCounter.byteCount(),
+          writtenRowCount,
+          syncedCount,
+          failedCount,
+          skippedCount);
+
+      OfflineSyncRunDao runDao = database.get().offlineSyncRunDao();
+      runDao.save(run);
+      runDao.deleteAllExceptLatest(MAX_STORED_RUNS);
+      Timber.i("Synced for offline reading: %s", run);
+
+      emitter.onSuccess(run);
+    });
+  }
+
+  /**
+   * The size of the last snapshot of <var>subredditName</var> that didn't fit, or else of its saved snapshot. Subreddits
+   * that haven't been fetched yet are assumed to be as large as the average of the others, or empty if there are none.
+   */
+  private long estimateSnapshotBytes(String subredditName, Map<String, Long> knownBytesBySubreddit) {
+    Long unsavedBytes = unsavedSnapshotBytes.get(subredditName);
+    if (unsavedBytes != null) {
+      return unsavedBytes;
+    }
+    Long knownBytes = knownBytesBySubreddit.get(subredditName);
+    if (knownBytes != null) {
+      return knownBytes;
+    }
+    if (knownBytesBySubreddit.isEmpty()) {
+      return 0;
+    }
+
+    long totalBytes = 0;
+    for (long bytes : knownBytesBySubreddit.values()) {
+      totalBytes += bytes;
+    }
+    return totalBytes / knownBytesBySubreddit.size();
+  }
+
+  @CheckResult
+  public Single<List<OfflineSyncRun>> latestRuns(int count) {
+    return Single.fromCallable(() -> database.get().offlineSyncRunDao().latestRuns(count));
+  }
+}
@@ -0,0 +1,84 @@
+package me.saket.dank.cache;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import io.reactivex.Scheduler;
+import me.saket.dank.DankJobService;
+import me.saket.dank.di.Dank;
+import timber.log.Timber;
+
+/**
+ * Runs {@link OfflineSnapshotSync} every ~6 hours when the device is charging and on an unmetered connection.
+ */
+public class OfflineSyncJobService extends DankJobService {
+
+  @Inject OfflineSnapshotSync offlineSnapshotSync;
+  @Inject @Named("offline_sync") Scheduler offlineSyncScheduler;
+
+  public static void schedule(Context context) {
+    JobInfo.Builder builder = new JobInfo.Builder(ID_OFFLINE_SYNC, new ComponentName(context, OfflineSyncJobService.class))
+        .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+        .setRequiresCharging(true)
+        .setPersisted(true)
+        .setPeriodic(TimeUnit.HOURS.toMillis(6));
+
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      builder = builder.setRequiresBatteryNotLow(true);
+    }
+
+    JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    //noinspection ConstantConditions
+    jobScheduler.schedule(builder.build());
+  }
+
+  public static void cancel(Context context) {
+    JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    //noinspection ConstantConditions
+    jobScheduler.cancel(ID_OFFLINE_SYNC);
+  }
+
+  @Override
+  public void onCreate() {
+    Dank.dependencyInjector().inject(this);
+    super.onCreate();
+  }
+
+  @Override
+  public JobStartCallback onStartJob2(JobParameters params) {
+    offlineSnapshotSync.sync()
+        .subscribeOn(offlineSyncScheduler)
+        .takeUntil(lifecycleOnDestroy().ignoreElements())
+        .subscribe(
+            run -> {
+              displayDebugNotification(
+                  ID_DEBUG_OFFLINE_SYNC,
+                  "Synced %s subreddits for offline reading in %sms",
+                  run.getSyncedSubredditCount(),
+                  run.getWallTimeMillis());
+              jobFinished(params, false);
+            },
+            error -> {
+              Timber.e(error, "Couldn't sync subreddits for offline reading");
+              jobFinished(params, false);
+            }
+        );
+
+    return JobStartCallback.runningInBackground();
+  }
+
+  @Override
+  public JobStopCallback onStopJob2() {
+    // Subreddits that were already saved stay saved. The job is periodic,
+    // so the next run syncs every subreddit again from the first one.
+    return JobStopCallback.drop();
+  }
+}
@@ -0,0 +1,41 @@
+package me.saket.dank.cache
+
+import android.arch.persistence.room.Dao
+import android.arch.persistence.room.Entity
+import android.arch.persistence.room.Insert
+import android.arch.persistence.room.OnConflictStrategy
+import android.arch.persistence.room.PrimaryKey
+import android.arch.persistence.room.Query
+
+/**
+ * Stats of one run of [OfflineSnapshotSync].
+ */
+@Entity
+data class OfflineSyncRun(
+    @PrimaryKey
+    val startTimeMillis: Long,
+    val wallTimeMillis: Long,
+
+    /** Bytes of response bodies received over the network, before they were decompressed. */
+    val fetchedBytes: Long,
+
+    val writtenRowCount: Int,
+    val syncedSubredditCount: Int,
+    val failedSubredditCount: Int,
+
+    /** Subreddits that were left out because they didn't fit within the storage ceiling. */
+    val skippedSubredditCount: Int
+)
+
+@Dao
+interface OfflineSyncRunDao {
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  fun save(run: OfflineSyncRun)
+
+  @Query("SELECT * FROM offlinesyncrun ORDER BY startTimeMillis DESC LIMIT :count")
+  fun latestRuns(count: Int): List<OfflineSyncRun>
+
+  @Query("DELETE FROM offlinesyncrun \nWHERE startTimeMillis <= (\n  SELECT startTimeMillis FROM offlinesyncrun \n  ORDER BY startTimeMillis DESC \n  LIMIT 1 OFFSET :keepCount)")
+  fun deleteAllExceptLatest(keepCount: Int)
+}
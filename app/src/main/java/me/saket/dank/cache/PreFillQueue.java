@@ -0,0 +1,273 @@
+package me.saket.dank.cache;
+
+import android.support.annotation.CheckResult;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableObserver;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Runs pre-fill work for submissions in the order of their distance from the user's scroll position,
+ * with a separate concurrency limit for each {@link Resource}.
+ * <p>
+ * Work for submissions that are out of {@link #PRE_FILL_RANGE} is not started, and is canceled if it
+ * was already running. It gets picked up again if the user scrolls back near its submission.
+ */
+@Singleton
+public class PreFillQueue {
+
+  /**
+   * Distance (in rows) from the scroll position within which submissions are pre-filled.
+   * Submissions above the scroll position count twice their distance.
+   */
+  static final int PRE_FILL_RANGE = 30;
+
+  public enum Resource {
+    /** Network calls with small responses. Used for unfurling links. */
+    NETWORK(2),
+    /** Downloading and decoding images. */
+    DECODE(2),
+    /** Work dominated by DB writes. Used for comments. */
+    DISK(1);
+
+    final int maxConcurrency;
+
+    Resource(int maxConcurrency) {
+      this.maxConcurrency = maxConcurrency;
+    }
+  }
+
+  private final Scheduler workScheduler;
+  private final Map<Resource, Lane> lanes = new EnumMap<>(Resource.class);
+  private volatile int scrollPosition;
+
+  @Inject
+  public PreFillQueue(@Named("cache_pre_filling") Scheduler workScheduler) {
+    this.workScheduler = workScheduler;
+    for (Resource resource : Resource.values()) {
+      lanes.put(resource, new Lane(resource.maxConcurrency));
+    }
+  }
+
+  /**
+   * @param listPosition Position of the submission this work belongs to.
+   * @return Completes when <var>work</var> completes. Disposing removes the work from this queue.
+   */
+  @CheckResult
+  public Completable enqueue(Resource resource, int listPosition, Completable work) {
+    return Completable.create(emitter -> {
+      Lane lane = lanes.get(resource);
+      Task task = new Task(lane, listPosition, work, emitter);
+      emitter.setCancellable(task::cancel);
+      lane.add(task);
+    });
+  }
+
+  /**
+   * @param position Position of the first visible submission.
+   */
+  public void updateScrollPosition(int position) {
+    if (scrollPosition == position) {
+      return;
+    }
+    scrollPosition = position;
+    for (Lane lane : lanes.values()) {
+      lane.onScrollPositionChanged();
+    }
+  }
+
+  private int distanceFromScrollPosition(int listPosition) {
+    int scrollPosition = this.scrollPosition;
+    return listPosition >= scrollPosition
+        ? listPosition - scrollPosition
+        : (scrollPosition - listPosition) * 2;
+  }
+
+  private boolean isInRange(Task task) {
+    return distanceFromScrollPosition(task.listPosition) <= PRE_FILL_RANGE;
+  }
+
+  /**
+   * Pending and running tasks of a {@link Resource}.
+   */
+  private class Lane {
+    private final int maxConcurrency;
+    private final List<Task> pendingTasks = new ArrayList<>();
+    private final List<Task> runningTasks = new ArrayList<>();
+
+    Lane(int maxConcurrency) {
+      this.maxConcurrency = maxConcurrency;
+    }
+
+    void add(Task task) {
+      synchronized (this) {
+        pendingTasks.add(task);
+      }
+      dispatch();
+    }
+
+    void remove(Task task) {
+      synchronized (this) {
+        pendingTasks.remove(task);
+      }
+    }
+
+    void onFinish(Task task) {
+      synchronized (this) {
+        runningTasks.remove(task);
+      }
+      dispatch();
+    }
+
+    void onScrollPositionChanged() {
+      List<Task> parkedTasks = new ArrayList<>();
+      synchronized (this) {
+        for (int i = runningTasks.size() - 1; i >= 0; i--) {
+          Task task = runningTasks.get(i);
+          if (!isInRange(task) && task.state.compareAndSet(Task.RUNNING, Task.PENDING)) {
+            runningTasks.remove(i);
+            pendingTasks.add(task);
+            parkedTasks.add(task);
+          }
+        }
+      }
+      // Parked tasks start again once they're back in range.
+      for (Task task : parkedTasks) {
+        task.disposeWork();
+      }
+      dispatch();
+    }
+
+    /**
+     * Starts the closest in-range tasks until this lane is full.
+     */
+    void dispatch() {
+      List<Runnable> taskStarts = new ArrayList<>(maxConcurrency);
+      synchronized (this) {
+        while (runningTasks.size() < maxConcurrency) {
+          Task closestTask = null;
+          int closestDistance = PRE_FILL_RANGE;
+          for (Task task : pendingTasks) {
+            int distance = distanceFromScrollPosition(task.listPosition);
+            if (distance <= closestDistance && (closestTask == null || distance < closestDistance)) {
+              closestTask = task;
+              closestDistance = distance;
+            }
+          }
+          if (closestTask == null) {
+            break;
+          }
+          pendingTasks.remove(closestTask);
+          if (closestTask.state.compareAndSet(Task.PENDING, Task.RUNNING)) {
+            runningTasks.add(closestTask);
+            Task taskToStart = closestTask;
+            int run = taskToStart.runCount.incrementAndGet();
+            taskStarts.add(() -> taskToStart.start(workScheduler, run));
+          }
+        }
+      }
+
+      // Started outside the lock because the work can complete synchronously.
+      for (Runnable taskStart : taskStarts) {
+        taskStart.run();
+      }
+    }
+  }
+
+  private static class Task {
+    private static final int PENDING = 0;
+    private static final int RUNNING = 1;
+    private static final int FINISHED = 2;
+
+    private final Lane lane;
+    private final int listPosition;
+    private final Completable work;
+    private final CompletableEmitter emitter;
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+    /** Incremented every time this task is dispatched, so that a run can tell if it was parked and restarted. */
+    private final AtomicInteger runCount = new AtomicInteger();
+    private Disposable workDisposable;
+
+    Task(Lane lane, int listPosition, Completable work, CompletableEmitter emitter) {
+      this.lane = lane;
+      this.listPosition = listPosition;
+      this.work = work;
+      this.emitter = emitter;
+    }
+
+    void start(Scheduler scheduler, int run) {
+      work
+          .subscribeOn(scheduler)
+          .subscribe(new CompletableObserver() {
+            @Override
+            public void onSubscribe(Disposable disposable) {
+              // Stored here rather than after subscribe() returns so
+              // that parking or canceling can always reach the work.
+              onWorkSubscribed(run, disposable);
+            }
+
+            @Override
+            public void onComplete() {
+              if (finish()) {
+                emitter.onComplete();
+              }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+              if (finish()) {
+                emitter.tryOnError(error);
+              }
+            }
+          });
+    }
+
+    private synchronized void onWorkSubscribed(int run, Disposable disposable) {
+      if (state.get() == RUNNING && runCount.get() == run) {
+        workDisposable = disposable;
+      } else {
+        // Canceled, or parked (and maybe started again) before this run subscribed.
+        disposable.dispose();
+      }
+    }
+
+    private boolean finish() {
+      if (state.compareAndSet(RUNNING, FINISHED)) {
+        lane.onFinish(this);
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * Called when the subscriber disposes, and after this task terminates.
+     */
+    void cancel() {
+      int previousState = state.getAndSet(FINISHED);
+      if (previousState == PENDING) {
+        lane.remove(this);
+      } else if (previousState == RUNNING) {
+        disposeWork();
+        lane.onFinish(this);
+      }
+    }
+
+    synchronized void disposeWork() {
+      if (workDisposable != null) {
+        workDisposable.dispose();
+        workDisposable = null;
+      }
+    }
+  }
+}
@@ -4,6 +4,7 @@ import com.jakewharton.disklrucache.DiskLruCache;
 import com.nytimes.android.external.fs3.filesystem.FileSystem;
 import com.nytimes.android.external.store3.base.RecordState;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -12,18 +13,23 @@ import java.util.concurrent.TimeUnit;
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 
+import dagger.Lazy;
 import io.reactivex.exceptions.Exceptions;
 import okio.BufferedSink;
 import okio.BufferedSource;
 import okio.Okio;
 import timber.log.Timber;
 
+/**
+ * The cache is lazily opened on first use, because opening it reads its journal from the disk and this
+ * class gets injected into repositories that are created on app startup.
+ */
 public class StoreLruFileSystem implements FileSystem {
 
-  private final DiskLruCache lruCache;
+  private final Lazy<DiskLruCache> lruCache;
 
   @Inject
-  public StoreLruFileSystem(DiskLruCache lruCache) {
+  public StoreLruFileSystem(Lazy<DiskLruCache> lruCache) {
     this.lruCache = lruCache;
   }
 
@@ -31,10 +37,14 @@ public class StoreLruFileSystem implements FileSystem {
   @Override
   public BufferedSource read(String path) {
     try {
-      DiskLruCache.Snapshot snapshot = lruCache.get(path);
+      DiskLruCache.Snapshot snapshot = lruCache.get().get(path);
       if (snapshot == null) {
         throw new FileNotFoundException(path);
       }
+      // DiskLruCache doesn't touch the files of entries that it reads, which CacheBudgetManager
+      // uses for finding entries that haven't been used in a while.
+      //noinspection ResultOfMethodCallIgnored
+      new File(lruCache.get().getDirectory(), path + ".0").setLastModified(System.currentTimeMillis());
       return Okio.buffer(Okio.source(snapshot.getInputStream(0)));
 
     } catch (IOException e) {
@@ -44,7 +54,7 @@ public class StoreLruFileSystem implements FileSystem {
 
   @Override
   public void write(String path, BufferedSource source) throws IOException {
-    DiskLruCache.Editor editor = lruCache.edit(path);
+    DiskLruCache.Editor editor = lruCache.get().edit(path);
     try {
       if (editor == null) {
         Timber.i("Another edit to the same path is already in progress: %s", path);
@@ -65,18 +75,18 @@ public class StoreLruFileSystem implements FileSystem {
 
   @Override
   public void delete(String path) throws IOException {
-    lruCache.remove(path);
+    lruCache.get().remove(path);
   }
 
   @Override
   public void deleteAll(String path) throws IOException {
-    lruCache.delete();
+    lruCache.get().delete();
   }
 
   @Override
   public boolean exists(String path) {
     try {
-      return lruCache.get(path) != null;
+      return lruCache.get().get(path) != null;
     } catch (IOException e) {
       throw Exceptions.propagate(e);
     }
@@ -0,0 +1,62 @@
+package me.saket.dank.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import dagger.Lazy;
+import me.saket.dank.data.AppDatabase;
+import me.saket.dank.ui.submission.CachedFolderSize;
+
+/**
+ * Submission folders stored in the DB, along with the comments of their submissions. Sizes are estimated
+ * from the stored JSON, so they don't include SQLite's own overhead.
+ */
+public class SubmissionFolderCacheTier implements CacheTier {
+
+  /**
+   * Submissions are read offline and pre-filled in the background, which makes them the most
+   * expensive to lose of all caches.
+   */
+  private static final float REFETCH_COST = 4f;
+
+  private final Lazy<AppDatabase> database;
+  private final Map<String, CachedFolderSize> lastListedFolders = new ConcurrentHashMap<>();
+
+  public SubmissionFolderCacheTier(Lazy<AppDatabase> database) {
+    this.database = database;
+  }
+
+  @Override
+  public String name() {
+    return "submissions";
+  }
+
+  /**
+   * Folders aren't tracked when they're read, so their last save time is used as their last access time.
+   */
+  @Override
+  public List<CachedItem> items() {
+    List<CachedFolderSize> folders = database.get().submissionDao().folderSizes();
+    List<CachedItem> items = new ArrayList<>(folders.size());
+
+    lastListedFolders.clear();
+    for (CachedFolderSize folder : folders) {
+      String key = folder.getSubredditName() + "_" + folder.getSortingAndTimePeriod().serialize();
+      lastListedFolders.put(key, folder);
+      items.add(CachedItem.create(name(), key, folder.getBytes(), folder.getLastSaveTimeMillis(), REFETCH_COST, folder.getSubredditName()));
+    }
+    return items;
+  }
+
+  @Override
+  public void evict(List<CachedItem> items) {
+    for (CachedItem item : items) {
+      CachedFolderSize folder = lastListedFolders.remove(item.key());
+      if (folder != null) {
+        database.get().submissionDao().deleteFolder(folder.getSubredditName(), folder.getSortingAndTimePeriod());
+      }
+    }
+  }
+}
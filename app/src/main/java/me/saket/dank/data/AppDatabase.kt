@@ -1,30 +1,88 @@
 package me.saket.dank.data
 
+import android.arch.persistence.db.SupportSQLiteDatabase
 import android.arch.persistence.room.Database
 import android.arch.persistence.room.RoomDatabase
 import android.arch.persistence.room.TypeConverters
+import android.arch.persistence.room.migration.Migration
+import me.saket.dank.cache.OfflineSyncRun
+import me.saket.dank.cache.OfflineSyncRunDao
+import me.saket.dank.ui.submission.CachedComment
+import me.saket.dank.ui.submission.CachedFolderSnapshot
 import me.saket.dank.ui.submission.CachedSubmission
 import me.saket.dank.ui.submission.CachedSubmissionComments
 import me.saket.dank.ui.submission.CachedSubmissionDao
 import me.saket.dank.ui.submission.CachedSubmissionId2
 import me.saket.dank.ui.submission.DankSubmissionRequestRoomTypeConverter
-import me.saket.dank.ui.submission.RepliesRoomTypeConverter
 import me.saket.dank.ui.submission.SortingAndTimePeriodRoomTypeConverter
 import me.saket.dank.ui.submission.SubmissionRoomTypeConverter
+import timber.log.Timber
 
 @Database(
     entities = [
       CachedSubmission::class,
       CachedSubmissionComments::class,
-      CachedSubmissionId2::class],
-    version = 1,
+      CachedComment::class,
+      CachedSubmissionId2::class,
+      CachedFolderSnapshot::class,
+      OfflineSyncRun::class],
+    version = 6,
     exportSchema = false)
 @TypeConverters(
     SubmissionRoomTypeConverter::class,
-    RepliesRoomTypeConverter::class,
     DankSubmissionRequestRoomTypeConverter::class,
     SortingAndTimePeriodRoomTypeConverter::class)
 abstract class AppDatabase : RoomDatabase() {
 
   abstract fun submissionDao(): CachedSubmissionDao
+
+  abstract fun offlineSyncRunDao(): OfflineSyncRunDao
+
+  companion object {
+
+    @JvmField
+    val MIGRATIONS = arrayOf<Migration>(
+        object : Migration(1, 2) {
+          override fun migrate(database: SupportSQLiteDatabase) {
+            Timber.d("Resetting cached comments")
+            // Comment trees are now stored in a binary format instead of JSON.
+            // They're only a cache, so they're dropped instead of being converted.
+            database.execSQL("DROP TABLE IF EXISTS `CachedSubmissionComments`")
+            database.execSQL("CREATE TABLE IF NOT EXISTS `CachedSubmissionComments` (`submissionId` TEXT NOT NULL, `replies` BLOB NOT NULL, `request` TEXT NOT NULL, `saveTimeMillis` INTEGER NOT NULL, PRIMARY KEY(`request`))")
+          }
+        },
+        object : Migration(2, 3) {
+          override fun migrate(database: SupportSQLiteDatabase) {
+            Timber.d("Resetting cached comments")
+            // Comment trees are now stored as one row per comment.
+            database.execSQL("DROP TABLE IF EXISTS `CachedSubmissionComments`")
+            database.execSQL("CREATE TABLE IF NOT EXISTS `CachedSubmissionComments` (`submissionId` TEXT NOT NULL, `request` TEXT NOT NULL, `saveTimeMillis` INTEGER NOT NULL, PRIMARY KEY(`request`))")
+            database.execSQL("CREATE TABLE IF NOT EXISTS `CachedComment` (`request` TEXT NOT NULL, `sortKey` TEXT NOT NULL, `fullName` TEXT NOT NULL, `parentFullName` TEXT NOT NULL, `depth` INTEGER NOT NULL, `node` BLOB NOT NULL, PRIMARY KEY(`request`, `sortKey`))")
+            database.execSQL("CREATE  INDEX `index_CachedComment_request_parentFullName` ON `CachedComment` (`request`, `parentFullName`)")
+          }
+        },
+        object : Migration(3, 4) {
+          override fun migrate(database: SupportSQLiteDatabase) {
+            // For looking up submissions that are already saved in a folder.
+            database.execSQL("CREATE  INDEX `index_CachedSubmissionId2_subredditName_sortingAndTimePeriod_id` ON `CachedSubmissionId2` (`subredditName`, `sortingAndTimePeriod`, `id`)")
+          }
+        },
+        object : Migration(4, 5) {
+          override fun migrate(database: SupportSQLiteDatabase) {
+            // For syncing subreddits for offline reading.
+            database.execSQL("CREATE TABLE IF NOT EXISTS `CachedFolderSnapshot` (`subredditName` TEXT NOT NULL, `sortingAndTimePeriod` TEXT NOT NULL, `saveTimeMillis` INTEGER NOT NULL, PRIMARY KEY(`subredditName`, `sortingAndTimePeriod`))")
+            database.execSQL("CREATE TABLE IF NOT EXISTS `OfflineSyncRun` (`startTimeMillis` INTEGER NOT NULL, `wallTimeMillis` INTEGER NOT NULL, `fetchedBytes` INTEGER NOT NULL, `writtenRowCount` INTEGER NOT NULL, `syncedSubredditCount` INTEGER NOT NULL, `failedSubredditCount` INTEGER NOT NULL, `skippedSubredditCount` INTEGER NOT NULL, PRIMARY KEY(`startTimeMillis`))")
+          }
+        },
+        object : Migration(5, 6) {
+          override fun migrate(database: SupportSQLiteDatabase) {
+            Timber.d("Resetting cached comments")
+            // Comment rows are now encoded against a string table shared by all rows of their tree.
+            database.execSQL("DELETE FROM `CachedComment`")
+            database.execSQL("DROP TABLE IF EXISTS `CachedSubmissionComments`")
+            database.execSQL("CREATE TABLE IF NOT EXISTS `CachedSubmissionComments` (`submissionId` TEXT NOT NULL, `request` TEXT NOT NULL, `saveTimeMillis` INTEGER NOT NULL, `stringTable` BLOB NOT NULL, PRIMARY KEY(`request`))")
+          }
+        }
+    )
+  }
 }
@@ -5,9 +5,13 @@ import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteOpenHelper
 
 import me.saket.dank.reply.PendingSyncReply
+import me.saket.dank.reply.ReplyDraft
+import me.saket.dank.ui.media.CachedMediaLinkResolution
 import me.saket.dank.ui.appshortcuts.AppShortcut
 import me.saket.dank.ui.subscriptions.SubredditSubscription
 import me.saket.dank.ui.user.messages.CachedMessage
+import me.saket.dank.ui.user.messages.CachedMessageEntry
+import me.saket.dank.utils.palette.CachedPaletteSwatches
 import timber.log.Timber
 
 class DankSqliteOpenHelper(context: Context) : SQLiteOpenHelper(context, DB_NAME, null, DB_VERSION) {
@@ -15,22 +19,54 @@ class DankSqliteOpenHelper(context: Context) : SQLiteOpenHelper(context, DB_NAME
   override fun onCreate(db: SQLiteDatabase) {
     db.execSQL(SubredditSubscription.QUERY_CREATE_TABLE)
     db.execSQL(CachedMessage.QUERY_CREATE_TABLE)
+    db.execSQL(CachedMessageEntry.QUERY_CREATE_TABLE)
+    db.execSQL(CachedMessageEntry.QUERY_CREATE_THREAD_INDEX)
     db.execSQL(PendingSyncReply.QUERY_CREATE_TABLE)
     db.execSQL(AppShortcut.QUERY_CREATE_TABLE)
+    db.execSQL(ReplyDraft.QUERY_CREATE_TABLE)
+    db.execSQL(ReplyDraft.QUERY_CREATE_CREATED_TIME_INDEX)
+    db.execSQL(CachedMediaLinkResolution.QUERY_CREATE_TABLE)
+    db.execSQL(CachedPaletteSwatches.QUERY_CREATE_TABLE)
   }
 
   override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
     Timber.d("onUpgrade() -> from %s to %s", oldVersion, newVersion)
 
-    if (oldVersion == 1 && newVersion == 2) {
+    if (oldVersion < 2) {
       Timber.d("Resetting cached-message rows")
       // JRAW was bumped to v1.0.
       db.execSQL("DELETE FROM ${CachedMessage.TABLE_NAME}")
     }
+
+    if (oldVersion < 3) {
+      Timber.d("Creating reply-draft table")
+      // Drafts were moved here from shared preferences. ReplyRepository migrates existing ones.
+      db.execSQL(ReplyDraft.QUERY_CREATE_TABLE)
+      db.execSQL(ReplyDraft.QUERY_CREATE_CREATED_TIME_INDEX)
+    }
+
+    if (oldVersion < 4) {
+      Timber.d("Creating cached-message entry table")
+      // Existing messages don't have entries. They get fetched again.
+      db.execSQL(CachedMessageEntry.QUERY_CREATE_TABLE)
+      db.execSQL(CachedMessageEntry.QUERY_CREATE_THREAD_INDEX)
+      db.execSQL("DELETE FROM ${CachedMessage.TABLE_NAME}")
+    }
+
+    if (oldVersion < 5) {
+      Timber.d("Creating media-link resolution table")
+      // Resolved links used to be stored as files in DiskLruCache, where they're left to get evicted.
+      db.execSQL(CachedMediaLinkResolution.QUERY_CREATE_TABLE)
+    }
+
+    if (oldVersion < 6) {
+      Timber.d("Creating palette swatch table")
+      db.execSQL(CachedPaletteSwatches.QUERY_CREATE_TABLE)
+    }
   }
 
   companion object {
-    private const val DB_VERSION = 2
+    private const val DB_VERSION = 6
     private const val DB_NAME = "Dank"
   }
 }
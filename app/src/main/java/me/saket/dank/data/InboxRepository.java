@@ -4,10 +4,14 @@ import static java.util.Collections.unmodifiableList;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.support.annotation.CheckResult;
+import android.support.annotation.VisibleForTesting;
 
 import com.google.auto.value.AutoValue;
+import com.nytimes.android.external.cache3.Cache;
+import com.nytimes.android.external.cache3.CacheBuilder;
 import com.squareup.sqlbrite2.BriteDatabase;
 
 import net.dean.jraw.models.Identifiable;
@@ -17,7 +21,9 @@ import net.dean.jraw.pagination.Paginator;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -26,15 +32,18 @@ import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.Single;
 import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
 import me.saket.dank.notifs.MessageNotifActionsJobService;
 import me.saket.dank.reddit.Reddit;
 import me.saket.dank.reply.ReplyRepository;
 import me.saket.dank.ui.submission.ParentThread;
 import me.saket.dank.ui.user.messages.CachedMessage;
+import me.saket.dank.ui.user.messages.CachedMessageEntry;
 import me.saket.dank.ui.user.messages.InboxFolder;
 import me.saket.dank.utils.Arrays2;
 import me.saket.dank.utils.JrawUtils2;
 import me.saket.dank.utils.Optional;
+import me.saket.dank.utils.Pair;
 
 @Singleton
 public class InboxRepository {
@@ -48,6 +57,7 @@ public class InboxRepository {
   private final BriteDatabase briteDatabase;
   private final Lazy<MoshiAdapter> moshiAdapter;
   private final ReplyRepository replyRepository;
+  private final Cache<String, Pair<String, Message>> decodedMessages;
 
   @Inject
   public InboxRepository(Lazy<Reddit> reddit, BriteDatabase briteDatabase, Lazy<MoshiAdapter> moshiAdapter, ReplyRepository replyRepository) {
@@ -55,6 +65,10 @@ public class InboxRepository {
     this.briteDatabase = briteDatabase;
     this.moshiAdapter = moshiAdapter;
     this.replyRepository = replyRepository;
+
+    decodedMessages = CacheBuilder.newBuilder()
+        .maximumSize(MESSAGES_FETCHED_PER_PAGE * 10)
+        .build();
   }
 
   /**
@@ -64,10 +78,20 @@ public class InboxRepository {
   public Observable<List<Message>> messages(InboxFolder folder) {
     return briteDatabase
         .createQuery(CachedMessage.TABLE_NAME, CachedMessage.QUERY_GET_ALL_IN_FOLDER, folder.name())
-        .mapToList(CachedMessage.messageFromCursor(moshiAdapter.get()))
+        .mapToList(messageFromCursorReusingDecoded(folder))
         .as(Arrays2.immutable());
   }
 
+  /**
+   * Like {@link #messages(InboxFolder)}, but only counts the messages instead of decoding them.
+   */
+  @CheckResult
+  public Observable<Integer> messageCount(InboxFolder folder) {
+    return briteDatabase
+        .createQuery(CachedMessage.TABLE_NAME, CachedMessage.QUERY_COUNT_IN_FOLDER, folder.name())
+        .mapToOne(cursor -> cursor.getInt(0));
+  }
+
   /**
    * Stream of message and its child replies. The type is optional because messages in unread might have not
    * been downloaded yet in private-messages folder.
@@ -80,7 +104,27 @@ public class InboxRepository {
   public Observable<Optional<Message>> messages(String fullname, InboxFolder folder) {
     return briteDatabase
         .createQuery(CachedMessage.TABLE_NAME, CachedMessage.QUERY_GET_SINGLE, fullname, folder.name())
-        .mapToOneOrDefault(CachedMessage.optionalMessageFromCursor(moshiAdapter.get()), Optional.empty());
+        .mapToOneOrDefault(cursor -> Optional.of(messageFromCursorReusingDecoded(folder).apply(cursor)), Optional.empty());
+  }
+
+  /**
+   * SqlBrite runs a query again whenever anything in its table changes. Decoding every message again is
+   * the expensive part, so messages whose JSON hasn't changed since they were last decoded are reused.
+   */
+  private Function<Cursor, Message> messageFromCursorReusingDecoded(InboxFolder folder) {
+    return cursor -> {
+      String key = folder.name() + "_" + CachedMessage.fullnameFromCursor(cursor);
+      String json = CachedMessage.messageJsonFromCursor(cursor);
+
+      Pair<String, Message> decoded = decodedMessages.getIfPresent(key);
+      if (decoded != null && decoded.first().equals(json)) {
+        return decoded.second();
+      }
+
+      Message message = CachedMessage.parseMessageJson(moshiAdapter.get(), json);
+      decodedMessages.put(key, Pair.create(json, message));
+      return message;
+    };
   }
 
   /**
@@ -126,6 +170,63 @@ public class InboxRepository {
         .map(fetchedMessages -> unmodifiableList(fetchedMessages));
   }
 
+  /**
+   * Like {@link #refreshMessages(InboxFolder, boolean)} for {@link InboxFolder#UNREAD}, except that messages that
+   * are no longer unread are removed and the change in unread messages is emitted instead of all fetched messages.
+   */
+  @CheckResult
+  public Single<UnreadMessagesDiff> refreshUnreadMessages() {
+    return fetchMessagesFromAnchor(InboxFolder.UNREAD, PaginationAnchor.createEmpty())
+        .map(receivedUnreads -> saveUnreadMessages(receivedUnreads));
+  }
+
+  /**
+   * The diff is calculated by the DB using {@link CachedMessageEntry} rows, so stored messages don't get decoded.
+   * The received messages are one page long, so they stay well within SQLite's limit of bound arguments.
+   */
+  @VisibleForTesting
+  UnreadMessagesDiff saveUnreadMessages(List<Message> receivedUnreads) throws Exception {
+    InboxFolder folder = InboxFolder.UNREAD;
+    String[] folderAndReceivedFullnames = new String[1 + receivedUnreads.size()];
+    folderAndReceivedFullnames[0] = folder.name();
+    for (int i = 0; i < receivedUnreads.size(); i++) {
+      folderAndReceivedFullnames[i + 1] = receivedUnreads.get(i).getFullName();
+    }
+
+    try (BriteDatabase.Transaction transaction = briteDatabase.newTransaction()) {
+      List<CachedMessageEntry> removedUnreads = new ArrayList<>();
+      String staleQuery = CachedMessageEntry.queryGetThreadsInFolderNotIn(receivedUnreads.size());
+      try (Cursor cursor = briteDatabase.query(staleQuery, folderAndReceivedFullnames)) {
+        while (cursor.moveToNext()) {
+          removedUnreads.add(CachedMessageEntry.fromCursor().apply(cursor));
+        }
+      }
+
+      Set<String> existingUnreadFullnames = new HashSet<>(receivedUnreads.size());
+      String existingQuery = CachedMessageEntry.queryGetThreadsInFolderIn(receivedUnreads.size());
+      try (Cursor cursor = briteDatabase.query(existingQuery, folderAndReceivedFullnames)) {
+        while (cursor.moveToNext()) {
+          existingUnreadFullnames.add(CachedMessageEntry.fromCursor().apply(cursor).fullname());
+        }
+      }
+
+      List<Message> addedUnreads = new ArrayList<>();
+      for (Message receivedUnread : receivedUnreads) {
+        if (!existingUnreadFullnames.contains(receivedUnread.getFullName())) {
+          addedUnreads.add(receivedUnread);
+        }
+      }
+
+      for (CachedMessageEntry removedUnread : removedUnreads) {
+        deleteThread(folder, removedUnread.fullname());
+      }
+      saveMessages(folder, false).accept(receivedUnreads);
+
+      transaction.markSuccessful();
+      return UnreadMessagesDiff.create(unmodifiableList(addedUnreads), unmodifiableList(removedUnreads));
+    }
+  }
+
   @CheckResult
   private Single<List<Message>> fetchMessagesFromAnchor(InboxFolder folder, PaginationAnchor paginationAnchor) {
     return reddit.get().loggedInUser()
@@ -225,10 +326,18 @@ public class InboxRepository {
       try (BriteDatabase.Transaction transaction = briteDatabase.newTransaction()) {
         if (removeExistingMessages) {
           briteDatabase.delete(CachedMessage.TABLE_NAME, CachedMessage.WHERE_FOLDER, folder.name());
+          briteDatabase.delete(CachedMessageEntry.TABLE_NAME, CachedMessageEntry.WHERE_FOLDER, folder.name());
         }
         for (ContentValues cachedMessageValues : messagesValuesToStore) {
           briteDatabase.insert(CachedMessage.TABLE_NAME, cachedMessageValues, SQLiteDatabase.CONFLICT_REPLACE);
         }
+        for (Message fetchedMessage : fetchedMessages) {
+          // Replies of a thread can change between two fetches.
+          briteDatabase.delete(CachedMessageEntry.TABLE_NAME, CachedMessageEntry.WHERE_FOLDER_AND_THREAD_FULLNAME, folder.name(), fetchedMessage.getFullName());
+          for (CachedMessageEntry entry : CachedMessageEntry.entriesOf(fetchedMessage, folder)) {
+            briteDatabase.insert(CachedMessageEntry.TABLE_NAME, entry.toContentValues(), SQLiteDatabase.CONFLICT_REPLACE);
+          }
+        }
         transaction.markSuccessful();
       }
     };
@@ -239,7 +348,7 @@ public class InboxRepository {
     return Completable.fromAction(() -> {
       try (BriteDatabase.Transaction transaction = briteDatabase.newTransaction()) {
         for (Identifiable message : messages) {
-          briteDatabase.delete(CachedMessage.TABLE_NAME, CachedMessage.WHERE_FOLDER_AND_FULLNAME, folder.name(), message.getFullName());
+          deleteThread(folder, message.getFullName());
         }
         transaction.markSuccessful();
       }
@@ -251,11 +360,17 @@ public class InboxRepository {
     return Completable.fromAction(() -> {
       try (BriteDatabase.Transaction transaction = briteDatabase.newTransaction()) {
         briteDatabase.delete(CachedMessage.TABLE_NAME, CachedMessage.WHERE_FOLDER, folder.name());
+        briteDatabase.delete(CachedMessageEntry.TABLE_NAME, CachedMessageEntry.WHERE_FOLDER, folder.name());
         transaction.markSuccessful();
       }
     });
   }
 
+  private void deleteThread(InboxFolder folder, String threadFullname) {
+    briteDatabase.delete(CachedMessage.TABLE_NAME, CachedMessage.WHERE_FOLDER_AND_FULLNAME, folder.name(), threadFullname);
+    briteDatabase.delete(CachedMessageEntry.TABLE_NAME, CachedMessageEntry.WHERE_FOLDER_AND_THREAD_FULLNAME, folder.name(), threadFullname);
+  }
+
 // ======== READ STATUS ======== //
 
   /**
@@ -285,6 +400,27 @@ public class InboxRepository {
         .andThen(removeAllMessages(InboxFolder.UNREAD));
   }
 
+  @AutoValue
+  public abstract static class UnreadMessagesDiff {
+    /**
+     * Unread messages that weren't present locally.
+     */
+    public abstract List<Message> added();
+
+    /**
+     * Locally present unread messages that are no longer unread.
+     */
+    public abstract List<CachedMessageEntry> removed();
+
+    public boolean isEmpty() {
+      return added().isEmpty() && removed().isEmpty();
+    }
+
+    public static UnreadMessagesDiff create(List<Message> added, List<CachedMessageEntry> removed) {
+      return new AutoValue_InboxRepository_UnreadMessagesDiff(added, removed);
+    }
+  }
+
   public interface FetchAndSaveResult {
 
     static FetchAndSaveResult success(List<Message> fetchedMessages) {
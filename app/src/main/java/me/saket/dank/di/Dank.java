@@ -5,8 +5,10 @@ import android.app.Application;
 import me.saket.dank.cache.CacheModule;
 import me.saket.dank.data.ErrorResolver;
 import me.saket.dank.notifs.MessagesNotificationManager;
+import me.saket.dank.startup.StartupTrace;
 
 public class Dank {
+  private static final StartupTrace startupTrace = StartupTrace.startNow();
   private static RootComponent appComponent;
 
   public static void initDependencies(Application application) {
@@ -17,6 +19,13 @@ public class Dank {
         .build();
   }
 
+  /**
+   * Started when the Application gets created.
+   */
+  public static StartupTrace startupTrace() {
+    return startupTrace;
+  }
+
   public static RootComponent dependencyInjector() {
     return appComponent;
   }
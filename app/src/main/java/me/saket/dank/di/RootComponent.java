@@ -9,6 +9,7 @@ import me.saket.dank.analytics.AnalyticsDaggerModule;
 import me.saket.dank.analytics.CrashReporter;
 import me.saket.dank.cache.CacheModule;
 import me.saket.dank.cache.DatabaseCacheRecyclerJobService;
+import me.saket.dank.cache.OfflineSyncJobService;
 import me.saket.dank.data.ErrorResolver;
 import me.saket.dank.deeplinks.DeepLinkHandlingActivity;
 import me.saket.dank.notifs.CheckUnreadMessagesJobService;
@@ -16,6 +17,7 @@ import me.saket.dank.notifs.MediaDownloadService;
 import me.saket.dank.notifs.MessageNotifActionReceiver;
 import me.saket.dank.notifs.MessageNotifActionsJobService;
 import me.saket.dank.notifs.MessagesNotificationManager;
+import me.saket.dank.reddit.Reddit;
 import me.saket.dank.reddit.RedditModule;
 import me.saket.dank.reply.RetryReplyJobService;
 import me.saket.dank.ui.PlaygroundActivity;
@@ -48,7 +50,9 @@ import me.saket.dank.ui.user.messages.InboxActivity;
 import me.saket.dank.ui.user.messages.InboxFolderFragment;
 import me.saket.dank.ui.user.messages.PrivateMessageThreadActivity;
 import me.saket.dank.utils.NestedOptionsPopupMenu;
+import me.saket.dank.utils.glide.GlideDiskCache;
 import me.saket.dank.utils.markdown.MarkdownModule;
+import me.saket.dank.utils.okhttp.OkHttpCore;
 import me.saket.dank.vote.VoteJobService;
 import me.saket.dank.vote.VotingManager;
 import me.saket.dank.walkthrough.WalkthroughModule;
@@ -84,6 +88,12 @@ public interface RootComponent {
 
   CrashReporter crashReporter();
 
+  OkHttpCore okHttpCore();
+
+  GlideDiskCache glideDiskCache();
+
+  Reddit reddit();
+
   void inject(MediaAlbumViewerActivity target);
 
   void inject(MediaVideoFragment target);
@@ -110,6 +120,8 @@ public interface RootComponent {
 
   void inject(DatabaseCacheRecyclerJobService target);
 
+  void inject(OfflineSyncJobService target);
+
   void inject(UploadImageDialog target);
 
   void inject(GiphyPickerActivity target);
@@ -9,6 +9,7 @@ import android.content.pm.ShortcutManager;
 import android.graphics.Point;
 import android.net.ConnectivityManager;
 import android.os.Build;
+import android.os.Process;
 import android.preference.PreferenceManager;
 
 import com.f2prateek.rx.preferences2.RxSharedPreferences;
@@ -17,12 +18,14 @@ import com.squareup.moshi.Moshi;
 import com.squareup.sqlbrite2.BriteDatabase;
 import com.squareup.sqlbrite2.SqlBrite;
 
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
+import io.reactivex.Scheduler;
 import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.BuildConfig;
 import me.saket.dank.R;
@@ -37,6 +40,8 @@ import me.saket.dank.urlparser.RedditUserLink;
 import me.saket.dank.urlparser.UrlParser;
 import me.saket.dank.utils.DankLinkMovementMethod;
 import me.saket.dank.utils.OkHttpWholesomeAuthIntercepter;
+import me.saket.dank.utils.okhttp.OkHttpCore;
+import me.saket.dank.utils.okhttp.RequestPriority;
 import okhttp3.OkHttpClient;
 import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Retrofit;
@@ -85,10 +90,9 @@ public class RootModule {
 
   @Provides
   @Singleton
-  OkHttpClient provideOkHttpClient() {
-    OkHttpClient.Builder builder = new OkHttpClient.Builder()
-        .connectTimeout(NETWORK_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
-        .readTimeout(NETWORK_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  OkHttpClient provideOkHttpClient(OkHttpCore okHttpCore) {
+    OkHttpClient.Builder builder = okHttpCore.newClientBuilder("dank_api")
+        .cache(okHttpCore.diskCache());
 
     if (BuildConfig.DEBUG) {
       HttpLoggingInterceptor logging = new HttpLoggingInterceptor(message -> Timber.tag("OkHttp").d(message));
@@ -101,6 +105,37 @@ public class RootModule {
     return builder.build();
   }
 
+  /**
+   * Kept separate from the API client so that downloaded media doesn't evict cached API responses.
+   */
+  @Provides
+  @Singleton
+  @Named("media_downloads")
+  OkHttpClient provideOkHttpClientForMediaDownloads(OkHttpCore okHttpCore) {
+    return okHttpCore.newClientBuilder("media_downloads").build();
+  }
+
+  /**
+   * For jobs that retry work the user has moved on from, like votes. Requests made on
+   * these threads are {@link RequestPriority#BACKGROUND}.
+   */
+  @Provides
+  @Singleton
+  @Named("background_requests")
+  Scheduler provideBackgroundRequestsScheduler() {
+    AtomicInteger threadNumber = new AtomicInteger();
+    return Schedulers.from(Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        RequestPriority.setForCurrentThread(RequestPriority.BACKGROUND);
+        runnable.run();
+      });
+      thread.setName("background-requests-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }));
+  }
+
   @Provides
   @Singleton
   Retrofit provideRetrofit(OkHttpClient okHttpClient, Moshi moshi) {
@@ -25,7 +25,10 @@ class StorageModule {
   }
 
   @Provides
+  @Singleton
   fun appDatabase(appContext: Application): AppDatabase {
-    return Room.databaseBuilder(appContext, AppDatabase::class.java, "Dank-room").build()
+    return Room.databaseBuilder(appContext, AppDatabase::class.java, "Dank-room")
+        .addMigrations(*AppDatabase.MIGRATIONS)
+        .build()
   }
 }
@@ -10,6 +10,7 @@ import com.squareup.moshi.Moshi;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -18,11 +19,15 @@ import dagger.Module;
 import dagger.Provides;
 import io.reactivex.Observable;
 import me.saket.dank.BuildConfig;
+import me.saket.dank.cache.CacheBudgetManager;
+import me.saket.dank.cache.OfflineSnapshotSync;
 import me.saket.dank.data.CachePreFillThing;
+import me.saket.dank.data.FileSize;
 import me.saket.dank.ui.preferences.DefaultWebBrowser;
 import me.saket.dank.ui.preferences.NetworkStrategy;
 import me.saket.dank.ui.preferences.TypefaceResource;
 import me.saket.dank.utils.DeviceInfo;
+import me.saket.dank.utils.FileSizeUnit;
 import me.saket.dank.utils.RxPreferencesEnumTypeAdapter;
 import me.saket.dank.utils.TimeInterval;
 
@@ -68,6 +73,30 @@ public class UserPreferencesModule {
     return rxPrefs.getObject("auto_play_videos_network_strategy", NetworkStrategy.WIFI_ONLY, networkStrategyTypeAdapter);
   }
 
+  /**
+   * Combined size of all disk caches, enforced by {@link CacheBudgetManager}.
+   */
+  @Provides
+  @Named("cache_budget_bytes")
+  Preference<Long> cacheBudgetPref(@Named("user_prefs") RxSharedPreferences rxPrefs) {
+    return rxPrefs.getLong("cache_budget_bytes", (long) FileSize.create(500, FileSizeUnit.MB).bytes());
+  }
+
+  @Provides
+  @Named("offline_sync_subreddits")
+  Preference<Set<String>> offlineSyncSubredditsPref(@Named("user_prefs") RxSharedPreferences rxPrefs) {
+    return rxPrefs.getStringSet("offline_sync_subreddits");
+  }
+
+  /**
+   * Size of all subreddits synced by {@link OfflineSnapshotSync}. Also counted towards the cache budget.
+   */
+  @Provides
+  @Named("offline_sync_storage_ceiling_bytes")
+  Preference<Long> offlineSyncStorageCeilingPref(@Named("user_prefs") RxSharedPreferences rxPrefs) {
+    return rxPrefs.getLong("offline_sync_storage_ceiling_bytes", (long) FileSize.create(100, FileSizeUnit.MB).bytes());
+  }
+
   @Provides
   @Named("open_links_in_external_browser")
   Preference<Boolean> openLinksInExternalBrowserPref(@Named("user_prefs") RxSharedPreferences rxPrefs) {
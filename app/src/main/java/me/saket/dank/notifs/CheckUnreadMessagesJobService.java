@@ -2,7 +2,6 @@ package me.saket.dank.notifs;
 
 import static io.reactivex.android.schedulers.AndroidSchedulers.mainThread;
 import static io.reactivex.schedulers.Schedulers.io;
-import static java.util.Collections.unmodifiableList;
 
 import android.app.job.JobInfo;
 import android.app.job.JobParameters;
@@ -15,12 +14,13 @@ import com.f2prateek.rx.preferences2.Preference;
 
 import net.dean.jraw.models.Message;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 
 import io.reactivex.Completable;
+import io.reactivex.Maybe;
+import io.reactivex.Single;
 import me.saket.dank.DankJobService;
 import me.saket.dank.data.ErrorResolver;
 import me.saket.dank.data.InboxRepository;
@@ -28,7 +28,6 @@ import me.saket.dank.data.ResolvedError;
 import me.saket.dank.di.Dank;
 import me.saket.dank.ui.preferences.NetworkStrategy;
 import me.saket.dank.ui.user.messages.InboxFolder;
-import me.saket.dank.utils.Arrays2;
 import me.saket.dank.utils.PersistableBundleUtils;
 import me.saket.dank.utils.TimeInterval;
 import timber.log.Timber;
@@ -138,38 +137,25 @@ public class CheckUnreadMessagesJobService extends DankJobService {
 
     //Timber.i("Checking for unread messages");
 
-    Completable refreshCompletable;
+    Single<Boolean> unreadsChanged;
     if (shouldRefreshMessages) {
       //Timber.i("Refreshing msgs");
-      refreshCompletable = inboxRepository.messages(InboxFolder.UNREAD)
-          .firstOrError()
-          .flatMapCompletable(existingUnreads -> inboxRepository.refreshMessages(InboxFolder.UNREAD, false)
-              .map(receivedUnreads -> {
-                List<Message> staleMessages = new ArrayList<>(existingUnreads.size());
-                staleMessages.addAll(existingUnreads);
-                staleMessages.removeAll(receivedUnreads);
-
-//              Timber.i("----------------------------------------");
-//              Timber.w("Stale notifs: %s", staleMessages.size());
-//              for (Message m : staleMessages) {
-//                Timber.i("%s", m.getBody().substring(0, Math.min(m.getBody().length(), 50)));
-//              }
-//              Timber.i("----------------------------------------");
-
-                return unmodifiableList(staleMessages);
-              })
-              .flatMapCompletable(staleMessages ->
-                  // When generating bundled notifications, Android does not remove existing bundle when a new bundle is posted.
-                  // It instead amends any new notifications with the existing ones. This means that we'll have to manually
-                  // cleanup stale notifications.
-                  messagesNotifManager.dismissNotification(getBaseContext(), Arrays2.toArray(staleMessages, Message.class))
-              ));
+      unreadsChanged = inboxRepository.refreshUnreadMessages()
+          .flatMap(diff ->
+              // When generating bundled notifications, Android does not remove existing bundle when a new bundle is posted.
+              // It instead amends any new notifications with the existing ones. This means that we'll have to manually
+              // cleanup stale notifications.
+              messagesNotifManager.dismissNotification(getBaseContext(), diff.removed())
+                  .andThen(Single.just(!diff.isEmpty())));
     } else {
-      refreshCompletable = Completable.complete();
+      unreadsChanged = Single.just(true);
     }
 
-    refreshCompletable
-        .andThen(inboxRepository.messages(InboxFolder.UNREAD).firstOrError())
+    unreadsChanged
+        // Notifications from the last sync are still up to date if nothing changed.
+        .flatMapMaybe(changed -> changed
+            ? inboxRepository.messages(InboxFolder.UNREAD).firstElement()
+            : Maybe.<List<Message>>empty())
         .subscribeOn(io())
         .observeOn(mainThread())
         //.doOnSuccess(unreads -> Timber.i("Found %s unreads", unreads.size()))
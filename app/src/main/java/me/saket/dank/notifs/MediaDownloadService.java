@@ -1,8 +1,5 @@
 package me.saket.dank.notifs;
 
-import static me.saket.dank.ui.media.MediaDownloadJob.ProgressState.DOWNLOADED;
-import static me.saket.dank.ui.media.MediaDownloadJob.ProgressState.FAILED;
-
 import android.Manifest;
 import android.app.Notification;
 import android.app.PendingIntent;
@@ -11,7 +8,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.drawable.Drawable;
 import android.media.session.MediaSession;
 import android.net.Uri;
 import android.os.Build;
@@ -24,8 +20,9 @@ import android.support.v4.content.FileProvider;
 import android.support.v4.media.session.MediaSessionCompat;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.target.SimpleTarget;
-import com.bumptech.glide.request.target.Target;
 import com.bumptech.glide.request.transition.Transition;
 import com.danikula.videocache.HttpProxyCacheServer;
 import com.jakewharton.rxrelay2.PublishRelay;
@@ -38,36 +35,28 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 
 import io.reactivex.Observable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
-import io.reactivex.functions.Function;
 import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.R;
 import me.saket.dank.di.Dank;
 import me.saket.dank.ui.media.MediaDownloadJob;
+import me.saket.dank.ui.media.MediaFileDownloader;
 import me.saket.dank.ui.media.MediaHostRepository;
 import me.saket.dank.ui.media.MediaLinkWithStartingPosition;
 import me.saket.dank.urlparser.MediaLink;
 import me.saket.dank.urlparser.RedditHostedVideoLink;
 import me.saket.dank.utils.Files2;
 import me.saket.dank.utils.Intents;
-import me.saket.dank.utils.RxUtils;
 import me.saket.dank.utils.Strings;
 import me.saket.dank.utils.Urls;
 import me.saket.dank.utils.VideoFormat;
-import me.saket.dank.utils.glide.GlideProgressTarget;
-import me.saket.dank.utils.okhttp.OkHttpResponseBodyWithProgress;
-import okhttp3.Call;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
-import okio.BufferedSink;
-import okio.BufferedSource;
-import okio.Okio;
+import me.saket.dank.utils.glide.AsyncImageLoader;
 import timber.log.Timber;
 
 /**
@@ -95,7 +84,7 @@ public class MediaDownloadService extends Service {
   private static final int MINIMUM_GAP_BETWEEN_NOTIFICATION_UPDATEs = 201;
 
   @Inject HttpProxyCacheServer videoCacheServer;
-  @Inject OkHttpClient okHttpClient;
+  @Inject MediaFileDownloader mediaFileDownloader;
   @Inject MediaHostRepository mediaHostRepository;
 
   private CompositeDisposable disposables = new CompositeDisposable();
@@ -103,6 +92,7 @@ public class MediaDownloadService extends Service {
   private final Map<MediaLink, MediaDownloadJob> downloadJobsWithVisibleNotif = new HashMap<>();
   private final Relay<MediaLink> downloadRequestStream = PublishRelay.create();
   private final Relay<MediaLink> downloadCancellationStream = PublishRelay.create();
+  private int lastSummaryProgress = -1;
 
   enum Action {
     ENQUEUE_DOWNLOAD,
@@ -156,7 +146,7 @@ public class MediaDownloadService extends Service {
             .map(activeDownloadJobs -> {
               boolean allDownloadsTerminated = true;
               for (MediaDownloadJob downloadJob : activeDownloadJobs) {
-                if (downloadJob.progressState() != DOWNLOADED && downloadJob.progressState() != FAILED) {
+                if (!downloadJob.isTerminated()) {
                   allDownloadsTerminated = false;
                 }
               }
@@ -170,12 +160,14 @@ public class MediaDownloadService extends Service {
         downloadCancellationStream.subscribe(mediaLinkToCancel -> {
           ongoingDownloadLinks.remove(mediaLinkToCancel);
           NotificationManagerCompat.from(this).cancel(createNotificationIdFor(mediaLinkToCancel));
+          if (canBeDownloaded(mediaLinkToCancel)) {
+            mediaFileDownloader.discardPartialDownload(downloadUrlFor(mediaLinkToCancel), destinationFileFor(mediaLinkToCancel));
+          }
         })
     );
 
     disposables.add(
         downloadRequestStream
-            .sample(MINIMUM_GAP_BETWEEN_NOTIFICATION_UPDATEs, TimeUnit.MILLISECONDS, AndroidSchedulers.mainThread())
             .doOnNext(link -> Timber.i("Recvd request for %s", link))
             .doOnNext(linkToQueue -> {
               Timber.i("Showing queued notif");
@@ -183,24 +175,17 @@ public class MediaDownloadService extends Service {
               downloadJobsWithVisibleNotif.put(downloadJobToQueue.mediaLink(), downloadJobToQueue);
               updateIndividualProgressNotification(downloadJobToQueue, createNotificationIdFor(linkToQueue));
             })
-            .concatMap(linkToDownload -> {
+            .flatMap(linkToDownload -> {
               Timber.i("Downloading %s", linkToDownload);
-              Observable<MediaDownloadJob> downloadStream;
-              if (linkToDownload.isVideo()) {
-                downloadStream = downloadVideoAndStreamProgress(linkToDownload).compose(RxUtils.applySchedulers());
-              } else {
-                downloadStream = downloadImageAndStreamProgress(linkToDownload);
-              }
-
-              return downloadStream
+              return downloadMediaAndStreamProgress(linkToDownload)
+                  .subscribeOn(Schedulers.io())
                   .unsubscribeOn(Schedulers.io())
-                  .map(moveFileToUserSpaceOnDownload())
                   .doOnTerminate(() -> ongoingDownloadLinks.remove(linkToDownload))
                   .doOnError(e -> Timber.e(e, "Couldn't download media"))
                   .onErrorReturnItem(MediaDownloadJob.failed(linkToDownload, System.currentTimeMillis()))
                   .takeUntil(downloadCancellationStream.filter(linkToCancel -> linkToCancel.equals(linkToDownload)))
                   .sample(MINIMUM_GAP_BETWEEN_NOTIFICATION_UPDATEs, TimeUnit.MILLISECONDS, AndroidSchedulers.mainThread(), true);
-            })
+            }, MediaFileDownloader.MAX_PARALLEL_DOWNLOADS)
             .subscribe(downloadJob -> {
               int notificationId = createNotificationIdFor(downloadJob.mediaLink());
 
@@ -228,6 +213,7 @@ public class MediaDownloadService extends Service {
               }
 
               downloadJobsWithVisibleNotif.put(downloadJob.mediaLink(), downloadJob);
+              updateSummaryNotification(downloadJobsWithVisibleNotif.values());
               activeDownloadsProgressChangeStream.accept(downloadJobsWithVisibleNotif.values());
             })
     );
@@ -311,6 +297,43 @@ public class MediaDownloadService extends Service {
     NotificationManagerCompat.from(this).notify(notificationId, notification);
   }
 
+  /**
+   * Shows the combined progress of all downloads since this service started, when more than one file is being saved.
+   * This isn't a group summary, because canceling a group summary also cancels the notifications of saved files.
+   */
+  private void updateSummaryNotification(Collection<MediaDownloadJob> downloadJobs) {
+    int terminatedCount = 0;
+    for (MediaDownloadJob downloadJob : downloadJobs) {
+      if (downloadJob.isTerminated()) {
+        terminatedCount++;
+      }
+    }
+
+    if (downloadJobs.size() < 2 || terminatedCount == downloadJobs.size()) {
+      NotificationManagerCompat.from(this).cancel(NotificationConstants.ID_MEDIA_DOWNLOADS_SUMMARY);
+      lastSummaryProgress = -1;
+      return;
+    }
+
+    int aggregateProgress = MediaDownloadJob.aggregateProgress(downloadJobs);
+    if (aggregateProgress == lastSummaryProgress) {
+      return;
+    }
+    lastSummaryProgress = aggregateProgress;
+
+    Notification summaryNotification = new NotificationCompat.Builder(this, getString(R.string.notification_channel_media_downloads_id))
+        .setContentTitle(getString(R.string.mediadownloadnotification_summary_title, terminatedCount, downloadJobs.size()))
+        .setContentText(aggregateProgress + "%")
+        .setSmallIcon(android.R.drawable.stat_sys_download)
+        .setOngoing(true)
+        .setLocalOnly(true)   // Hide from wearables.
+        .setColor(ContextCompat.getColor(this, R.color.notification_icon_color))
+        .setProgress(100 /* max */, aggregateProgress, false)
+        .setOnlyAlertOnce(true)
+        .build();
+    NotificationManagerCompat.from(this).notify(NotificationConstants.ID_MEDIA_DOWNLOADS_SUMMARY, summaryNotification);
+  }
+
   /**
    * We're ellipsizing the title so that the notification's content text (which is the progress
    * percentage at the time of writing this) is always visible.
@@ -444,156 +467,74 @@ public class MediaDownloadService extends Service {
   }
 
   /**
-   * Download an image and streams progress updates.
+   * Download an image or a video straight to the pictures directory and stream progress updates. Media that
+   * was already cached while it was being viewed gets copied from the cache instead.
    */
-  private Observable<MediaDownloadJob> downloadImageAndStreamProgress(MediaLink mediaLink) {
-    long downloadStartTimeMillis = System.currentTimeMillis();
-
-    return Observable.create(emitter -> {
-      Target<File> fileTarget = new SimpleTarget<File>() {
-        @Override
-        public void onResourceReady(File downloadedFile, @Nullable Transition<? super File> transition) {
-          long downloadCompleteTimeMillis = System.currentTimeMillis();
-          emitter.onNext(MediaDownloadJob.downloaded(mediaLink, downloadedFile, downloadCompleteTimeMillis));
-          emitter.onComplete();
-        }
-
-        @Override
-        public void onLoadFailed(@Nullable Drawable errorDrawable) {
-          long downloadFailTimeMillis = System.currentTimeMillis();
-          emitter.onNext(MediaDownloadJob.failed(mediaLink, downloadFailTimeMillis));
-          emitter.onComplete();
-        }
-      };
-
-      GlideProgressTarget<String, File> progressTarget = new GlideProgressTarget<String, File>(fileTarget) {
-        @Override
-        public float getGranularityPercentage() {
-          return 1f;
-        }
-
-        @Override
-        protected void onConnecting() {
-          emitter.onNext(MediaDownloadJob.connecting(mediaLink, downloadStartTimeMillis));
-        }
-
-        @Override
-        protected void onDownloading(long bytesRead, long expectedBytes) {
-          int progress = (int) (100 * (float) bytesRead / expectedBytes);
-          emitter.onNext(MediaDownloadJob.progress(mediaLink, progress, downloadStartTimeMillis));
+  private Observable<MediaDownloadJob> downloadMediaAndStreamProgress(MediaLink linkToDownload) {
+    return Observable.defer(() -> {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+        if (checkSelfPermission(Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
+          throw new AssertionError("Storage permission not granted");
         }
+      }
 
-        @Override
-        protected void onDownloaded() {}
-
-        @Override
-        protected void onDelivered() {}
-      };
-
-      String imageUrl = mediaLink.highQualityUrl();
-      progressTarget.setModel(this, imageUrl);
-      Glide.with(this).download(imageUrl).into(progressTarget);
-
-      emitter.setCancellable(() -> Glide.with(this).clear(progressTarget));
+      File destinationFile = destinationFileFor(linkToDownload);
+      File copiedFromCache = copyFromCache(linkToDownload, destinationFile);
+      if (copiedFromCache != null) {
+        return Observable.just(MediaDownloadJob.downloaded(linkToDownload, copiedFromCache, System.currentTimeMillis()));
+      }
+      return mediaFileDownloader.download(linkToDownload, downloadUrlFor(linkToDownload), destinationFile);
     });
   }
 
+  private File destinationFileFor(MediaLink mediaLink) {
+    String mediaFileName = Urls.parseFileNameWithExtension(mediaLink.highQualityUrl());
+    return Files2.INSTANCE.fileInPicturesDirectory(getResources(), mediaFileName);
+  }
+
   /**
-   * Download a video and streams progress updates.
+   * @return Null if the media isn't cached.
    */
-  private Observable<MediaDownloadJob> downloadVideoAndStreamProgress(MediaLink linkToDownload) {
-    return Observable.create(emitter -> {
-      long downloadStartTimeMillis = System.currentTimeMillis();
-
-      String highQualityUrl = linkToDownload.highQualityUrl();
-      VideoFormat videoFormat = VideoFormat.parse(highQualityUrl);
-
-      if (videoFormat.canBeCached() && videoCacheServer.isCached(highQualityUrl)) {
-        String cachedVideoFileUrl = videoCacheServer.getProxyUrl(highQualityUrl);
-        File cachedVideoFile = new File(Uri.parse(cachedVideoFileUrl).getPath());
-        emitter.onNext(MediaDownloadJob.downloaded(linkToDownload, cachedVideoFile, System.currentTimeMillis()));
-
-      } else {
-        String videoUrlToDownload;
-        if (linkToDownload instanceof RedditHostedVideoLink) {
-          videoUrlToDownload = ((RedditHostedVideoLink) linkToDownload).directUrlWithoutAudio();
-        } else if (videoFormat.canBeCached()) {
-          // Proxy through VideoCacheServer so that the downloaded video also gets saved to cache.
-          videoUrlToDownload = videoCacheServer.getProxyUrl(highQualityUrl, false);
-        } else {
-          throw new UnsupportedOperationException("Couldn't figure out the video url for " + linkToDownload);
-        }
-
-        if (videoUrlToDownload == null) {
-          emitter.onNext(MediaDownloadJob.failed(linkToDownload, System.currentTimeMillis()));
-        } else {
-          emitter.onNext(MediaDownloadJob.connecting(linkToDownload, downloadStartTimeMillis));
-
-          // Emit progress updates while reading the video's input stream.
-          Request downloadRequest = new Request.Builder()
-              .url(videoUrlToDownload)
-              .get()
-              .build();
-          Call networkCall = okHttpClient.newCall(downloadRequest);
-          Response response = networkCall.execute();
-          Response responseWithProgressListener = response.newBuilder()
-              .body(OkHttpResponseBodyWithProgress.wrap(
-                  downloadRequest,
-                  response,
-                  (url, bytesRead, expectedContentLength) -> {
-                    if (bytesRead < expectedContentLength) {
-                      int progress = (int) (100 * (float) bytesRead / expectedContentLength);
-                      emitter.onNext(MediaDownloadJob.progress(linkToDownload, progress, downloadStartTimeMillis));
-                    }
-                  }
-              ))
-              .build();
-
-          if (!responseWithProgressListener.isSuccessful()) {
-            throw new IOException("Unexpected code: " + responseWithProgressListener);
-          }
-
-          // Write to a temporary file, that will later get replaced by moveFileToUserSpaceOnDownload().
-          File videoTempFile = new File(getCacheDir(), Urls.parseFileNameWithExtension(highQualityUrl));
-          //noinspection ConstantConditions
-          try (BufferedSource bufferedSource = responseWithProgressListener.body().source()) {
-            BufferedSink bufferedSink = Okio.buffer(Okio.sink(videoTempFile));
-            bufferedSink.writeAll(bufferedSource);
-            bufferedSink.close();
-          }
-
-          long downloadCompleteTimeMillis = System.currentTimeMillis();
-          emitter.onNext(MediaDownloadJob.downloaded(linkToDownload, videoTempFile, downloadCompleteTimeMillis));
-          emitter.onComplete();
+  @Nullable
+  private File copyFromCache(MediaLink mediaLink, File destinationFile) throws IOException, InterruptedException {
+    String highQualityUrl = mediaLink.highQualityUrl();
 
-          emitter.setCancellable(() -> {
-            // Note: BufferedSink#writeAll() will also receive a thread interruption so file copy will stop.
-            networkCall.cancel();
-          });
-        }
+    if (mediaLink.isVideo()) {
+      if (VideoFormat.parse(highQualityUrl).canBeCached() && videoCacheServer.isCached(highQualityUrl)) {
+        File cachedVideoFile = new File(Uri.parse(videoCacheServer.getProxyUrl(highQualityUrl)).getPath());
+        return Files2.INSTANCE.copyFileToPicturesDirectory(getResources(), cachedVideoFile, destinationFile.getName());
       }
-    });
-  }
+      return null;
+    }
 
-  private Function<MediaDownloadJob, MediaDownloadJob> moveFileToUserSpaceOnDownload() {
-    return downloadJobUpdate -> {
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-        if (checkSelfPermission(Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
-          throw new AssertionError("Storage permission not granted");
-        }
-      }
+    FutureTarget<File> cachedImageTarget = Glide.with(this)
+        .download(highQualityUrl)
+        .apply(new RequestOptions().onlyRetrieveFromCache(true))
+        .submit();
+    try {
+      File cachedImageFile = AsyncImageLoader.blockingGet(cachedImageTarget);
+      return Files2.INSTANCE.copyFileToPicturesDirectory(getResources(), cachedImageFile, destinationFile.getName());
+    } catch (ExecutionException e) {
+      return null;
+    } finally {
+      Glide.with(this).clear(cachedImageTarget);
+    }
+  }
 
-      if (downloadJobUpdate.progressState() == DOWNLOADED) {
-        MediaLink downloadedMediaLink = downloadJobUpdate.mediaLink();
-        String mediaFileName = Urls.parseFileNameWithExtension(downloadedMediaLink.highQualityUrl());
-        //noinspection LambdaParameterTypeCanBeSpecified,ConstantConditions
-        File userAccessibleFile = Files2.INSTANCE.copyFileToPicturesDirectory(getResources(), downloadJobUpdate.downloadedFile(), mediaFileName);
-        return MediaDownloadJob.downloaded(downloadedMediaLink, userAccessibleFile, downloadJobUpdate.timestamp());
+  private static boolean canBeDownloaded(MediaLink mediaLink) {
+    return mediaLink instanceof RedditHostedVideoLink
+        || !mediaLink.isVideo()
+        || VideoFormat.parse(mediaLink.highQualityUrl()).canBeCached();
+  }
 
-      } else {
-        return downloadJobUpdate;
-      }
-    };
+  private static String downloadUrlFor(MediaLink mediaLink) {
+    if (!canBeDownloaded(mediaLink)) {
+      throw new UnsupportedOperationException("Couldn't figure out the video url for " + mediaLink);
+    }
+    if (mediaLink instanceof RedditHostedVideoLink) {
+      return ((RedditHostedVideoLink) mediaLink).directUrlWithoutAudio();
+    }
+    return mediaLink.highQualityUrl();
   }
 
   public static int createNotificationIdFor(MediaLink mediaLink) {
@@ -35,6 +35,7 @@ import me.saket.dank.R;
 import me.saket.dank.data.InboxRepository;
 import me.saket.dank.data.MoshiAdapter;
 import me.saket.dank.ui.user.UserSessionRepository;
+import me.saket.dank.ui.user.messages.CachedMessageEntry;
 import me.saket.dank.ui.user.messages.InboxMessageType;
 import me.saket.dank.utils.JrawUtils2;
 import me.saket.dank.utils.Strings;
@@ -422,7 +423,15 @@ public class MessagesNotificationManager {
    * Id used for generating a notification for <var>message</var>. Used for dismissing it if it's active.
    */
   public static int createNotificationIdFor(Message message) {
-    return (int) (NotificationConstants.UNREAD_MESSAGE_PREFIX_.hashCode() + JrawUtils2.generateAdapterId(message));
+    return createNotificationIdFor(message.getFullName(), message.getCreated().getTime());
+  }
+
+  /**
+   * Same as {@link #createNotificationIdFor(Message)}, for messages that haven't been decoded.
+   */
+  public static int createNotificationIdFor(String fullname, long createdTimeMillis) {
+    long adapterId = JrawUtils2.generateAdapterId(fullname, createdTimeMillis);
+    return (int) (NotificationConstants.UNREAD_MESSAGE_PREFIX_.hashCode() + adapterId);
   }
 
   @CheckResult
@@ -440,6 +449,16 @@ public class MessagesNotificationManager {
     });
   }
 
+  @CheckResult
+  public Completable dismissNotification(Context context, List<CachedMessageEntry> messages) {
+    return Completable.fromAction(() -> {
+      NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
+      for (CachedMessageEntry message : messages) {
+        notificationManager.cancel(createNotificationIdFor(message.fullname(), message.createdTimeMillis()));
+      }
+    });
+  }
+
   /**
    * Dismiss the summary notification of a bundle so that everything gets dismissed.
    */
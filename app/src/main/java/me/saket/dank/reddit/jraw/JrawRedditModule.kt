@@ -7,6 +7,8 @@ import dagger.Provides
 import io.reactivex.subjects.BehaviorSubject
 import me.saket.dank.BuildConfig
 import me.saket.dank.R
+import me.saket.dank.utils.okhttp.OkHttpCore
+import me.saket.dank.utils.okhttp.RedditRateLimitGovernor
 import net.dean.jraw.RedditClient
 import net.dean.jraw.android.AndroidHelper
 import net.dean.jraw.android.AppInfo
@@ -15,7 +17,6 @@ import net.dean.jraw.android.SharedPreferencesTokenStore
 import net.dean.jraw.http.UserAgent
 import net.dean.jraw.oauth.AccountHelper
 import net.dean.jraw.oauth.TokenStore
-import okhttp3.OkHttpClient
 import okhttp3.logging.HttpLoggingInterceptor
 import timber.log.Timber
 import java.util.UUID
@@ -78,9 +79,13 @@ class JrawRedditModule {
       appInfoProvider: AppInfoProvider,
       tokenStore: SharedPreferencesTokenStore,
       tokenRefresher: JrawTokenRefresher,
-      @Named("deviceUuid") deviceUUID: UUID
+      @Named("deviceUuid") deviceUUID: UUID,
+      okHttpCore: OkHttpCore,
+      rateLimitGovernor: RedditRateLimitGovernor
   ): AccountHelper {
-    val httpClient = OkHttpClient.Builder()
+    val httpClient = okHttpCore.newClientBuilder("reddit")
+        // Ahead of OkHttpCore's request limits, so that requests waiting for quota don't hold their slots.
+        .apply { interceptors().add(0, rateLimitGovernor) }
         .addNetworkInterceptor(tokenRefresher)
         .apply {
           if (BuildConfig.DEBUG) {
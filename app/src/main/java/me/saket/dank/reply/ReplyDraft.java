@@ -1,12 +1,48 @@
 package me.saket.dank.reply;
 
+import android.content.ContentValues;
+import android.database.Cursor;
+
 import com.google.auto.value.AutoValue;
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
 
+import io.reactivex.functions.Function;
+import me.saket.dank.utils.Cursors;
+
+/**
+ * A reply that hasn't been sent yet, stored against the full-name of its parent contribution.
+ */
 @AutoValue
 public abstract class ReplyDraft {
 
+  public static final String TABLE_NAME = "ReplyDraft";
+  private static final String COLUMN_PARENT_CONTRIBUTION_FULL_NAME = "parent_contribution_full_name";
+  private static final String COLUMN_BODY = "body";
+  private static final String COLUMN_CREATED_TIME_MILLIS = "created_time_millis";
+
+  public static final String QUERY_CREATE_TABLE =
+      "CREATE TABLE " + TABLE_NAME + " ("
+          + COLUMN_PARENT_CONTRIBUTION_FULL_NAME + " TEXT NOT NULL PRIMARY KEY, "
+          + COLUMN_BODY + " TEXT NOT NULL, "
+          + COLUMN_CREATED_TIME_MILLIS + " INTEGER NOT NULL"
+          + ")";
+
+  /**
+   * For recycling old drafts without scanning the entire table.
+   */
+  public static final String QUERY_CREATE_CREATED_TIME_INDEX =
+      "CREATE INDEX " + TABLE_NAME + "_" + COLUMN_CREATED_TIME_MILLIS
+          + " ON " + TABLE_NAME + " (" + COLUMN_CREATED_TIME_MILLIS + ")";
+
+  public static final String QUERY_GET_BODY_FOR_PARENT =
+      "SELECT " + COLUMN_BODY + " FROM " + TABLE_NAME
+          + " WHERE " + COLUMN_PARENT_CONTRIBUTION_FULL_NAME + " == ?";
+
+  public static final String WHERE_PARENT_CONTRIBUTION_FULL_NAME = COLUMN_PARENT_CONTRIBUTION_FULL_NAME + " = ?";
+
+  public static final String WHERE_CREATED_BEFORE = COLUMN_CREATED_TIME_MILLIS + " < ?";
+
   public abstract String body();
 
   /**
@@ -18,6 +54,19 @@ public abstract class ReplyDraft {
     return new AutoValue_ReplyDraft(body, createdTimeMillis);
   }
 
+  public ContentValues toValues(String parentContributionFullName) {
+    ContentValues contentValues = new ContentValues(3);
+    contentValues.put(COLUMN_PARENT_CONTRIBUTION_FULL_NAME, parentContributionFullName);
+    contentValues.put(COLUMN_BODY, body());
+    contentValues.put(COLUMN_CREATED_TIME_MILLIS, createdTimeMillis());
+    return contentValues;
+  }
+
+  public static final Function<Cursor, String> BODY_MAPPER = cursor -> Cursors.string(cursor, COLUMN_BODY);
+
+  /**
+   * Drafts used to be stored as JSON in shared preferences. Only used for migrating them.
+   */
   public static JsonAdapter<ReplyDraft> jsonAdapter(Moshi moshi) {
     return new AutoValue_ReplyDraft.MoshiJsonAdapter(moshi);
   }
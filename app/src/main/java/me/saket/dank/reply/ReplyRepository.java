@@ -5,14 +5,13 @@ import android.database.sqlite.SQLiteDatabase;
 import android.support.annotation.CheckResult;
 import android.support.annotation.VisibleForTesting;
 
-import com.f2prateek.rx.preferences2.RxSharedPreferences;
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
 import com.squareup.sqlbrite2.BriteDatabase;
 
 import net.dean.jraw.models.Identifiable;
 
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
@@ -27,6 +26,7 @@ import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.Single;
 import me.saket.dank.BuildConfig;
+import me.saket.dank.cache.DatabaseCacheRecyclerJobService;
 import me.saket.dank.data.ErrorResolver;
 import me.saket.dank.data.FullNameType;
 import me.saket.dank.data.ResolvedError;
@@ -45,14 +45,16 @@ import timber.log.Timber;
 @Singleton
 public class ReplyRepository implements DraftStore {
 
+  private static final String LEGACY_KEY_PREFIX_FOR_DRAFT = "replyDraftFor_";
+
   private final Lazy<Reddit> reddit;
   private final BriteDatabase database;
   private final UserSessionRepository userSessionRepository;
   private final Moshi moshi;
   private final int recycleDraftsOlderThanNumDays;
   private final SharedPreferences sharedPrefs;
-  private final RxSharedPreferences rxSharedPrefs;
   private final Lazy<ErrorResolver> errorResolver;
+  private final Completable draftsMigration;
 
   @Inject
   public ReplyRepository(
@@ -68,10 +70,13 @@ public class ReplyRepository implements DraftStore {
     this.database = database;
     this.userSessionRepository = userSessionRepository;
     this.sharedPrefs = sharedPrefs;
-    this.rxSharedPrefs = RxSharedPreferences.create(sharedPrefs);
     this.moshi = moshi;
     this.recycleDraftsOlderThanNumDays = recycleDraftsOlderThanNumDays;
     this.errorResolver = errorResolver;
+    this.draftsMigration = Completable.fromAction(() -> migrateDraftsFromSharedPrefs())
+        .doOnError(error -> Timber.e(error, "Couldn't migrate drafts from shared prefs"))
+        .onErrorComplete()
+        .cache();
   }
 
 // ======== INLINE_REPLY ======== //
@@ -190,63 +195,37 @@ public class ReplyRepository implements DraftStore {
       return removeDraft(identifiable).toSingleDefault(DraftSaveResult.REMOVED);
     }
 
-    return Completable
-        .fromAction(() -> {
+    return draftsMigration
+        .andThen(Completable.fromAction(() -> {
           long draftCreatedTimeMillis = System.currentTimeMillis();
           ReplyDraft replyDraft = ReplyDraft.create(draftBody, draftCreatedTimeMillis);
-          JsonAdapter<ReplyDraft> jsonAdapter = moshi.adapter(ReplyDraft.class);
-          String replyDraftJson = jsonAdapter.toJson(replyDraft);
-          rxSharedPrefs.getString(keyForDraft(identifiable)).set(replyDraftJson);
+          database.insert(ReplyDraft.TABLE_NAME, replyDraft.toValues(keyForDraft(identifiable)), SQLiteDatabase.CONFLICT_REPLACE);
           //Timber.i("Draft saved: %s", draftBody);
-
-          // Recycle old drafts.
-          Map<String, ?> allDraftJsons = new HashMap<>(sharedPrefs.getAll());
-          Map<String, ReplyDraft> allDrafts = new HashMap<>(allDraftJsons.size());
-          for (Map.Entry<String, ?> entry : allDraftJsons.entrySet()) {
-            String draftEntryJson = (String) entry.getValue();
-            //Timber.i("Existing draft: %s", draftEntryJson);
-            ReplyDraft draftEntry = jsonAdapter.fromJson(draftEntryJson);
-            allDrafts.put(entry.getKey(), draftEntry);
-          }
-          recycleOldDrafts(allDrafts);
-        })
+        }))
         .toSingleDefault(DraftSaveResult.SAVED_OR_UPDATED);
   }
 
-  @VisibleForTesting
-  void recycleOldDrafts(Map<String, ReplyDraft> allDrafts) {
-    DateTime nowDateTime = DateTime.now(TimeZone.getTimeZone("UTC"));
-    DateTime draftDateLimit = nowDateTime.minusDays(recycleDraftsOlderThanNumDays);
-    long draftDateLimitMillis = draftDateLimit.getMilliseconds(TimeZone.getTimeZone("UTC"));
-
-    SharedPreferences.Editor sharedPrefsEditor = sharedPrefs.edit();
-
-    for (Map.Entry<String, ReplyDraft> entry : allDrafts.entrySet()) {
-      ReplyDraft draftEntry = entry.getValue();
-      if (draftEntry.createdTimeMillis() < draftDateLimitMillis) {
-        // Stale draft.
-        sharedPrefsEditor.remove(entry.getKey());
-      }
-    }
-
-    sharedPrefsEditor.apply();
+  /**
+   * Run periodically by {@link DatabaseCacheRecyclerJobService}.
+   *
+   * @return Number of drafts that were removed.
+   */
+  @CheckResult
+  public Single<Integer> recycleOldDrafts() {
+    return draftsMigration.andThen(Single.fromCallable(() -> {
+      DateTime nowDateTime = DateTime.now(TimeZone.getTimeZone("UTC"));
+      DateTime draftDateLimit = nowDateTime.minusDays(recycleDraftsOlderThanNumDays);
+      long draftDateLimitMillis = draftDateLimit.getMilliseconds(TimeZone.getTimeZone("UTC"));
+      return database.delete(ReplyDraft.TABLE_NAME, ReplyDraft.WHERE_CREATED_BEFORE, String.valueOf(draftDateLimitMillis));
+    }));
   }
 
   @Override
   public Observable<String> streamDrafts(Identifiable identifiable) {
-    return rxSharedPrefs.getString(keyForDraft(identifiable), "")
-        .asObservable()
-        .map(replyDraftJson -> {
-          if ("".equals(replyDraftJson)) {
+    return draftsMigration
+        .andThen(database.createQuery(ReplyDraft.TABLE_NAME, ReplyDraft.QUERY_GET_BODY_FOR_PARENT, keyForDraft(identifiable))
             // Always emit a default value so that the UI's initial setup is done.
-            return "";
-
-          } else {
-            ReplyDraft replyDraft = moshi.adapter(ReplyDraft.class).fromJson(replyDraftJson);
-            //noinspection ConstantConditions
-            return replyDraft.body();
-          }
-        })
+            .mapToOneOrDefault(ReplyDraft.BODY_MAPPER, ""))
         .distinctUntilChanged();
   }
 
@@ -265,12 +244,44 @@ public class ReplyRepository implements DraftStore {
     //  throw new UnsupportedOperationException();
     //}
     //Timber.i("Removing draft for %s", parent);
-    return Completable.fromAction(() -> sharedPrefs.edit().remove(keyForDraft(identifiable)).apply());
+    return draftsMigration.andThen(Completable.fromAction(() ->
+        database.delete(ReplyDraft.TABLE_NAME, ReplyDraft.WHERE_PARENT_CONTRIBUTION_FULL_NAME, keyForDraft(identifiable))));
+  }
+
+  /**
+   * Drafts used to be stored as JSON in shared preferences, keyed by {@link #LEGACY_KEY_PREFIX_FOR_DRAFT}.
+   * They're moved to the database on first access.
+   */
+  @VisibleForTesting
+  void migrateDraftsFromSharedPrefs() {
+    Map<String, ?> legacyDraftJsons = sharedPrefs.getAll();
+    if (legacyDraftJsons.isEmpty()) {
+      return;
+    }
+
+    JsonAdapter<ReplyDraft> jsonAdapter = moshi.adapter(ReplyDraft.class);
+    try (BriteDatabase.Transaction transaction = database.newTransaction()) {
+      for (Map.Entry<String, ?> entry : legacyDraftJsons.entrySet()) {
+        if (!entry.getKey().startsWith(LEGACY_KEY_PREFIX_FOR_DRAFT) || !(entry.getValue() instanceof String)) {
+          continue;
+        }
+        try {
+          ReplyDraft replyDraft = jsonAdapter.fromJson((String) entry.getValue());
+          String parentFullName = entry.getKey().substring(LEGACY_KEY_PREFIX_FOR_DRAFT.length());
+          //noinspection ConstantConditions
+          database.insert(ReplyDraft.TABLE_NAME, replyDraft.toValues(parentFullName), SQLiteDatabase.CONFLICT_IGNORE);
+        } catch (IOException e) {
+          Timber.e(e, "Couldn't migrate draft: %s", entry.getValue());
+        }
+      }
+      transaction.markSuccessful();
+    }
+    sharedPrefs.edit().clear().apply();
   }
 
   @VisibleForTesting
   static String keyForDraft(Identifiable contribution) {
     Preconditions.checkNotNull(contribution.getFullName(), "fullname");
-    return "replyDraftFor_" + contribution.getFullName();
+    return contribution.getFullName();
   }
 }
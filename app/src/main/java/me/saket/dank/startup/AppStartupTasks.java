@@ -0,0 +1,63 @@
+package me.saket.dank.startup;
+
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything that DankApplication does on startup. Everything that doesn't need the main thread runs in the
+ * background, so that SubredditActivity can start inflating its layout sooner. Work that's not needed soon
+ * after startup is delayed by 5 seconds.
+ */
+public class AppStartupTasks {
+
+  public interface Initializers {
+    void initStetho();
+
+    void initViewPump();
+
+    /**
+     * The ViewPump interceptor is fetched on first inflation, by which time this has usually read the
+     * typeface preference and loaded its font in the background.
+     */
+    void preloadTypeface();
+
+    void registerNotificationChannels();
+
+    /**
+     * Android doesn't print stack-traces on Oreo anymore if a custom exception handler is set.
+     */
+    void setUncaughtExceptionHandler();
+
+    /**
+     * Loads JRAW's token store and the logged-in user's session from the disk.
+     */
+    void initRedditClient();
+
+    void initThreeTen();
+
+    void startDelayedTasks();
+  }
+
+  public static List<StartupTask> create(Initializers initializers, boolean isDebugBuild, int sdkInt) {
+    List<StartupTask> tasks = new ArrayList<>();
+
+    if (isDebugBuild) {
+      tasks.add(StartupTask.inBackground("stetho", initializers::initStetho));
+    }
+
+    tasks.add(StartupTask.onMainThread("view_pump", initializers::initViewPump));
+    tasks.add(StartupTask.inBackground("typeface_preference", initializers::preloadTypeface));
+
+    if (sdkInt >= Build.VERSION_CODES.O) {
+      tasks.add(StartupTask.inBackground("notification_channels", initializers::registerNotificationChannels));
+      tasks.add(StartupTask.onMainThread("uncaught_exception_handler", initializers::setUncaughtExceptionHandler));
+    }
+
+    tasks.add(StartupTask.inBackground("reddit_client", initializers::initRedditClient));
+    tasks.add(StartupTask.onMainThread("three_ten", initializers::initThreeTen));
+    tasks.add(StartupTask.inBackground("delayed_tasks", initializers::startDelayedTasks).dependsOn("three_ten"));
+    return tasks;
+  }
+}
@@ -0,0 +1,131 @@
+package me.saket.dank.startup;
+
+import android.support.annotation.CheckResult;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Completable;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.subjects.CompletableSubject;
+import timber.log.Timber;
+
+/**
+ * Runs {@link StartupTask}s and records a {@link StartupTrace} span for each of them.
+ */
+public class StartupRunner {
+
+  private final StartupTrace trace;
+  private final Executor backgroundExecutor;
+
+  public StartupRunner(StartupTrace trace, Executor backgroundExecutor) {
+    this.trace = trace;
+    this.backgroundExecutor = backgroundExecutor;
+  }
+
+  /**
+   * Background tasks are handed to the executor right away so that they run in parallel with each other
+   * and with the main-thread tasks, which get run on the calling thread in their listed order. A task
+   * starts only after its dependencies have finished, and gets skipped if any of them failed. Failures
+   * are sent to {@link RxJavaPlugins#onError(Throwable)}.
+   * <p>
+   * Dependencies must be listed before their dependents. This also ensures that a background task never
+   * waits for a task that is queued behind it on the executor.
+   *
+   * @return Completes once all background tasks have finished. Main-thread tasks have already finished
+   * by the time this method returns.
+   */
+  @CheckResult
+  public Completable run(List<StartupTask> tasks) {
+    Map<String, TaskState> states = new HashMap<>(tasks.size());
+    int backgroundTaskCount = 0;
+
+    for (StartupTask task : tasks) {
+      for (String dependency : task.dependencies()) {
+        if (!states.containsKey(dependency)) {
+          throw new IllegalArgumentException(task.name() + " depends on " + dependency + ", which isn't listed before it");
+        }
+      }
+      if (states.put(task.name(), new TaskState()) != null) {
+        throw new IllegalArgumentException("Duplicate task: " + task.name());
+      }
+      if (task.thread() == StartupTask.Thread.BACKGROUND) {
+        backgroundTaskCount++;
+      }
+    }
+
+    CompletableSubject backgroundTasksCompletion = CompletableSubject.create();
+    AtomicInteger remainingBackgroundTasks = new AtomicInteger(backgroundTaskCount);
+    if (backgroundTaskCount == 0) {
+      backgroundTasksCompletion.onComplete();
+    }
+
+    for (StartupTask task : tasks) {
+      if (task.thread() == StartupTask.Thread.BACKGROUND) {
+        backgroundExecutor.execute(() -> {
+          execute(task, states);
+          if (remainingBackgroundTasks.decrementAndGet() == 0) {
+            backgroundTasksCompletion.onComplete();
+          }
+        });
+      }
+    }
+
+    for (StartupTask task : tasks) {
+      if (task.thread() == StartupTask.Thread.MAIN) {
+        execute(task, states);
+      }
+    }
+
+    return backgroundTasksCompletion.hide();
+  }
+
+  private void execute(StartupTask task, Map<String, TaskState> states) {
+    TaskState state = states.get(task.name());
+
+    for (String dependency : task.dependencies()) {
+      if (!states.get(dependency).awaitSuccess()) {
+        Timber.w("Skipping %s because %s didn't finish", task.name(), dependency);
+        state.finish(false);
+        return;
+      }
+    }
+
+    StartupTrace.Span span = trace.beginSpan(task.name());
+    try {
+      task.action().run();
+      span.end();
+      state.finish(true);
+
+    } catch (Throwable e) {
+      span.end();
+      state.finish(false);
+      Timber.e("Startup task failed: %s", task.name());
+      RxJavaPlugins.onError(e);
+    }
+  }
+
+  private static class TaskState {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private volatile boolean succeeded;
+
+    void finish(boolean succeeded) {
+      this.succeeded = succeeded;
+      latch.countDown();
+    }
+
+    boolean awaitSuccess() {
+      try {
+        latch.await();
+        return succeeded;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+  }
+}
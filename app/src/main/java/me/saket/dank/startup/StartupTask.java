@@ -0,0 +1,51 @@
+package me.saket.dank.startup;
+
+import com.google.auto.value.AutoValue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.reactivex.functions.Action;
+
+/**
+ * A piece of work that has to be done on app startup. See {@link StartupRunner}.
+ */
+@AutoValue
+public abstract class StartupTask {
+
+  public enum Thread {
+    /**
+     * For work that the first frame needs or that can only be done on the main thread.
+     */
+    MAIN,
+
+    /**
+     * For everything else, especially work that touches the disk.
+     */
+    BACKGROUND
+  }
+
+  public abstract String name();
+
+  public abstract Thread thread();
+
+  /**
+   * Names of tasks that must finish before this one starts.
+   */
+  public abstract List<String> dependencies();
+
+  public abstract Action action();
+
+  public static StartupTask onMainThread(String name, Action action) {
+    return new AutoValue_StartupTask(name, Thread.MAIN, Collections.emptyList(), action);
+  }
+
+  public static StartupTask inBackground(String name, Action action) {
+    return new AutoValue_StartupTask(name, Thread.BACKGROUND, Collections.emptyList(), action);
+  }
+
+  public StartupTask dependsOn(String... taskNames) {
+    return new AutoValue_StartupTask(name(), thread(), Collections.unmodifiableList(Arrays.asList(taskNames)), action());
+  }
+}
@@ -0,0 +1,113 @@
+package me.saket.dank.startup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import timber.log.Timber;
+
+/**
+ * Records how long each part of a cold start takes, measured from the creation of this trace. The
+ * recorded spans get logged once the first frame of the launcher Activity is about to be drawn.
+ */
+public class StartupTrace {
+
+  private final Ticker ticker;
+  private final long originNanos;
+  private final List<Span> completedSpans = Collections.synchronizedList(new ArrayList<>());
+  private volatile long firstFrameReadyNanos = -1;
+
+  public interface Ticker {
+    long nanoTime();
+  }
+
+  public StartupTrace(Ticker ticker) {
+    this.ticker = ticker;
+    this.originNanos = ticker.nanoTime();
+  }
+
+  public static StartupTrace startNow() {
+    return new StartupTrace(System::nanoTime);
+  }
+
+  public Span beginSpan(String name) {
+    return new Span(name, Thread.currentThread().getName(), ticker.nanoTime() - originNanos);
+  }
+
+  /**
+   * Only the first call is recorded. Activities created later in the same process aren't part of the cold start.
+   */
+  public synchronized void markFirstFrameReady() {
+    if (firstFrameReadyNanos != -1) {
+      return;
+    }
+    firstFrameReadyNanos = ticker.nanoTime() - originNanos;
+    Timber.i(report());
+  }
+
+  /**
+   * @return -1 if the first frame isn't ready yet.
+   */
+  public long firstFrameReadyNanos() {
+    return firstFrameReadyNanos;
+  }
+
+  public List<Span> completedSpans() {
+    synchronized (completedSpans) {
+      return new ArrayList<>(completedSpans);
+    }
+  }
+
+  public String report() {
+    StringBuilder builder = new StringBuilder("Startup trace:");
+    for (Span span : completedSpans()) {
+      builder.append(String.format(Locale.ENGLISH, "\n  %-28s %-22s start %7.1fms, took %7.1fms",
+          span.name(), span.threadName(), span.startNanos() / 1e6, span.durationNanos() / 1e6));
+    }
+    if (firstFrameReadyNanos != -1) {
+      builder.append(String.format(Locale.ENGLISH, "\n  First frame ready at %.1fms", firstFrameReadyNanos / 1e6));
+    }
+    return builder.toString();
+  }
+
+  public class Span {
+    private final String name;
+    private final String threadName;
+    private final long startNanos;
+    private long endNanos = -1;
+
+    private Span(String name, String threadName, long startNanos) {
+      this.name = name;
+      this.threadName = threadName;
+      this.startNanos = startNanos;
+    }
+
+    public void end() {
+      if (endNanos != -1) {
+        throw new IllegalStateException("Span has already ended: " + name);
+      }
+      endNanos = ticker.nanoTime() - originNanos;
+      completedSpans.add(this);
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public String threadName() {
+      return threadName;
+    }
+
+    /**
+     * Relative to the creation of the trace.
+     */
+    public long startNanos() {
+      return startNanos;
+    }
+
+    public long durationNanos() {
+      return endNanos - startNanos;
+    }
+  }
+}
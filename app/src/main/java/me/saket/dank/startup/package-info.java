@@ -0,0 +1,4 @@
+@ParametersAreNonnullByDefault
+package me.saket.dank.startup;
+
+import javax.annotation.ParametersAreNonnullByDefault;
@@ -0,0 +1,78 @@
+package me.saket.dank.ui.media;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.annotation.Nullable;
+
+import com.google.auto.value.AutoValue;
+
+import io.reactivex.functions.Function;
+import me.saket.dank.utils.Cursors;
+
+/**
+ * A row of {@link ResolvedMediaLinkIndex}, stored against the cache-key of an unresolved media link.
+ */
+@AutoValue
+public abstract class CachedMediaLinkResolution {
+
+  public static final String TABLE_NAME = "CachedMediaLinkResolution";
+  private static final String COLUMN_CACHE_KEY = "cache_key";
+  private static final String COLUMN_RESOLVED_LINK_JSON = "resolved_link_json";
+  private static final String COLUMN_FLAGGED = "flagged";
+  private static final String COLUMN_UPDATE_TIME_MILLIS = "update_time_millis";
+
+  public static final String QUERY_CREATE_TABLE =
+      "CREATE TABLE " + TABLE_NAME + " ("
+          + COLUMN_CACHE_KEY + " TEXT NOT NULL PRIMARY KEY, "
+          + COLUMN_RESOLVED_LINK_JSON + " TEXT, "
+          + COLUMN_FLAGGED + " INTEGER NOT NULL, "
+          + COLUMN_UPDATE_TIME_MILLIS + " INTEGER NOT NULL"
+          + ")";
+
+  public static final String QUERY_GET_ALL =
+      "SELECT * FROM " + TABLE_NAME;
+
+  /**
+   * Keeps the latest <var>n</var> rows.
+   */
+  public static final String QUERY_DELETE_ALL_EXCEPT_LATEST_N =
+      "DELETE FROM " + TABLE_NAME
+          + " WHERE " + COLUMN_CACHE_KEY + " NOT IN ("
+          + "SELECT " + COLUMN_CACHE_KEY + " FROM " + TABLE_NAME
+          + " ORDER BY " + COLUMN_UPDATE_TIME_MILLIS + " DESC"
+          + " LIMIT ?)";
+
+  public abstract String cacheKey();
+
+  /**
+   * Null for links that were flagged, but haven't been resolved yet.
+   */
+  @Nullable
+  public abstract String resolvedLinkJson();
+
+  /**
+   * See {@link MediaHostRepository#flagLocalUrlParsingAsIncorrect}.
+   */
+  public abstract boolean flagged();
+
+  abstract long updateTimeMillis();
+
+  public static CachedMediaLinkResolution create(String cacheKey, @Nullable String resolvedLinkJson, boolean flagged, long updateTimeMillis) {
+    return new AutoValue_CachedMediaLinkResolution(cacheKey, resolvedLinkJson, flagged, updateTimeMillis);
+  }
+
+  public ContentValues toValues() {
+    ContentValues values = new ContentValues(4);
+    values.put(COLUMN_CACHE_KEY, cacheKey());
+    values.put(COLUMN_RESOLVED_LINK_JSON, resolvedLinkJson());
+    values.put(COLUMN_FLAGGED, flagged());
+    values.put(COLUMN_UPDATE_TIME_MILLIS, updateTimeMillis());
+    return values;
+  }
+
+  public static final Function<Cursor, CachedMediaLinkResolution> MAPPER = cursor -> create(
+      Cursors.string(cursor, COLUMN_CACHE_KEY),
+      Cursors.string(cursor, COLUMN_RESOLVED_LINK_JSON),
+      Cursors.intt(cursor, COLUMN_FLAGGED) == 1,
+      Cursors.longg(cursor, COLUMN_UPDATE_TIME_MILLIS));
+}
@@ -82,6 +82,7 @@ import me.saket.dank.utils.SystemUiHelper;
 import me.saket.dank.utils.Urls;
 import me.saket.dank.utils.VideoFormat;
 import me.saket.dank.utils.Views;
+import me.saket.dank.utils.glide.AsyncImageLoader;
 import me.saket.dank.widgets.ErrorStateView;
 import me.saket.dank.widgets.ProgressWithFileSizeView;
 import me.saket.dank.widgets.ScrollInterceptibleViewPager;
@@ -622,7 +623,7 @@ public class MediaAlbumViewerActivity extends DankActivity implements MediaFragm
           .apply(new RequestOptions().onlyRetrieveFromCache(true))
           .submit();
 
-      File highResImageFile = highResolutionImageTarget.get();
+      File highResImageFile = AsyncImageLoader.blockingGet(highResolutionImageTarget);
 
       if (highResImageFile != null) {
         emitter.onNext(highResImageFile);
@@ -641,7 +642,7 @@ public class MediaAlbumViewerActivity extends DankActivity implements MediaFragm
               .download(optimizedQualityImageForDevice)
               .apply(new RequestOptions().onlyRetrieveFromCache(true))
               .submit();
-          File optimizedResImageFile = optimizedResolutionImageTarget.get();
+          File optimizedResImageFile = AsyncImageLoader.blockingGet(optimizedResolutionImageTarget);
 
           if (optimizedResImageFile != null) {
             emitter.onNext(optimizedResImageFile);
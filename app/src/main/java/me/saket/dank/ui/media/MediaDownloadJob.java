@@ -7,6 +7,7 @@ import android.support.annotation.Nullable;
 import com.google.auto.value.AutoValue;
 
 import java.io.File;
+import java.util.Collection;
 
 import me.saket.dank.urlparser.MediaLink;
 
@@ -36,6 +37,32 @@ public abstract class MediaDownloadJob implements Parcelable {
 
   public abstract long timestamp();
 
+  /**
+   * For downloads of different links that share the same media.
+   */
+  MediaDownloadJob withMediaLink(MediaLink mediaLink) {
+    return new AutoValue_MediaDownloadJob(mediaLink, progressState(), downloadProgress(), downloadedFile(), timestamp());
+  }
+
+  public boolean isTerminated() {
+    return progressState() == ProgressState.DOWNLOADED || progressState() == ProgressState.FAILED;
+  }
+
+  /**
+   * Combined progress of <var>jobs</var>, where every job counts equally. Failed jobs count as complete.
+   */
+  @IntRange(from = 0, to = 100)
+  public static int aggregateProgress(Collection<MediaDownloadJob> jobs) {
+    if (jobs.isEmpty()) {
+      return 0;
+    }
+    int progressSum = 0;
+    for (MediaDownloadJob job : jobs) {
+      progressSum += job.isTerminated() ? 100 : job.downloadProgress();
+    }
+    return progressSum / jobs.size();
+  }
+
   public static MediaDownloadJob queued(MediaLink mediaLink, long queueTimeMillis) {
     return new AutoValue_MediaDownloadJob(mediaLink, ProgressState.QUEUED, 0, null, queueTimeMillis);
   }
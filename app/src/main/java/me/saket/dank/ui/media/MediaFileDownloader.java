@@ -0,0 +1,308 @@
+package me.saket.dank.ui.media;
+
+import android.support.annotation.CheckResult;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import io.reactivex.Observable;
+import me.saket.dank.urlparser.MediaLink;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+import timber.log.Timber;
+
+/**
+ * Downloads media straight to its destination. Bytes are written to a hidden partial file next to the
+ * destination, which gets renamed once the download completes. An interrupted download continues from
+ * its partial file the next time it's downloaded, using a HTTP range request.
+ * <p>
+ * Partial files are keyed by their url, so that downloads of different media to the same destination
+ * don't mix their bytes. A partial file is only resumed if the server confirms that the media hasn't
+ * changed, using the ETag or Last-Modified date that it sent when the download started. Downloads of
+ * the same url to the same destination that overlap share one request.
+ */
+@Singleton
+public class MediaFileDownloader {
+
+  /**
+   * The maximum count of downloads that should run in parallel.
+   */
+  public static final int MAX_PARALLEL_DOWNLOADS = 4;
+
+  private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+  private static final long READ_SEGMENT_BYTES = 8 * 1024;
+
+  private final OkHttpClient okHttpClient;
+
+  /** Key: partial file. */
+  private final ConcurrentMap<File, OngoingDownload> ongoingDownloads = new ConcurrentHashMap<>();
+
+  @Inject
+  public MediaFileDownloader(@Named("media_downloads") OkHttpClient okHttpClient) {
+    this.okHttpClient = okHttpClient;
+  }
+
+  /**
+   * Emits {@link MediaDownloadJob.ProgressState#CONNECTING}, followed by progress updates and
+   * finally the downloaded <var>destination</var>. An existing file at <var>destination</var> gets replaced.
+   */
+  @CheckResult
+  public Observable<MediaDownloadJob> download(MediaLink mediaLink, String url, File destination) {
+    File partialFile = partialFileFor(destination, url);
+
+    return Observable.defer(() -> {
+      OngoingDownload newDownload = new OngoingDownload();
+      newDownload.jobs = download(mediaLink, url, partialFile, destination, newDownload)
+          .doFinally(() -> ongoingDownloads.remove(partialFile, newDownload))
+          .replay(1)
+          .refCount();
+
+      OngoingDownload existingDownload = ongoingDownloads.putIfAbsent(partialFile, newDownload);
+      if (existingDownload != null) {
+        Timber.i("Joining ongoing download of %s", url);
+        return existingDownload.jobs.map(job -> job.withMediaLink(mediaLink));
+      }
+      return newDownload.jobs;
+    });
+  }
+
+  private Observable<MediaDownloadJob> download(MediaLink mediaLink, String url, File partialFile, File destination, OngoingDownload download) {
+    return Observable.create(emitter -> {
+      long downloadStartTimeMillis = System.currentTimeMillis();
+      emitter.onNext(MediaDownloadJob.connecting(mediaLink, downloadStartTimeMillis));
+
+      try {
+        ResumableResponse resumableResponse = executeResumingFrom(url, partialFile, call -> emitter.setCancellable(call::cancel));
+        Response response = resumableResponse.response;
+
+        //noinspection ConstantConditions
+        try (ResponseBody body = response.body()) {
+          boolean isResuming = resumableResponse.resumeFromBytes > 0;
+          long bytesWritten = resumableResponse.resumeFromBytes;
+          long expectedBytes = body.contentLength() == -1 ? -1 : bytesWritten + body.contentLength();
+          if (isResuming) {
+            Timber.i("Resuming %s from %s bytes", url, bytesWritten);
+          }
+
+          int lastEmittedProgress = -1;
+          try (BufferedSource source = body.source();
+               BufferedSink sink = Okio.buffer(isResuming ? Okio.appendingSink(partialFile) : Okio.sink(partialFile)))
+          {
+            long bytesRead;
+            while ((bytesRead = source.read(sink.buffer(), READ_SEGMENT_BYTES)) != -1) {
+              sink.emitCompleteSegments();
+              bytesWritten += bytesRead;
+
+              if (expectedBytes > 0) {
+                int progress = (int) (100 * bytesWritten / expectedBytes);
+                if (progress != lastEmittedProgress && progress < 100) {
+                  emitter.onNext(MediaDownloadJob.progress(mediaLink, progress, downloadStartTimeMillis));
+                  lastEmittedProgress = progress;
+                }
+              }
+            }
+          }
+        }
+
+        if (destination.exists() && !destination.delete()) {
+          throw new IOException("Couldn't replace " + destination);
+        }
+        if (!partialFile.renameTo(destination)) {
+          throw new IOException("Couldn't move " + partialFile + " to " + destination);
+        }
+        deleteIfExists(validatorFileFor(partialFile));
+
+      } catch (IOException e) {
+        if (emitter.isDisposed()) {
+          // Canceled. The partial file is kept for resuming later, unless it was discarded.
+          if (download.discardWhenCanceled) {
+            deletePartialFile(partialFile);
+          }
+          return;
+        }
+        throw e;
+      }
+
+      emitter.onNext(MediaDownloadJob.downloaded(mediaLink, destination, System.currentTimeMillis()));
+      emitter.onComplete();
+    });
+  }
+
+  /**
+   * Delete the partial file of a canceled download that isn't going to be resumed. If the download is still
+   * running, its partial file gets deleted once all of its subscribers are gone.
+   */
+  public void discardPartialDownload(String url, File destination) {
+    File partialFile = partialFileFor(destination, url);
+    OngoingDownload ongoingDownload = ongoingDownloads.get(partialFile);
+    if (ongoingDownload != null) {
+      ongoingDownload.discardWhenCanceled = true;
+    } else {
+      deletePartialFile(partialFile);
+    }
+  }
+
+  /**
+   * Hidden, so that it doesn't show up in galleries.
+   */
+  static File partialFileFor(File destination, String url) {
+    String urlHash = ByteString.encodeUtf8(url).md5().hex();
+    return new File(destination.getParentFile(), "." + destination.getName() + "." + urlHash + ".part");
+  }
+
+  /**
+   * Stores the ETag or Last-Modified date of the media whose bytes are in <var>partialFile</var>.
+   */
+  static File validatorFileFor(File partialFile) {
+    return new File(partialFile.getParentFile(), partialFile.getName() + ".validator");
+  }
+
+  private static void deletePartialFile(File partialFile) {
+    deleteIfExists(partialFile);
+    deleteIfExists(validatorFileFor(partialFile));
+  }
+
+  private static void deleteIfExists(File file) {
+    if (file.exists() && !file.delete()) {
+      Timber.w("Couldn't delete %s", file);
+    }
+  }
+
+  /**
+   * @return A response for the bytes after <var>partialFile</var>'s length, or for all bytes if the partial
+   * file can't be resumed.
+   */
+  private ResumableResponse executeResumingFrom(String url, File partialFile, CallListener callListener) throws IOException {
+    File validatorFile = validatorFileFor(partialFile);
+    long resumeFromBytes = partialFile.length();
+    String validator = resumeFromBytes > 0 ? readValidator(validatorFile) : null;
+
+    Request.Builder requestBuilder = new Request.Builder().url(url).get();
+    if (validator != null) {
+      requestBuilder.header("Range", "bytes=" + resumeFromBytes + "-");
+      requestBuilder.header("If-Range", validator);
+    }
+
+    Call call = okHttpClient.newCall(requestBuilder.build());
+    callListener.onCall(call);
+    Response response = call.execute();
+
+    if (validator != null) {
+      boolean canResume = response.code() == HttpURLConnection.HTTP_PARTIAL_CONTENT
+          && isContentRangeResumingFrom(response, resumeFromBytes);
+      boolean shouldStartOver = response.code() == HTTP_RANGE_NOT_SATISFIABLE
+          || (response.code() == HttpURLConnection.HTTP_PARTIAL_CONTENT && !canResume);
+
+      if (canResume) {
+        return new ResumableResponse(response, resumeFromBytes);
+      }
+      if (shouldStartOver) {
+        // The partial file doesn't match the media anymore.
+        response.close();
+        deletePartialFile(partialFile);
+        return executeResumingFrom(url, partialFile, callListener);
+      }
+    }
+
+    if (!response.isSuccessful() || response.code() == HttpURLConnection.HTTP_PARTIAL_CONTENT) {
+      response.close();
+      throw new IOException("Unexpected code: " + response);
+    }
+
+    // Starting over. The server either ignored the range or the media has changed since the partial file was written.
+    String newValidator = validatorOf(response);
+    if (newValidator != null) {
+      try (BufferedSink sink = Okio.buffer(Okio.sink(validatorFile))) {
+        sink.writeUtf8(newValidator);
+      }
+    } else {
+      deleteIfExists(validatorFile);
+    }
+    return new ResumableResponse(response, 0);
+  }
+
+  /**
+   * Strong ETags are preferred. Weak ones can't be used for ranges.
+   */
+  @Nullable
+  private static String validatorOf(Response response) {
+    String eTag = response.header("ETag");
+    if (eTag != null && !eTag.startsWith("W/")) {
+      return eTag;
+    }
+    return response.header("Last-Modified");
+  }
+
+  @Nullable
+  private static String readValidator(File validatorFile) {
+    if (!validatorFile.exists()) {
+      return null;
+    }
+    try (BufferedSource source = Okio.buffer(Okio.source(validatorFile))) {
+      String validator = source.readUtf8().trim();
+      return validator.isEmpty() ? null : validator;
+    } catch (IOException e) {
+      Timber.w(e, "Couldn't read %s", validatorFile);
+      return null;
+    }
+  }
+
+  /**
+   * @param response With a Content-Range header like "bytes 8-19/20" or "bytes 8-19/*".
+   */
+  private static boolean isContentRangeResumingFrom(Response response, long resumeFromBytes) {
+    String contentRange = response.header("Content-Range");
+    if (contentRange == null || !contentRange.startsWith("bytes ")) {
+      return false;
+    }
+
+    int dashIndex = contentRange.indexOf('-');
+    int slashIndex = contentRange.indexOf('/');
+    if (dashIndex == -1 || slashIndex < dashIndex) {
+      return false;
+    }
+
+    try {
+      long start = Long.parseLong(contentRange.substring("bytes ".length(), dashIndex).trim());
+      long end = Long.parseLong(contentRange.substring(dashIndex + 1, slashIndex).trim());
+      //noinspection ConstantConditions
+      long contentLength = response.body().contentLength();
+      return start == resumeFromBytes && (contentLength == -1 || end - start + 1 == contentLength);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private interface CallListener {
+    void onCall(Call call);
+  }
+
+  private static class ResumableResponse {
+    final Response response;
+    final long resumeFromBytes;
+
+    ResumableResponse(Response response, long resumeFromBytes) {
+      this.response = response;
+      this.resumeFromBytes = resumeFromBytes;
+    }
+  }
+
+  private static class OngoingDownload {
+    Observable<MediaDownloadJob> jobs;
+    volatile boolean discardWhenCanceled;
+  }
+}
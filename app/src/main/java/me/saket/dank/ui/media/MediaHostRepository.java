@@ -4,10 +4,6 @@ import static java.util.Collections.unmodifiableList;
 
 import android.support.annotation.CheckResult;
 
-import com.nytimes.android.external.fs3.filesystem.FileSystem;
-import com.nytimes.android.external.store3.base.impl.MemoryPolicy;
-import com.nytimes.android.external.store3.base.impl.Store;
-import com.nytimes.android.external.store3.base.impl.StoreBuilder;
 import com.squareup.moshi.JsonDataException;
 import com.squareup.moshi.Moshi;
 
@@ -15,7 +11,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -24,7 +19,6 @@ import io.reactivex.Observable;
 import io.reactivex.Single;
 import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.BuildConfig;
-import me.saket.dank.cache.DiskLruCachePathResolver;
 import me.saket.dank.cache.StoreFilePersister;
 import me.saket.dank.data.CachedResolvedLinkInfo;
 import me.saket.dank.data.FileUploadProgressEvent;
@@ -56,46 +50,28 @@ public class MediaHostRepository {
   private final StreamableRepository streamableRepository;
   private final ImgurRepository imgurRepository;
   private final GiphyRepository giphyRepository;
-  private final Store<MediaLink, MediaLink> cacheStore;
   private final Lazy<UrlParser> urlParser;
   private final Lazy<GfycatRepository> gfycatRepository;
-  private final Lazy<IncorrectMediaUrlParsingData> incorrectMediaUrlParsingData;
+  private final ResolvedMediaLinkIndex resolvedLinkIndex;
+  private final MediaLinkResolutions resolutions;
 
   @Inject
   public MediaHostRepository(
       StreamableRepository streamableRepository,
       ImgurRepository imgurRepository,
-      FileSystem cacheFileSystem,
-      Moshi moshi,
       GiphyRepository giphyRepository,
       Lazy<UrlParser> urlParser,
       Lazy<GfycatRepository> gfycatRepository,
-      Lazy<IncorrectMediaUrlParsingData> incorrectMediaUrlParsingData)
+      ResolvedMediaLinkIndex resolvedLinkIndex,
+      MediaLinkResolutions resolutions)
   {
     this.streamableRepository = streamableRepository;
     this.imgurRepository = imgurRepository;
     this.giphyRepository = giphyRepository;
     this.urlParser = urlParser;
     this.gfycatRepository = gfycatRepository;
-    this.incorrectMediaUrlParsingData = incorrectMediaUrlParsingData;
-
-    StoreFilePersister.JsonParser<MediaLink> jsonParser = new MediaLinkStoreJsonParser(moshi);
-    DiskLruCachePathResolver<MediaLink> pathResolver = new DiskLruCachePathResolver<MediaLink>() {
-      @Override
-      protected String resolveIn64Letters(MediaLink key) {
-        return key.cacheKey();
-      }
-    };
-
-    cacheStore = StoreBuilder.<MediaLink, MediaLink>key()
-        .fetcher(unresolvedMediaLink -> resolveFromRemote(unresolvedMediaLink))
-        .memoryPolicy(MemoryPolicy.builder()
-            .setMemorySize(100)
-            .setExpireAfterWrite(24)
-            .setExpireAfterTimeUnit(TimeUnit.HOURS)
-            .build())
-        .persister(new StoreFilePersister<>(cacheFileSystem, pathResolver, jsonParser))
-        .open();
+    this.resolvedLinkIndex = resolvedLinkIndex;
+    this.resolutions = resolutions;
   }
 
   static class MediaLinkStoreJsonParser implements StoreFilePersister.JsonParser<MediaLink> {
@@ -147,28 +123,45 @@ public class MediaHostRepository {
   }
 
   public void flagLocalUrlParsingAsIncorrect(Link link) {
+    if (!(link instanceof MediaLink)) {
+      Timber.e(new AssertionError("Only media links can be flagged: " + link));
+      return;
+    }
     Timber.w("Flagging link as incorrectly parsed: %s", link);
-    incorrectMediaUrlParsingData.get().flag(link)
-        .subscribeOn(Schedulers.io())
-        .subscribe();
+    resolvedLinkIndex.flag((MediaLink) link);
   }
 
   /**
    * Remember to handle {@link ImgurApiRequestRateLimitReachedException}.
    */
   public Observable<MediaLink> resolveActualLinkIfNeeded(MediaLink unresolvedLink) {
-    return incorrectMediaUrlParsingData.get()
+    return resolvedLinkIndex
         .isFlagged(unresolvedLink)
         .flatMapSingle(flagged -> {
           if (flagged || unresolvedLink instanceof UnresolvedMediaLink) {
-            return cacheStore.get(unresolvedLink);
+            return resolve(unresolvedLink);
           } else {
             return Single.just(unresolvedLink);
           }
         });
   }
 
-  // NOTE: If you see any "MaybeSource is empty" error, it means that the data couldn't be saved or read from cache store.
+  private Single<MediaLink> resolve(MediaLink unresolvedLink) {
+    MediaLinkResolutions.MediaHost host = MediaLinkResolutions.MediaHost.of(unresolvedLink);
+    if (host == null) {
+      Timber.e(new AssertionError("Trying to resolve an already resolved link: " + unresolvedLink));
+      return Single.just(unresolvedLink);
+    }
+
+    Single<MediaLink> remoteResolution = resolutions
+        .resolve(unresolvedLink, host, () -> resolveFromRemote(unresolvedLink))
+        .doOnSuccess(resolvedLink -> resolvedLinkIndex.put(unresolvedLink, resolvedLink));
+
+    return resolvedLinkIndex.get(unresolvedLink)
+        .switchIfEmpty(remoteResolution.toMaybe())
+        .toSingle();
+  }
+
   private Single<MediaLink> resolveFromRemote(MediaLink unresolvedLink) {
     if (unresolvedLink instanceof StreamableUnresolvedLink) {
       return streamableRepository
@@ -238,7 +231,8 @@ public class MediaHostRepository {
     if (!BuildConfig.DEBUG) {
       throw new AssertionError();
     }
-    incorrectMediaUrlParsingData.get().clear();
-    cacheStore.clear();
+    resolvedLinkIndex.clear()
+        .subscribeOn(Schedulers.io())
+        .subscribe();
   }
 }
@@ -0,0 +1,120 @@
+package me.saket.dank.ui.media;
+
+import android.support.annotation.CheckResult;
+import android.support.annotation.Nullable;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import me.saket.dank.urlparser.GfycatLink;
+import me.saket.dank.urlparser.GfycatUnresolvedLink;
+import me.saket.dank.urlparser.ImgurAlbumUnresolvedLink;
+import me.saket.dank.urlparser.MediaLink;
+import me.saket.dank.urlparser.StreamableUnresolvedLink;
+
+/**
+ * Runs remote resolutions of media links. Concurrent resolutions of the same link share one network call,
+ * and each host gets a queue that runs a limited number of resolutions at a time so that loading a page
+ * full of links doesn't burn through a host's rate limit in a burst.
+ */
+@Singleton
+public class MediaLinkResolutions {
+
+  public enum MediaHost {
+    /**
+     * Imgur's limits are tracked by {@link ImgurRepository}, which checks them when a resolution leaves
+     * the queue. Resolutions that are still queued after the budget runs out fail without a network call.
+     */
+    IMGUR(2),
+    GFYCAT(3),
+    STREAMABLE(3);
+
+    final int maxConcurrency;
+
+    MediaHost(int maxConcurrency) {
+      this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * @return Null if <var>link</var> can't be resolved remotely.
+     */
+    @Nullable
+    static MediaHost of(MediaLink link) {
+      if (link instanceof ImgurAlbumUnresolvedLink) {
+        return IMGUR;
+      } else if (link instanceof GfycatUnresolvedLink || link instanceof GfycatLink) {
+        return GFYCAT;
+      } else if (link instanceof StreamableUnresolvedLink) {
+        return STREAMABLE;
+      } else {
+        return null;
+      }
+    }
+  }
+
+  private final ConcurrentMap<String, Single<MediaLink>> inFlightResolutions = new ConcurrentHashMap<>();
+  private final Map<MediaHost, Scheduler> hostSchedulers = new EnumMap<>(MediaHost.class);
+
+  @Inject
+  public MediaLinkResolutions() {
+    for (MediaHost host : MediaHost.values()) {
+      hostSchedulers.put(host, Schedulers.from(createExecutor(host)));
+    }
+  }
+
+  /**
+   * @param resolution Expected to block the thread it gets subscribed on, like Retrofit's synchronous calls.
+   */
+  @CheckResult
+  public Single<MediaLink> resolve(MediaLink unresolvedLink, MediaHost host, Callable<Single<MediaLink>> resolution) {
+    String key = unresolvedLink.cacheKey();
+
+    return Single.defer(() -> {
+      Single<MediaLink> existingResolution = inFlightResolutions.get(key);
+      if (existingResolution != null) {
+        return existingResolution;
+      }
+
+      //noinspection unchecked
+      Single<MediaLink>[] newResolution = new Single[1];
+      newResolution[0] = Single.defer(resolution)
+          .subscribeOn(hostSchedulers.get(host))
+          .doFinally(() -> inFlightResolutions.remove(key, newResolution[0]))
+          .cache();
+
+      existingResolution = inFlightResolutions.putIfAbsent(key, newResolution[0]);
+      return existingResolution != null ? existingResolution : newResolution[0];
+    });
+  }
+
+  private static ThreadPoolExecutor createExecutor(MediaHost host) {
+    AtomicInteger threadNumber = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        host.maxConcurrency,
+        host.maxConcurrency,
+        30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(),
+        runnable -> {
+          Thread thread = new Thread(runnable);
+          thread.setName("media-resolution-" + host.name().toLowerCase(Locale.ENGLISH) + "-" + threadNumber.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    // Links are resolved in bursts when pages load.
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+}
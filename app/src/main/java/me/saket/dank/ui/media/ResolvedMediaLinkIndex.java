@@ -0,0 +1,172 @@
+package me.saket.dank.ui.media;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.CheckResult;
+
+import com.jakewharton.rxrelay2.PublishRelay;
+import com.jakewharton.rxrelay2.Relay;
+import com.squareup.moshi.JsonDataException;
+import com.squareup.moshi.Moshi;
+import com.nytimes.android.external.cache3.Cache;
+import com.nytimes.android.external.cache3.CacheBuilder;
+import com.squareup.sqlbrite2.BriteDatabase;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.reactivex.Completable;
+import io.reactivex.Maybe;
+import io.reactivex.Observable;
+import io.reactivex.schedulers.Schedulers;
+import me.saket.dank.urlparser.MediaLink;
+import okio.Buffer;
+import timber.log.Timber;
+
+/**
+ * Resolved media links and links flagged as incorrectly parsed, stored in one table against the cache-keys
+ * of their unresolved links. The table is read once into memory, after which lookups don't touch the disk.
+ * Changes are written in batches. Both the table and the in-memory copy are limited to {@link #MAX_ENTRIES}
+ * links, with the least recently used links getting evicted from memory first.
+ */
+@Singleton
+public class ResolvedMediaLinkIndex {
+
+  private static final int MAX_ENTRIES = 2000;
+  private static final long WRITE_BATCH_WINDOW_MILLIS = 500;
+  private static final int WRITE_BATCH_MAX_SIZE = 50;
+
+  private final BriteDatabase database;
+  private final MediaHostRepository.MediaLinkStoreJsonParser jsonParser;
+  private final Cache<String, MediaLink> resolvedLinks = CacheBuilder.newBuilder()
+      .maximumSize(MAX_ENTRIES)
+      .build();
+  private final Cache<String, Boolean> flaggedKeys = CacheBuilder.newBuilder()
+      .maximumSize(MAX_ENTRIES)
+      .build();
+  private final Relay<String> flagChanges = PublishRelay.<String>create().toSerialized();
+  private final Relay<String> dirtyKeys = PublishRelay.<String>create().toSerialized();
+  private final Completable load;
+
+  @Inject
+  public ResolvedMediaLinkIndex(BriteDatabase database, Moshi moshi) {
+    this.database = database;
+    this.jsonParser = new MediaHostRepository.MediaLinkStoreJsonParser(moshi);
+    this.load = Completable.fromAction(() -> loadFromDisk())
+        .doOnError(error -> Timber.e(error, "Couldn't load resolved media links"))
+        .onErrorComplete()
+        .subscribeOn(Schedulers.io())
+        .cache();
+
+    //noinspection ResultOfMethodCallIgnored
+    dirtyKeys
+        .buffer(WRITE_BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS, Schedulers.io(), WRITE_BATCH_MAX_SIZE)
+        .filter(keys -> !keys.isEmpty())
+        .subscribe(
+            keys -> writeToDisk(keys),
+            error -> Timber.e(error, "Stopped writing resolved media links"));
+  }
+
+  @CheckResult
+  public Maybe<MediaLink> get(MediaLink unresolvedLink) {
+    return load.andThen(Maybe.fromCallable(() -> resolvedLinks.getIfPresent(unresolvedLink.cacheKey())));
+  }
+
+  public void put(MediaLink unresolvedLink, MediaLink resolvedLink) {
+    resolvedLinks.put(unresolvedLink.cacheKey(), resolvedLink);
+    dirtyKeys.accept(unresolvedLink.cacheKey());
+  }
+
+  public void flag(MediaLink link) {
+    if (flaggedKeys.asMap().putIfAbsent(link.cacheKey(), Boolean.TRUE) == null) {
+      flagChanges.accept(link.cacheKey());
+      dirtyKeys.accept(link.cacheKey());
+    }
+  }
+
+  /**
+   * Emits the current state immediately, followed by changes.
+   */
+  @CheckResult
+  public Observable<Boolean> isFlagged(MediaLink link) {
+    String cacheKey = link.cacheKey();
+    return load.andThen(flagChanges.filter(cacheKey::equals).startWith(cacheKey))
+        .map(key -> isFlagged(key))
+        .distinctUntilChanged();
+  }
+
+  @CheckResult
+  public Completable clear() {
+    return load.andThen(Completable.fromAction(() -> {
+      resolvedLinks.invalidateAll();
+      flaggedKeys.invalidateAll();
+      database.delete(CachedMediaLinkResolution.TABLE_NAME, null);
+    }));
+  }
+
+  private boolean isFlagged(String cacheKey) {
+    return flaggedKeys.getIfPresent(cacheKey) != null;
+  }
+
+  private void loadFromDisk() throws Exception {
+    database.executeAndTrigger(
+        CachedMediaLinkResolution.TABLE_NAME,
+        CachedMediaLinkResolution.QUERY_DELETE_ALL_EXCEPT_LATEST_N,
+        MAX_ENTRIES);
+
+    int count = 0;
+    try (Cursor cursor = database.query(CachedMediaLinkResolution.QUERY_GET_ALL)) {
+      while (cursor.moveToNext()) {
+        CachedMediaLinkResolution row = CachedMediaLinkResolution.MAPPER.apply(cursor);
+        String json = row.resolvedLinkJson();
+        if (json != null) {
+          try {
+            // Links resolved before loading finished are newer.
+            resolvedLinks.asMap().putIfAbsent(row.cacheKey(), jsonParser.fromJson(new Buffer().writeUtf8(json)));
+          } catch (IOException | RuntimeException e) {
+            Timber.e(e, "Couldn't parse resolved link: %s", json);
+          }
+        }
+        if (row.flagged()) {
+          flaggedKeys.asMap().putIfAbsent(row.cacheKey(), Boolean.TRUE);
+        }
+        count++;
+      }
+    }
+    Timber.i("Loaded %s resolved media links", count);
+  }
+
+  private void writeToDisk(List<String> keys) {
+    long nowMillis = System.currentTimeMillis();
+
+    try (BriteDatabase.Transaction transaction = database.newTransaction()) {
+      for (String key : new LinkedHashSet<>(keys)) {
+        MediaLink resolvedLink = resolvedLinks.getIfPresent(key);
+        String json = null;
+        if (resolvedLink != null) {
+          try {
+            json = jsonParser.toJson(resolvedLink);
+          } catch (JsonDataException e) {
+            // Only kept in memory.
+            Timber.w("Can't store resolved link: %s", resolvedLink);
+          }
+        }
+
+        boolean flagged = isFlagged(key);
+        if (json == null && !flagged) {
+          // Also the case for links that got evicted before their batch was written.
+          continue;
+        }
+        CachedMediaLinkResolution row = CachedMediaLinkResolution.create(key, json, flagged, nowMillis);
+        database.insert(CachedMediaLinkResolution.TABLE_NAME, row.toValues(), SQLiteDatabase.CONFLICT_REPLACE);
+      }
+      transaction.markSuccessful();
+    } catch (RuntimeException e) {
+      Timber.e(e, "Couldn't write %s resolved media links", keys.size());
+    }
+  }
+}
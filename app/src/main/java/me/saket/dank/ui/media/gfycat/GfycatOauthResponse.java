@@ -9,7 +9,7 @@ import com.squareup.moshi.Moshi;
 public abstract class GfycatOauthResponse {
 
   @Json(name = "expires_in")
-  public abstract long expiresInMillis();
+  public abstract long expiresInSeconds();
 
   @Json(name = "access_token")
   public abstract String accessToken();
@@ -18,7 +18,7 @@ public abstract class GfycatOauthResponse {
     return new AutoValue_GfycatOauthResponse.MoshiJsonAdapter(moshi);
   }
 
-  public static GfycatOauthResponse create(long expiresInMillis, String accessToken) {
-    return new AutoValue_GfycatOauthResponse(expiresInMillis, accessToken);
+  public static GfycatOauthResponse create(long expiresInSeconds, String accessToken) {
+    return new AutoValue_GfycatOauthResponse(expiresInSeconds, accessToken);
   }
 }
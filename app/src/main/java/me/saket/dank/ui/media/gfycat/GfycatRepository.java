@@ -4,20 +4,27 @@ import static java.lang.System.currentTimeMillis;
 
 import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 import dagger.Lazy;
-import io.reactivex.Completable;
 import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.di.DankApi;
 import me.saket.dank.urlparser.GfycatLink;
 import me.saket.dank.urlparser.UrlParserConfig;
+import me.saket.dank.utils.oauth.OAuthToken;
+import me.saket.dank.utils.oauth.OAuthTokenManager;
 import retrofit2.HttpException;
 
+@Singleton
 public class GfycatRepository {
 
+  private static final long TOKEN_REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
   private final Lazy<DankApi> dankApi;
   private final Lazy<UrlParserConfig> urlParserConfig;
   private final Lazy<GfycatRepositoryData> data;
+  private final OAuthTokenManager tokenManager;
 
   @Inject
   public GfycatRepository(
@@ -28,6 +35,7 @@ public class GfycatRepository {
     this.dankApi = dankApi;
     this.urlParserConfig = urlParserConfig;
     this.data = data;
+    this.tokenManager = new OAuthTokenManager("gfycat", new TokenProvider(), Schedulers.io(), TOKEN_REFRESH_AHEAD_MILLIS);
   }
 
   public Single<GfycatLink> gif(String threeWordId) {
@@ -53,20 +61,22 @@ public class GfycatRepository {
   }
 
   private Single<String> authToken() {
-    return data.get().tokenExpiryTimeMillis()
-        .map(expiryTimeMillis -> {
-          long fiveMinutesAgo = currentTimeMillis() - TimeUnit.MINUTES.toMillis(5);
-          return expiryTimeMillis < fiveMinutesAgo;
-        })
-        .flatMapCompletable(hasTokenExpired -> {
-          if (hasTokenExpired) {
-            return dankApi.get()
-                .gfycatOAuth("2_K1VUup", "vk8KwIPVFNa2eRWr7JbPfACeG0LPAVw2nHZ-cWc19te7RaMr0X_UrSKXOYHClctA")
-                .flatMapCompletable(response -> data.get().saveOAuthResponse(response));
-          } else {
-            return Completable.complete();
-          }
-        })
-        .andThen(data.get().accessToken());
+    return Single.fromCallable(() -> tokenManager.token());
+  }
+
+  private class TokenProvider implements OAuthTokenManager.Provider {
+    @Override
+    public OAuthToken restore() {
+      return OAuthToken.create(data.get().accessToken().blockingGet(), data.get().tokenExpiryTimeMillis().blockingGet());
+    }
+
+    @Override
+    public OAuthToken refresh() {
+      GfycatOauthResponse response = dankApi.get()
+          .gfycatOAuth("2_K1VUup", "vk8KwIPVFNa2eRWr7JbPfACeG0LPAVw2nHZ-cWc19te7RaMr0X_UrSKXOYHClctA")
+          .blockingGet();
+      data.get().saveOAuthResponse(response).blockingAwait();
+      return OAuthToken.create(response.accessToken(), currentTimeMillis() + TimeUnit.SECONDS.toMillis(response.expiresInSeconds()));
+    }
   }
 }
@@ -7,6 +7,7 @@ import android.support.annotation.CheckResult;
 import com.f2prateek.rx.preferences2.Preference;
 import com.f2prateek.rx.preferences2.RxSharedPreferences;
 
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Named;
 
@@ -45,7 +46,7 @@ public class GfycatRepositoryData {
   @CheckResult
   public Completable saveOAuthResponse(GfycatOauthResponse response) {
     return Completable.fromAction(() -> {
-      accessTokenExpiryTimeMillisStore.set(currentTimeMillis() + response.expiresInMillis());
+      accessTokenExpiryTimeMillisStore.set(currentTimeMillis() + TimeUnit.SECONDS.toMillis(response.expiresInSeconds()));
       accessTokenStore.set(response.accessToken());
     });
   }
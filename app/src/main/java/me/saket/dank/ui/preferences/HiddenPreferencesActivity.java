@@ -19,6 +19,7 @@ import android.widget.ScrollView;
 import com.bumptech.glide.Glide;
 import com.squareup.sqlbrite2.BriteDatabase;
 
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -29,6 +30,9 @@ import dagger.Lazy;
 import io.reactivex.Completable;
 import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.R;
+import me.saket.dank.cache.CacheBudgetManager;
+import me.saket.dank.cache.OfflineSnapshotSync;
+import me.saket.dank.cache.OfflineSyncRun;
 import me.saket.dank.data.LinkMetadataRepository;
 import me.saket.dank.di.Dank;
 import me.saket.dank.notifs.CheckUnreadMessagesJobService;
@@ -36,14 +40,21 @@ import me.saket.dank.reply.ReplyRepository;
 import me.saket.dank.ui.DankPullCollapsibleActivity;
 import me.saket.dank.ui.appshortcuts.AppShortcutRepository;
 import me.saket.dank.ui.media.MediaHostRepository;
+import me.saket.dank.ui.submission.CommentBodyPreRenderer;
 import me.saket.dank.ui.submission.SubmissionCommentTreeUiConstructor;
 import me.saket.dank.ui.submission.SubmissionRepository;
 import me.saket.dank.ui.subscriptions.SubscriptionRepository;
 import me.saket.dank.ui.user.messages.CachedMessage;
+import me.saket.dank.ui.user.messages.CachedMessageEntry;
 import me.saket.dank.urlparser.UrlParser;
+import me.saket.dank.utils.Intents;
 import me.saket.dank.utils.RxUtils;
 import me.saket.dank.utils.Views;
+import me.saket.dank.utils.glide.AsyncImageLoader;
 import me.saket.dank.utils.markdown.Markdown;
+import me.saket.dank.utils.okhttp.OkHttpClientMetrics;
+import me.saket.dank.utils.okhttp.OkHttpCore;
+import me.saket.dank.utils.rx.StreamLatencyMonitor;
 import me.saket.dank.vote.VotingManager;
 import me.saket.dank.widgets.InboxUI.IndependentExpandablePageLayout;
 import timber.log.Timber;
@@ -67,6 +78,11 @@ public class HiddenPreferencesActivity extends DankPullCollapsibleActivity {
   @Inject Lazy<MediaHostRepository> mediaHostRepository;
   @Inject Lazy<AppShortcutRepository> appShortcutRepository;
   @Inject @Named("walkthroughs") Lazy<SharedPreferences> sharedPreferences;
+  @Inject Lazy<OkHttpCore> okHttpCore;
+  @Inject Lazy<CacheBudgetManager> cacheBudgetManager;
+  @Inject Lazy<OfflineSnapshotSync> offlineSnapshotSync;
+  @Inject Lazy<StreamLatencyMonitor> streamLatencyMonitor;
+  @Inject Lazy<CommentBodyPreRenderer> commentBodyPreRenderer;
 
   public static void start(Context context) {
     context.startActivity(new Intent(context, HiddenPreferencesActivity.class));
@@ -106,6 +122,9 @@ public class HiddenPreferencesActivity extends DankPullCollapsibleActivity {
           .fromAction(() -> {
             briteDatabase.executeAndTrigger(CachedMessage.TABLE_NAME, "DROP TABLE " + CachedMessage.TABLE_NAME);
             briteDatabase.executeAndTrigger(CachedMessage.TABLE_NAME, CachedMessage.QUERY_CREATE_TABLE);
+            briteDatabase.executeAndTrigger(CachedMessageEntry.TABLE_NAME, "DROP TABLE " + CachedMessageEntry.TABLE_NAME);
+            briteDatabase.executeAndTrigger(CachedMessageEntry.TABLE_NAME, CachedMessageEntry.QUERY_CREATE_TABLE);
+            briteDatabase.executeAndTrigger(CachedMessageEntry.TABLE_NAME, CachedMessageEntry.QUERY_CREATE_THREAD_INDEX);
           })
           .compose(RxUtils.applySchedulersCompletable())
           .subscribe(() -> {
@@ -168,6 +187,55 @@ public class HiddenPreferencesActivity extends DankPullCollapsibleActivity {
       markdown.get().clearCache();
     });
 
+    addButton("Log network metrics", o -> {
+      for (Map.Entry<String, OkHttpClientMetrics.Snapshot> entry : okHttpCore.get().metrics().entrySet()) {
+        Timber.i("%s: %s", entry.getKey(), entry.getValue());
+      }
+      Timber.i("Submission fetches: %s", submissionRepository.submissionFetchStats());
+      Timber.i("Threads blocked on image loads: %s", AsyncImageLoader.blockedThreadCount());
+    });
+
+    addButton("Log comment pre-render stats", o -> {
+      Timber.i("Comment bodies: %s", commentBodyPreRenderer.get().stats());
+    });
+
+    addButton("Share UI stream latencies", o -> {
+      String latencies = StreamLatencyMonitor.toTsv(streamLatencyMonitor.get().snapshot());
+      Timber.i("UI stream latencies:\n%s", latencies);
+      startActivity(Intents.createForSharingUrl(this, "Dank UI stream latencies", latencies));
+    });
+
+    addButton("Log cache usage", o -> {
+      cacheBudgetManager.get().usage()
+          .subscribeOn(io())
+          .takeUntil(lifecycle().onDestroyCompletable())
+          .subscribe(
+              usage -> Timber.i("Cache usage: %s", usage),
+              error -> Timber.e(error, "Couldn't calculate cache usage"));
+    });
+
+    addButton("Enforce cache budget", o -> {
+      cacheBudgetManager.get().enforceBudget()
+          .subscribeOn(io())
+          .takeUntil(lifecycle().onDestroyCompletable())
+          .subscribe(
+              usage -> Timber.i("Cache usage after eviction: %s", usage),
+              error -> Timber.e(error, "Couldn't enforce cache budget"));
+    });
+
+    addButton("Log offline sync runs", o -> {
+      offlineSnapshotSync.get().latestRuns(10)
+          .subscribeOn(io())
+          .takeUntil(lifecycle().onDestroyCompletable())
+          .subscribe(
+              runs -> {
+                for (OfflineSyncRun run : runs) {
+                  Timber.i("%s", run);
+                }
+              },
+              error -> Timber.e(error, "Couldn't read offline sync runs"));
+    });
+
     addButton("Recycle old DB rows", o -> {
       int durationFromNow = 0;
       TimeUnit durationTimeUnit = TimeUnit.DAYS;
@@ -1,5 +1,6 @@
 package me.saket.dank.ui.preferences;
 
+import android.content.res.Resources;
 import android.graphics.Typeface;
 import android.view.View;
 import android.widget.TextView;
@@ -12,20 +13,35 @@ import javax.inject.Singleton;
 
 import io.github.inflationx.viewpump.InflateResult;
 import io.reactivex.Observable;
+import me.saket.dank.utils.Pair;
 import me.saket.dank.widgets.ToolbarWithCustomTypeface;
 
+/**
+ * The font of the preferred typeface is loaded once and shared by all TextViews until the preference changes.
+ */
 @Singleton
 public class TypefaceInflationInterceptor implements io.github.inflationx.viewpump.Interceptor {
 
+  private final Preference<TypefaceResource> preference;
   private final Observable<TypefaceResource> preferenceChanges;
+  private volatile Pair<TypefaceResource, Typeface> lastLoadedTypeface;
 
   @Inject
   public TypefaceInflationInterceptor(Preference<TypefaceResource> preference) {
+    this.preference = preference;
     preferenceChanges = preference.asObservable()
         .replay(1)
         .refCount();
   }
 
+  /**
+   * Reads the preferred typeface from the disk and loads its font, so that the first inflated
+   * TextViews don't have to. Called on a background thread on app startup.
+   */
+  public void preload(Resources resources) {
+    typefaceFor(preference.get(), resources);
+  }
+
   @Override
   public InflateResult intercept(Chain chain) {
     InflateResult result = chain.proceed(chain.request());
@@ -47,8 +63,17 @@ public class TypefaceInflationInterceptor implements io.github.inflationx.viewpu
     preferenceChanges
         .takeUntil(RxView.detaches(view))
         .subscribe(typefaceRes -> {
-          Typeface font = typefaceRes.get(view.getResources());
+          Typeface font = typefaceFor(typefaceRes, view.getResources());
           view.setTypeface(font);
         });
   }
+
+  private Typeface typefaceFor(TypefaceResource typefaceRes, Resources resources) {
+    Pair<TypefaceResource, Typeface> loadedTypeface = lastLoadedTypeface;
+    if (loadedTypeface == null || !loadedTypeface.first().equals(typefaceRes)) {
+      loadedTypeface = Pair.create(typefaceRes, typefaceRes.get(resources));
+      lastLoadedTypeface = loadedTypeface;
+    }
+    return loadedTypeface.second();
+  }
 }
@@ -0,0 +1,332 @@
+package me.saket.dank.ui.submission;
+
+import android.os.Process;
+import android.support.annotation.CheckResult;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.google.auto.value.AutoValue;
+import com.jakewharton.rxrelay2.PublishRelay;
+import com.jakewharton.rxrelay2.Relay;
+import com.nytimes.android.external.cache3.Cache;
+import com.nytimes.android.external.cache3.CacheBuilder;
+
+import net.dean.jraw.models.Comment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import dagger.Lazy;
+import io.reactivex.Observable;
+import me.saket.dank.utils.markdown.Markdown;
+import timber.log.Timber;
+
+/**
+ * Parses markdown of comment bodies on a small background pool, so that opening a thread or resolving
+ * "load more" doesn't have to parse every body on a single thread.
+ * <p>
+ * {@link SubmissionCommentTreeUiConstructor} queues the first screen of comments and waits for them. Bodies
+ * further down are deferred: their rows show the unparsed body until the comment list's visible range
+ * reaches them and they get pre-rendered, after which their rows get constructed again.
+ * <p>
+ * Parsed bodies are kept in a bounded cache, keyed by their comment's full-name and edit time, so that
+ * constructing a row again (for instance, after a background render) doesn't parse its body again.
+ */
+@Singleton
+public class CommentBodyPreRenderer {
+
+  static final int PRE_RENDER_AHEAD_COUNT = 60;
+  private static final int POOL_SIZE = 2;
+  private static final int MAX_RENDERED_BODIES = 1_000;
+
+  private final Lazy<Markdown> markdown;
+  private final Cache<String, CharSequence> renderedBodies;
+  private final Map<String, RenderTask> pendingTasks = new ConcurrentHashMap<>();
+  private final ExecutorService pool;
+  private final Relay<String> backgroundRenders = PublishRelay.<String>create().toSerialized();
+  private List<RenderTask> lastQueuedTasks = Collections.emptyList();
+  private int queueGeneration;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong waitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong deferCount = new AtomicLong();
+  private final AtomicLong backgroundParseCount = new AtomicLong();
+  private final AtomicLong parseCount = new AtomicLong();
+  private final AtomicLong parseTimeNanos = new AtomicLong();
+
+  @Inject
+  public CommentBodyPreRenderer(Lazy<Markdown> markdown) {
+    this(markdown, createPool());
+  }
+
+  @VisibleForTesting
+  CommentBodyPreRenderer(Lazy<Markdown> markdown, ExecutorService pool) {
+    this.markdown = markdown;
+    this.pool = pool;
+    this.renderedBodies = CacheBuilder.newBuilder()
+        .maximumSize(MAX_RENDERED_BODIES)
+        .build();
+  }
+
+  private static ExecutorService createPool() {
+    AtomicInteger threadCount = new AtomicInteger();
+    return Executors.newFixedThreadPool(POOL_SIZE, runnable -> {
+      Thread thread = new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        runnable.run();
+      });
+      thread.setName("comment-pre-render-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private static String keyFor(Comment comment) {
+    Date editedTime = comment.getEdited();
+    return comment.getFullName() + "_" + (editedTime != null ? editedTime.getTime() : 0);
+  }
+
+  /**
+   * Whether <var>comment</var>'s body has been parsed. Bodies that are still queued don't count, so that
+   * callers keep passing them to {@link #preRender(List)} for as long as they want them.
+   */
+  public boolean isRendered(Comment comment) {
+    return renderedBodies.getIfPresent(keyFor(comment)) != null;
+  }
+
+  /**
+   * Queues bodies for parsing in the background. Comments that are already queued stay queued, and comments
+   * queued earlier that are missing from <var>commentsInPriorityOrder</var> get dropped if they haven't started
+   * yet. Called by the UI constructor for the first screen of a (sub)tree and by the comment list as it scrolls.
+   *
+   * @param commentsInPriorityOrder Comments that will be shown soonest come first. Expected to contain
+   *                                at-most {@link #PRE_RENDER_AHEAD_COUNT} comments.
+   */
+  public synchronized void preRender(List<Comment> commentsInPriorityOrder) {
+    int generation = ++queueGeneration;
+
+    List<RenderTask> queuedTasks = new ArrayList<>(commentsInPriorityOrder.size());
+    for (int i = 0; i < commentsInPriorityOrder.size(); i++) {  // Intentionally avoiding thrashing Iterator objects.
+      Comment comment = commentsInPriorityOrder.get(i);
+      String key = keyFor(comment);
+      if (renderedBodies.getIfPresent(key) != null) {
+        continue;
+      }
+
+      RenderTask task = pendingTasks.get(key);
+      if (task == null) {
+        task = new RenderTask(key, comment);
+        pendingTasks.put(key, task);
+        pool.execute(task);
+      }
+      task.queueGeneration = generation;
+      queuedTasks.add(task);
+    }
+
+    for (int i = 0; i < lastQueuedTasks.size(); i++) {
+      RenderTask lastQueuedTask = lastQueuedTasks.get(i);
+      if (lastQueuedTask.queueGeneration != generation) {
+        lastQueuedTask.drop();
+      }
+    }
+    lastQueuedTasks = queuedTasks;
+  }
+
+  /**
+   * Full-names of comments whose bodies were parsed in the background. Emits on the pre-render pool.
+   */
+  @CheckResult
+  public Observable<String> streamBackgroundRenders() {
+    return backgroundRenders;
+  }
+
+  /**
+   * Pre-rendered body of <var>comment</var> if it's ready. Parsed on the calling thread otherwise.
+   */
+  public CharSequence body(Comment comment) {
+    String key = keyFor(comment);
+
+    // Pending tasks are checked before rendered bodies because tasks cache
+    // their bodies before removing themselves from pending tasks.
+    RenderTask task = pendingTasks.get(key);
+    if (task == null) {
+      CharSequence renderedBody = renderedBodies.getIfPresent(key);
+      if (renderedBody != null) {
+        hitCount.incrementAndGet();
+        return renderedBody;
+      }
+
+    } else if (!task.drop()) {
+      // The task has started. If it hadn't, it's cheaper to parse the
+      // body right here than to wait for the pool to get to it.
+      CharSequence parsedBody = task.await();
+      if (parsedBody != null) {
+        waitCount.incrementAndGet();
+        return parsedBody;
+      }
+    }
+
+    missCount.incrementAndGet();
+    CharSequence parsedBody = parse(comment);
+    renderedBodies.put(key, parsedBody);
+    return parsedBody;
+  }
+
+  /**
+   * Like {@link #body(Comment)}, but returns null instead of parsing on the calling thread if the body
+   * hasn't started parsing in the background. The body will get emitted by {@link #streamBackgroundRenders()}
+   * once it's pre-rendered.
+   */
+  @Nullable
+  public CharSequence bodyIfPreRendered(Comment comment) {
+    String key = keyFor(comment);
+    RenderTask task = pendingTasks.get(key);
+    if (task == null) {
+      CharSequence renderedBody = renderedBodies.getIfPresent(key);
+      if (renderedBody != null) {
+        hitCount.incrementAndGet();
+        return renderedBody;
+      }
+
+    } else if (task.hasStarted()) {
+      CharSequence parsedBody = task.await();
+      if (parsedBody != null) {
+        waitCount.incrementAndGet();
+        return parsedBody;
+      }
+    }
+
+    deferCount.incrementAndGet();
+    return null;
+  }
+
+  private CharSequence parse(Comment comment) {
+    long startTimeNanos = System.nanoTime();
+    CharSequence parsedBody = markdown.get().parse(comment);
+    parseTimeNanos.addAndGet(System.nanoTime() - startTimeNanos);
+    parseCount.incrementAndGet();
+    return parsedBody;
+  }
+
+  public Stats stats() {
+    long parses = parseCount.get();
+    long averageParseTimeMicros = parses > 0 ? parseTimeNanos.get() / parses / 1_000 : 0;
+    return Stats.create(hitCount.get(), waitCount.get(), missCount.get(), deferCount.get(), backgroundParseCount.get(), averageParseTimeMicros);
+  }
+
+  @AutoValue
+  public abstract static class Stats {
+    /** Bodies that were already parsed when the UI constructor needed them. */
+    public abstract long hitCount();
+
+    /** Bodies that were being parsed in the background when the UI constructor needed them. */
+    public abstract long waitCount();
+
+    /** Bodies that the UI constructor had to parse itself. */
+    public abstract long missCount();
+
+    /** Bodies that weren't parsed yet and were left for the comment list's visible range to pre-render. */
+    public abstract long deferCount();
+
+    public abstract long backgroundParseCount();
+
+    public abstract long averageParseTimeMicros();
+
+    public static Stats create(long hitCount, long waitCount, long missCount, long deferCount, long backgroundParseCount, long averageParseTimeMicros) {
+      return new AutoValue_CommentBodyPreRenderer_Stats(hitCount, waitCount, missCount, deferCount, backgroundParseCount, averageParseTimeMicros);
+    }
+  }
+
+  /**
+   * A body waiting to be parsed. Claimed by whoever gets to it first: the pool or the UI constructor.
+   */
+  private class RenderTask implements Runnable {
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int DROPPED = 3;
+
+    private final String key;
+    private final Comment comment;
+    private final AtomicInteger state = new AtomicInteger(QUEUED);
+    private final CountDownLatch completion = new CountDownLatch(1);
+    private volatile CharSequence parsedBody;
+
+    /** Last {@link #preRender(List)} call that asked for this task. Only touched while holding its lock. */
+    int queueGeneration;
+
+    RenderTask(String key, Comment comment) {
+      this.key = key;
+      this.comment = comment;
+    }
+
+    boolean hasStarted() {
+      return state.get() != QUEUED;
+    }
+
+    /**
+     * @return False if the task has already started.
+     */
+    boolean drop() {
+      if (!state.compareAndSet(QUEUED, DROPPED)) {
+        return false;
+      }
+      pendingTasks.remove(key, this);
+      completion.countDown();
+      return true;
+    }
+
+    @Override
+    public void run() {
+      if (!state.compareAndSet(QUEUED, RUNNING)) {
+        return;
+      }
+      try {
+        parsedBody = parse(comment);
+        renderedBodies.put(key, parsedBody);
+        backgroundParseCount.incrementAndGet();
+      } catch (Throwable e) {
+        // The UI constructor will try again and surface the error if it's still there.
+        Timber.e(e, "Couldn't pre-render body of %s", key);
+      } finally {
+        state.set(DONE);
+        pendingTasks.remove(key, this);
+        completion.countDown();
+      }
+      if (parsedBody != null) {
+        backgroundRenders.accept(comment.getFullName());
+      }
+    }
+
+    /**
+     * @return Null if the task was dropped or failed.
+     */
+    CharSequence await() {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          completion.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      return parsedBody;
+    }
+  }
+}
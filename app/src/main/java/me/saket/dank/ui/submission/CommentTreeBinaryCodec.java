@@ -0,0 +1,326 @@
+package me.saket.dank.ui.submission;
+
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of comments for storing them in Room, one row per comment. Compared to storing
+ * them as JSON, this
+ * <ul>
+ * <li>interns short strings (JSON keys, authors, subreddits, ids) into a {@link StringTable} that's
+ * shared by all rows of a tree,</li>
+ * <li>writes integral numbers (scores, timestamps) as zig-zag varints and</li>
+ * <li>writes long strings (comment bodies) length-prefixed, without any escaping.</li>
+ * </ul>
+ * <p>
+ * Comments are converted to and from JSON values (maps and lists) using JRAW's Moshi adapters
+ * so that the encoding does not have to know about every field of {@link net.dean.jraw.models.Comment}.
+ * <p>
+ * Format (version 1):
+ * <pre>
+ * string table: magic ("DCT") | version (1 byte) | varint count, [varint byte-length, UTF-8 bytes]...
+ * row: value
+ * </pre>
+ * See {@link NormalizedCommentTree}.
+ */
+public class CommentTreeBinaryCodec {
+
+  static final byte[] MAGIC = { 'D', 'C', 'T' };
+  static final int VERSION = 1;
+
+  /** Strings longer than this are written inline instead of being interned. */
+  private static final int MAX_INTERNED_STRING_LENGTH = 64;
+
+  private static final int TYPE_NULL = 0;
+  private static final int TYPE_FALSE = 1;
+  private static final int TYPE_TRUE = 2;
+  private static final int TYPE_LONG = 3;
+  private static final int TYPE_DOUBLE = 4;
+  private static final int TYPE_STRING = 5;
+  private static final int TYPE_INTERNED_STRING = 6;
+  private static final int TYPE_LIST = 7;
+  private static final int TYPE_MAP = 8;
+
+  /** Largest integer that a double can represent without losing precision. */
+  private static final double MAX_EXACT_DOUBLE = 9007199254740992d;
+
+  /**
+   * Encodes a single JSON value, like a comment without its replies, for storing it as one of many rows
+   * of a tree. Strings are interned into <var>sharedStrings</var>, which has to be stored separately.
+   * See {@link NormalizedCommentTree}.
+   */
+  static byte[] encodeRow(@Nullable Object value, StringTable sharedStrings) {
+    Output output = new Output(1024);
+    writeValue(output, sharedStrings, value);
+    return output.toByteArray();
+  }
+
+  static Object decodeRow(byte[] bytes, String[] sharedStrings) {
+    return readValue(new Input(bytes), sharedStrings);
+  }
+
+  private static void readHeader(Input input) {
+    for (byte magicByte : MAGIC) {
+      if (input.readByte() != magicByte) {
+        throw new IllegalArgumentException("Not an encoded comment tree");
+      }
+    }
+    int version = input.readByte();
+    if (version != VERSION) {
+      throw new IllegalArgumentException("Unknown comment tree version: " + version);
+    }
+  }
+
+  private static void writeValue(Output output, StringTable stringTable, @Nullable Object value) {
+    if (value == null) {
+      output.write(TYPE_NULL);
+
+    } else if (value instanceof Boolean) {
+      output.write((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+
+    } else if (value instanceof String) {
+      String string = (String) value;
+      if (string.length() <= MAX_INTERNED_STRING_LENGTH) {
+        output.write(TYPE_INTERNED_STRING);
+        output.writeVarInt(stringTable.indexOf(string));
+      } else {
+        output.write(TYPE_STRING);
+        output.writeLengthPrefixedString(string);
+      }
+
+    } else if (value instanceof Number) {
+      double number = ((Number) value).doubleValue();
+      boolean isIntegral = value instanceof Long || value instanceof Integer || value instanceof Short
+          || (number == Math.rint(number) && Math.abs(number) < MAX_EXACT_DOUBLE);
+      if (isIntegral) {
+        output.write(TYPE_LONG);
+        output.writeVarLong(((Number) value).longValue());
+      } else {
+        output.write(TYPE_DOUBLE);
+        output.writeDouble(number);
+      }
+
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      output.write(TYPE_LIST);
+      output.writeVarInt(list.size());
+      for (int i = 0; i < list.size(); i++) {
+        writeValue(output, stringTable, list.get(i));
+      }
+
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      output.write(TYPE_MAP);
+      output.writeVarInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        output.writeVarInt(stringTable.indexOf((String) entry.getKey()));
+        writeValue(output, stringTable, entry.getValue());
+      }
+
+    } else {
+      throw new IllegalArgumentException("Unknown JSON value: " + value.getClass());
+    }
+  }
+
+  private static Object readValue(Input input, String[] strings) {
+    int type = input.readByte();
+    switch (type) {
+      case TYPE_NULL:
+        return null;
+
+      case TYPE_FALSE:
+        return false;
+
+      case TYPE_TRUE:
+        return true;
+
+      case TYPE_LONG:
+        return input.readVarLong();
+
+      case TYPE_DOUBLE:
+        return input.readDouble();
+
+      case TYPE_STRING:
+        return input.readLengthPrefixedString();
+
+      case TYPE_INTERNED_STRING:
+        return strings[input.readVarInt()];
+
+      case TYPE_LIST: {
+        int size = input.readVarInt();
+        List<Object> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(readValue(input, strings));
+        }
+        return list;
+      }
+
+      case TYPE_MAP: {
+        int size = input.readVarInt();
+        Map<String, Object> map = new LinkedHashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+          String key = strings[input.readVarInt()];
+          map.put(key, readValue(input, strings));
+        }
+        return map;
+      }
+
+      default:
+        throw new IllegalArgumentException("Unknown value type: " + type);
+    }
+  }
+
+  /**
+   * Strings are only ever appended, so values that were encoded earlier remain readable
+   * when more values are encoded against the same table later.
+   */
+  static class StringTable {
+    final List<String> strings = new ArrayList<>();
+    final Map<String, Integer> indices = new HashMap<>();
+
+    StringTable() {
+    }
+
+    /**
+     * @param bytes As produced by {@link #encode()}.
+     */
+    static StringTable decode(byte[] bytes) {
+      StringTable table = new StringTable();
+      String[] strings = decodeStrings(bytes);
+      for (String string : strings) {
+        table.indexOf(string);
+      }
+      return table;
+    }
+
+    /**
+     * Cheaper than {@link #decode(byte[])} for reading values, which doesn't need the indices.
+     */
+    static String[] decodeStrings(byte[] bytes) {
+      Input input = new Input(bytes);
+      readHeader(input);
+
+      int stringCount = input.readVarInt();
+      String[] strings = new String[stringCount];
+      for (int i = 0; i < stringCount; i++) {
+        strings[i] = input.readLengthPrefixedString();
+      }
+      return strings;
+    }
+
+    byte[] encode() {
+      Output output = new Output(strings.size() * 16 + MAGIC.length + 1);
+      output.write(MAGIC, 0, MAGIC.length);
+      output.write(VERSION);
+      output.writeVarInt(strings.size());
+      for (int i = 0; i < strings.size(); i++) {
+        output.writeLengthPrefixedString(strings.get(i));
+      }
+      return output.toByteArray();
+    }
+
+    int indexOf(String string) {
+      Integer index = indices.get(string);
+      if (index == null) {
+        index = strings.size();
+        strings.add(string);
+        indices.put(string, index);
+      }
+      return index;
+    }
+  }
+
+  private static class Output extends ByteArrayOutputStream {
+    Output(int initialSize) {
+      super(initialSize);
+    }
+
+    void writeVarInt(int value) {
+      while ((value & ~0x7F) != 0) {
+        write((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      write(value);
+    }
+
+    void writeVarLong(long value) {
+      long zigZagged = (value << 1) ^ (value >> 63);
+      while ((zigZagged & ~0x7FL) != 0) {
+        write((int) ((zigZagged & 0x7F) | 0x80));
+        zigZagged >>>= 7;
+      }
+      write((int) zigZagged);
+    }
+
+    void writeDouble(double value) {
+      long bits = Double.doubleToLongBits(value);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        write((int) (bits >>> shift) & 0xFF);
+      }
+    }
+
+    void writeLengthPrefixedString(String string) {
+      byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(utf8.length);
+      write(utf8, 0, utf8.length);
+    }
+  }
+
+  private static class Input {
+    private final byte[] bytes;
+    int position;
+
+    Input(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    int readByte() {
+      return bytes[position++] & 0xFF;
+    }
+
+    int readVarInt() {
+      int result = 0;
+      for (int shift = 0; ; shift += 7) {
+        int b = readByte();
+        result |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+    }
+
+    long readVarLong() {
+      long zigZagged = 0;
+      for (int shift = 0; ; shift += 7) {
+        int b = readByte();
+        zigZagged |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          break;
+        }
+      }
+      return (zigZagged >>> 1) ^ -(zigZagged & 1);
+    }
+
+    double readDouble() {
+      long bits = 0;
+      for (int i = 0; i < 8; i++) {
+        bits = (bits << 8) | readByte();
+      }
+      return Double.longBitsToDouble(bits);
+    }
+
+    String readLengthPrefixedString() {
+      int length = readVarInt();
+      String string = new String(bytes, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return string;
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package me.saket.dank.ui.submission;
+
+import net.dean.jraw.models.Comment;
+import net.dean.jraw.tree.CommentNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.saket.dank.ui.submission.adapter.SubmissionCommentInlineReply;
+import me.saket.dank.ui.submission.adapter.SubmissionCommentsLoadMore;
+import me.saket.dank.ui.submission.adapter.SubmissionLocalComment;
+import me.saket.dank.ui.submission.adapter.SubmissionRemoteComment;
+import me.saket.dank.ui.submission.adapter.SubmissionScreenUiModel;
+
+/**
+ * Flattened comment rows of a submission + an index of comment full-name to its row, so that
+ * {@link SubmissionCommentTreeUiConstructor} can patch a single row or subtree instead of
+ * walking the entire tree again.
+ * <p>
+ * Rows that weren't patched are retained as the same instances across emissions. This lets
+ * {@link me.saket.dank.utils.RxDiffUtil#calculateDiffOfChangedRange} skip them without equality checks.
+ * <p>
+ * Not thread safe. Expected to be used from a single Rx chain.
+ */
+class FlattenedCommentTree {
+
+  private final List<SubmissionScreenUiModel> rows = new ArrayList<>();
+  private final Map<String, Integer> rowPositions = new HashMap<>();
+  private final Map<String, CommentNode> visibleNodes = new HashMap<>();
+
+  /**
+   * UI models of comments that were constructed previously. Survives full rebuilds so that
+   * comments that didn't change (say, when "load more" resolves) don't get re-rendered.
+   */
+  private final Map<String, SubmissionRemoteComment.UiModel> remoteCommentModels = new HashMap<>();
+
+  private boolean populated;
+
+  public boolean isPopulated() {
+    return populated;
+  }
+
+  /**
+   * Immutable copy of the current rows.
+   */
+  public List<SubmissionScreenUiModel> snapshot() {
+    return Collections.unmodifiableList(new ArrayList<>(rows));
+  }
+
+  public void replaceAll(List<SubmissionScreenUiModel> newRows, Map<String, CommentNode> newVisibleNodes) {
+    rows.clear();
+    rows.addAll(newRows);
+    visibleNodes.clear();
+    visibleNodes.putAll(newVisibleNodes);
+    reindexFrom(0);
+    populated = true;
+  }
+
+  public boolean isVisible(String commentFullName) {
+    return rowPositions.containsKey(commentFullName);
+  }
+
+  public CommentNode visibleNode(String commentFullName) {
+    return visibleNodes.get(commentFullName);
+  }
+
+  public int rowPosition(String commentFullName) {
+    Integer position = rowPositions.get(commentFullName);
+    if (position == null) {
+      throw new AssertionError("Comment isn't visible: " + commentFullName);
+    }
+    return position;
+  }
+
+  /**
+   * Replaces the row of a comment, without touching its child rows.
+   */
+  public void replaceRow(String commentFullName, SubmissionScreenUiModel newRow) {
+    rows.set(rowPosition(commentFullName), newRow);
+  }
+
+  /**
+   * Replaces the rows of a comment and all its visible descendants (replies, reply fields
+   * and "load more" rows) with <var>newSubtreeRows</var>.
+   *
+   * @param newVisibleNodes Comment nodes that are visible in <var>newSubtreeRows</var>.
+   */
+  public void replaceSubtree(String commentFullName, List<SubmissionScreenUiModel> newSubtreeRows, Map<String, CommentNode> newVisibleNodes) {
+    int start = rowPosition(commentFullName);
+    int end = subtreeEnd(start);
+
+    List<SubmissionScreenUiModel> oldSubtreeRows = rows.subList(start, end);
+    for (int i = 0; i < oldSubtreeRows.size(); i++) {  // Intentionally avoiding thrashing Iterator objects.
+      SubmissionScreenUiModel oldRow = oldSubtreeRows.get(i);
+      if (oldRow instanceof SubmissionRemoteComment.UiModel) {
+        String fullName = ((SubmissionRemoteComment.UiModel) oldRow).comment().getFullName();
+        rowPositions.remove(fullName);
+        visibleNodes.remove(fullName);
+      }
+    }
+    oldSubtreeRows.clear();
+    rows.addAll(start, newSubtreeRows);
+    visibleNodes.putAll(newVisibleNodes);
+
+    if (newSubtreeRows.size() == end - start) {
+      reindex(start, start + newSubtreeRows.size());
+    } else {
+      // Positions of all rows below this subtree have shifted.
+      reindexFrom(start);
+    }
+  }
+
+  public SubmissionRemoteComment.UiModel cachedRemoteCommentModel(String commentFullName) {
+    return remoteCommentModels.get(commentFullName);
+  }
+
+  public void cacheRemoteCommentModel(SubmissionRemoteComment.UiModel uiModel) {
+    remoteCommentModels.put(uiModel.comment().getFullName(), uiModel);
+  }
+
+  public void evictRemoteCommentModel(String commentFullName) {
+    remoteCommentModels.remove(commentFullName);
+  }
+
+  /**
+   * @return Exclusive end position of the subtree whose root comment is present at <var>start</var>.
+   */
+  private int subtreeEnd(int start) {
+    int rootIndentation = indentationDepth(rows.get(start));
+    int end = start + 1;
+    while (end < rows.size() && indentationDepth(rows.get(end)) > rootIndentation) {
+      end++;
+    }
+    return end;
+  }
+
+  private void reindexFrom(int start) {
+    if (start == 0) {
+      rowPositions.clear();
+    }
+    reindex(start, rows.size());
+  }
+
+  private void reindex(int start, int end) {
+    for (int i = start; i < end; i++) {
+      SubmissionScreenUiModel row = rows.get(i);
+      if (row instanceof SubmissionRemoteComment.UiModel) {
+        Comment comment = ((SubmissionRemoteComment.UiModel) row).comment();
+        rowPositions.put(comment.getFullName(), i);
+      }
+    }
+  }
+
+  /**
+   * Child rows of a comment are always indented deeper than the comment itself,
+   * which is what {@link #subtreeEnd(int)} relies on for finding a subtree's range.
+   */
+  private static int indentationDepth(SubmissionScreenUiModel row) {
+    switch (row.type()) {
+      case REMOTE_USER_COMMENT:
+        return ((SubmissionRemoteComment.UiModel) row).indentationDepth();
+
+      case LOCAL_USER_COMMENT:
+        return ((SubmissionLocalComment.UiModel) row).getIndentationDepth();
+
+      case INLINE_REPLY:
+        return ((SubmissionCommentInlineReply.UiModel) row).indentationDepth();
+
+      case LOAD_MORE_COMMENTS:
+        return ((SubmissionCommentsLoadMore.UiModel) row).indentationDepth();
+
+      default:
+        throw new AssertionError("Unknown comment row: " + row);
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package me.saket.dank.ui.submission;
+
+/**
+ * Thrown when a saved offline snapshot turns out to be larger than the storage left for it, so that saving it
+ * gets rolled back.
+ */
+public class FolderSnapshotTooLargeException extends RuntimeException {
+
+  private final long bytes;
+
+  public FolderSnapshotTooLargeException(long bytes) {
+    super("Snapshot takes " + bytes + " bytes");
+    this.bytes = bytes;
+  }
+
+  /**
+   * Estimated the same way as {@link CachedFolderSize#getBytes()}.
+   */
+  public long bytes() {
+    return bytes;
+  }
+}
@@ -0,0 +1,253 @@
+package me.saket.dank.ui.submission;
+
+import com.squareup.moshi.JsonAdapter;
+
+import net.dean.jraw.models.Comment;
+import net.dean.jraw.models.Listing;
+import net.dean.jraw.models.MoreChildren;
+import net.dean.jraw.models.NestedIdentifiable;
+import net.dean.jraw.tree.CommentNode;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import me.saket.dank.ui.submission.CommentTreeBinaryCodec.StringTable;
+import me.saket.dank.utils.DankSubmissionRequest;
+
+/**
+ * Stores comment trees as one {@link CachedComment} row per comment, so that resolving a "load more
+ * comments" node only inserts the fetched comments instead of rewriting the entire thread.
+ * <p>
+ * Every row is keyed by the path of sibling positions leading to it, like "000003.000000". Sorting
+ * rows by this key returns them in tree order, which is what {@link #rebuild(List, String[], JsonAdapter)}
+ * expects. The "load more" row of a node uses a key that sorts after all of its children.
+ * <p>
+ * Rows are encoded against a {@link StringTable} that's shared by all rows of a tree (and is stored in
+ * {@link CachedSubmissionComments}), so that JSON keys, authors, etc. are interned across comments and
+ * not repeated in every row. Rows of a top-level comment's subtree get decoded when the comment is read
+ * for the first time.
+ */
+class NormalizedCommentTree {
+
+  private static final String PATH_SEPARATOR = ".";
+  private static final String MORE_CHILDREN_KEY = "~";
+  private static final int SIBLING_INDEX_LENGTH = 6;
+
+  static String childSortKey(String parentSortKey, int siblingIndex) {
+    String index = String.valueOf(siblingIndex);
+    StringBuilder sortKey = new StringBuilder(parentSortKey.length() + 1 + SIBLING_INDEX_LENGTH);
+    if (!parentSortKey.isEmpty()) {
+      sortKey.append(parentSortKey).append(PATH_SEPARATOR);
+    }
+    for (int i = index.length(); i < SIBLING_INDEX_LENGTH; i++) {
+      sortKey.append('0');
+    }
+    return sortKey.append(index).toString();
+  }
+
+  static String moreChildrenSortKey(String parentSortKey) {
+    return parentSortKey.isEmpty()
+        ? MORE_CHILDREN_KEY
+        : parentSortKey + PATH_SEPARATOR + MORE_CHILDREN_KEY;
+  }
+
+  /**
+   * Rows for all comments under <var>parentNode</var>.
+   *
+   * @param parentSortKey Empty for the root node.
+   */
+  static List<CachedComment> rows(
+      DankSubmissionRequest request,
+      CommentNode<?> parentNode,
+      String parentFullName,
+      String parentSortKey,
+      StringTable sharedStrings,
+      JsonAdapter<NestedIdentifiable> nodeAdapter)
+  {
+    List<CachedComment> rows = new ArrayList<>();
+    addChildRows(rows, request, parentNode, parentFullName, parentSortKey, Collections.emptySet(), 0, sharedStrings, nodeAdapter);
+    return rows;
+  }
+
+  /**
+   * Rows for comments under <var>parentNode</var> that were fetched after its "load more" node was resolved.
+   *
+   * @param storedChildFullNames Direct children of <var>parentNode</var> that are already stored.
+   * These are skipped and the new children are positioned after them.
+   * @param sharedStrings Table that the tree's existing rows were encoded against. New strings get appended to it.
+   */
+  static List<CachedComment> rowsOfNewChildren(
+      DankSubmissionRequest request,
+      CommentNode<?> parentNode,
+      String parentFullName,
+      String parentSortKey,
+      Set<String> storedChildFullNames,
+      StringTable sharedStrings,
+      JsonAdapter<NestedIdentifiable> nodeAdapter)
+  {
+    List<CachedComment> rows = new ArrayList<>();
+    addChildRows(rows, request, parentNode, parentFullName, parentSortKey, storedChildFullNames, storedChildFullNames.size(), sharedStrings, nodeAdapter);
+    return rows;
+  }
+
+  private static void addChildRows(
+      List<CachedComment> rows,
+      DankSubmissionRequest request,
+      CommentNode<?> parentNode,
+      String parentFullName,
+      String parentSortKey,
+      Set<String> skippedChildFullNames,
+      int firstSiblingIndex,
+      StringTable sharedStrings,
+      JsonAdapter<NestedIdentifiable> nodeAdapter)
+  {
+    int siblingIndex = firstSiblingIndex;
+    List<? extends CommentNode<Comment>> replies = parentNode.getReplies();
+
+    for (int i = 0; i < replies.size(); i++) {  // Intentionally avoiding thrashing Iterator objects.
+      CommentNode<Comment> childNode = replies.get(i);
+      Comment comment = childNode.getSubject();
+      if (skippedChildFullNames.contains(comment.getFullName())) {
+        continue;
+      }
+
+      String sortKey = childSortKey(parentSortKey, siblingIndex++);
+      byte[] encodedComment = CommentTreeBinaryCodec.encodeRow(withoutReplies(nodeAdapter.toJsonValue(comment)), sharedStrings);
+      rows.add(new CachedComment(request, sortKey, comment.getFullName(), parentFullName, childNode.getDepth(), encodedComment));
+      addChildRows(rows, request, childNode, comment.getFullName(), sortKey, Collections.emptySet(), 0, sharedStrings, nodeAdapter);
+    }
+
+    MoreChildren moreChildren = parentNode.getMoreChildren();
+    if (moreChildren != null) {
+      byte[] encodedMoreChildren = CommentTreeBinaryCodec.encodeRow(nodeAdapter.toJsonValue(moreChildren), sharedStrings);
+      String sortKey = moreChildrenSortKey(parentSortKey);
+      rows.add(new CachedComment(request, sortKey, moreChildren.getFullName(), parentFullName, parentNode.getDepth() + 1, encodedMoreChildren));
+    }
+  }
+
+  /**
+   * Replies are stored as separate rows.
+   */
+  @SuppressWarnings("unchecked")
+  private static Object withoutReplies(Object commentValue) {
+    Map<String, Object> data = (Map<String, Object>) ((Map<String, Object>) commentValue).get("data");
+    data.put("replies", "");
+    return commentValue;
+  }
+
+  /**
+   * @param rowsInTreeOrder Rows sorted by their sort-keys.
+   * @param sharedStrings   Table that the rows were encoded against.
+   * @return Replies whose top-level comments are decoded when they're accessed for the first time.
+   */
+  static Listing<NestedIdentifiable> rebuild(List<CachedComment> rowsInTreeOrder, String[] sharedStrings, JsonAdapter<NestedIdentifiable> nodeAdapter) {
+    List<List<CachedComment>> subtrees = splitIntoTopLevelSubtrees(rowsInTreeOrder);
+    return Listing.create(null, new LazyTopLevelComments(subtrees, sharedStrings, nodeAdapter));
+  }
+
+  /**
+   * Groups rows by their top-level comment. Also checks that every row's parent is present,
+   * so that decoding a subtree later can't fail.
+   */
+  static List<List<CachedComment>> splitIntoTopLevelSubtrees(List<CachedComment> rowsInTreeOrder) {
+    List<List<CachedComment>> subtrees = new ArrayList<>();
+    int previousDepth = 0;
+
+    for (int i = 0; i < rowsInTreeOrder.size(); i++) {
+      CachedComment row = rowsInTreeOrder.get(i);
+      int depth = row.getDepth();
+      if (depth < 1 || depth > previousDepth + 1) {
+        throw new IllegalStateException("Orphaned comment row: " + row.getSortKey());
+      }
+
+      if (depth == 1) {
+        subtrees.add(new ArrayList<>());
+      }
+      subtrees.get(subtrees.size() - 1).add(row);
+      previousDepth = depth;
+    }
+    return subtrees;
+  }
+
+  /**
+   * @param subtreeRows Rows of a top-level comment and its replies, in tree order.
+   */
+  static Object rebuildSubtreeValue(List<CachedComment> subtreeRows, String[] sharedStrings) {
+    // Last seen node at every depth. Index 0 is the root, which isn't stored.
+    List<Object> ancestors = new ArrayList<>();
+    ancestors.add(null);
+
+    for (int i = 0; i < subtreeRows.size(); i++) {
+      CachedComment row = subtreeRows.get(i);
+      int depth = row.getDepth();
+
+      Object value = CommentTreeBinaryCodec.decodeRow(row.getNode(), sharedStrings);
+      if (depth > 1) {
+        repliesOf(ancestors.get(depth - 1)).add(value);
+      }
+
+      while (ancestors.size() > depth) {
+        ancestors.remove(ancestors.size() - 1);
+      }
+      ancestors.add(value);
+    }
+    return ancestors.get(1);
+  }
+
+  private static class LazyTopLevelComments extends AbstractList<NestedIdentifiable> {
+    private final List<List<CachedComment>> subtrees;
+    private final String[] sharedStrings;
+    private final JsonAdapter<NestedIdentifiable> nodeAdapter;
+    private final NestedIdentifiable[] decodedComments;
+
+    LazyTopLevelComments(List<List<CachedComment>> subtrees, String[] sharedStrings, JsonAdapter<NestedIdentifiable> nodeAdapter) {
+      this.subtrees = subtrees;
+      this.sharedStrings = sharedStrings;
+      this.nodeAdapter = nodeAdapter;
+      this.decodedComments = new NestedIdentifiable[subtrees.size()];
+    }
+
+    @Override
+    public synchronized NestedIdentifiable get(int index) {
+      NestedIdentifiable comment = decodedComments[index];
+      if (comment == null) {
+        comment = nodeAdapter.fromJsonValue(rebuildSubtreeValue(subtrees.get(index), sharedStrings));
+        decodedComments[index] = comment;
+      }
+      return comment;
+    }
+
+    @Override
+    public int size() {
+      return decodedComments.length;
+    }
+  }
+
+  /**
+   * Comments without any replies are stored with an empty string, which is what reddit uses too.
+   */
+  @SuppressWarnings("unchecked")
+  private static List<Object> repliesOf(Object commentValue) {
+    Map<String, Object> data = (Map<String, Object>) ((Map<String, Object>) commentValue).get("data");
+    Object replies = data.get("replies");
+
+    if (replies instanceof Map) {
+      return (List<Object>) ((Map<String, Object>) ((Map<String, Object>) replies).get("data")).get("children");
+    }
+
+    List<Object> children = new ArrayList<>();
+    Map<String, Object> listingData = new LinkedHashMap<>();
+    listingData.put("after", null);
+    listingData.put("children", children);
+    Map<String, Object> listing = new LinkedHashMap<>();
+    listing.put("kind", "Listing");
+    listing.put("data", listingData);
+    data.put("replies", listing);
+    return children;
+  }
+}
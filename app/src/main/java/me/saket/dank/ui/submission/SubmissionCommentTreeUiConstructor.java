@@ -1,13 +1,13 @@
 package me.saket.dank.ui.submission;
 
 import static io.reactivex.schedulers.Schedulers.io;
-import static me.saket.dank.utils.Arrays2.immutable;
 import static me.saket.dank.utils.Preconditions.checkNotNull;
 
 import android.content.Context;
 import android.support.annotation.CheckResult;
 import android.support.annotation.ColorInt;
 import android.support.annotation.ColorRes;
+import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.text.style.ForegroundColorSpan;
 
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 
 import dagger.Lazy;
@@ -52,6 +53,7 @@ import me.saket.dank.utils.Strings;
 import me.saket.dank.utils.Themes;
 import me.saket.dank.utils.Truss;
 import me.saket.dank.utils.markdown.Markdown;
+import me.saket.dank.utils.rx.StreamLatencyMonitor;
 import me.saket.dank.vote.VotingManager;
 import timber.log.Timber;
 
@@ -69,7 +71,9 @@ public class SubmissionCommentTreeUiConstructor {
   private final Lazy<ReplyRepository> replyRepository;
   private final Lazy<VotingManager> votingManager;
   private final Lazy<Markdown> markdown;
+  private final Lazy<CommentBodyPreRenderer> bodyPreRenderer;
   private final Lazy<UserSessionRepository> userSessionRepository;
+  private final StreamLatencyMonitor.Stream streamLatencies;
 
   /** Contribution IDs for which inline replies are active. */
   static class ActiveReplyIds extends RxHashSet<String> {
@@ -106,6 +110,13 @@ public class SubmissionCommentTreeUiConstructor {
           });
     }
 
+    @Override
+    public Observable<String> itemChanges() {
+      return super
+          .itemChanges()
+          .filter(o -> changeEventsEnabled);
+    }
+
     public boolean isCollapsed(Identifiable comment) {
       return contains(keyFor(comment));
     }
@@ -173,12 +184,16 @@ public class SubmissionCommentTreeUiConstructor {
       Lazy<ReplyRepository> replyRepository,
       Lazy<VotingManager> votingManager,
       Lazy<Markdown> markdown,
-      Lazy<UserSessionRepository> userSessionRepository)
+      Lazy<CommentBodyPreRenderer> bodyPreRenderer,
+      Lazy<UserSessionRepository> userSessionRepository,
+      StreamLatencyMonitor streamLatencyMonitor)
   {
     this.replyRepository = replyRepository;
     this.votingManager = votingManager;
     this.markdown = markdown;
+    this.bodyPreRenderer = bodyPreRenderer;
     this.userSessionRepository = userSessionRepository;
+    this.streamLatencies = streamLatencyMonitor.stream("submission comments");
   }
 
   @CheckResult
@@ -198,40 +213,160 @@ public class SubmissionCommentTreeUiConstructor {
         .startWith(Collections.<PendingSyncReply>emptyList())
         .map(replyList -> createPendingSyncReplyMap(replyList));
 
-    Observable<?> rowVisibilityChanges = Observable
-        .merge(
-            ACTIVE_REPLY_IDS.changes(),
-            COLLAPSED_COMMENT_IDS.changes(),
-            IN_FLIGHT_LOAD_MORE_IDS.changes()
-        )
-        //.observeOn(scheduler)   // observeOn() because the relays emit on the main thread)
-        .startWith(0);          // Occasionally takes a while to emit something. I'm guessing the scheduler gets blocked.
-
     Observable<Optional<FocusedComment>> focusedComments = submissionRequests
         .map(submissionRequest -> Optional.ofNullable(submissionRequest.focusCommentId()))
         .startWith(Optional.empty())  // submissionRequests stream sometimes takes too long to emit anything.
         .map(optionalId -> optionalId.map(FocusedComment::create))
         .distinctUntilChanged();
 
-    Observable<Object> voteChanges = votingManager.get().streamChanges();
-
-    return CombineLatestWithLog
+    Observable<RowsUpdate> rebuilds = CombineLatestWithLog
         .from(
+            streamLatencies,
             O.of("submission and root comments", submissionDatum),
             O.of("pendingSyncRepliesMap", pendingSyncRepliesMaps),
             O.of("focusedComment", focusedComments),
-            O.of("row-visibility", rowVisibilityChanges),
-            O.of("votes", voteChanges),
-            (submissionData, pendingSyncRepliesMap, focusedComment, o, oo) -> new Triple<>(submissionData, pendingSyncRepliesMap, focusedComment))
-        .observeOn(scheduler)
-        .map(triple -> {
-          SubmissionAndComments submissionData = triple.getFirst();
-          PendingSyncRepliesMap pendingSyncRepliesMap = triple.getSecond();
-          Optional<FocusedComment> focusedComment = triple.getThird();
-          String submissionAuthor = submissionData.getSubmission().getAuthor();
-          return constructComments(context, submissionData, pendingSyncRepliesMap, submissionAuthor, focusedComment);
-        })
-        .as(immutable());
+            RowsUpdate::rebuild);
+
+    // Reply fields, collapsed state and load-more progress only affect the subtree of their comment.
+    Observable<RowsUpdate> subtreeUpdates = Observable
+        .merge(
+            ACTIVE_REPLY_IDS.itemChanges(),
+            COLLAPSED_COMMENT_IDS.itemChanges(),
+            IN_FLIGHT_LOAD_MORE_IDS.itemChanges())
+        .map(RowsUpdate::subtree);
+
+    // Votes and bodies that got pre-rendered after their rows were constructed only affect their comment's row.
+    Observable<RowsUpdate> rowUpdates = Observable
+        .merge(
+            votingManager.get().streamChangedContributionFullNames(),
+            bodyPreRenderer.get().streamBackgroundRenders())
+        .map(RowsUpdate::row);
+
+    return Observable.defer(() -> {
+      CommentTreeSession session = new CommentTreeSession();
+      return Observable.merge(rebuilds, subtreeUpdates, rowUpdates)
+          .observeOn(scheduler)   // observeOn() because the relays emit on the main thread.
+          .filter(update -> update.type == RowsUpdate.Type.REBUILD || session.tree.isPopulated())
+          .map(update -> {
+            applyUpdate(context, session, update);
+            return session.tree.snapshot();
+          });
+    });
+  }
+
+  /**
+   * Describes what caused the comment rows to update so that only the affected rows get re-constructed.
+   */
+  private static class RowsUpdate {
+    enum Type {
+      /** Submission, pending-sync replies or focused comment changed. Walks the entire tree. */
+      REBUILD,
+      /** Reply field, collapsed state or load-more progress changed for a contribution. */
+      SUBTREE,
+      /** Pending vote changed or body got pre-rendered for a comment. */
+      ROW,
+    }
+
+    final Type type;
+    final String key;
+    final Triple<SubmissionAndComments, PendingSyncRepliesMap, Optional<FocusedComment>> inputs;
+
+    private RowsUpdate(Type type, String key, Triple<SubmissionAndComments, PendingSyncRepliesMap, Optional<FocusedComment>> inputs) {
+      this.type = type;
+      this.key = key;
+      this.inputs = inputs;
+    }
+
+    static RowsUpdate rebuild(
+        SubmissionAndComments submissionData,
+        PendingSyncRepliesMap pendingSyncRepliesMap,
+        Optional<FocusedComment> focusedComment)
+    {
+      return new RowsUpdate(Type.REBUILD, null, new Triple<>(submissionData, pendingSyncRepliesMap, focusedComment));
+    }
+
+    static RowsUpdate subtree(String contributionKey) {
+      return new RowsUpdate(Type.SUBTREE, contributionKey, null);
+    }
+
+    static RowsUpdate row(String commentFullName) {
+      return new RowsUpdate(Type.ROW, commentFullName, null);
+    }
+  }
+
+  /**
+   * State of a single subscription to {@link #stream(Context, Observable, Observable, Scheduler)}.
+   */
+  private class CommentTreeSession {
+    final FlattenedCommentTree tree = new FlattenedCommentTree();
+    SubmissionAndComments submissionData;
+    PendingSyncRepliesMap pendingSyncRepliesMap;
+    Optional<FocusedComment> focusedComment;
+
+    /**
+     * Bodies that can still be parsed on this thread in the current update. Bodies beyond
+     * these are deferred until the comment list scrolls close to them.
+     */
+    int inlineBodyParsesLeft;
+
+    String submissionAuthor() {
+      return submissionData.getSubmission().getAuthor();
+    }
+
+    boolean isFocused(String commentFullName) {
+      return focusedComment.isPresent() && focusedComment.get().fullname().equals(commentFullName);
+    }
+  }
+
+  private void applyUpdate(Context context, CommentTreeSession session, RowsUpdate update) {
+    FlattenedCommentTree tree = session.tree;
+
+    switch (update.type) {
+      case REBUILD:
+        session.submissionData = update.inputs.getFirst();
+        session.pendingSyncRepliesMap = update.inputs.getSecond();
+        session.focusedComment = update.inputs.getThird();
+        session.inlineBodyParsesLeft = CommentBodyPreRenderer.PRE_RENDER_AHEAD_COUNT;
+        if (session.submissionData.getComments().isPresent()) {
+          preRenderCommentBodies(session.submissionData.getComments().get());
+        }
+        rebuildComments(context, session);
+        break;
+
+      case SUBTREE:
+        if (tree.isVisible(update.key)) {
+          CommentNode commentNode = tree.visibleNode(update.key);
+          session.inlineBodyParsesLeft = CommentBodyPreRenderer.PRE_RENDER_AHEAD_COUNT;
+          preRenderCommentBodies(commentNode);
+          List<SubmissionScreenUiModel> subtreeRows = new ArrayList<>(commentNode.totalSize() + 1);
+          Map<String, CommentNode> subtreeVisibleNodes = new HashMap<>();
+          constructComments(context, session, subtreeRows, subtreeVisibleNodes, commentNode);
+          tree.replaceSubtree(update.key, subtreeRows, subtreeVisibleNodes);
+
+        } else {
+          // The submission, a locally posted comment or a comment that isn't
+          // part of this tree. These are rare enough to not need patching.
+          session.inlineBodyParsesLeft = CommentBodyPreRenderer.PRE_RENDER_AHEAD_COUNT;
+          rebuildComments(context, session);
+        }
+        break;
+
+      case ROW:
+        tree.evictRemoteCommentModel(update.key);
+
+        // Comments that aren't visible will get constructed again when they become visible.
+        if (tree.isVisible(update.key)) {
+          CommentNode commentNode = tree.visibleNode(update.key);
+          boolean isCollapsed = COLLAPSED_COMMENT_IDS.isCollapsed(commentNode.getSubject());
+          boolean isFocused = session.isFocused(update.key);
+          session.inlineBodyParsesLeft = 1;
+          tree.replaceRow(update.key, remoteCommentUiModel(context, session, commentNode, isCollapsed, isFocused));
+        }
+        break;
+
+      default:
+        throw new AssertionError();
+    }
   }
 
   private static String keyFor(Identifiable contribution) {
@@ -333,16 +468,53 @@ public class SubmissionCommentTreeUiConstructor {
     return IN_FLIGHT_LOAD_MORE_IDS.isInFlightFor(commentNode);
   }
 
+  /**
+   * Starts parsing bodies of comments that are about to get constructed in the background,
+   * in the same order as {@link #constructComments(Context, CommentTreeSession, List, Map, CommentNode)}.
+   */
+  private void preRenderCommentBodies(CommentNode startNode) {
+    List<Comment> comments = new ArrayList<>(CommentBodyPreRenderer.PRE_RENDER_AHEAD_COUNT);
+    collectCommentsToPreRender(startNode, comments);
+    if (!comments.isEmpty()) {
+      bodyPreRenderer.get().preRender(comments);
+    }
+  }
+
+  /**
+   * @return False once enough comments have been collected.
+   */
+  private boolean collectCommentsToPreRender(CommentNode nextNode, List<Comment> comments) {
+    // Collapsed comments only show stripped markdown and hide their children.
+    if (COLLAPSED_COMMENT_IDS.isCollapsed(nextNode.getSubject())) {
+      return true;
+    }
+
+    if (nextNode.getDepth() != 0) {
+      Comment comment = (Comment) nextNode.getSubject();
+      if (!bodyPreRenderer.get().isRendered(comment)) {
+        comments.add(comment);
+        if (comments.size() == CommentBodyPreRenderer.PRE_RENDER_AHEAD_COUNT) {
+          return false;
+        }
+      }
+    }
+
+    //noinspection unchecked
+    List<CommentNode> childCommentsTree = nextNode.getReplies();
+    for (int i = 0; i < childCommentsTree.size(); i++) {  // Intentionally avoiding thrashing Iterator objects.
+      if (!collectCommentsToPreRender(childCommentsTree.get(i), comments)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Walk through the tree in pre-order, ignoring any collapsed comment tree node and flatten them in a single List.
    */
-  private List<SubmissionScreenUiModel> constructComments(
-      Context context,
-      SubmissionAndComments submissionData,
-      PendingSyncRepliesMap pendingSyncRepliesMap,
-      String submissionAuthor,
-      Optional<FocusedComment> focusedComment)
-  {
+  private void rebuildComments(Context context, CommentTreeSession session) {
+    SubmissionAndComments submissionData = session.submissionData;
+
     int totalRowsSize = 0;
     if (ACTIVE_REPLY_IDS.isActive(submissionData.getSubmission())) {
       totalRowsSize += 1;
@@ -354,56 +526,43 @@ public class SubmissionCommentTreeUiConstructor {
         .orElse(0);
 
     ArrayList<SubmissionScreenUiModel> flattenComments = new ArrayList<>(totalRowsSize);
+    Map<String, CommentNode> visibleNodes = new HashMap<>(totalRowsSize);
+
     if (ACTIVE_REPLY_IDS.isActive(submissionData.getSubmission())) {
       String loggedInUserName = userSessionRepository.get().loggedInUserName();
-      flattenComments.add(inlineReplyUiModel(context, submissionData.getSubmission(), submissionAuthor, loggedInUserName, 0));
+      flattenComments.add(inlineReplyUiModel(context, submissionData.getSubmission(), session.submissionAuthor(), loggedInUserName, 0));
     }
 
-    if (submissionData.getComments().isEmpty()) {
-      return flattenComments;
-    } else {
-      return constructComments(
-          context,
-          flattenComments,
-          submissionData.getComments().get(),
-          submissionData.getSubmission(),
-          pendingSyncRepliesMap,
-          submissionAuthor,
-          focusedComment);
+    if (submissionData.getComments().isPresent()) {
+      constructComments(context, session, flattenComments, visibleNodes, submissionData.getComments().get());
     }
+    session.tree.replaceAll(flattenComments, visibleNodes);
   }
 
   /**
    * Walk through the tree in pre-order, ignoring any collapsed comment tree node and flatten them in a single List.
+   *
+   * @param visibleNodes Collects nodes of comments that were added to <var>flattenComments</var>.
    */
-  private List<SubmissionScreenUiModel> constructComments(
+  private void constructComments(
       Context context,
+      CommentTreeSession session,
       List<SubmissionScreenUiModel> flattenComments,
-      CommentNode nextNode,
-      Submission submission,
-      PendingSyncRepliesMap pendingSyncRepliesMap,
-      String submissionAuthor,
-      Optional<FocusedComment> focusedComment)
+      Map<String, CommentNode> visibleNodes,
+      CommentNode nextNode)
   {
-    //String indentation = "";
-    //if (nextNode.getDepth() != 0) {
-    //  for (int step = 0; step < nextNode.getDepth(); step++) {
-    //    indentation += "  ";
-    //  }
-    //}
-
     boolean isCommentNodeCollapsed = COLLAPSED_COMMENT_IDS.isCollapsed(nextNode.getSubject());
     boolean isReplyActive = ACTIVE_REPLY_IDS.isActive(nextNode.getSubject());
 
     if (nextNode.getDepth() != 0) {
-      //Timber.i("%s(%s) %s: %s", indentation, nextNode.getComment().getFullName(), nextNode.getComment().getAuthor(), nextNode.getComment().getBody());
       String commentFullName = nextNode.getSubject().getFullName();
-      boolean isFocused = focusedComment.isPresent() && focusedComment.get().fullname().equals(commentFullName);
-      flattenComments.add(syncedCommentUiModel(context, nextNode, isCommentNodeCollapsed, submissionAuthor, isFocused));
+      boolean isFocused = session.isFocused(commentFullName);
+      flattenComments.add(remoteCommentUiModel(context, session, nextNode, isCommentNodeCollapsed, isFocused));
+      visibleNodes.put(commentFullName, nextNode);
     }
 
     // Reply box.
-    // Skip for root-node because we already added a reply for the submission in constructComments().
+    // Skip for root-node because we already added a reply for the submission in rebuildComments().
     boolean isSubmission = nextNode.getSubject() instanceof Submission;
     if (!isSubmission && isReplyActive && !isCommentNodeCollapsed) {
       String loggedInUserName = userSessionRepository.get().loggedInUserName();
@@ -413,51 +572,96 @@ public class SubmissionCommentTreeUiConstructor {
     }
 
     // Pending-sync replies.
+    PendingSyncRepliesMap pendingSyncRepliesMap = session.pendingSyncRepliesMap;
     if (!isCommentNodeCollapsed && pendingSyncRepliesMap.hasForParent(nextNode.getSubject())) {
       List<PendingSyncReply> pendingSyncReplies = pendingSyncRepliesMap.getForParent(nextNode.getSubject());
       for (int i = 0; i < pendingSyncReplies.size(); i++) {     // Intentionally avoiding thrashing Iterator objects.
         LocallyPostedComment locallyPostedComment = new LocallyPostedComment(pendingSyncReplies.get(i));
         boolean isReplyCollapsed = COLLAPSED_COMMENT_IDS.isCollapsed(locallyPostedComment);
         int depth = nextNode.getDepth() + 1;
-        boolean isFocused = focusedComment.isPresent()
-            && locallyPostedComment.isPosted()
-            && focusedComment.get().fullname().equals(locallyPostedComment.getFullName());
+        boolean isFocused = locallyPostedComment.isPosted() && session.isFocused(locallyPostedComment.getFullName());
         flattenComments.add(locallyPostedCommentUiModel(context, locallyPostedComment, isReplyCollapsed, depth, isFocused));
       }
     }
 
-    // Next, the child comment tree.
-    if (nextNode.getReplies().isEmpty()) {
-      return flattenComments;
-
-    } else {
-      // Ignore collapsed children.
-      if (!isCommentNodeCollapsed) {
-        //noinspection unchecked
-        List<CommentNode> childCommentsTree = nextNode.getReplies();
-        for (int i = 0; i < childCommentsTree.size(); i++) {  // Intentionally avoiding thrashing Iterator objects.
-          CommentNode node = childCommentsTree.get(i);
-          constructComments(context, flattenComments, node, submission, pendingSyncRepliesMap, submissionAuthor, focusedComment);
-        }
+    // Next, the child comment tree. Ignore collapsed children.
+    if (!nextNode.getReplies().isEmpty() && !isCommentNodeCollapsed) {
+      //noinspection unchecked
+      List<CommentNode> childCommentsTree = nextNode.getReplies();
+      for (int i = 0; i < childCommentsTree.size(); i++) {  // Intentionally avoiding thrashing Iterator objects.
+        CommentNode node = childCommentsTree.get(i);
+        constructComments(context, session, flattenComments, visibleNodes, node);
+      }
 
-        if (nextNode.hasMoreChildren()) {
-          //Timber.d("%s(%s) %s has %d MORE ---------->",
-          //    indentation, nextNode.getComment().getFullName(), nextNode.getComment().getAuthor(), nextNode.getMoreChildren().getCount()
-          //);
-          //Timber.d("%s %s", indentation, nextNode.getMoreChildren().getChildrenIds());
-          flattenComments.add(loadMoreUiModel(context, nextNode, IN_FLIGHT_LOAD_MORE_IDS.isInFlightFor(nextNode)));
-        }
+      if (nextNode.hasMoreChildren()) {
+        flattenComments.add(loadMoreUiModel(context, nextNode, IN_FLIGHT_LOAD_MORE_IDS.isInFlightFor(nextNode)));
       }
-      return flattenComments;
     }
   }
 
+  /**
+   * Re-uses the last UI model constructed for a comment if it's still valid, because
+   * parsing markdown and constructing bylines for thousands of comments isn't cheap.
+   * Models with deferred bodies aren't re-used.
+   */
+  private SubmissionRemoteComment.UiModel remoteCommentUiModel(
+      Context context,
+      CommentTreeSession session,
+      CommentNode commentNode,
+      boolean isCollapsed,
+      boolean isFocused)
+  {
+    Comment comment = (Comment) commentNode.getSubject();
+    SubmissionRemoteComment.UiModel cachedUiModel = session.tree.cachedRemoteCommentModel(comment.getFullName());
+
+    // Collapsed comments are always re-constructed because their bylines
+    // show a count of child comments, which can change with new replies.
+    if (cachedUiModel != null
+        && !isCollapsed
+        && !cachedUiModel.isCollapsed()
+        && cachedUiModel.isFocused() == isFocused
+        && cachedUiModel.indentationDepth() == commentNode.getDepth() - 1
+        && cachedUiModel.comment().equals(comment))
+    {
+      return cachedUiModel;
+    }
+
+    CharSequence commentBody = commentBody(session, comment, isCollapsed);
+    boolean isBodyDeferred = commentBody == null;
+    if (isBodyDeferred) {
+      // Shown until the body gets pre-rendered and this row gets constructed again.
+      commentBody = comment.getBody();
+    }
+
+    SubmissionRemoteComment.UiModel uiModel = syncedCommentUiModel(context, commentNode, isCollapsed, session.submissionAuthor(), isFocused, commentBody);
+    if (!isBodyDeferred) {
+      session.tree.cacheRemoteCommentModel(uiModel);
+    }
+    return uiModel;
+  }
+
+  /**
+   * @return Null if the body hasn't been parsed yet and has been deferred.
+   */
+  @Nullable
+  private CharSequence commentBody(CommentTreeSession session, Comment comment, boolean isCollapsed) {
+    if (isCollapsed) {
+      return markdown.get().stripMarkdown(comment);
+    }
+    if (session.inlineBodyParsesLeft > 0) {
+      --session.inlineBodyParsesLeft;
+      return bodyPreRenderer.get().body(comment);
+    }
+    return bodyPreRenderer.get().bodyIfPreRendered(comment);
+  }
+
   private SubmissionRemoteComment.UiModel syncedCommentUiModel(
       Context context,
       CommentNode commentNode,
       boolean isCollapsed,
       String submissionAuthor,
-      boolean isFocused)
+      boolean isFocused,
+      CharSequence commentBody)
   {
     Comment comment = (Comment) commentNode.getSubject();
     Optional<String> authorFlairText = comment.getAuthorFlairText() != null ? Optional.ofNullable(comment.getAuthorFlairText()) : Optional.empty();
@@ -475,7 +679,8 @@ public class SubmissionCommentTreeUiConstructor {
     boolean isAuthorOP = comment.getAuthor().equalsIgnoreCase(submissionAuthor);
 
     // TODO: getTotalSize() is buggy. See: https://github.com/thatJavaNerd/JRAW/issues/189
-    int childCommentsCount = commentNode.totalSize();
+    // Only shown for collapsed comments. Skipped otherwise because it walks the entire subtree.
+    int childCommentsCount = isCollapsed ? commentNode.totalSize() : 0;
 
     CharSequence byline = constructCommentByline(
         context,
@@ -489,10 +694,6 @@ public class SubmissionCommentTreeUiConstructor {
         isCollapsed
     );
 
-    CharSequence commentBody = isCollapsed
-        ? markdown.get().stripMarkdown(comment)
-        : markdown.get().parse(comment);
-
     @ColorRes int backgroundColorRes = isFocused
         ? R.color.submission_comment_background_focused
         : R.color.submission_comment_background;
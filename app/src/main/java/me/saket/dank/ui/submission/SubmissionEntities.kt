@@ -2,6 +2,7 @@ package me.saket.dank.ui.submission
 
 import android.arch.persistence.room.Dao
 import android.arch.persistence.room.Entity
+import android.arch.persistence.room.Index
 import android.arch.persistence.room.Insert
 import android.arch.persistence.room.OnConflictStrategy
 import android.arch.persistence.room.PrimaryKey
@@ -9,7 +10,6 @@ import android.arch.persistence.room.Query
 import android.arch.persistence.room.Transaction
 import android.arch.persistence.room.TypeConverter
 import com.squareup.moshi.JsonAdapter
-import com.squareup.moshi.Types
 import io.reactivex.Flowable
 import me.saket.dank.di.StorageModule
 import me.saket.dank.utils.DankSubmissionRequest
@@ -31,19 +31,87 @@ data class CachedSubmission(
     val saveTimeMillis: Long
 )
 
+/**
+ * Marks that comments were fetched for a [request]. The comments themselves are stored in [CachedComment].
+ */
 @Entity
 data class CachedSubmissionComments(
     val submissionId: String,
 
-    @field:[Enveloped()]
-    val replies: Listing<NestedIdentifiable>,
-
     @PrimaryKey
     val request: DankSubmissionRequest,
 
-    val saveTimeMillis: Long
+    val saveTimeMillis: Long,
+
+    /** [CommentTreeBinaryCodec.StringTable] that all [CachedComment] rows of this request are encoded against. */
+    val stringTable: ByteArray
+) {
+
+  override fun equals(other: Any?): Boolean {
+    return other is CachedSubmissionComments
+        && submissionId == other.submissionId
+        && request == other.request
+        && saveTimeMillis == other.saveTimeMillis
+        && stringTable.contentEquals(other.stringTable)
+  }
+
+  override fun hashCode(): Int {
+    var result = submissionId.hashCode()
+    result = 31 * result + request.hashCode()
+    result = 31 * result + saveTimeMillis.hashCode()
+    result = 31 * result + stringTable.contentHashCode()
+    return result
+  }
+}
+
+/**
+ * A single comment or a "load more" node of a comment tree. See [NormalizedCommentTree].
+ */
+@Entity(
+    primaryKeys = ["request", "sortKey"],
+    indices = [Index("request", "parentFullName")])
+data class CachedComment(
+    val request: DankSubmissionRequest,
+    val sortKey: String,
+    val fullName: String,
+    val parentFullName: String,
+    val depth: Int,
+
+    /** Encoded using [CommentTreeBinaryCodec.encodeRow], without any replies. */
+    val node: ByteArray
+) {
+
+  override fun equals(other: Any?): Boolean {
+    return other is CachedComment
+        && request == other.request
+        && sortKey == other.sortKey
+        && fullName == other.fullName
+        && parentFullName == other.parentFullName
+        && depth == other.depth
+        && node.contentEquals(other.node)
+  }
+
+  override fun hashCode(): Int {
+    var result = request.hashCode()
+    result = 31 * result + sortKey.hashCode()
+    result = 31 * result + fullName.hashCode()
+    result = 31 * result + parentFullName.hashCode()
+    result = 31 * result + depth
+    result = 31 * result + node.contentHashCode()
+    return result
+  }
+}
+
+data class CachedSubmissionAndCommentsRequest(
+    val id: String,
+    val submission: Submission,
+    val request: DankSubmissionRequest?,
+    val commentsSaveTimeMillis: Long?
 )
 
+/**
+ * @param replies Top-level comments, decoded when they're read for the first time.
+ */
 data class CachedSubmissionAndComments(
     val id: String,
     val submission: Submission,
@@ -51,15 +119,26 @@ data class CachedSubmissionAndComments(
     val request: DankSubmissionRequest?
 ) {
 
-  fun comments(): Optional<RootCommentNode> {
+  /**
+   * JRAW reads every top-level comment while building a tree, so it's only built once
+   * the comments are asked for, and only once.
+   */
+  private val commentTree: Optional<RootCommentNode> by lazy {
     if (replies == null || request == null) {
-      return Optional.empty()
+      Optional.empty<RootCommentNode>()
+    } else {
+      Optional.of(RootCommentNode(submission, replies, CommentTreeSettings(submission.id, request.commentSort().mode())))
     }
-    return Optional.of(RootCommentNode(submission, replies, CommentTreeSettings(submission.id, request.commentSort().mode())))
+  }
+
+  fun comments(): Optional<RootCommentNode> {
+    return commentTree
   }
 }
 
-@Entity(primaryKeys = ["subredditName", "sortingAndTimePeriod", "saveTimeMillis"])
+@Entity(
+    primaryKeys = ["subredditName", "sortingAndTimePeriod", "saveTimeMillis"],
+    indices = [Index("subredditName", "sortingAndTimePeriod", "id")])
 data class CachedSubmissionId2 constructor(
     val id: String,
     val subredditName: String,
@@ -67,23 +146,146 @@ data class CachedSubmissionId2 constructor(
     val saveTimeMillis: Long
 )
 
+/**
+ * Marks that a folder was replaced with a snapshot synced in the background by
+ * [me.saket.dank.cache.OfflineSnapshotSync], so that opening it can skip refreshing it.
+ */
+@Entity(primaryKeys = ["subredditName", "sortingAndTimePeriod"])
+data class CachedFolderSnapshot(
+    val subredditName: String,
+    val sortingAndTimePeriod: SortingAndTimePeriod,
+    val saveTimeMillis: Long
+)
+
+/**
+ * Estimated size of a submission folder, used by [me.saket.dank.cache.CacheBudgetManager]. Submissions
+ * present in multiple folders are counted in each of them.
+ */
+data class CachedFolderSize(
+    val subredditName: String,
+    val sortingAndTimePeriod: SortingAndTimePeriod,
+    val bytes: Long,
+    val lastSaveTimeMillis: Long
+)
+
+/**
+ * A submission folder that was replaced with an offline snapshot.
+ *
+ * @param bytes Size of the folder, estimated the same way as [CachedFolderSize.bytes].
+ */
+data class SavedFolderSnapshot(
+    val writtenRowCount: Int,
+    val bytes: Long
+)
+
+/**
+ * SQLite's default limit on bound arguments is 999. A few are left for the other arguments.
+ */
+private const val MAX_BOUND_ARGUMENTS_PER_QUERY = 990
+
 @Dao
 interface CachedSubmissionDao {
 
-  @Query("SELECT S.id, S.submission, C.replies, C.request\nFROM cachedsubmission S \nLEFT JOIN cachedsubmissioncomments C \nON (S.id = C.submissionId AND C.request = :request)\nWHERE S.id = :id\n")
-  fun submissionWithComments(id: String, request: DankSubmissionRequest): Flowable<List<CachedSubmissionAndComments>>
+  /**
+   * Only observes [CachedSubmissionComments] and not [CachedComment], so saving comments
+   * must also touch the former. Comment rows are read separately using [comments].
+   */
+  @Query("SELECT S.id, S.submission, C.request, C.saveTimeMillis AS commentsSaveTimeMillis\nFROM cachedsubmission S \nLEFT JOIN cachedsubmissioncomments C \nON (S.id = C.submissionId AND C.request = :request)\nWHERE S.id = :id\n")
+  fun submissionWithComments(id: String, request: DankSubmissionRequest): Flowable<List<CachedSubmissionAndCommentsRequest>>
+
+  @Query("SELECT * FROM cachedcomment WHERE request = :request ORDER BY sortKey")
+  fun comments(request: DankSubmissionRequest): List<CachedComment>
+
+  @Query("SELECT stringTable FROM cachedsubmissioncomments WHERE request = :request")
+  fun commentStringTable(request: DankSubmissionRequest): ByteArray?
+
+  @Query("SELECT sortKey FROM cachedcomment WHERE request = :request AND parentFullName = :parentFullName AND fullName = :fullName LIMIT 1")
+  fun commentSortKey(request: DankSubmissionRequest, parentFullName: String, fullName: String): String?
+
+  @Query("SELECT fullName FROM cachedcomment WHERE request = :request AND parentFullName = :parentFullName AND sortKey != :moreChildrenSortKey")
+  fun childCommentFullNames(request: DankSubmissionRequest, parentFullName: String, moreChildrenSortKey: String): List<String>
 
   @Insert(onConflict = OnConflictStrategy.REPLACE)
   fun saveSubmission(submission: CachedSubmission)
 
   @Insert(onConflict = OnConflictStrategy.REPLACE)
-  fun saveComments(comments: CachedSubmissionComments)
+  fun saveCommentsRequest(commentsRequest: CachedSubmissionComments)
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  fun saveCommentRows(comments: List<CachedComment>)
+
+  @Query("DELETE FROM cachedcomment WHERE request = :request AND sortKey = :sortKey")
+  fun deleteCommentRow(request: DankSubmissionRequest, sortKey: String)
+
+  @Transaction
+  fun saveComments(commentsRequest: CachedSubmissionComments, comments: List<CachedComment>) {
+    deleteCommentRows(commentsRequest.request)
+    saveCommentRows(comments)
+    saveCommentsRequest(commentsRequest)
+  }
+
+  /**
+   * @param resolvedMoreChildrenSortKey Sort key of the "load more" row that was resolved.
+   * @param newComments Fetched comments, including any remaining "load more" row.
+   */
+  @Transaction
+  fun saveMoreComments(commentsRequest: CachedSubmissionComments, resolvedMoreChildrenSortKey: String, newComments: List<CachedComment>) {
+    deleteCommentRow(commentsRequest.request, resolvedMoreChildrenSortKey)
+    saveCommentRows(newComments)
+    saveCommentsRequest(commentsRequest)
+  }
 
   @Query("SELECT * FROM cachedsubmissioncomments WHERE saveTimeMillis < :savedBeforeMillis")
   fun countOfSubmissionWithComments(savedBeforeMillis: Long): Flowable<List<CachedSubmissionComments>>
 
+  @Query("SELECT id FROM cachedsubmissionid2 \nWHERE subredditName = :subredditName \nAND sortingAndTimePeriod = :sortingAndTimePeriod \nAND id IN (:ids)")
+  fun existingSubmissionIds(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod, ids: List<String>): List<String>
+
   @Insert(onConflict = OnConflictStrategy.IGNORE)
-  fun saveSubmissionIdIfNew(cachedSubmissionId: CachedSubmissionId2): Long
+  fun saveSubmissionIds(cachedSubmissionIds: List<CachedSubmissionId2>)
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  fun saveSubmissions(submissions: List<CachedSubmission>)
+
+  /**
+   * Saves a page of submissions under a folder, skipping the ones that are already present in it. Only
+   * the new submissions get serialized. Save times are kept after the folder's last saved submission,
+   * in the same order as [submissions].
+   *
+   * @return Saved submissions, in the same order.
+   */
+  @Transaction
+  fun saveNewSubmissions(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod, submissions: List<Submission>): List<CachedSubmission> {
+    val skippedIds = HashSet<String>(submissions.size)
+    submissions
+        .map { it.id }
+        .chunked(MAX_BOUND_ARGUMENTS_PER_QUERY)
+        .forEach { ids -> skippedIds.addAll(existingSubmissionIds(subredditName, sortingAndTimePeriod, ids)) }
+
+    // Reddit sends submissions according to their sorting order. So they may or may not be
+    // sorted by their creation time. However, we want to store their download time so that
+    // they can be fetched in the same order (because SQLite doesn't guarantee preservation
+    // of insertion order). Pages can get saved in quick succession when they're fetched
+    // ahead, so the times are also kept after the folder's last saved submission.
+    val lastSavedId = lastSubmissionId(subredditName, sortingAndTimePeriod)
+    val nowMillis = System.currentTimeMillis()
+    val firstSaveTimeMillis = if (lastSavedId == null) nowMillis else Math.max(nowMillis, lastSavedId.saveTimeMillis + 1)
+
+    val newIds = ArrayList<CachedSubmissionId2>(submissions.size)
+    val newSubmissions = ArrayList<CachedSubmission>(submissions.size)
+    for (submission in submissions) {
+      // Reddit can also send the same submission twice in a page.
+      if (skippedIds.add(submission.id)) {
+        val saveTimeMillis = firstSaveTimeMillis + newIds.size
+        newIds.add(CachedSubmissionId2(submission.id, subredditName, sortingAndTimePeriod, saveTimeMillis))
+        newSubmissions.add(CachedSubmission(submission.id, submission, submission.subreddit, saveTimeMillis))
+      }
+    }
+
+    saveSubmissionIds(newIds)
+    saveSubmissions(newSubmissions)
+    return newSubmissions
+  }
 
   @Query("SELECT * FROM cachedsubmissionid2 \nWHERE subredditName = :subredditName \nAND sortingAndTimePeriod = :sortingAndTimePeriod \nORDER BY saveTimeMillis DESC \nLIMIT 1")
   fun lastSubmissionId(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod): CachedSubmissionId2?
@@ -91,14 +293,38 @@ interface CachedSubmissionDao {
   @Query("DELETE FROM cachedsubmissionid2 WHERE subredditName = :subreddit")
   fun deleteSubmissionIdsInSubredit(subreddit: String)
 
+  /**
+   * Keeps only the [keepCount] most recently saved submissions of a folder.
+   */
+  @Query("DELETE FROM cachedsubmissionid2 \nWHERE subredditName = :subredditName \nAND sortingAndTimePeriod = :sortingAndTimePeriod \nAND saveTimeMillis <= (\n  SELECT saveTimeMillis FROM cachedsubmissionid2 \n  WHERE subredditName = :subredditName \n  AND sortingAndTimePeriod = :sortingAndTimePeriod \n  ORDER BY saveTimeMillis DESC \n  LIMIT 1 OFFSET :keepCount)")
+  fun deleteSubmissionIdsBeyondLatest(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod, keepCount: Int): Int
+
   @Query("DELETE FROM cachedsubmissionid2")
   fun deleteAllSubmissionIds()
 
   @Query("DELETE FROM cachedsubmissioncomments WHERE request = :request")
-  fun deleteComments(request: DankSubmissionRequest)
+  fun deleteCommentsRequest(request: DankSubmissionRequest)
+
+  @Query("DELETE FROM cachedcomment WHERE request = :request")
+  fun deleteCommentRows(request: DankSubmissionRequest)
+
+  @Transaction
+  fun deleteComments(request: DankSubmissionRequest) {
+    deleteCommentsRequest(request)
+    deleteCommentRows(request)
+  }
 
   @Query("DELETE FROM cachedsubmissioncomments")
-  fun deleteAllComments()
+  fun deleteAllCommentsRequests()
+
+  @Query("DELETE FROM cachedcomment")
+  fun deleteAllCommentRows()
+
+  @Transaction
+  fun deleteAllComments() {
+    deleteAllCommentsRequests()
+    deleteAllCommentRows()
+  }
 
   @Query("DELETE FROM cachedsubmissionid2 WHERE saveTimeMillis < :savedBeforeMillis")
   fun deleteSubmissionIdsBefore(savedBeforeMillis: Long): Int
@@ -109,15 +335,140 @@ interface CachedSubmissionDao {
   @Query("DELETE FROM cachedsubmissioncomments WHERE saveTimeMillis < :savedBeforeMillis")
   fun deleteSubmissionCommentsBefore(savedBeforeMillis: Long): Int
 
+  @Query("DELETE FROM cachedcomment WHERE request NOT IN (SELECT request FROM cachedsubmissioncomments)")
+  fun deleteOrphanedCommentRows(): Int
+
   @Transaction
   fun deleteAllSubmissionRelatedRows(savedBeforeMillis: Long): Int {
     var deletedRowCount = 0
     deletedRowCount += deleteSubmissionIdsBefore(savedBeforeMillis)
     deletedRowCount += deleteSubmissionsBefore(savedBeforeMillis)
     deletedRowCount += deleteSubmissionCommentsBefore(savedBeforeMillis)
+    deletedRowCount += deleteOrphanedCommentRows()
     return deletedRowCount
   }
 
+  @Query("SELECT ID.subredditName, ID.sortingAndTimePeriod, SUM(LENGTH(S.submission)) AS bytes, MAX(ID.saveTimeMillis) AS lastSaveTimeMillis\nFROM cachedsubmissionid2 ID\nINNER JOIN cachedsubmission S\nON ID.id = S.id\nGROUP BY ID.subredditName, ID.sortingAndTimePeriod")
+  fun submissionSizesOfFolders(): List<CachedFolderSize>
+
+  @Query("SELECT ID.subredditName, ID.sortingAndTimePeriod, SUM(LENGTH(R.stringTable) + IFNULL((SELECT SUM(LENGTH(C.node)) FROM cachedcomment C WHERE C.request = R.request), 0)) AS bytes, MAX(R.saveTimeMillis) AS lastSaveTimeMillis\nFROM cachedsubmissionid2 ID\nINNER JOIN cachedsubmissioncomments R\nON R.submissionId = ID.id\nGROUP BY ID.subredditName, ID.sortingAndTimePeriod")
+  fun commentSizesOfFolders(): List<CachedFolderSize>
+
+  /**
+   * Estimated size of every folder, including the comments of its submissions.
+   */
+  @Transaction
+  fun folderSizes(): List<CachedFolderSize> {
+    val commentSizes = commentSizesOfFolders().associateBy { it.subredditName to it.sortingAndTimePeriod }
+    return submissionSizesOfFolders().map { folder ->
+      val comments = commentSizes[folder.subredditName to folder.sortingAndTimePeriod]
+      if (comments == null) {
+        folder
+      } else {
+        folder.copy(bytes = folder.bytes + comments.bytes, lastSaveTimeMillis = Math.max(folder.lastSaveTimeMillis, comments.lastSaveTimeMillis))
+      }
+    }
+  }
+
+  @Query("SELECT id FROM cachedsubmissionid2 \nWHERE subredditName = :subredditName \nAND sortingAndTimePeriod = :sortingAndTimePeriod")
+  fun submissionIdsInFolder(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod): List<String>
+
+  @Query("DELETE FROM cachedsubmissionid2 \nWHERE subredditName = :subredditName \nAND sortingAndTimePeriod = :sortingAndTimePeriod")
+  fun deleteSubmissionIdsInFolder(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod): Int
+
+  @Query("DELETE FROM cachedsubmission WHERE id IN (:ids) AND id NOT IN (SELECT id FROM cachedsubmissionid2)")
+  fun deleteSubmissionsOutsideFolders(ids: List<String>): Int
+
+  @Query("DELETE FROM cachedsubmissioncomments WHERE submissionId IN (:ids) AND submissionId NOT IN (SELECT id FROM cachedsubmission)")
+  fun deleteCommentsRequestsOfDeletedSubmissions(ids: List<String>): Int
+
+  /**
+   * Deletes a folder, along with its submissions and their comments unless they're also present in another folder.
+   */
+  @Transaction
+  fun deleteFolder(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod): Int {
+    val ids = submissionIdsInFolder(subredditName, sortingAndTimePeriod)
+    var deletedRowCount = deleteSubmissionIdsInFolder(subredditName, sortingAndTimePeriod)
+    ids.chunked(MAX_BOUND_ARGUMENTS_PER_QUERY).forEach { chunk ->
+      deletedRowCount += deleteSubmissionsOutsideFolders(chunk)
+      deletedRowCount += deleteCommentsRequestsOfDeletedSubmissions(chunk)
+    }
+    deletedRowCount += deleteOrphanedCommentRows()
+    deletedRowCount += deleteFolderSnapshot(subredditName, sortingAndTimePeriod)
+    return deletedRowCount
+  }
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  fun saveFolderSnapshot(snapshot: CachedFolderSnapshot)
+
+  @Query("SELECT * FROM cachedfoldersnapshot \nWHERE subredditName = :subredditName \nAND sortingAndTimePeriod = :sortingAndTimePeriod")
+  fun folderSnapshot(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod): CachedFolderSnapshot?
+
+  @Query("DELETE FROM cachedfoldersnapshot \nWHERE subredditName = :subredditName \nAND sortingAndTimePeriod = :sortingAndTimePeriod")
+  fun deleteFolderSnapshot(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod): Int
+
+  @Query("DELETE FROM cachedfoldersnapshot WHERE subredditName = :subredditName")
+  fun deleteFolderSnapshotsInSubreddit(subredditName: String)
+
+  @Query("DELETE FROM cachedfoldersnapshot")
+  fun deleteAllFolderSnapshots()
+
+  /**
+   * Replaces a folder with a freshly fetched page of submissions and the comments of some of them. Submissions
+   * that dropped out of the folder are deleted along with their comments, unless they're also present in
+   * another folder.
+   *
+   * The folder's size is measured after it's written, so that submissions only get serialized once (by Room).
+   *
+   * @param comments Comment rows, keyed by their request.
+   * @param maxBytes Everything gets rolled back if the folder ends up larger than this.
+   * @throws FolderSnapshotTooLargeException If the folder didn't fit in [maxBytes].
+   */
+  @Transaction
+  fun replaceFolderWithSnapshot(
+      subredditName: String,
+      sortingAndTimePeriod: SortingAndTimePeriod,
+      submissions: List<Submission>,
+      comments: Map<CachedSubmissionComments, List<CachedComment>>,
+      maxBytes: Long
+  ): SavedFolderSnapshot {
+    val oldIds = submissionIdsInFolder(subredditName, sortingAndTimePeriod)
+    deleteSubmissionIdsInFolder(subredditName, sortingAndTimePeriod)
+
+    // One ID row and one submission row per submission.
+    var writtenRowCount = saveNewSubmissions(subredditName, sortingAndTimePeriod, submissions).size * 2
+    for ((commentsRequest, commentRows) in comments) {
+      saveComments(commentsRequest, commentRows)
+      writtenRowCount += commentRows.size + 1
+    }
+
+    oldIds.chunked(MAX_BOUND_ARGUMENTS_PER_QUERY).forEach { chunk ->
+      deleteSubmissionsOutsideFolders(chunk)
+      deleteCommentsRequestsOfDeletedSubmissions(chunk)
+    }
+    deleteOrphanedCommentRows()
+
+    saveFolderSnapshot(CachedFolderSnapshot(subredditName, sortingAndTimePeriod, System.currentTimeMillis()))
+
+    val bytes = submissionBytesInFolder(subredditName, sortingAndTimePeriod) + commentBytesInFolder(subredditName, sortingAndTimePeriod)
+    if (bytes > maxBytes) {
+      throw FolderSnapshotTooLargeException(bytes)
+    }
+    return SavedFolderSnapshot(writtenRowCount + 1, bytes)
+  }
+
+  /**
+   * Same as [submissionSizesOfFolders], for one folder.
+   */
+  @Query("SELECT IFNULL(SUM(LENGTH(S.submission)), 0)\nFROM cachedsubmissionid2 ID\nINNER JOIN cachedsubmission S\nON ID.id = S.id\nWHERE ID.subredditName = :subredditName AND ID.sortingAndTimePeriod = :sortingAndTimePeriod")
+  fun submissionBytesInFolder(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod): Long
+
+  /**
+   * Same as [commentSizesOfFolders], for one folder.
+   */
+  @Query("SELECT IFNULL(SUM(LENGTH(R.stringTable) + IFNULL((SELECT SUM(LENGTH(C.node)) FROM cachedcomment C WHERE C.request = R.request), 0)), 0)\nFROM cachedsubmissionid2 ID\nINNER JOIN cachedsubmissioncomments R\nON R.submissionId = ID.id\nWHERE ID.subredditName = :subredditName AND ID.sortingAndTimePeriod = :sortingAndTimePeriod")
+  fun commentBytesInFolder(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod): Long
+
   @Query("SELECT S.submission FROM cachedsubmissionid2 ID\nINNER JOIN cachedsubmission S\nON ID.id = S.id\nWHERE ID.subredditName = :subredditName AND ID.sortingAndTimePeriod = :sortingAndTimePeriod\nORDER BY ID.saveTimeMillis ASC")
   fun submissionsInFolderAsc(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod): Flowable<List<Submission>>
 }
@@ -137,24 +488,11 @@ class SubmissionRoomTypeConverter {
   }
 }
 
-class RepliesRoomTypeConverter {
-  private val adapter by lazy {
-    val type = Types.newParameterizedType(Listing::class.java, NestedIdentifiable::class.java)
-    JrawUtils.moshi.adapter<Listing<NestedIdentifiable>>(type, Enveloped::class.java).serializeNulls()
-  }
-
-  @TypeConverter
-  fun toJson(replies: Listing<NestedIdentifiable>): String {
-    return adapter.toJson(replies)
-  }
-
-  @TypeConverter
-  fun fromJson(json: String?): Listing<NestedIdentifiable>? {
-    if (json == null) {
-      return null
-    }
-    return adapter.fromJson(json) as Listing<NestedIdentifiable>
-  }
+/**
+ * JRAW's adapter for nodes of comment trees, used for storing them as [CachedComment] rows.
+ */
+val commentNodeAdapter: JsonAdapter<NestedIdentifiable> by lazy {
+  JrawUtils.moshi.adapter<NestedIdentifiable>(NestedIdentifiable::class.java, Enveloped::class.java).serializeNulls()
 }
 
 class DankSubmissionRequestRoomTypeConverter : MoshiBasedRoomTypeConverter<DankSubmissionRequest>(DankSubmissionRequest::class.java)
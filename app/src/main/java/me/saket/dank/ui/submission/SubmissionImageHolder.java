@@ -37,6 +37,7 @@ import me.saket.dank.ui.submission.events.SubmissionImageLoadSucceeded;
 import me.saket.dank.urlparser.MediaLink;
 import me.saket.dank.utils.Animations;
 import me.saket.dank.utils.Optional;
+import me.saket.dank.utils.Pair;
 import me.saket.dank.utils.Views;
 import me.saket.dank.widgets.InboxUI.SimpleExpandablePageStateChangeCallbacks;
 import me.saket.dank.widgets.ScrollingRecyclerViewSheet;
@@ -57,7 +58,7 @@ public class SubmissionImageHolder {
   private SubmissionPageLifecycleStreams lifecycle;
   private SubmissionPageLayout submissionPageLayout;
   private Size deviceDisplaySize;
-  private Relay<Drawable> imageStream = PublishRelay.create();
+  private Relay<Pair<String, Drawable>> imageStream = PublishRelay.create();
   private ZoomableImageView.OnPanChangeListener imagePanListener;
 
   @Inject
@@ -90,9 +91,13 @@ public class SubmissionImageHolder {
         .subscribe(resetViews());
   }
 
+  /**
+   * @return Bitmaps of loaded images, paired with the URLs of their media links.
+   */
   @CheckResult
-  public Observable<Optional<Bitmap>> streamImageBitmaps() {
-    return imageStream.map(SubmissionImageHolder::bitmapFromDrawable);
+  public Observable<Optional<Pair<String, Bitmap>>> streamImageBitmaps() {
+    return imageStream.map(urlAndDrawable -> bitmapFromDrawable(urlAndDrawable.second())
+        .map(bitmap -> Pair.create(urlAndDrawable.first(), bitmap)));
   }
 
   private Consumer<Object> resetViews() {
@@ -150,7 +155,7 @@ public class SubmissionImageHolder {
             }
           });
         })
-        .doOnSuccess(imageStream)
+        .doOnSuccess(drawable -> imageStream.accept(Pair.create(mediaLink.unparsedUrl(), drawable)))
         .toCompletable();
   }
 
@@ -8,9 +8,7 @@ import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.util.Size;
 
-import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.resource.bitmap.DownsampleStrategy;
-import com.bumptech.glide.request.FutureTarget;
 import com.bumptech.glide.request.RequestOptions;
 import com.f2prateek.rx.preferences2.Preference;
 
@@ -28,13 +26,17 @@ import me.saket.dank.ui.submission.adapter.ImageWithMultipleVariants;
 import me.saket.dank.urlparser.MediaLink;
 import me.saket.dank.utils.NetworkStateListener;
 import me.saket.dank.utils.Optional;
+import me.saket.dank.utils.glide.AsyncImageLoader;
 import me.saket.dank.utils.glide.GlidePaddingTransformation;
+import me.saket.dank.utils.glide.GlideUtils;
+import me.saket.dank.utils.okhttp.RequestPriority;
 import me.saket.dank.walkthrough.SyntheticData;
 
 public class SubmissionImageLoader {
 
   private final Lazy<Preference<NetworkStrategy>> hdMediaNetworkStrategyPref;
   private final Lazy<NetworkStateListener> networkStateListener;
+  private final Lazy<AsyncImageLoader> asyncImageLoader;
 
   private final GlidePaddingTransformation glidePaddingTransformation;
   private final Size deviceDisplaySize;
@@ -43,10 +45,12 @@ public class SubmissionImageLoader {
   public SubmissionImageLoader(
       Application appContext,
       Lazy<NetworkStateListener> networkStateListener,
-      @Named("hd_media_in_submissions") Lazy<Preference<NetworkStrategy>> hdMediaNetworkStrategyPref)
+      @Named("hd_media_in_submissions") Lazy<Preference<NetworkStrategy>> hdMediaNetworkStrategyPref,
+      Lazy<AsyncImageLoader> asyncImageLoader)
   {
     this.hdMediaNetworkStrategyPref = hdMediaNetworkStrategyPref;
     this.networkStateListener = networkStateListener;
+    this.asyncImageLoader = asyncImageLoader;
 
     Resources res = appContext.getResources();
     deviceDisplaySize = new Size(res.getDisplayMetrics().widthPixels, res.getDisplayMetrics().heightPixels);
@@ -82,13 +86,34 @@ public class SubmissionImageLoader {
       MediaLink mediaLink,
       Optional<SubmissionPreview> redditPreviews,
       Optional<Scheduler> scheduler,
-      RequestOptions options)
+      RequestOptions options,
+      RequestPriority requestPriority)
   {
     return hdMediaNetworkStrategyPref.get().asObservable()
         .switchMap(strategy -> networkStateListener.get().streamNetworkInternetCapability(strategy, scheduler))
         .firstOrError()
         .map(canLoadHighDef -> imageUrlSuitableForNetwork(mediaLink, redditPreviews, canLoadHighDef))
-        .flatMap(imageUrl -> loadImage(context, imageUrl, options));
+        .flatMap(imageUrl -> loadImage(context, imageUrl, options, requestPriority));
+  }
+
+  public Single<Drawable> load(
+      Context context,
+      MediaLink mediaLink,
+      Optional<SubmissionPreview> redditPreviews,
+      Optional<Scheduler> scheduler,
+      RequestOptions options)
+  {
+    return load(context, mediaLink, redditPreviews, scheduler, options, RequestPriority.UI);
+  }
+
+  public Single<Drawable> load(
+      Context context,
+      MediaLink mediaLink,
+      @Nullable SubmissionPreview redditPreviews,
+      RequestOptions options,
+      RequestPriority requestPriority)
+  {
+    return load(context, mediaLink, Optional.ofNullable(redditPreviews), Optional.empty(), options, requestPriority);
   }
 
   public Single<Drawable> load(
@@ -123,6 +148,10 @@ public class SubmissionImageLoader {
   }
 
   public Single<Drawable> loadImage(Context context, String imageUrl, RequestOptions options) {
+    return loadImage(context, imageUrl, options, RequestPriority.UI);
+  }
+
+  public Single<Drawable> loadImage(Context context, String imageUrl, RequestOptions options, RequestPriority requestPriority) {
     if (SyntheticData.Companion.getSUBMISSION_IMAGE_URL_FOR_GESTURE_WALKTHROUGH().equalsIgnoreCase(imageUrl)) {
       //noinspection ConstantConditions
       return Single.just(context.getDrawable(R.drawable.dank_cat));
@@ -131,14 +160,10 @@ public class SubmissionImageLoader {
     RequestOptions optionsWithTransform = options.transform(glidePaddingTransformation);
     RequestOptions optionsWithSample = applyDownsamplingStrategy(optionsWithTransform, deviceDisplaySize);
 
-    return Single.create(emitter -> {
-      //Timber.i("Loading image %s", imageUrl);
-      FutureTarget<Drawable> target = Glide.with(context)
-          .load(imageUrl)
-          .apply(optionsWithSample)
-          .submit();
-      emitter.onSuccess(target.get());
-    });
+    //Timber.i("Loading image %s", imageUrl);
+    return asyncImageLoader.get().load(context, options.getPriority(), glide -> glide
+        .load(GlideUtils.modelWithPriority(imageUrl, requestPriority))
+        .apply(optionsWithSample));
   }
 
   // TODO: Use this in MediaImageFragment to keep options in sync.
@@ -45,6 +45,7 @@ import com.devbrackets.android.exomedia.ui.widget.VideoView;
 import com.f2prateek.rx.preferences2.Preference;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.jakewharton.rxbinding2.support.v7.widget.RxRecyclerView;
 import com.jakewharton.rxbinding2.view.RxView;
 import com.jakewharton.rxrelay2.BehaviorRelay;
 import com.jakewharton.rxrelay2.PublishRelay;
@@ -52,12 +53,16 @@ import com.jakewharton.rxrelay2.Relay;
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
 
+import net.dean.jraw.models.Comment;
 import net.dean.jraw.models.Identifiable;
 import net.dean.jraw.models.Message;
 import net.dean.jraw.models.Submission;
 import net.dean.jraw.models.SubmissionPreview;
 import net.dean.jraw.tree.RootCommentNode;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -153,6 +158,7 @@ import me.saket.dank.utils.Views;
 import me.saket.dank.utils.itemanimators.SubmissionCommentsItemAnimator;
 import me.saket.dank.utils.lifecycle.LifecycleOwnerActivity;
 import me.saket.dank.utils.lifecycle.LifecycleStreams;
+import me.saket.dank.utils.palette.CachedPaletteGenerator;
 import me.saket.dank.vote.VotingManager;
 import me.saket.dank.walkthrough.SyntheticData;
 import me.saket.dank.widgets.AnimatedToolbarBackground;
@@ -177,6 +183,7 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
   private static final long ACTIVITY_CONTENT_RESIZE_ANIM_DURATION = 300;
   private static final int REQUEST_CODE_PICK_GIF = 98;
   private static final int REQUEST_CODE_FULLSCREEN_REPLY = 99;
+  private static final long PRE_RENDER_SCROLL_SAMPLE_MILLIS = 100;
 
   @BindView(R.id.submission_toolbar) View toolbar;
   @BindView(R.id.submission_toolbar_close) ImageButton toolbarCloseButton;
@@ -216,6 +223,8 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
   @Inject Lazy<SubmissionImageHolder> contentImageViewHolder;
   @Inject Lazy<ErrorResolver> errorResolver;
   @Inject Lazy<MediaHostRepository> mediaHostRepository;
+  @Inject Lazy<CachedPaletteGenerator> paletteGenerator;
+  @Inject Lazy<CommentBodyPreRenderer> commentBodyPreRenderer;
 
   private BehaviorRelay<DankSubmissionRequest> submissionRequestStream = BehaviorRelay.create();
   private BehaviorRelay<Optional<SubmissionAndComments>> submissionStream = BehaviorRelay.createDefault(Optional.empty());
@@ -439,6 +448,15 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
         .takeUntil(lifecycle().onDestroy())
         .subscribe(o -> commentRecyclerView.setAdapter(commentsAdapter));
 
+    // Bodies of comments beyond the first screen are parsed as the list scrolls close to them. Scroll
+    // events arrive every frame, so they're sampled to keep the visible range lookups off most frames.
+    Observable.<Object>merge(RxRecyclerView.scrollEvents(commentRecyclerView), commentsAdapter.dataChanges())
+        .sample(PRE_RENDER_SCROLL_SAMPLE_MILLIS, TimeUnit.MILLISECONDS, mainThread(), true)
+        .map(o -> commentsToPreRender())
+        .filter(comments -> !comments.isEmpty())
+        .takeUntil(lifecycle().onDestroy())
+        .subscribe(comments -> commentBodyPreRenderer.get().preRender(comments));
+
     // Load comments when submission changes.
     submissionRequestStream
         .observeOn(mainThread())
@@ -499,7 +517,7 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
         )
         .subscribeOn(io())
         .toFlowable(BackpressureStrategy.LATEST)
-        .compose(RxDiffUtil.calculateDiff(CommentsItemDiffer.Companion::create))
+        .compose(RxDiffUtil.calculateDiffOfChangedRange(CommentsItemDiffer.Companion::create))
         .observeOn(mainThread())
         .takeUntil(lifecycle().onDestroyFlowable())
         .subscribe(commentsAdapter);
@@ -881,6 +899,31 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
     ((SubmissionCommentInlineReply.ViewHolder) holder).handlePickedGiphyGif(title, gif);
   }
 
+  /**
+   * Comments in the {@link CommentBodyPreRenderer#PRE_RENDER_AHEAD_COUNT} rows from the first visible row
+   * onwards whose bodies haven't been parsed yet, in the order they'll be seen.
+   */
+  private List<Comment> commentsToPreRender() {
+    int firstVisiblePosition = ((LinearLayoutManager) commentRecyclerView.getLayoutManager()).findFirstVisibleItemPosition();
+    List<SubmissionScreenUiModel> rows = commentsAdapter.getData();
+    if (firstVisiblePosition == RecyclerView.NO_POSITION || rows == null) {
+      return Collections.emptyList();
+    }
+
+    int lastPosition = Math.min(rows.size(), firstVisiblePosition + CommentBodyPreRenderer.PRE_RENDER_AHEAD_COUNT);
+    List<Comment> comments = new ArrayList<>(CommentBodyPreRenderer.PRE_RENDER_AHEAD_COUNT);
+    for (int i = firstVisiblePosition; i < lastPosition; i++) {
+      SubmissionScreenUiModel row = rows.get(i);
+      if (row instanceof SubmissionRemoteComment.UiModel && !((SubmissionRemoteComment.UiModel) row).isCollapsed()) {
+        Comment comment = ((SubmissionRemoteComment.UiModel) row).comment();
+        if (!commentBodyPreRenderer.get().isRendered(comment)) {
+          comments.add(comment);
+        }
+      }
+    }
+    return comments;
+  }
+
   /**
    * Scroll to <var>parent</var>'s reply if it's not going to
    * be visible because it's located beyond the visible window.
@@ -1161,15 +1204,15 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
   private void setupStatusBarTint() {
     //noinspection ConstantConditions
     int defaultStatusBarColor = ContextCompat.getColor(getContext(), R.color.color_primary_dark);
-    Observable<Optional<Bitmap>> contentBitmapStream = Observable.merge(
+    Observable<Optional<Pair<String, Bitmap>>> contentBitmapStream = Observable.merge(
         contentImageViewHolder.get().streamImageBitmaps(),
-        contentVideoViewHolder.get().streamVideoFirstFrameBitmaps().map(Optional::of)
-    );
+        contentVideoViewHolder.get().streamVideoFirstFrameBitmaps().map(Optional::of));
 
     SubmissionStatusBarTintProvider statusBarTintProvider = new SubmissionStatusBarTintProvider(
         defaultStatusBarColor,
         Views.statusBarHeight(getResources()),
-        deviceDisplayWidth
+        deviceDisplayWidth,
+        paletteGenerator.get()
     );
 
     // Reset the toolbar icons' tint until the content is loaded.
@@ -0,0 +1,130 @@
+package me.saket.dank.ui.submission;
+
+import android.support.annotation.Nullable;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.subjects.SingleSubject;
+import me.saket.dank.data.PaginationAnchor;
+import me.saket.dank.ui.submission.SubmissionRepository.FetchResult;
+import timber.log.Timber;
+
+/**
+ * Holds the next page of a submission list, fetched while the previous page is being saved and
+ * the user is still scrolling through it. Only one page is kept at a time, for the folder that
+ * was paginated last.
+ */
+class SubmissionPageLookAhead {
+
+  /**
+   * Listings like "hot" keep changing, so pages fetched this long ago are fetched again.
+   */
+  private static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  private final Scheduler scheduler;
+  private CachedSubmissionFolder folder;
+  private PaginationAnchor anchor;
+  private SingleSubject<FetchResult> page;
+  private Disposable pageDisposable;
+  private long startTimeMillis;
+
+  SubmissionPageLookAhead(Scheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Replaces any earlier look-ahead.
+   *
+   * @param anchor Submission after which <var>fetch</var> fetches its page.
+   */
+  synchronized void start(CachedSubmissionFolder folder, PaginationAnchor anchor, Callable<FetchResult> fetch) {
+    discard();
+
+    SingleSubject<FetchResult> page = SingleSubject.create();
+    this.folder = folder;
+    this.anchor = anchor;
+    this.page = page;
+    this.startTimeMillis = System.currentTimeMillis();
+    this.pageDisposable = Single.fromCallable(fetch)
+        .subscribeOn(scheduler)
+        .subscribe(page::onSuccess, page::onError);
+  }
+
+  /**
+   * Blocks if the page is still being fetched.
+   *
+   * @return Null if a page for <var>folder</var> after <var>anchor</var> isn't available, in which case it should
+   * be fetched by the caller. Any other look-ahead is discarded.
+   */
+  @Nullable
+  FetchResult take(CachedSubmissionFolder folder, PaginationAnchor anchor) throws InterruptedIOException {
+    SingleSubject<FetchResult> matchingPage;
+    synchronized (this) {
+      boolean matches = page != null
+          && this.folder.equals(folder)
+          && this.anchor.equals(anchor)
+          && System.currentTimeMillis() - startTimeMillis < MAX_AGE_MILLIS;
+
+      if (matches) {
+        matchingPage = page;
+        clear();
+      } else {
+        matchingPage = null;
+        discard();
+      }
+    }
+
+    if (matchingPage == null) {
+      return null;
+    }
+
+    try {
+      return matchingPage.blockingGet();
+    } catch (RuntimeException e) {
+      if (e.getCause() instanceof InterruptedException) {
+        throw new InterruptedIOException("Interrupted while waiting for look-ahead page");
+      }
+      Timber.w(e, "Look-ahead page for %s failed. Fetching again.", folder);
+      return null;
+    }
+  }
+
+  /**
+   * Cancels the look-ahead if it's for <var>folder</var>.
+   */
+  synchronized void discard(CachedSubmissionFolder folder) {
+    if (page != null && this.folder.equals(folder)) {
+      discard();
+    }
+  }
+
+  /**
+   * Changes the anchor that the look-ahead for <var>folder</var> gets taken with. The page is still the one
+   * that was fetched after <var>fromAnchor</var>. Used when the submissions at the end of the previous page
+   * didn't get saved, because the next pagination starts after the last saved submission instead.
+   */
+  synchronized void reanchor(CachedSubmissionFolder folder, PaginationAnchor fromAnchor, PaginationAnchor toAnchor) {
+    if (page != null && this.folder.equals(folder) && this.anchor.equals(fromAnchor)) {
+      this.anchor = toAnchor;
+    }
+  }
+
+  private void discard() {
+    if (pageDisposable != null) {
+      pageDisposable.dispose();
+    }
+    clear();
+  }
+
+  private void clear() {
+    folder = null;
+    anchor = null;
+    page = null;
+    pageDisposable = null;
+  }
+}
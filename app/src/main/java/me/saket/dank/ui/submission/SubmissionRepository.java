@@ -3,6 +3,7 @@ package me.saket.dank.ui.submission;
 import static io.reactivex.schedulers.Schedulers.io;
 
 import android.support.annotation.CheckResult;
+import android.support.annotation.WorkerThread;
 
 import com.google.auto.value.AutoValue;
 import com.jakewharton.rxbinding2.internal.Notification;
@@ -11,8 +12,10 @@ import com.nytimes.android.external.cache3.CacheBuilder;
 import com.squareup.moshi.Moshi;
 import com.squareup.sqlbrite2.BriteDatabase;
 
+import net.dean.jraw.models.Comment;
 import net.dean.jraw.models.CommentSort;
 import net.dean.jraw.models.Listing;
+import net.dean.jraw.models.NestedIdentifiable;
 import net.dean.jraw.models.Submission;
 import net.dean.jraw.tree.CommentNode;
 import net.dean.jraw.tree.RootCommentNode;
@@ -23,8 +26,13 @@ import org.threeten.bp.ZoneId;
 import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -43,12 +51,16 @@ import me.saket.dank.data.ResolvedError;
 import me.saket.dank.reddit.Reddit;
 import me.saket.dank.reply.ReplyRepository;
 import me.saket.dank.ui.submission.AuditedCommentSort.SelectedBy;
+import me.saket.dank.ui.submission.CommentTreeBinaryCodec.StringTable;
 import me.saket.dank.ui.subreddit.SubmissionPaginationResult;
 import me.saket.dank.ui.subreddit.SubredditSearchResult;
 import me.saket.dank.ui.subscriptions.SubscriptionRepository;
 import me.saket.dank.utils.Arrays2;
 import me.saket.dank.utils.DankSubmissionRequest;
+import me.saket.dank.utils.DeviceInfo;
 import me.saket.dank.utils.Pair;
+import me.saket.dank.utils.SingleFlight;
+import me.saket.dank.utils.okhttp.RequestPriority;
 import me.saket.dank.vote.VotingManager;
 import me.saket.dank.walkthrough.SyntheticData;
 import me.saket.dank.walkthrough.SyntheticSubmissionAndComments;
@@ -57,6 +69,18 @@ import timber.log.Timber;
 @Singleton
 public class SubmissionRepository {
 
+  /**
+   * On low-RAM devices, older submissions of a folder are dropped beyond this count so that
+   * long infinite-scroll sessions don't keep growing the list held in memory.
+   */
+  private static final int MAX_SUBMISSIONS_IN_BOUNDED_FOLDER = 500;
+
+  /**
+   * Offline snapshots are shown without refreshing them for this long. Twice the period of
+   * {@link me.saket.dank.cache.OfflineSyncJobService}, so that a missed run doesn't expire them.
+   */
+  private static final long OFFLINE_SNAPSHOT_FRESHNESS_MILLIS = TimeUnit.HOURS.toMillis(12);
+
   private final Lazy<Moshi> moshi;
   @Deprecated private final Lazy<BriteDatabase> database;
   private final Lazy<AppDatabase> roomDatabase;
@@ -66,8 +90,12 @@ public class SubmissionRepository {
   private final Lazy<SubscriptionRepository> subscriptionRepository;
   private final Lazy<SyntheticData> syntheticData;
   private final Lazy<ReplyRepository> replyRepository;
+  private final Lazy<DeviceInfo> deviceInfo;
 
   private Cache<DankSubmissionRequest, CachedSubmissionAndComments> inMemoryCache;
+  private Cache<Pair<DankSubmissionRequest, Long>, Listing<NestedIdentifiable>> recentlyReadComments;
+  private final SingleFlight<DankSubmissionRequest> submissionFetches = new SingleFlight<>();
+  private final SubmissionPageLookAhead pageLookAhead = new SubmissionPageLookAhead(io());
 
   @Inject
   public SubmissionRepository(
@@ -79,7 +107,8 @@ public class SubmissionRepository {
       Lazy<ErrorResolver> errorResolver,
       Lazy<SubscriptionRepository> subscriptionRepository,
       Lazy<ReplyRepository> replyRepository,
-      Lazy<SyntheticData> syntheticData)
+      Lazy<SyntheticData> syntheticData,
+      Lazy<DeviceInfo> deviceInfo)
   {
     this.database = briteDatabase;
     this.moshi = moshi;
@@ -90,11 +119,16 @@ public class SubmissionRepository {
     this.subscriptionRepository = subscriptionRepository;
     this.syntheticData = syntheticData;
     this.replyRepository = replyRepository;
+    this.deviceInfo = deviceInfo;
 
     inMemoryCache = CacheBuilder.newBuilder()
         .expireAfterAccess(1, TimeUnit.HOURS)
         .maximumSize(100)
         .build();
+
+    recentlyReadComments = CacheBuilder.newBuilder()
+        .maximumSize(3)
+        .build();
   }
 
 // ======== SUBMISSION WITH COMMENTS ======== //
@@ -107,6 +141,17 @@ public class SubmissionRepository {
    */
   @CheckResult
   public Observable<Pair<DankSubmissionRequest, SubmissionAndComments>> submissionWithComments(DankSubmissionRequest oldRequest) {
+    return submissionWithComments(oldRequest, RequestPriority.UI);
+  }
+
+  /**
+   * @param priority Of the network call made if the submission isn't present in DB.
+   */
+  @CheckResult
+  public Observable<Pair<DankSubmissionRequest, SubmissionAndComments>> submissionWithComments(
+      DankSubmissionRequest oldRequest,
+      RequestPriority priority)
+  {
     if (oldRequest.id().equalsIgnoreCase(SyntheticData.SUBMISSION_ID_FOR_GESTURE_WALKTHROUGH)) {
       //Timber.i("Returning from Synthetic.");
       return syntheticSubmissionForGesturesWalkthrough()
@@ -120,7 +165,7 @@ public class SubmissionRepository {
           .toObservable();
     }
 
-    Observable<Pair<DankSubmissionRequest, CachedSubmissionAndComments>> dbStream = getFromDbOrFetchSubmissionWithComments(oldRequest)
+    Observable<Pair<DankSubmissionRequest, CachedSubmissionAndComments>> dbStream = getFromDbOrFetchSubmissionWithComments(oldRequest, priority)
         .take(1)
         .flatMap(submissionWithComments -> {
           // The aim is to always load comments in the sort mode suggested by a subreddit. In case we
@@ -135,13 +180,13 @@ public class SubmissionRepository {
                 .commentSort(suggestedSort, SelectedBy.SUBMISSION_SUGGESTED)
                 .build();
 
-            return getFromDbOrFetchSubmissionWithComments(newRequest)
+            return getFromDbOrFetchSubmissionWithComments(newRequest, priority)
                 .map(submissions -> Pair.create(newRequest, submissions));
 
           } else {
             //Timber.i("Returning from DB with the same sort again");
             // We're calling getOrFetch() again to receive a refreshing Observable.
-            return getFromDbOrFetchSubmissionWithComments(oldRequest)
+            return getFromDbOrFetchSubmissionWithComments(oldRequest, priority)
                 .startWith(submissionWithComments)
                 .map(submissions -> Pair.create(oldRequest, submissions))
                 //.compose(RxUtils.doOnceOnNext(o -> Timber.i("Returned from memory")))
@@ -168,11 +213,15 @@ public class SubmissionRepository {
 
   /**
    * Get from DB or from the network if not present in DB.
+   * <p>
+   * Concurrent fetches of the same request, like cache pre-filling racing the user opening the submission,
+   * share one network call and DB write through {@link #submissionFetches}. The shared call keeps the
+   * priority of whoever started it.
    */
   @CheckResult
-  private Observable<CachedSubmissionAndComments> getFromDbOrFetchSubmissionWithComments(DankSubmissionRequest request) {
+  private Observable<CachedSubmissionAndComments> getFromDbOrFetchSubmissionWithComments(DankSubmissionRequest request, RequestPriority priority) {
     // This stream is intentionally not shared. I don't know why, but the network call was blocking the DB stream.
-    Observable<List<CachedSubmissionAndComments>> dbStream = roomDatabase.get()
+    Observable<List<CachedSubmissionAndCommentsRequest>> dbStream = roomDatabase.get()
         .submissionDao()
         .submissionWithComments(request.id(), request)
         .toObservable();
@@ -180,28 +229,15 @@ public class SubmissionRepository {
     Completable refreshCompletable = dbStream
         .observeOn(io())
         .map(Arrays2::firstOrEmpty)
-        .filter(optionalSubmission -> optionalSubmission.isEmpty() || optionalSubmission.get().comments().isEmpty())
-        .flatMapCompletable(o -> {
+        .filter(optionalSubmission -> optionalSubmission.isEmpty() || optionalSubmission.get().getRequest() == null)
+        .flatMapCompletable(o -> submissionFetches.run(request, () -> {
           Single<RootCommentNode> cachedNetworkStream = reddit.get().submissions()
               .fetch(request)
+              .compose(RequestPriority.applyWhileSubscribing(priority))
               .cache();
 
           Completable saveCompletable = cachedNetworkStream
-              .map(node -> {
-                Submission submission = node.getSubject();
-                CachedSubmissionComments cachedComments = new CachedSubmissionComments(
-                    submission.getId(),
-                    node.getChildren(),
-                    request,
-                    System.currentTimeMillis());
-                CachedSubmission cachedSubmission = new CachedSubmission(
-                    submission.getId(),
-                    submission,
-                    submission.getSubreddit(),
-                    System.currentTimeMillis());
-                return Pair.create(cachedSubmission, cachedComments);
-              })
-              .flatMapCompletable(this::saveSubmissionData);
+              .flatMapCompletable(node -> saveSubmissionData(node, request));
 
           Completable removeStaleSyncedLocalReplies = cachedNetworkStream
               .map(node -> node.getSubject())
@@ -209,33 +245,123 @@ public class SubmissionRepository {
               .flatMapCompletable(replyRepository.get()::removeSyncPendingPostedReplies);
 
           return saveCompletable.mergeWith(removeStaleSyncedLocalReplies);
-        });
+        }));
 
     return dbStream
         .flatMap(dbItems -> dbItems.isEmpty() ? Observable.empty() : Observable.just(dbItems.get(0)))
+        .map(this::readComments)
         .mergeWith(refreshCompletable.toObservable());
   }
 
-  private Completable saveSubmissionData(Pair<CachedSubmission, CachedSubmissionComments> submissionData) {
+  public SingleFlight.Stats submissionFetchStats() {
+    return submissionFetches.stats();
+  }
+
+  /**
+   * Rebuilds the comment tree from its rows, unless it's unchanged since the last read. Room
+   * re-runs queries on every table change, but the comments being observed are usually still the same.
+   */
+  private CachedSubmissionAndComments readComments(CachedSubmissionAndCommentsRequest row) throws ExecutionException {
+    DankSubmissionRequest commentsRequest = row.getRequest();
+    if (commentsRequest == null) {
+      return new CachedSubmissionAndComments(row.getId(), row.getSubmission(), null, null);
+    }
+
+    //noinspection ConstantConditions
+    Listing<NestedIdentifiable> replies = recentlyReadComments.get(
+        Pair.create(commentsRequest, row.getCommentsSaveTimeMillis()),
+        () -> roomDatabase.get().runInTransaction(() -> {
+          // Read together so that the rows and their string table can't be from different saves.
+          CachedSubmissionDao submissionDao = roomDatabase.get().submissionDao();
+          byte[] stringTable = submissionDao.commentStringTable(commentsRequest);
+          List<CachedComment> commentRows = submissionDao.comments(commentsRequest);
+          String[] sharedStrings = stringTable != null ? StringTable.decodeStrings(stringTable) : new String[0];
+          return NormalizedCommentTree.rebuild(commentRows, sharedStrings, SubmissionEntitiesKt.getCommentNodeAdapter());
+        }));
+    return new CachedSubmissionAndComments(row.getId(), row.getSubmission(), replies, commentsRequest);
+  }
+
+  private Completable saveSubmissionData(RootCommentNode rootNode, DankSubmissionRequest request) {
     return Completable.fromAction(() -> {
-      CachedSubmission cachedSubmission = submissionData.first();
-      CachedSubmissionComments cachedSubmissionComments = submissionData.second();
+      Submission submission = rootNode.getSubject();
+      CachedSubmission cachedSubmission = new CachedSubmission(
+          submission.getId(),
+          submission,
+          submission.getSubreddit(),
+          System.currentTimeMillis());
 
       roomDatabase.get().submissionDao().saveSubmission(cachedSubmission);
-      roomDatabase.get().submissionDao().saveComments(cachedSubmissionComments);
+      saveAllSubmissionComments(rootNode, request);
     });
   }
 
-  private Completable saveSubmissionComments(SubmissionAndComments submissionData, DankSubmissionRequest request) {
-    return Completable.fromAction(() -> {
-      //noinspection ConstantConditions
-      CachedSubmissionComments cachedSubmissionComments = new CachedSubmissionComments(
-          submissionData.getSubmission().getId(),
-          submissionData.getComments().get().getChildren(),
+  private void saveAllSubmissionComments(RootCommentNode rootNode, DankSubmissionRequest request) {
+    Submission submission = rootNode.getSubject();
+    StringTable sharedStrings = new StringTable();
+    List<CachedComment> commentRows = NormalizedCommentTree.rows(
+        request,
+        rootNode,
+        submission.getFullName(),
+        "",
+        sharedStrings,
+        SubmissionEntitiesKt.getCommentNodeAdapter());
+    CachedSubmissionComments commentsRequest = new CachedSubmissionComments(
+        submission.getId(),
+        request,
+        System.currentTimeMillis(),
+        sharedStrings.encode());
+    roomDatabase.get().submissionDao().saveComments(commentsRequest, commentRows);
+  }
+
+  /**
+   * Inserts only the comments that were fetched for <var>commentNode</var>'s "load more" node.
+   * <p>
+   * Runs in a transaction because new strings get appended to the tree's shared string table,
+   * which concurrent saves of the same tree would otherwise overwrite.
+   */
+  private Completable saveMoreComments(SubmissionAndComments submissionData, DankSubmissionRequest request, CommentNode<?> commentNode) {
+    return Completable.fromAction(() -> roomDatabase.get().runInTransaction(() -> {
+      CachedSubmissionDao submissionDao = roomDatabase.get().submissionDao();
+      Submission submission = submissionData.getSubmission();
+
+      String parentFullName;
+      String parentSortKey;
+      if (commentNode instanceof RootCommentNode) {
+        parentFullName = submission.getFullName();
+        parentSortKey = "";
+      } else {
+        Comment parentComment = (Comment) commentNode.getSubject();
+        parentFullName = parentComment.getFullName();
+        parentSortKey = submissionDao.commentSortKey(request, parentComment.getParentFullName(), parentFullName);
+      }
+
+      byte[] stringTable = submissionDao.commentStringTable(request);
+      if (parentSortKey == null || stringTable == null) {
+        // Comments were cleared from the DB in the meantime.
+        //noinspection ConstantConditions
+        saveAllSubmissionComments(submissionData.getComments().get(), request);
+        return;
+      }
+
+      String moreChildrenSortKey = NormalizedCommentTree.moreChildrenSortKey(parentSortKey);
+      Set<String> storedChildFullNames = new HashSet<>(submissionDao.childCommentFullNames(request, parentFullName, moreChildrenSortKey));
+      StringTable sharedStrings = StringTable.decode(stringTable);
+      List<CachedComment> newCommentRows = NormalizedCommentTree.rowsOfNewChildren(
           request,
-          System.currentTimeMillis());
-      roomDatabase.get().submissionDao().saveComments(cachedSubmissionComments);
-    });
+          commentNode,
+          parentFullName,
+          parentSortKey,
+          storedChildFullNames,
+          sharedStrings,
+          SubmissionEntitiesKt.getCommentNodeAdapter());
+
+      CachedSubmissionComments commentsRequest = new CachedSubmissionComments(
+          submission.getId(),
+          request,
+          System.currentTimeMillis(),
+          sharedStrings.encode());
+      submissionDao.saveMoreComments(commentsRequest, moreChildrenSortKey, newCommentRows);
+    }));
   }
 
   @CheckResult
@@ -246,7 +372,7 @@ public class SubmissionRepository {
 
     //noinspection unchecked
     return ((Single<SubmissionAndComments>) reddit.get().submissions().fetchMoreComments(submissionData, commentNode))
-        .flatMapCompletable(updatedSubmissionData -> saveSubmissionComments(updatedSubmissionData, request));
+        .flatMapCompletable(updatedSubmissionData -> saveMoreComments(updatedSubmissionData, request, commentNode));
   }
 
   public Completable clearCachedSubmissionComments(DankSubmissionRequest request) {
@@ -283,6 +409,9 @@ public class SubmissionRepository {
   }
 
   /**
+   * Fetches and saves pages until more than 10 new submissions are saved. The page after them is fetched
+   * ahead of time while the current one is being saved, and is kept for the next call.
+   *
    * @return Operates on the main thread.
    */
   @CheckResult
@@ -292,24 +421,53 @@ public class SubmissionRepository {
         .flatMapCompletable(anchor -> Single
             .fromCallable(() -> {
               PaginationAnchor nextAnchor = anchor;
+              PaginationAnchor lastSavedAnchor = anchor;
               int savedSubmissionCount = 0;
 
               while (true) {
-                FetchResult fetchResult = fetchSubmissionsFromRemoteWithAnchor(folder, nextAnchor);
-                votingManager.get().removePendingVotesForFetchedSubmissions(fetchResult.fetchedSubmissions()).subscribe();
-                //Timber.i("Found %s submissions on remote", fetchResult.fetchedSubmissions().size());
+                FetchResult fetchResult = pageLookAhead.take(folder, lastSavedAnchor);
+                if (fetchResult == null) {
+                  fetchResult = fetchSubmissionsFromRemoteWithAnchor(folder, nextAnchor);
+                }
+
+                List<Submission> fetchedSubmissions = fetchResult.fetchedSubmissions();
+                boolean hasMoreItems = fetchResult.hasMoreItems() && !fetchedSubmissions.isEmpty();
+                if (hasMoreItems) {
+                  PaginationAnchor lookAheadAnchor = PaginationAnchor.create(fetchedSubmissions.get(fetchedSubmissions.size() - 1).getFullName());
+                  pageLookAhead.start(folder, lookAheadAnchor, () -> fetchSubmissionsFromRemoteWithAnchor(folder, lookAheadAnchor));
+                  nextAnchor = lookAheadAnchor;
+                }
 
-                SaveResult saveResult = saveSubmissions(folder, fetchResult.fetchedSubmissions());
+                votingManager.get().removePendingVotesForFetchedSubmissions(fetchedSubmissions).subscribe();
+                //Timber.i("Found %s submissions on remote", fetchedSubmissions.size());
+
+                SaveResult saveResult = saveSubmissions(folder, fetchedSubmissions);
                 savedSubmissionCount += saveResult.savedItems().size();
 
-                if (!fetchResult.hasMoreItems() || savedSubmissionCount > 10) {
+                // Submissions that were already saved get skipped, so the last fetched submission isn't always the
+                // last saved one. The next call to this method starts after the last saved one, so the page fetched
+                // ahead is kept under that anchor. It's still fetched after the last fetched submission though.
+                List<Object> savedItems = saveResult.savedItems();
+                if (!savedItems.isEmpty()) {
+                  CachedSubmission lastSaved = (CachedSubmission) savedItems.get(savedItems.size() - 1);
+                  lastSavedAnchor = PaginationAnchor.create(lastSaved.getSubmission().getFullName());
+                }
+                if (hasMoreItems) {
+                  pageLookAhead.reanchor(folder, nextAnchor, lastSavedAnchor);
+                }
+
+                if (!hasMoreItems || savedSubmissionCount > 10) {
                   //Timber.i("Breaking early");
                   break;
                 }
-
                 //Timber.i("%s distinct items not enough", distinctNewItems.size());
-                Submission lastFetchedSubmission = fetchResult.fetchedSubmissions().get(fetchResult.fetchedSubmissions().size() - 1);
-                nextAnchor = PaginationAnchor.create(lastFetchedSubmission.getFullName());
+              }
+
+              if (deviceInfo.get().isLowRamDevice()) {
+                roomDatabase.get().submissionDao().deleteSubmissionIdsBeyondLatest(
+                    folder.subredditName(),
+                    folder.sortingAndTimePeriod(),
+                    MAX_SUBMISSIONS_IN_BOUNDED_FOLDER);
               }
               //Timber.i("Fetched %s submissions", distinctNewItems.size());
               return savedSubmissionCount;
@@ -401,64 +559,143 @@ public class SubmissionRepository {
    */
   @CheckResult
   private SaveResult saveSubmissions(CachedSubmissionFolder folder, List<Submission> submissionsToSave) {
-    ArrayList<CachedSubmissionId2> cachedSubmissionIds = new ArrayList<>(submissionsToSave.size());
-    ArrayList<CachedSubmission> cachedSubmissions = new ArrayList<>(submissionsToSave.size());
-
-    for (int i = 0; i < submissionsToSave.size(); i++) {
-      // Reddit sends submissions according to their sorting order. So they may or may not be
-      // sorted by their creation time. However, we want to store their download time so that
-      // they can be fetched in the same order (because SQLite doesn't guarantee preservation
-      // of insertion order). Adding the index to avoid duplicate times.
-      long saveTimeMillis = System.currentTimeMillis() + i;
-      Submission submission = submissionsToSave.get(i);
-
-      // Warning: get the subreddit name from the folder and not the submissions or else
-      // "Frontpage", "Popular", etc. will never get anything.
-      String subredditName = folder.subredditName();
-
-      CachedSubmissionId2 cachedSubmissionId = new CachedSubmissionId2(
-          submission.getId(),
-          subredditName,
-          folder.sortingAndTimePeriod(),
-          saveTimeMillis);
+    // Warning: get the subreddit name from the folder and not the submissions or else
+    // "Frontpage", "Popular", etc. will never get anything.
+    List<CachedSubmission> savedSubmissions = roomDatabase.get().submissionDao().saveNewSubmissions(
+        folder.subredditName(),
+        folder.sortingAndTimePeriod(),
+        submissionsToSave);
+    //Timber.i("Saved %d items in: %sms", submissionsToSave.size(), (System.currentTimeMillis() - startTime));
 
-      CachedSubmission cachedSubmission = new CachedSubmission(
-          submission.getId(),
-          submission,
-          submission.getSubreddit(),
-          saveTimeMillis);
+    return SaveResult.create(Collections.unmodifiableList(savedSubmissions));
+  }
 
-      cachedSubmissionIds.add(cachedSubmissionId);
-      cachedSubmissions.add(cachedSubmission);
-    }
+  /**
+   * Cancels any page that was fetched ahead for <var>folder</var>.
+   */
+  public void stopPaginating(CachedSubmissionFolder folder) {
+    pageLookAhead.discard(folder);
+  }
 
-    List<CachedSubmission> savedSubmissions = new ArrayList<>(submissionsToSave.size());
+  public Completable clearCachedSubmissionLists() {
+    return Completable.fromAction(() -> {
+      roomDatabase.get().submissionDao().deleteAllSubmissionIds();
+      roomDatabase.get().submissionDao().deleteAllFolderSnapshots();
+    });
+  }
 
-    roomDatabase.get().runInTransaction(() -> {
-      for (int i = 0; i < cachedSubmissionIds.size(); i++) {
-        CachedSubmissionId2 cachedSubmissionId = cachedSubmissionIds.get(i);
-        CachedSubmission cachedSubmission = cachedSubmissions.get(i);
+  public Completable clearCachedSubmissionLists(String subredditName) {
+    return Completable.fromAction(() -> {
+      roomDatabase.get().submissionDao().deleteSubmissionIdsInSubredit(subredditName);
+      roomDatabase.get().submissionDao().deleteFolderSnapshotsInSubreddit(subredditName);
+    });
+  }
 
-        // Again, since Reddit does not send submissions sorted by time,
-        // it's possible to receive duplicate submissions. Ignore them.
-        long insertedRowId = roomDatabase.get().submissionDao().saveSubmissionIdIfNew(cachedSubmissionId);
-        if (insertedRowId != -1) {
-          roomDatabase.get().submissionDao().saveSubmission(cachedSubmission);
-          savedSubmissions.add(cachedSubmission);
+// ======== OFFLINE SNAPSHOTS ======== //
+
+  /**
+   * Whether <var>folder</var> was recently replaced with a snapshot synced for offline reading, in which
+   * case it doesn't need to be refreshed when it's opened.
+   */
+  @CheckResult
+  public Single<Boolean> hasFreshOfflineSnapshot(CachedSubmissionFolder folder) {
+    return Single.fromCallable(() -> {
+      CachedSubmissionDao submissionDao = roomDatabase.get().submissionDao();
+      CachedFolderSnapshot snapshot = submissionDao.folderSnapshot(folder.subredditName(), folder.sortingAndTimePeriod());
+      return snapshot != null
+          && System.currentTimeMillis() - snapshot.getSaveTimeMillis() < OFFLINE_SNAPSHOT_FRESHNESS_MILLIS
+          && submissionDao.lastSubmissionId(folder.subredditName(), folder.sortingAndTimePeriod()) != null;
+    });
+  }
+
+  /**
+   * Fetches the first <var>submissionCount</var> submissions of <var>folder</var> and the comments of the
+   * first <var>commentTreeCount</var> of them. Nothing is saved until {@link #saveOfflineSnapshot(OfflineSnapshot, long)}.
+   * All requests are made with {@link RequestPriority#PRE_FILL}, regardless of the calling thread.
+   */
+  @WorkerThread
+  public OfflineSnapshot fetchOfflineSnapshot(CachedSubmissionFolder folder, int submissionCount, int commentTreeCount) {
+    // Keyed by ID, because reddit can send the same submission twice if it moved between pages.
+    Map<String, Submission> submissionsById = new LinkedHashMap<>(submissionCount);
+    PaginationAnchor anchor = PaginationAnchor.createEmpty();
+
+    while (submissionsById.size() < submissionCount) {
+      PaginationAnchor pageAnchor = anchor;
+      FetchResult fetchResult = Single.fromCallable(() -> fetchSubmissionsFromRemoteWithAnchor(folder, pageAnchor))
+          .compose(RequestPriority.applyWhileSubscribing(RequestPriority.PRE_FILL))
+          .blockingGet();
+      List<Submission> fetchedSubmissions = fetchResult.fetchedSubmissions();
+      for (Submission submission : fetchedSubmissions) {
+        if (submissionsById.size() < submissionCount && !submissionsById.containsKey(submission.getId())) {
+          submissionsById.put(submission.getId(), submission);
         }
       }
-    });
-    //Timber.i("Saved %d items in: %sms", submissionsToSave.size(), (System.currentTimeMillis() - startTime));
 
-    return SaveResult.create(Collections.unmodifiableList(savedSubmissions));
-  }
+      if (!fetchResult.hasMoreItems() || fetchedSubmissions.isEmpty()) {
+        break;
+      }
+      anchor = PaginationAnchor.create(fetchedSubmissions.get(fetchedSubmissions.size() - 1).getFullName());
+    }
 
-  public Completable clearCachedSubmissionLists() {
-    return Completable.fromAction(() -> roomDatabase.get().submissionDao().deleteAllSubmissionIds());
+    List<Submission> submissions = new ArrayList<>(submissionsById.values());
+    votingManager.get().removePendingVotesForFetchedSubmissions(submissions).blockingAwait();
+
+    Map<CachedSubmissionComments, List<CachedComment>> comments = new LinkedHashMap<>(commentTreeCount);
+    for (Submission submission : submissions.subList(0, Math.min(commentTreeCount, submissions.size()))) {
+      // Same request that gets made when the submission is opened from its subreddit.
+      AuditedCommentSort commentSort = submission.getSuggestedSort() != null
+          ? AuditedCommentSort.create(submission.getSuggestedSort(), SelectedBy.SUBMISSION_SUGGESTED)
+          : AuditedCommentSort.create(Reddit.Companion.getDEFAULT_COMMENT_SORT(), SelectedBy.DEFAULT);
+      DankSubmissionRequest request = DankSubmissionRequest.builder(submission.getId())
+          .commentSort(commentSort)
+          .build();
+
+      RootCommentNode rootNode = reddit.get().submissions()
+          .fetch(request)
+          .compose(RequestPriority.applyWhileSubscribing(RequestPriority.PRE_FILL))
+          .blockingGet();
+      StringTable sharedStrings = new StringTable();
+      List<CachedComment> commentRows = NormalizedCommentTree.rows(
+          request,
+          rootNode,
+          submission.getFullName(),
+          "",
+          sharedStrings,
+          SubmissionEntitiesKt.getCommentNodeAdapter());
+      byte[] encodedStrings = sharedStrings.encode();
+      comments.put(new CachedSubmissionComments(submission.getId(), request, System.currentTimeMillis(), encodedStrings), commentRows);
+    }
+
+    return OfflineSnapshot.create(folder, Collections.unmodifiableList(submissions), Collections.unmodifiableMap(comments));
   }
 
-  public Completable clearCachedSubmissionLists(String subredditName) {
-    return Completable.fromAction(() -> roomDatabase.get().submissionDao().deleteSubmissionIdsInSubredit(subredditName));
+  /**
+   * Replaces the snapshot's folder with it in a single transaction.
+   *
+   * @param maxBytes Nothing is saved if the folder ends up larger than this.
+   * @throws FolderSnapshotTooLargeException If the snapshot didn't fit in <var>maxBytes</var>.
+   */
+  @WorkerThread
+  public SavedFolderSnapshot saveOfflineSnapshot(OfflineSnapshot snapshot, long maxBytes) {
+    CachedSubmissionFolder folder = snapshot.folder();
+    SavedFolderSnapshot savedSnapshot = roomDatabase.get().submissionDao().replaceFolderWithSnapshot(
+        folder.subredditName(),
+        folder.sortingAndTimePeriod(),
+        snapshot.submissions(),
+        snapshot.comments(),
+        maxBytes);
+
+    Set<String> submissionIdsWithComments = new HashSet<>(snapshot.comments().size());
+    for (CachedSubmissionComments commentsRequest : snapshot.comments().keySet()) {
+      inMemoryCache.invalidate(commentsRequest.getRequest());
+      submissionIdsWithComments.add(commentsRequest.getSubmissionId());
+    }
+    for (Submission submission : snapshot.submissions()) {
+      if (submissionIdsWithComments.contains(submission.getId())) {
+        replyRepository.get().removeSyncPendingPostedReplies(ParentThread.of(submission)).blockingAwait();
+      }
+    }
+    return savedSnapshot;
   }
 
   /**
@@ -506,6 +743,27 @@ public class SubmissionRepository {
     }
   }
 
+  @AutoValue
+  public abstract static class OfflineSnapshot {
+
+    public abstract CachedSubmissionFolder folder();
+
+    public abstract List<Submission> submissions();
+
+    /**
+     * Comment rows of the first few submissions, keyed by their request.
+     */
+    abstract Map<CachedSubmissionComments, List<CachedComment>> comments();
+
+    public static OfflineSnapshot create(
+        CachedSubmissionFolder folder,
+        List<Submission> submissions,
+        Map<CachedSubmissionComments, List<CachedComment>> comments)
+    {
+      return new AutoValue_SubmissionRepository_OfflineSnapshot(folder, submissions, comments);
+    }
+  }
+
   @AutoValue
   abstract static class FetchResult {
 
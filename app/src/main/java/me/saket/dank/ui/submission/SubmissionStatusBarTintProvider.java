@@ -7,7 +7,9 @@ import io.reactivex.Observable;
 import io.reactivex.Single;
 import me.saket.dank.data.StatusBarTint;
 import me.saket.dank.utils.Optional;
+import me.saket.dank.utils.Pair;
 import me.saket.dank.utils.StatusBarTintProvider;
+import me.saket.dank.utils.palette.CachedPaletteGenerator;
 import me.saket.dank.widgets.InboxUI.ExpandablePageLayout;
 import me.saket.dank.widgets.InboxUI.PullToCollapseListener;
 import me.saket.dank.widgets.InboxUI.SimpleExpandablePageStateChangeCallbacks;
@@ -30,15 +32,18 @@ class SubmissionStatusBarTintProvider {
   /**
    * @param statusBarHeight Used with Palette for setting the photo's region from where the color will be extracted.
    */
-  SubmissionStatusBarTintProvider(int defaultStatusBarColor, int statusBarHeight, int displayWidth) {
+  SubmissionStatusBarTintProvider(int defaultStatusBarColor, int statusBarHeight, int displayWidth, CachedPaletteGenerator paletteGenerator) {
     this.defaultStatusBarColor = defaultStatusBarColor;
-    this.statusBarTintProvider = new StatusBarTintProvider(this.defaultStatusBarColor, statusBarHeight, displayWidth);
+    this.statusBarTintProvider = new StatusBarTintProvider(this.defaultStatusBarColor, statusBarHeight, displayWidth, paletteGenerator);
   }
 
   // TODO v2: This doesn't work with SubmissionPageLayoutActivity. Pull-to-collapse listener uses Activity's root page instead of submission page.
+  /**
+   * @param contentBitmapStream Bitmaps paired with the URLs of their content.
+   */
   @CheckResult
   public Observable<StatusBarTint> streamStatusBarTintColor(
-      Observable<Optional<Bitmap>> contentBitmapStream,
+      Observable<Optional<Pair<String, Bitmap>>> contentBitmapStream,
       ExpandablePageLayout expandablePageLayout,
       ScrollingRecyclerViewSheet commentListParentSheet)
   {
@@ -46,7 +51,8 @@ class SubmissionStatusBarTintProvider {
     return contentBitmapStream
         .switchMapSingle(optionalBitmap -> {
           if (optionalBitmap.isPresent()) {
-            return statusBarTintProvider.generateTint(optionalBitmap.get());
+            Pair<String, Bitmap> urlAndBitmap = optionalBitmap.get();
+            return statusBarTintProvider.generateTint(urlAndBitmap.first(), urlAndBitmap.second());
           } else {
             Timber.i("Empty image. Returning default tint.");
             return Single.just(defaultTint);
@@ -10,7 +10,6 @@ import com.danikula.videocache.HttpProxyCacheServer;
 import com.devbrackets.android.exomedia.ui.widget.VideoControls;
 import com.devbrackets.android.exomedia.ui.widget.VideoView;
 import com.f2prateek.rx.preferences2.Preference;
-import com.jakewharton.rxbinding2.internal.Notification;
 import com.jakewharton.rxrelay2.BehaviorRelay;
 import com.jakewharton.rxrelay2.PublishRelay;
 import com.jakewharton.rxrelay2.Relay;
@@ -33,6 +32,7 @@ import me.saket.dank.urlparser.MediaLink;
 import me.saket.dank.utils.ExoPlayerManager;
 import me.saket.dank.utils.NetworkStateListener;
 import me.saket.dank.utils.Optional;
+import me.saket.dank.utils.Pair;
 import me.saket.dank.utils.VideoFormat;
 import me.saket.dank.utils.Views;
 import me.saket.dank.utils.lifecycle.ViewLifecycleEvent;
@@ -44,7 +44,8 @@ import me.saket.dank.widgets.ScrollingRecyclerViewSheet;
 public class SubmissionVideoHolder {
 
   private final PublishRelay<Integer> videoWidthChangeStream = PublishRelay.create();
-  private final BehaviorRelay<Object> videoPreparedStream = BehaviorRelay.create();
+  /** URLs of the media links of prepared videos. */
+  private final BehaviorRelay<String> videoPreparedStream = BehaviorRelay.create();
   private final PublishRelay<SubmissionVideoClickEvent> videoClickStream = PublishRelay.create();
   private final Lazy<HttpProxyCacheServer> httpProxyCacheServer;
   private final Lazy<NetworkStateListener> networkStateListener;
@@ -126,7 +127,7 @@ public class SubmissionVideoHolder {
     return canLoadHighQualityVideos
         .map(loadHQ -> loadHQ ? mediaLink.highQualityUrl() : mediaLink.lowQualityUrl())
         .observeOn(mainThread())
-        .flatMapCompletable(videoUrl -> loadVideo(videoUrl))
+        .flatMapCompletable(videoUrl -> loadVideo(mediaLink.unparsedUrl(), videoUrl))
         .andThen(autoPlayVideoIfAllowed);
   }
 
@@ -140,25 +141,30 @@ public class SubmissionVideoHolder {
         .andThen(Single.just(item));
   }
 
+  /**
+   * @return Bitmaps of the first frames of loaded videos, paired with the URLs of their media links.
+   */
   @CheckResult
-  public Observable<Bitmap> streamVideoFirstFrameBitmaps() {
-    return Observable.zip(videoPreparedStream, videoWidthChangeStream, (o, videoWidth) -> videoWidth)
-        .delay(new Function<Integer, ObservableSource<Integer>>() {
+  public Observable<Pair<String, Bitmap>> streamVideoFirstFrameBitmaps() {
+    return Observable.zip(videoPreparedStream, videoWidthChangeStream, Pair::create)
+        .delay(new Function<Pair<String, Integer>, ObservableSource<Pair<String, Integer>>>() {
           private boolean firstDelayDone;
 
           @Override
-          public ObservableSource<Integer> apply(Integer videoWidth) {
+          public ObservableSource<Pair<String, Integer>> apply(Pair<String, Integer> urlAndVideoWidth) {
             if (firstDelayDone) {
-              return Observable.just(videoWidth);
+              return Observable.just(urlAndVideoWidth);
             } else {
               firstDelayDone = true;
               // Adding delay because onPrepared() gets called way too early when
               // loading a video for the first time.
-              return Observable.just(videoWidth).delay(200, TimeUnit.MILLISECONDS);
+              return Observable.just(urlAndVideoWidth).delay(200, TimeUnit.MILLISECONDS);
             }
           }
         })
-        .map(videoWidth -> exoPlayerManager.getBitmapOfCurrentVideoFrame(videoWidth, statusBarHeight, Bitmap.Config.RGB_565));
+        .map(urlAndVideoWidth -> Pair.create(
+            urlAndVideoWidth.first(),
+            exoPlayerManager.getBitmapOfCurrentVideoFrame(urlAndVideoWidth.second(), statusBarHeight, Bitmap.Config.RGB_565)));
   }
 
   @CheckResult
@@ -166,7 +172,10 @@ public class SubmissionVideoHolder {
     return videoClickStream;
   }
 
-  private Completable loadVideo(String videoUrl) {
+  /**
+   * @param mediaLinkUrl Emitted with the bitmaps of the video's first frame.
+   */
+  private Completable loadVideo(String mediaLinkUrl, String videoUrl) {
     return Completable.create(emitter -> {
       if (contentVideoView.getVideoControls() == null) {
         SubmissionVideoControlsView controlsView = new SubmissionVideoControlsView(contentVideoView.getContext());
@@ -236,7 +245,7 @@ public class SubmissionVideoHolder {
 
       contentVideoView.setOnPreparedListener(() -> {
         emitter.onComplete();
-        videoPreparedStream.accept(Notification.INSTANCE);
+        videoPreparedStream.accept(mediaLinkUrl);
       });
       exoPlayerManager.setOnErrorListener(e -> emitter.onError(e));
 
@@ -6,20 +6,19 @@ import static java.util.Arrays.asList;
 
 import android.app.Activity;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.support.annotation.ColorRes;
 import android.support.v4.content.ContextCompat;
-import android.support.v7.graphics.Palette;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
 import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
 import com.bumptech.glide.load.resource.gif.GifDrawable;
-import com.bumptech.glide.request.FutureTarget;
 import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.target.Target;
 import com.google.auto.value.AutoValue;
@@ -32,6 +31,7 @@ import dagger.Lazy;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.Single;
+import io.reactivex.functions.Function;
 import me.saket.dank.R;
 import me.saket.dank.data.ErrorResolver;
 import me.saket.dank.data.LinkMetadataRepository;
@@ -49,7 +49,10 @@ import me.saket.dank.utils.Colors;
 import me.saket.dank.utils.Optional;
 import me.saket.dank.utils.Pair;
 import me.saket.dank.utils.Urls;
+import me.saket.dank.utils.glide.AsyncImageLoader;
 import me.saket.dank.utils.glide.GlideCircularTransformation;
+import me.saket.dank.utils.palette.CachedPaletteGenerator;
+import me.saket.dank.utils.palette.PaletteSpec;
 import timber.log.Timber;
 
 /**
@@ -62,16 +65,28 @@ public class SubmissionContentLinkUiConstructor {
   private static final boolean PROGRESS_VISIBLE = true;
   private static final boolean PROGRESS_HIDDEN = false;
 
+  private static final PaletteSpec TINT_PALETTE_SPEC = PaletteSpec.create("link_tint", 16, false, 1f);
+
   private final LinkMetadataRepository linkMetadataRepository;
   private final BitmapPool bitmapPool;
   private final Lazy<ErrorResolver> errorResolver;
+  private final Lazy<CachedPaletteGenerator> paletteGenerator;
+  private final Lazy<AsyncImageLoader> asyncImageLoader;
   private final Map<Target, Drawable> targetsToDispose = new HashMap<>(8);
 
   @Inject
-  public SubmissionContentLinkUiConstructor(LinkMetadataRepository linkMetadataRepository, BitmapPool bitmapPool, Lazy<ErrorResolver> errorResolver) {
+  public SubmissionContentLinkUiConstructor(
+      LinkMetadataRepository linkMetadataRepository,
+      BitmapPool bitmapPool,
+      Lazy<ErrorResolver> errorResolver,
+      Lazy<CachedPaletteGenerator> paletteGenerator,
+      Lazy<AsyncImageLoader> asyncImageLoader)
+  {
     this.linkMetadataRepository = linkMetadataRepository;
     this.bitmapPool = bitmapPool;
     this.errorResolver = errorResolver;
+    this.paletteGenerator = paletteGenerator;
+    this.asyncImageLoader = asyncImageLoader;
   }
 
   /**
@@ -387,13 +402,7 @@ public class SubmissionContentLinkUiConstructor {
                 .flatMap(optionalUrl -> optionalUrl.isPresent() ? Observable.just(optionalUrl.get()) : Observable.empty());
           }
         })
-        .observeOn(io())
-        .flatMap(imageUrl -> {
-          FutureTarget<Drawable> imageTarget = Glide.with(context)
-              .load(imageUrl)
-              .submit();
-          return loadImage(imageTarget);
-        })
+        .flatMap(imageUrl -> loadImage(context, glide -> glide.load(imageUrl)))
         .map(image -> Optional.of(image))
         .startWith(Optional.empty());
   }
@@ -401,30 +410,22 @@ public class SubmissionContentLinkUiConstructor {
   private Observable<Optional<Drawable>> fetchFavicon(Context context, Observable<LinkMetadata> linkMetadataStream) {
     //noinspection ConstantConditions
     return linkMetadataStream
-        .observeOn(io())
         .flatMap(metadata -> metadata.hasFavicon() ? Observable.just(metadata.faviconUrl()) : Observable.empty())
-        .flatMap(faviconUrl -> {
-          // Keep this context in sync with the one used in loadImage() for clearing this load on dispose.
-          FutureTarget<Drawable> iconTarget = Glide.with(context)
-              .load(faviconUrl)
-              .apply(RequestOptions.bitmapTransform(GlideCircularTransformation.INSTANCE))
-              .submit();
-          return loadImage(iconTarget);
-        })
+        .flatMap(faviconUrl -> loadImage(context, glide -> glide
+            .load(faviconUrl)
+            .apply(RequestOptions.bitmapTransform(GlideCircularTransformation.INSTANCE))))
         .map(favicon -> Optional.of(favicon))
         .startWith(Optional.empty());
   }
 
-  private Observable<Drawable> loadImage(FutureTarget<Drawable> futureTarget) {
-    return Observable
-        .<Drawable>create(emitter -> {
-          Drawable drawable = futureTarget.get();
-          //noinspection ConstantConditions
-          targetsToDispose.put(futureTarget, drawable);
-
-          emitter.onNext(drawable);
-          emitter.onComplete();
-        })
+  /**
+   * @param context Also used in {@link #clearGlideTargets(Context)} for clearing this load.
+   */
+  private Observable<Drawable> loadImage(Context context, Function<RequestManager, RequestBuilder<Drawable>> request) {
+    return asyncImageLoader.get().loadWithTarget(context, Priority.NORMAL, request)
+        .doOnSuccess(targetAndDrawable -> targetsToDispose.put(targetAndDrawable.first(), targetAndDrawable.second()))
+        .map(targetAndDrawable -> targetAndDrawable.second())
+        .toObservable()
         .onErrorResumeNext(error -> {
           ResolvedError resolvedError = errorResolver.get().resolve(error);
           resolvedError.ifUnknown(() -> Timber.e(error, "Couldn't load image using glide"));
@@ -440,21 +441,34 @@ public class SubmissionContentLinkUiConstructor {
   {
     boolean isGooglePlayThumbnail = UrlParser.isGooglePlayUrl(Uri.parse(link.unparsedUrl()));
 
-    return Observable.concat(sharedThumbnailStream, sharedFaviconStream)
-        .filter(Optional::isPresent)
+    return Observable.concat(
+        sharedThumbnailStream.map(thumbnail -> Pair.create(thumbnail, true)),
+        sharedFaviconStream.map(favicon -> Pair.create(favicon, false)))
+        .filter(imageAndIsThumbnail -> imageAndIsThumbnail.first().isPresent())
         .take(1)
-        .map(imageOptional -> imageOptional.get())
         .observeOn(single())
-        .flatMapSingle(image -> generateTint(image, isGooglePlayThumbnail, windowBackgroundColor))
+        .flatMapSingle(imageAndIsThumbnail -> {
+          Drawable image = imageAndIsThumbnail.first().get();
+          boolean isThumbnail = imageAndIsThumbnail.second();
+          return generateTint(link, image, isThumbnail, isGooglePlayThumbnail, windowBackgroundColor);
+        })
         .startWith(DEFAULT_TINT_DETAILS);
   }
 
-  private Single<TintDetails> generateTint(Drawable drawable, boolean isGooglePlayThumbnail, int windowBackgroundColor) {
-    return bitmapFromDrawable(drawable)
-        .flatMap(bitmap -> Single.fromCallable(() -> Palette.from(bitmap)
-            .maximumColorCount(Integer.MAX_VALUE)    // Don't understand why, but this changes the darkness of the colors.
-            .generate()
-        ))
+  /**
+   * A link's tint is generated from its thumbnail, so the palette is stored against the link's URL. The favicon
+   * is only a fallback for when the thumbnail isn't available, so palettes generated from it aren't stored.
+   * Otherwise the link would keep its favicon's tint once its thumbnail loads.
+   */
+  private Single<TintDetails> generateTint(
+      Link link,
+      Drawable drawable,
+      boolean isThumbnail,
+      boolean isGooglePlayThumbnail,
+      int windowBackgroundColor)
+  {
+    String paletteCacheUrl = isThumbnail ? link.unparsedUrl() : null;
+    return paletteGenerator.get().generate(paletteCacheUrl, drawable, TINT_PALETTE_SPEC)
         .map(palette -> {
           int tint = -1;
           if (isGooglePlayThumbnail) {
@@ -484,22 +498,6 @@ public class SubmissionContentLinkUiConstructor {
         });
   }
 
-  private Single<Bitmap> bitmapFromDrawable(Drawable drawable) {
-    return Single.create(emitter -> {
-      if (drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0) {
-        throw new AssertionError();
-      }
-
-      Bitmap bitmap = bitmapPool.get(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(), Bitmap.Config.RGB_565);
-      Canvas canvas = new Canvas(bitmap);
-      drawable.setBounds(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
-      drawable.draw(canvas);
-
-      emitter.onSuccess(bitmap);
-      emitter.setCancellable(() -> bitmapPool.put(bitmap));
-    });
-  }
-
   @AutoValue
   abstract static class TintDetails {
 
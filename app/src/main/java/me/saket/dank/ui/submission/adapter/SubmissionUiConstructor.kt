@@ -36,6 +36,7 @@ import me.saket.dank.utils.Themes
 import me.saket.dank.utils.Truss
 import me.saket.dank.utils.lifecycle.LifecycleStreams
 import me.saket.dank.utils.markdown.Markdown
+import me.saket.dank.utils.rx.StreamLatencyMonitor
 import me.saket.dank.vote.VotingManager
 import me.saket.dank.widgets.span.RoundedBackgroundSpan
 import net.dean.jraw.models.Submission
@@ -51,9 +52,14 @@ constructor(
     private val votingManager: VotingManager,
     private val markdown: Markdown,
     private val userSessionRepository: UserSessionRepository,
-    private val bookmarksRepository: Lazy<BookmarksRepository>
+    private val bookmarksRepository: Lazy<BookmarksRepository>,
+    streamLatencyMonitor: StreamLatencyMonitor
 ) {
 
+  private val headerLatencies = streamLatencyMonitor.stream("submission header")
+  private val commentOptionsLatencies = streamLatencyMonitor.stream("submission comment options")
+  private val screenLatencies = streamLatencyMonitor.stream("submission screen")
+
   @CheckResult
   fun stream(
       context: Context,
@@ -131,6 +137,7 @@ constructor(
               .startWith(NOTHING)
 
           val headerUiModels = CombineLatestWithLog.from<Context, Submission, Optional<SubmissionContentLinkUiModel>, Any, SubmissionCommentsHeader.UiModel>(
+              headerLatencies,
               O.of("ext-change", externalChanges.map { context }),
               O.of("submission 2", sharedSubmissionDatum2.map { it.submission }.distinctUntilChanged()),
               O.of("content-link", contentLinkUiModels),
@@ -138,6 +145,7 @@ constructor(
           )
 
           val commentOptionsUiModels = CombineLatestWithLog.from<Submission, DankSubmissionRequest, Int, Any, SubmissionCommentOptions.UiModel>(
+              commentOptionsLatencies,
               O.of("submission 3", sharedSubmissionDatum2.map { it.submission }.distinctUntilChanged()),
               O.of("submission requests", submissionRequests),
               O.of("pending-sync-reply-count", submissionPendingSyncReplyCounts),
@@ -180,6 +188,7 @@ constructor(
               .map { optionalError -> optionalError.map { error -> SubmissionCommentsLoadError.UiModel.create(error) } }
 
           CombineLatestWithLog.from(
+              screenLatencies,
               O.of("header", headerUiModels),
               O.of("comment options", commentOptionsUiModels),
               O.of("content-load-error", contentLoadErrorUiModels),
@@ -20,6 +20,8 @@ import android.support.annotation.Nullable;
 import android.support.transition.TransitionManager;
 import android.support.transition.TransitionSet;
 import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -30,6 +32,7 @@ import android.widget.TextView;
 import com.f2prateek.rx.preferences2.Preference;
 import com.github.zagum.expandicon.ExpandIconView;
 import com.jakewharton.rxbinding2.internal.Notification;
+import com.jakewharton.rxbinding2.support.v7.widget.RxRecyclerView;
 import com.jakewharton.rxrelay2.BehaviorRelay;
 import com.jakewharton.rxrelay2.PublishRelay;
 import com.jakewharton.rxrelay2.Relay;
@@ -197,6 +200,7 @@ public class SubredditActivity extends DankPullCollapsibleActivity
 
     // LayoutManager needs to be set before onRestore() of RV gets called to restore scroll position.
     submissionRecyclerView.setLayoutManager(submissionRecyclerView.createLayoutManager());
+    executeOnMeasure(submissionRecyclerView, () -> Dank.startupTrace().markFirstFrameReady());
 
     if (!welcomeTextShownPref.get()) {
       WelcomeToDankView welcomeTextView = new WelcomeToDankView(this);
@@ -529,6 +533,7 @@ public class SubredditActivity extends DankPullCollapsibleActivity
             .mergeWith(fullscreenErrorStateView.retryClicks())
             .observeOn(io())
             .flatMap(o -> submissionRepository.loadAndSaveMoreSubmissions(folder))
+            .doOnDispose(() -> submissionRepository.stopPaginating(folder))
         )
         .subscribe(paginationResults);
 
@@ -536,22 +541,30 @@ public class SubredditActivity extends DankPullCollapsibleActivity
     // This was done because the submissions used to show up for a second before getting cleared off.
 
     AtomicBoolean shouldRefreshSubmissions = new AtomicBoolean(isActivityFirstCreate);
+    AtomicBoolean isForcedRefresh = new AtomicBoolean(false);
 
     // Folder change.
     submissionFolderStream
-        .compose(RxUtils.replayLastItemWhen(forceRefreshSubmissionsRequestStream))
+        .compose(RxUtils.replayLastItemWhen(forceRefreshSubmissionsRequestStream.doOnNext(o -> isForcedRefresh.set(true))))
         .switchMap(folder -> {
           // The DB stream and the network stream were previously independent, but were later merged together.
           // This was done because the submissions used to show up for a second before getting cleared off.
 
           boolean shouldRefresh = shouldRefreshSubmissions.getAndSet(true);
+          boolean forceRefresh = isForcedRefresh.getAndSet(false);
 
           Completable refreshCacheIfNeeded;
           if (shouldRefresh) {
-            refreshCacheIfNeeded = submissionRepository.clearCachedSubmissionLists(folder.subredditName())
+            Completable refreshCache = submissionRepository.clearCachedSubmissionLists(folder.subredditName())
                 .andThen(submissionRepository.loadAndSaveMoreSubmissions(folder)
                     .doOnNext(paginationResults)
                     .ignoreElements());
+
+            // Subreddits synced for offline reading are shown from their snapshot, unless the user asked for a refresh.
+            refreshCacheIfNeeded = forceRefresh
+                ? refreshCache
+                : submissionRepository.hasFreshOfflineSnapshot(folder)
+                    .flatMapCompletable(hasFreshSnapshot -> hasFreshSnapshot ? Completable.complete() : refreshCache);
           } else {
             refreshCacheIfNeeded = submissionRepository.submissions(folder)
                 .take(1)
@@ -636,6 +649,13 @@ public class SubredditActivity extends DankPullCollapsibleActivity
     // Cache pre-fill.
     int submissionAlbumLinkThumbnailWidth = SubmissionCommentsHeader.getWidthForAlbumContentLinkThumbnail(this);
 
+    RxRecyclerView.scrollEvents(submissionRecyclerView)
+        .map(scrollEvent -> ((LinearLayoutManager) submissionRecyclerView.getLayoutManager()).findFirstVisibleItemPosition())
+        .filter(position -> position != RecyclerView.NO_POSITION)
+        .distinctUntilChanged()
+        .takeUntil(lifecycle().onDestroy())
+        .subscribe(position -> cachePreFiller.updateScrollPosition(position));
+
     submissionFolderStream
         .switchMap(folder -> subscriptionRepository.isSubscribed(folder.subredditName()).take(1))
         .switchMap(isSubscribed -> {
@@ -99,8 +99,7 @@ public class SubredditController implements ObservableTransformer<UiEvent, UiCha
           //    .map(account -> account.getInboxCount());
 
           Observable<Integer> unreadCountsFromInbox = inboxRepository.get()
-              .messages(InboxFolder.UNREAD)
-              .map(unreads -> unreads.size());
+              .messageCount(InboxFolder.UNREAD);
 
           return unreadCountsFromInbox
               //.mergeWith(unreadCountsFromAccount)
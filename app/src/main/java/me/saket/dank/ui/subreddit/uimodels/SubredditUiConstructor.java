@@ -2,6 +2,7 @@ package me.saket.dank.ui.subreddit.uimodels;
 
 import android.content.Context;
 import android.support.annotation.CheckResult;
+import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.text.Html;
 import android.text.style.ForegroundColorSpan;
@@ -14,8 +15,11 @@ import net.dean.jraw.models.SubmissionPreview;
 import net.dean.jraw.models.VoteDirection;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import javax.inject.Inject;
 import javax.inject.Named;
 
@@ -38,6 +42,7 @@ import me.saket.dank.utils.Pair;
 import me.saket.dank.utils.Strings;
 import me.saket.dank.utils.Themes;
 import me.saket.dank.utils.Truss;
+import me.saket.dank.utils.rx.StreamLatencyMonitor;
 import me.saket.dank.vote.VotingManager;
 import me.saket.dank.walkthrough.SubmissionGesturesWalkthrough;
 
@@ -53,6 +58,7 @@ public class SubredditUiConstructor {
   private final Preference<Boolean> showThumbnailsPref;
   private final ErrorResolver errorResolver;
   private final Lazy<BookmarksRepository> bookmarksRepository;
+  private final StreamLatencyMonitor.Stream streamLatencies;
 
   @Inject
   public SubredditUiConstructor(
@@ -62,7 +68,8 @@ public class SubredditUiConstructor {
       Lazy<SubmissionGesturesWalkthrough> gesturesWalkthrough,
       @Named("comment_count_in_submission_list_byline") Preference<Boolean> showCommentCountInByline,
       @Named("show_nsfw_content") Preference<Boolean> showNsfwContent,
-      @Named("show_submission_thumbnails") Preference<Boolean> showThumbnailsPref)
+      @Named("show_submission_thumbnails") Preference<Boolean> showThumbnailsPref,
+      StreamLatencyMonitor streamLatencyMonitor)
   {
     this.votingManager = votingManager;
     this.errorResolver = errorResolver;
@@ -71,6 +78,7 @@ public class SubredditUiConstructor {
     this.showCommentCountInByline = showCommentCountInByline;
     this.showNsfwContent = showNsfwContent;
     this.showThumbnailsPref = showThumbnailsPref;
+    this.streamLatencies = streamLatencyMonitor.stream("subreddit");
   }
 
   @CheckResult
@@ -83,55 +91,119 @@ public class SubredditUiConstructor {
         .merge(showCommentCountInByline.asObservable(), showNsfwContent.asObservable(), showThumbnailsPref.asObservable())
         .skip(1); // Skip initial values.
 
-    Observable<Object> externalChanges = Observable.merge(
-        userPrefChanges,
-        votingManager.streamChanges(),
-        bookmarksRepository.get().streamChanges());
+    // Pending votes only affect the rows of their submissions. Everything else affects all rows.
+    Observable<RowInvalidation> rowInvalidations = Observable
+        .merge(
+            userPrefChanges.map(o -> RowInvalidation.all()),
+            bookmarksRepository.get().streamChanges().map(o -> RowInvalidation.all()),
+            votingManager.streamChanges().map(change -> RowInvalidation.of(change.contributionFullNames())))
+        .startWith(RowInvalidation.all());
 
     Observable<Boolean> sharedFullscreenProgressVisibilities = fullscreenProgressVisibilities(cachedSubmissionLists, paginationResults)
         .share();
 
-    return Observable.combineLatest(
-        sharedFullscreenProgressVisibilities.distinctUntilChanged(),
-        fullscreenErrors(cachedSubmissionLists, paginationResults).distinctUntilChanged(),
-        fullscreenEmptyStates(cachedSubmissionLists, paginationResults).distinctUntilChanged(),
-        toolbarRefreshVisibilities(sharedFullscreenProgressVisibilities).distinctUntilChanged(),
-        paginationProgressUiModels(cachedSubmissionLists, paginationResults).distinctUntilChanged(),
-        gesturesWalkthrough.get().walkthroughRows(),
-        cachedSubmissionLists,
-        externalChanges,
-        (fullscreenProgressVisible,
-            optFullscreenError,
-            optEmptyState,
-            toolbarRefreshVisible,
-            optPagination,
-            optWalkthroughRow,
-            optCachedSubs,
-            o) ->
-        {
-          int rowCount = optPagination.map(p -> 1).orElse(0) + optCachedSubs.map(subs -> subs.size()).orElse(0);
-          List<SubredditScreenUiModel.SubmissionRowUiModel> rowUiModels = new ArrayList<>(rowCount);
-
-          optCachedSubs.ifPresent(cachedSubs -> {
-            optWalkthroughRow.ifPresent(walkthroughUiModel -> {
-              rowUiModels.add(walkthroughUiModel);
+    return Observable.defer(() -> {
+      SubmissionRowCache rowCache = new SubmissionRowCache();
+
+      return Observable.combineLatest(
+          sharedFullscreenProgressVisibilities.distinctUntilChanged().compose(streamLatencies.source("fullscreen progress")),
+          fullscreenErrors(cachedSubmissionLists, paginationResults).distinctUntilChanged().compose(streamLatencies.source("fullscreen error")),
+          fullscreenEmptyStates(cachedSubmissionLists, paginationResults).distinctUntilChanged().compose(streamLatencies.source("empty state")),
+          toolbarRefreshVisibilities(sharedFullscreenProgressVisibilities).distinctUntilChanged().compose(streamLatencies.source("toolbar refresh")),
+          paginationProgressUiModels(cachedSubmissionLists, paginationResults).distinctUntilChanged().compose(streamLatencies.source("pagination")),
+          gesturesWalkthrough.get().walkthroughRows().compose(streamLatencies.source("walkthrough")),
+          cachedSubmissionLists.compose(streamLatencies.source("cached submissions")),
+          rowInvalidations.compose(streamLatencies.source("row invalidations")),
+          (fullscreenProgressVisible,
+              optFullscreenError,
+              optEmptyState,
+              toolbarRefreshVisible,
+              optPagination,
+              optWalkthroughRow,
+              optCachedSubs,
+              rowInvalidation) ->
+          {
+            rowCache.invalidate(rowInvalidation);
+
+            int rowCount = optPagination.map(p -> 1).orElse(0) + optCachedSubs.map(subs -> subs.size()).orElse(0);
+            List<SubredditScreenUiModel.SubmissionRowUiModel> rowUiModels = new ArrayList<>(rowCount);
+
+            optCachedSubs.ifPresent(cachedSubs -> {
+              optWalkthroughRow.ifPresent(walkthroughUiModel -> {
+                rowUiModels.add(walkthroughUiModel);
+              });
+
+              Map<String, Pair<Submission, SubredditSubmission.UiModel>> reusableRows = rowCache.rows;
+              rowCache.rows = new HashMap<>(cachedSubs.size());
+
+              for (Submission submission : cachedSubs) {
+                // Cached submissions are re-read from the DB when they change, so an identity check is enough.
+                Pair<Submission, SubredditSubmission.UiModel> reusableRow = reusableRows.get(submission.getFullName());
+                SubredditSubmission.UiModel rowUiModel;
+                if (reusableRow != null && reusableRow.first() == submission) {
+                  rowUiModel = reusableRow.second();
+                } else {
+                  int pendingSyncReplyCount = 0;  // TODO v2:  Get this from database.
+                  rowUiModel = submissionUiModel(context, submission, pendingSyncReplyCount);
+                }
+                rowCache.rows.put(submission.getFullName(), Pair.create(submission, rowUiModel));
+                rowUiModels.add(rowUiModel);
+              }
             });
-
-            for (Submission submission : cachedSubs) {
-              int pendingSyncReplyCount = 0;  // TODO v2:  Get this from database.
-              rowUiModels.add(submissionUiModel(context, submission, pendingSyncReplyCount));
-            }
+            optPagination.ifPresent(pagination -> rowUiModels.add(pagination));
+
+            return SubredditScreenUiModel.builder()
+                .fullscreenProgressVisible(fullscreenProgressVisible)
+                .fullscreenError(optFullscreenError)
+                .emptyState(optEmptyState)
+                .toolbarRefreshVisible(toolbarRefreshVisible)
+                .rowUiModels(rowUiModels)
+                .build();
           });
-          optPagination.ifPresent(pagination -> rowUiModels.add(pagination));
-
-          return SubredditScreenUiModel.builder()
-              .fullscreenProgressVisible(fullscreenProgressVisible)
-              .fullscreenError(optFullscreenError)
-              .emptyState(optEmptyState)
-              .toolbarRefreshVisible(toolbarRefreshVisible)
-              .rowUiModels(rowUiModels)
-              .build();
-        });
+    });
+  }
+
+  /**
+   * Submission rows that can be re-used until their submission changes or their row is invalidated.
+   * Only accessed from combineLatest()'s combiner, which never runs concurrently.
+   */
+  private static class SubmissionRowCache {
+    private Map<String, Pair<Submission, SubredditSubmission.UiModel>> rows = new HashMap<>();
+    private RowInvalidation lastInvalidation;
+
+    void invalidate(RowInvalidation invalidation) {
+      // combineLatest() keeps passing the latest invalidation for emissions from other streams.
+      if (invalidation == lastInvalidation) {
+        return;
+      }
+      lastInvalidation = invalidation;
+
+      if (invalidation.contributionFullNames == null) {
+        rows.clear();
+      } else {
+        rows.keySet().removeAll(invalidation.contributionFullNames);
+      }
+    }
+  }
+
+  /**
+   * A new instance is created for every change so that {@link SubmissionRowCache} can tell them apart.
+   */
+  private static class RowInvalidation {
+    /** Null if all rows are invalid. */
+    @Nullable final Set<String> contributionFullNames;
+
+    private RowInvalidation(@Nullable Set<String> contributionFullNames) {
+      this.contributionFullNames = contributionFullNames;
+    }
+
+    static RowInvalidation all() {
+      return new RowInvalidation(null);
+    }
+
+    static RowInvalidation of(Set<String> contributionFullNames) {
+      return new RowInvalidation(contributionFullNames);
+    }
   }
 
   private Observable<Boolean> fullscreenProgressVisibilities(
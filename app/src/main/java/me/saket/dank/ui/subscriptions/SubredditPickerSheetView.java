@@ -52,6 +52,7 @@ import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.functions.Action;
 import io.reactivex.functions.Consumer;
 import me.saket.dank.R;
+import me.saket.dank.cache.OfflineSnapshotSync;
 import me.saket.dank.di.Dank;
 import me.saket.dank.reddit.Reddit;
 import me.saket.dank.ui.subreddit.SubredditActivity;
@@ -94,6 +95,7 @@ public class SubredditPickerSheetView extends FrameLayout implements SubredditAd
   @Inject Lazy<SubscriptionRepository> subscriptionRepository;
   @Inject Lazy<Reddit> reddit;
   @Inject Lazy<UserSessionRepository> userSessionRepository;
+  @Inject Lazy<OfflineSnapshotSync> offlineSnapshotSync;
 
   private ViewGroup activityRootLayout;
   private ToolbarExpandableSheet parentSheet;
@@ -437,6 +439,10 @@ public class SubredditPickerSheetView extends FrameLayout implements SubredditAd
     popupMenu.getMenu().findItem(R.id.action_hide_subreddit).setVisible(!subscription.isHidden());
     popupMenu.getMenu().findItem(R.id.action_unhide_subreddit).setVisible(subscription.isHidden());
 
+    boolean isSyncedForOffline = offlineSnapshotSync.get().isSynced(subscription.name());
+    popupMenu.getMenu().findItem(R.id.action_sync_subreddit_for_offline).setVisible(!isSyncedForOffline);
+    popupMenu.getMenu().findItem(R.id.action_stop_syncing_subreddit_for_offline).setVisible(isSyncedForOffline);
+
     MenuItem unsubscribeItem = popupMenu.getMenu().findItem(R.id.action_unsubscribe_subreddit);
     unsubscribeItem.setVisible(!subscriptionRepository.get().isFrontpage(subscription.name()));
 
@@ -485,6 +491,14 @@ public class SubredditPickerSheetView extends FrameLayout implements SubredditAd
               .subscribe(doNothingCompletable(), logError("Couldn't unhide: %s", subscription));
           return true;
 
+        case R.id.action_sync_subreddit_for_offline:
+          offlineSnapshotSync.get().setSynced(subscription.name(), true);
+          return true;
+
+        case R.id.action_stop_syncing_subreddit_for_offline:
+          offlineSnapshotSync.get().setSynced(subscription.name(), false);
+          return true;
+
         default:
           throw new UnsupportedOperationException();
       }
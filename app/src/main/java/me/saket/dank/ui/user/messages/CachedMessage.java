@@ -13,7 +13,6 @@ import java.io.IOException;
 import io.reactivex.functions.Function;
 import me.saket.dank.data.MoshiAdapter;
 import me.saket.dank.utils.Cursors;
-import me.saket.dank.utils.Optional;
 
 /**
  * {@link Message} stored in the DB.
@@ -47,6 +46,10 @@ public abstract class CachedMessage {
           + " ORDER BY " + COLUMN_LATEST_MESSAGE_TIME + " ASC"
           + " LIMIT 1";
 
+  public static final String QUERY_COUNT_IN_FOLDER =
+      "SELECT COUNT(*) FROM " + TABLE_NAME
+          + " WHERE " + COLUMN_FOLDER + " == ?";
+
   public static final String QUERY_GET_SINGLE =
       "SELECT * FROM " + TABLE_NAME
           + " WHERE " + COLUMN_FULLNAME + " == ? "
@@ -92,19 +95,25 @@ public abstract class CachedMessage {
     };
   }
 
-  public static Function<Cursor, Optional<Message>> optionalMessageFromCursor(MoshiAdapter moshiAdapter) {
-    return cursor -> Optional.of(messageFromCursor(moshiAdapter).apply(cursor));
+  public static Function<Cursor, Message> messageFromCursor(MoshiAdapter moshiAdapter) {
+    return cursor -> parseMessageJson(moshiAdapter, messageJsonFromCursor(cursor));
   }
 
-  public static Function<Cursor, Message> messageFromCursor(MoshiAdapter moshiAdapter) {
-    return cursor -> {
-      JsonAdapter<Message> adapter = moshiAdapter.create(Message.class);
-      try {
-        return adapter.fromJson(Cursors.string(cursor, COLUMN_MESSAGE));
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
-    };
+  public static String fullnameFromCursor(Cursor cursor) {
+    return Cursors.string(cursor, COLUMN_FULLNAME);
+  }
+
+  public static String messageJsonFromCursor(Cursor cursor) {
+    return Cursors.string(cursor, COLUMN_MESSAGE);
+  }
+
+  public static Message parseMessageJson(MoshiAdapter moshiAdapter, String json) {
+    JsonAdapter<Message> adapter = moshiAdapter.create(Message.class);
+    try {
+      return adapter.fromJson(json);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   public static CachedMessage create(String fullName, Message message, long latestMessageTimestamp, InboxFolder folder) {
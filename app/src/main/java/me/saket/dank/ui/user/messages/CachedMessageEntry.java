@@ -0,0 +1,130 @@
+package me.saket.dank.ui.user.messages;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.google.auto.value.AutoValue;
+
+import net.dean.jraw.models.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.reactivex.functions.Function;
+import me.saket.dank.utils.Cursors;
+import me.saket.dank.utils.JrawUtils2;
+
+/**
+ * One row per message of a {@link CachedMessage}, including every reply of a private message thread.
+ * The thread itself is still stored as JSON for rendering, but queries that only need to know which
+ * messages are present (like the unread diff) use these rows so that nothing has to be decoded.
+ */
+@AutoValue
+public abstract class CachedMessageEntry {
+
+  public static final String TABLE_NAME = "CachedMessageEntry";
+  static final String COLUMN_FULLNAME = "fullname";
+  static final String COLUMN_FOLDER = "folder";
+  static final String COLUMN_THREAD_FULLNAME = "thread_fullname";
+  static final String COLUMN_CREATED_TIME_MILLIS = "created_time_millis";
+
+  public static final String QUERY_CREATE_TABLE =
+      "CREATE TABLE " + TABLE_NAME + " ("
+          + COLUMN_FULLNAME + " TEXT NOT NULL, "
+          + COLUMN_FOLDER + " TEXT NOT NULL, "
+          + COLUMN_THREAD_FULLNAME + " TEXT NOT NULL, "
+          + COLUMN_CREATED_TIME_MILLIS + " INTEGER NOT NULL, "
+          + "PRIMARY KEY (" + COLUMN_FOLDER + ", " + COLUMN_FULLNAME + ")"
+          + ")";
+
+  public static final String QUERY_CREATE_THREAD_INDEX =
+      "CREATE INDEX " + TABLE_NAME + "_" + COLUMN_THREAD_FULLNAME
+          + " ON " + TABLE_NAME + " (" + COLUMN_FOLDER + ", " + COLUMN_THREAD_FULLNAME + ")";
+
+  /**
+   * Entries of threads in a folder. Replies are left out, because a thread is removed from or added
+   * to a folder as a whole.
+   */
+  public static final String QUERY_GET_THREADS_IN_FOLDER =
+      "SELECT * FROM " + TABLE_NAME
+          + " WHERE " + COLUMN_FOLDER + " == ?"
+          + " AND " + COLUMN_FULLNAME + " == " + COLUMN_THREAD_FULLNAME;
+
+  public static final String WHERE_FOLDER =
+      COLUMN_FOLDER + " == ?";
+
+  public static final String WHERE_FOLDER_AND_THREAD_FULLNAME =
+      COLUMN_FOLDER + " == ? AND " + COLUMN_THREAD_FULLNAME + " == ?";
+
+  /**
+   * Threads in a folder that are also present in a list of <var>count</var> fullnames, which are bound after the folder.
+   */
+  public static String queryGetThreadsInFolderIn(int count) {
+    return QUERY_GET_THREADS_IN_FOLDER + " AND " + COLUMN_FULLNAME + " IN (" + placeholders(count) + ")";
+  }
+
+  /**
+   * Threads in a folder that are missing from a list of <var>count</var> fullnames, which are bound after the folder.
+   */
+  public static String queryGetThreadsInFolderNotIn(int count) {
+    return QUERY_GET_THREADS_IN_FOLDER + " AND " + COLUMN_FULLNAME + " NOT IN (" + placeholders(count) + ")";
+  }
+
+  private static String placeholders(int count) {
+    StringBuilder builder = new StringBuilder(count * 2);
+    for (int i = 0; i < count; i++) {
+      builder.append(i == 0 ? "?" : ",?");
+    }
+    return builder.toString();
+  }
+
+  public abstract String fullname();
+
+  public abstract InboxFolder folder();
+
+  /**
+   * Fullname of the first message of this message's thread. Same as {@link #fullname()} for the first
+   * message and for comment messages, which don't have replies.
+   */
+  public abstract String threadFullname();
+
+  public abstract long createdTimeMillis();
+
+  public ContentValues toContentValues() {
+    ContentValues values = new ContentValues(4);
+    values.put(COLUMN_FULLNAME, fullname());
+    values.put(COLUMN_FOLDER, folder().name());
+    values.put(COLUMN_THREAD_FULLNAME, threadFullname());
+    values.put(COLUMN_CREATED_TIME_MILLIS, createdTimeMillis());
+    return values;
+  }
+
+  public static Function<Cursor, CachedMessageEntry> fromCursor() {
+    return cursor -> create(
+        Cursors.string(cursor, COLUMN_FULLNAME),
+        InboxFolder.valueOf(Cursors.string(cursor, COLUMN_FOLDER)),
+        Cursors.string(cursor, COLUMN_THREAD_FULLNAME),
+        Cursors.longg(cursor, COLUMN_CREATED_TIME_MILLIS));
+  }
+
+  /**
+   * Entries for <var>thread</var> followed by its replies.
+   */
+  public static List<CachedMessageEntry> entriesOf(Message thread, InboxFolder folder) {
+    List<Message> replies = thread.isComment()
+        ? Collections.emptyList()
+        : JrawUtils2.messageReplies(thread);
+
+    List<CachedMessageEntry> entries = new ArrayList<>(1 + replies.size());
+    entries.add(create(thread.getFullName(), folder, thread.getFullName(), thread.getCreated().getTime()));
+    for (Message reply : replies) {
+      entries.add(create(reply.getFullName(), folder, thread.getFullName(), reply.getCreated().getTime()));
+    }
+    return entries;
+  }
+
+  public static CachedMessageEntry create(String fullname, InboxFolder folder, String threadFullname, long createdTimeMillis) {
+    return new AutoValue_CachedMessageEntry(fullname, folder, threadFullname, createdTimeMillis);
+  }
+}
@@ -0,0 +1,72 @@
+package me.saket.dank.urlparser;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Maps domain suffixes (like "imgur.com") to values and finds the longest suffix that a host ends
+ * with, by walking the host's characters backwards once. Matching is the same as
+ * {@link String#endsWith(String)}, so "i.imgur.com" and "imgur.com" both match "imgur.com".
+ */
+class HostSuffixTrie<T> {
+
+  private final Node<T> root = new Node<>();
+
+  public void put(String suffix, T value) {
+    Node<T> node = root;
+    for (int i = suffix.length() - 1; i >= 0; i--) {
+      node = node.childOrCreate(suffix.charAt(i));
+    }
+    node.value = value;
+  }
+
+  @Nullable
+  public T longestSuffixMatch(String host) {
+    T match = null;
+    Node<T> node = root;
+    for (int i = host.length() - 1; i >= 0 && node != null; i--) {
+      node = node.child(host.charAt(i));
+      if (node != null && node.value != null) {
+        match = node.value;
+      }
+    }
+    return match;
+  }
+
+  private static class Node<T> {
+    private char[] keys = new char[0];
+    private Node<T>[] children = newArray(0);
+    private T value;
+
+    @Nullable
+    Node<T> child(char key) {
+      // Hosts are short and nodes rarely have more than a few children, so a linear search works fine.
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] == key) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    Node<T> childOrCreate(char key) {
+      Node<T> child = child(key);
+      if (child == null) {
+        child = new Node<>();
+        char[] newKeys = new char[keys.length + 1];
+        Node<T>[] newChildren = newArray(children.length + 1);
+        System.arraycopy(keys, 0, newKeys, 0, keys.length);
+        System.arraycopy(children, 0, newChildren, 0, children.length);
+        newKeys[keys.length] = key;
+        newChildren[children.length] = child;
+        keys = newKeys;
+        children = newChildren;
+      }
+      return child;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T>[] newArray(int size) {
+      return (Node<T>[]) new Node[size];
+    }
+  }
+}
@@ -18,7 +18,6 @@ import me.saket.dank.BuildConfig;
 import me.saket.dank.reddit.Reddit;
 import me.saket.dank.utils.JrawUtils2;
 import me.saket.dank.utils.Optional;
-import me.saket.dank.utils.Urls;
 import okhttp3.HttpUrl;
 
 /**
@@ -35,11 +34,26 @@ public class UrlParser {
 
   private final Cache<String, Link> cache;
   private final UrlParserConfig config;
+  private final HostSuffixTrie<HostHandler> hostHandlers = new HostSuffixTrie<>();
+
+  private interface HostHandler {
+    Link parse(UrlTokens tokens, Optional<Submission> submission);
+  }
 
   @Inject
   public UrlParser(@Named("url_parser") Cache<String, Link> cache, UrlParserConfig config) {
     this.cache = cache;
     this.config = config;
+
+    hostHandlers.put("reddit.com", this::parseRedditUrl);
+    hostHandlers.put("redd.it", this::parseReddItUrl);
+    hostHandlers.put("imgur.com", (tokens, submission) -> parseImgurUrl(tokens));
+    hostHandlers.put("bildgur.de", (tokens, submission) -> parseImgurUrl(tokens));
+    hostHandlers.put("gfycat.com", (tokens, submission) -> createGfycatLink(tokens));
+    hostHandlers.put("giphy.com", (tokens, submission) -> createGiphyLink(tokens));
+    hostHandlers.put("streamable.com", (tokens, submission) -> createUnresolvedStreamableLink(tokens));
+    hostHandlers.put("reddituploads.com", (tokens, submission) -> parseRedditUploadsUrl(tokens));
+    hostHandlers.put("redditmedia.com", (tokens, submission) -> parseRedditUploadsUrl(tokens));
   }
 
   /**
@@ -77,133 +91,159 @@ public class UrlParser {
     // TODO: Support "np" subdomain?
     // TODO: Support wiki pages.
     Link parsedLink;
-    Uri linkURI = Uri.parse(url);
-    String urlDomain = linkURI.getHost() != null ? linkURI.getHost() : "";
-    String urlPath = linkURI.getPath() != null ? linkURI.getPath() : "";  // Path is the part of the URL without the domain. E.g.,: /something/image.jpg.
+    UrlTokens tokens = UrlTokens.tokenize(url);
+    String urlPath = tokens.path();
 
-    Matcher subredditMatcher = config.subredditPattern().matcher(urlPath);
-    if (subredditMatcher.matches()) {
+    // Subreddit and user links are identified on every domain. Their regexes only run if the path looks similar.
+    Matcher subredditMatcher = isPossiblySubredditPath(urlPath) ? config.subredditPattern().matcher(urlPath) : null;
+    Matcher userMatcher = isPossiblyUserPath(urlPath) ? config.userPattern().matcher(urlPath) : null;
+
+    if (subredditMatcher != null && subredditMatcher.matches()) {
       parsedLink = RedditSubredditLink.create(url, subredditMatcher.group(1));
 
+    } else if (userMatcher != null && userMatcher.matches()) {
+      parsedLink = RedditUserLink.create(url, userMatcher.group(1));
+
     } else {
-      Matcher userMatcher = config.userPattern().matcher(urlPath);
-      if (userMatcher.matches()) {
-        parsedLink = RedditUserLink.create(url, userMatcher.group(1));
-
-      } else if (urlDomain.endsWith("reddit.com")) {
-        Matcher submissionOrCommentMatcher = config.submissionOrCommentPattern().matcher(urlPath);
-        if (submissionOrCommentMatcher.matches()) {
-          String subredditName = submissionOrCommentMatcher.group(2);
-          String submissionId = submissionOrCommentMatcher.group(3);
-          String commentId = submissionOrCommentMatcher.group(5);
-
-          if (TextUtils.isEmpty(commentId)) {
-            parsedLink = RedditSubmissionLink.create(url, submissionId, subredditName);
-          } else {
-            String contextParamValue = linkURI.getQueryParameter(Reddit.CONTEXT_QUERY_PARAM);
-            int contextCount = TextUtils.isEmpty(contextParamValue) ? 0 : Integer.parseInt(contextParamValue);
-            RedditCommentLink initialComment = RedditCommentLink.create(url, commentId, contextCount);
-            parsedLink = RedditSubmissionLink.createWithComment(url, submissionId, subredditName, initialComment);
-          }
-
-        } else if (urlDomain.contains("i.reddit.com")) {
-          // Old mobile website that nobody uses anymore. Format: i.reddit.com/post_id. Eg., https://i.reddit.com/5524cd
-          String submissionId = urlPath.substring(1);  // Remove the leading slash.
-          parsedLink = RedditSubmissionLink.create(url, submissionId, null);
-        } else {
-          Optional<String> urlSubdomain = Urls.subdomain(linkURI);
-          if (urlSubdomain.isPresent() && urlSubdomain.get().equals("v")) {
-            // TODO: When submission optional isn't present, treat it as an unresolved reddit video link.
-            parsedLink = createRedditHostedVideoLink(url, submission);
-          } else {
-            parsedLink = ExternalLink.create(url);
-          }
-        }
+      HostHandler hostHandler = hostHandlers.longestSuffixMatch(tokens.host());
+      parsedLink = hostHandler != null
+          ? hostHandler.parse(tokens, submission)
+          : parseUnknownHostUrl(tokens, submission);
+    }
+
+    cache.put(url, parsedLink);
+    return parsedLink;
+  }
 
-      } else if (urlDomain.endsWith("redd.it")) {
-        Optional<String> urlSubdomain = Urls.subdomain(linkURI);
-        if (urlSubdomain.isPresent() && urlSubdomain.get().equals("v")) {
-          parsedLink = createRedditHostedVideoLink(url, submission);
+  private Link parseRedditUrl(UrlTokens tokens, Optional<Submission> submission) {
+    String url = tokens.url();
+    String urlPath = tokens.path();
 
-        } else if ((urlSubdomain.isEmpty() || urlSubdomain.get().equals("i")) // i.redd.it
-            && (!isImageOrGifUrlPath(urlPath) && !isVideoPath(urlPath)))
-        {
-          // Short redd.it url. Format: redd.it/post_id. Eg., https://redd.it/5524cd
-          String submissionId = urlPath.substring(1);  // Remove the leading slash.
-          parsedLink = RedditSubmissionLink.create(url, submissionId, null);
+    Matcher submissionOrCommentMatcher = urlPath.contains("/comments/")
+        ? config.submissionOrCommentPattern().matcher(urlPath)
+        : null;
 
-        } else {
-          parsedLink = parseNonRedditUrl(url);
-        }
+    if (submissionOrCommentMatcher != null && submissionOrCommentMatcher.matches()) {
+      String subredditName = submissionOrCommentMatcher.group(2);
+      String submissionId = submissionOrCommentMatcher.group(3);
+      String commentId = submissionOrCommentMatcher.group(5);
 
+      if (TextUtils.isEmpty(commentId)) {
+        return RedditSubmissionLink.create(url, submissionId, subredditName);
       } else {
-        if (urlDomain.contains("google") && urlPath.startsWith("/amp/s/amp.reddit.com")) {
-          // Google AMP url.
-          // https://www.google.com/amp/s/amp.reddit.com/r/NoStupidQuestions/comments/2qwyo7/what_is_red_velvet_supposed_to_taste_like/
-          String nonAmpUrl = "https://" + url.substring(url.indexOf("/amp/s/") + "/amp/s/".length());
-          parsedLink = parse(nonAmpUrl);
+        String contextParamValue = tokens.queryParameter(Reddit.CONTEXT_QUERY_PARAM);
+        int contextCount = TextUtils.isEmpty(contextParamValue) ? 0 : Integer.parseInt(contextParamValue);
+        RedditCommentLink initialComment = RedditCommentLink.create(url, commentId, contextCount);
+        return RedditSubmissionLink.createWithComment(url, submissionId, subredditName, initialComment);
+      }
 
-        } else if (urlDomain.isEmpty() && url.startsWith("/") && !url.contains("@")) {
-          return parseInternal("https://reddit.com" + url, submission);
+    } else if (tokens.host().contains("i.reddit.com")) {
+      // Old mobile website that nobody uses anymore. Format: i.reddit.com/post_id. Eg., https://i.reddit.com/5524cd
+      String submissionId = urlPath.substring(1);  // Remove the leading slash.
+      return RedditSubmissionLink.create(url, submissionId, null);
 
-        } else {
-          parsedLink = parseNonRedditUrl(url);
-        }
+    } else {
+      Optional<String> urlSubdomain = tokens.subdomain();
+      if (urlSubdomain.isPresent() && urlSubdomain.get().equals("v")) {
+        // TODO: When submission optional isn't present, treat it as an unresolved reddit video link.
+        return createRedditHostedVideoLink(url, submission);
+      } else {
+        return ExternalLink.create(url);
       }
     }
+  }
 
-    cache.put(url, parsedLink);
-    return parsedLink;
+  private Link parseReddItUrl(UrlTokens tokens, Optional<Submission> submission) {
+    String urlPath = tokens.path();
+    Optional<String> urlSubdomain = tokens.subdomain();
+
+    if (urlSubdomain.isPresent() && urlSubdomain.get().equals("v")) {
+      return createRedditHostedVideoLink(tokens.url(), submission);
+
+    } else if ((urlSubdomain.isEmpty() || urlSubdomain.get().equals("i")) // i.redd.it
+        && (!isImageOrGifUrlPath(urlPath) && !isVideoPath(urlPath)))
+    {
+      // Short redd.it url. Format: redd.it/post_id. Eg., https://redd.it/5524cd
+      String submissionId = urlPath.substring(1);  // Remove the leading slash.
+      return RedditSubmissionLink.create(tokens.url(), submissionId, null);
+
+    } else {
+      return parseMediaOrExternalUrl(tokens);
+    }
   }
 
-  private Link parseNonRedditUrl(String url) {
-    Uri linkURI = Uri.parse(url);
+  private Link parseUnknownHostUrl(UrlTokens tokens, Optional<Submission> submission) {
+    String url = tokens.url();
+    String urlDomain = tokens.host();
 
-    String urlDomain = linkURI.getHost() != null ? linkURI.getHost() : "";
-    String urlPath = linkURI.getPath() != null ? linkURI.getPath() : "";
+    if (tokens.path().startsWith("/amp/s/amp.reddit.com") && urlDomain.contains("google")) {
+      // Google AMP url.
+      // https://www.google.com/amp/s/amp.reddit.com/r/NoStupidQuestions/comments/2qwyo7/what_is_red_velvet_supposed_to_taste_like/
+      String nonAmpUrl = "https://" + url.substring(url.indexOf("/amp/s/") + "/amp/s/".length());
+      return parse(nonAmpUrl);
 
-    if ((urlDomain.contains("imgur.com") || urlDomain.contains("bildgur.de"))) {
-      if (isUnsupportedImgurLink(urlPath)) {
-        // These are links that Imgur no longer uses so Dank does not expect them either.
-        return ExternalLink.create(url);
+    } else if (urlDomain.isEmpty() && url.startsWith("/") && !url.contains("@")) {
+      return parseInternal("https://reddit.com" + url, submission);
 
-      } else {
-        Matcher albumUrlMatcher = config.imgurAlbumPattern().matcher(Uri.parse(url).getPath());
-        // matches() is important or else groups don't get formed.
-        if (albumUrlMatcher.matches()) {
-          String albumId = albumUrlMatcher.group(1);
-          // It's titled as unresolved because we don't know if the gallery
-          // contains a single image or multiple images.
-          return ImgurAlbumUnresolvedLink.create(url, albumId);
-
-        } else {
-          return createImgurLink(url, null, null);
-        }
-      }
+    } else {
+      return parseMediaOrExternalUrl(tokens);
+    }
+  }
 
-    } else if (urlDomain.contains("gfycat.com")) {
-      return createGfycatLink(linkURI);
+  private Link parseImgurUrl(UrlTokens tokens) {
+    String urlPath = tokens.path();
 
-    } else if (urlDomain.contains("giphy.com")) {
-      return createGiphyLink(linkURI);
+    if (isUnsupportedImgurLink(urlPath)) {
+      // These are links that Imgur no longer uses so Dank does not expect them either.
+      return ExternalLink.create(tokens.url());
 
-    } else if (urlDomain.contains("streamable.com")) {
-      return createUnresolvedStreamableLink(linkURI);
+    } else {
+      Matcher albumUrlMatcher = config.imgurAlbumPattern().matcher(urlPath);
+      // matches() is important or else groups don't get formed.
+      if (albumUrlMatcher.matches()) {
+        String albumId = albumUrlMatcher.group(1);
+        // It's titled as unresolved because we don't know if the gallery
+        // contains a single image or multiple images.
+        return ImgurAlbumUnresolvedLink.create(tokens.url(), albumId);
 
-    } else if (urlDomain.contains("reddituploads.com") || urlDomain.contains("redditmedia.com")) {
-      // Reddit sends HTML-escaped URLs for reddituploads.com. Decode them again.
-      //noinspection deprecation
-      String htmlUnescapedUrl = org.jsoup.parser.Parser.unescapeEntities(url, true);
-      return GenericMediaLink.create(htmlUnescapedUrl, Link.Type.SINGLE_IMAGE);
+      } else {
+        return createImgurLink(tokens.url(), null, null);
+      }
+    }
+  }
 
-    } else if (isImageOrGifUrlPath(urlPath) || isVideoPath(urlPath)) {
-      return GenericMediaLink.create(url, getMediaUrlType(urlPath));
+  private static Link parseRedditUploadsUrl(UrlTokens tokens) {
+    // Reddit sends HTML-escaped URLs for reddituploads.com. Decode them again.
+    //noinspection deprecation
+    String htmlUnescapedUrl = org.jsoup.parser.Parser.unescapeEntities(tokens.url(), true);
+    return GenericMediaLink.create(htmlUnescapedUrl, Link.Type.SINGLE_IMAGE);
+  }
 
+  private static Link parseMediaOrExternalUrl(UrlTokens tokens) {
+    String urlPath = tokens.path();
+    if (isImageOrGifUrlPath(urlPath) || isVideoPath(urlPath)) {
+      return GenericMediaLink.create(tokens.url(), getMediaUrlType(urlPath));
     } else {
-      return ExternalLink.create(url);
+      return ExternalLink.create(tokens.url());
     }
   }
 
+  /**
+   * Necessary, but not sufficient condition for {@link UrlParserConfig#subredditPattern()}.
+   */
+  private static boolean isPossiblySubredditPath(String urlPath) {
+    int start = urlPath.startsWith("/") ? 1 : 0;
+    return urlPath.startsWith("r/", start);
+  }
+
+  /**
+   * Necessary, but not sufficient condition for {@link UrlParserConfig#userPattern()}.
+   */
+  private static boolean isPossiblyUserPath(String urlPath) {
+    int start = urlPath.startsWith("/") ? 1 : 0;
+    return urlPath.startsWith("u/", start) || urlPath.startsWith("user/", start);
+  }
+
   private static Link createRedditHostedVideoLink(String url, Optional<Submission> optionalSubmission) {
     return optionalSubmission
         .flatMap(submission -> JrawUtils2.redditVideoDashPlaylistUrl(submission))
@@ -268,8 +308,8 @@ public class UrlParser {
    * <p>
    * Links not containing three capital letters are converted to {@link GfycatUnresolvedLink}.
    */
-  private Link createGfycatLink(Uri gfycatURI) {
-    Matcher matcher = config.gfycatIdPattern().matcher(gfycatURI.getPath());
+  private Link createGfycatLink(UrlTokens gfycatTokens) {
+    Matcher matcher = config.gfycatIdPattern().matcher(gfycatTokens.path());
     if (matcher.matches()) {
       String threeWordId = matcher.group(1);
       String url = config.gfycatUnparsedUrlPlaceholder(threeWordId);
@@ -292,22 +332,19 @@ public class UrlParser {
 
     } else {
       // Fallback.
-      return ExternalLink.create(gfycatURI.toString());
+      return ExternalLink.create(gfycatTokens.url());
     }
   }
 
   @SuppressWarnings("ConstantConditions")
-  private Link createGiphyLink(Uri giphyURI) {
-    String url = giphyURI.toString();
+  private Link createGiphyLink(UrlTokens giphyTokens) {
+    String url = giphyTokens.url();
 
-    HttpUrl httpUrl = HttpUrl.parse(giphyURI.toString());
+    HttpUrl httpUrl = HttpUrl.parse(url);
     String urlPath = httpUrl.encodedPath();
 
     Matcher giphyIdMatcher = config.giphyIdPattern().matcher(urlPath);
     if (giphyIdMatcher.matches()) {
-      String videoId = giphyIdMatcher.group(1);
-      String gifVideoUrl = giphyURI.getScheme() + "://i.giphy.com/" + videoId + ".mp4";
-
       HttpUrl giphyUrl = httpUrl.newBuilder(urlPath + ".mp4")
           .scheme("https")
           .host("i.giphy.com")
@@ -320,10 +357,10 @@ public class UrlParser {
     }
   }
 
-  private Link createUnresolvedStreamableLink(Uri streamableUri) {
-    String url = streamableUri.toString();
+  private Link createUnresolvedStreamableLink(UrlTokens streamableTokens) {
+    String url = streamableTokens.url();
 
-    Matcher streamableIdMatcher = config.streamableIdPattern().matcher(streamableUri.getPath());
+    Matcher streamableIdMatcher = config.streamableIdPattern().matcher(streamableTokens.path());
     if (streamableIdMatcher.matches()) {
       String videoId = streamableIdMatcher.group(1);
       return StreamableUnresolvedLink.create(url, videoId);
@@ -351,8 +388,7 @@ public class UrlParser {
   }
 
   public static boolean isGifUrl(String url) {
-    String path = Uri.parse(url).getPath();
-    return path != null && isGifPath(path);
+    return isGifPath(UrlTokens.tokenize(url).path());
   }
 
   private static boolean isVideoPath(String urlPath) {
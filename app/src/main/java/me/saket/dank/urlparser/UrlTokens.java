@@ -0,0 +1,240 @@
+package me.saket.dank.urlparser;
+
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import me.saket.dank.utils.Optional;
+
+/**
+ * Splits a URL into its scheme, host, path and query in a single pass. Follows the same rules as
+ * {@link android.net.Uri#parse(String)} so that {@link UrlParser} sees the same parts as before,
+ * but without allocating a Uri and re-scanning the URL for every part.
+ */
+class UrlTokens {
+
+  private static final int NOT_FOUND = -1;
+
+  private final String url;
+  private final int schemeSeparator;
+  private final int hostStart;
+  private final int hostEnd;
+  private final int pathStart;
+  private final int pathEnd;
+  private final int queryStart;
+  private final int queryEnd;
+
+  private String host;
+  private String path;
+
+  private UrlTokens(String url, int schemeSeparator, int hostStart, int hostEnd, int pathStart, int pathEnd, int queryStart, int queryEnd) {
+    this.url = url;
+    this.schemeSeparator = schemeSeparator;
+    this.hostStart = hostStart;
+    this.hostEnd = hostEnd;
+    this.pathStart = pathStart;
+    this.pathEnd = pathEnd;
+    this.queryStart = queryStart;
+    this.queryEnd = queryEnd;
+  }
+
+  public static UrlTokens tokenize(String url) {
+    int length = url.length();
+    int schemeSeparator = url.indexOf(':');
+
+    // Opaque URLs like "mailto:saket@saket.me" do not have a path.
+    boolean opaque = schemeSeparator != NOT_FOUND
+        && (schemeSeparator + 1 == length || url.charAt(schemeSeparator + 1) != '/');
+    boolean hasAuthority = length > schemeSeparator + 2
+        && url.charAt(schemeSeparator + 1) == '/'
+        && url.charAt(schemeSeparator + 2) == '/';
+
+    int hostStart = NOT_FOUND;
+    int hostEnd = NOT_FOUND;
+    int cursor = schemeSeparator + 1;
+
+    if (hasAuthority) {
+      int authorityStart = schemeSeparator + 3;
+      int authorityEnd = authorityStart;
+      int lastAt = NOT_FOUND;
+      while (authorityEnd < length) {
+        char c = url.charAt(authorityEnd);
+        if (c == '/' || c == '\\' || c == '?' || c == '#') {
+          break;
+        }
+        if (c == '@') {
+          lastAt = authorityEnd;
+        }
+        authorityEnd++;
+      }
+
+      hostStart = lastAt == NOT_FOUND ? authorityStart : lastAt + 1;
+      hostEnd = authorityEnd;
+
+      // Port, unless the colon belongs to an IPv6 address.
+      for (int i = authorityEnd - 1; i >= hostStart; i--) {
+        char c = url.charAt(i);
+        if (c == ':') {
+          hostEnd = i;
+          break;
+        }
+        if (c < '0' || c > '9') {
+          break;
+        }
+      }
+      cursor = authorityEnd;
+    }
+
+    int pathStart = NOT_FOUND;
+    int pathEnd = NOT_FOUND;
+    if (!opaque) {
+      pathStart = cursor;
+      pathEnd = cursor;
+      if (hasAuthority && cursor < length && url.charAt(cursor) != '/' && url.charAt(cursor) != '\\') {
+        // Authority was followed by a query or fragment.
+        pathEnd = pathStart;
+      } else {
+        while (pathEnd < length && url.charAt(pathEnd) != '?' && url.charAt(pathEnd) != '#') {
+          pathEnd++;
+        }
+      }
+    }
+
+    int queryStart = NOT_FOUND;
+    int queryEnd = NOT_FOUND;
+    int querySeparator = url.indexOf('?', Math.max(schemeSeparator, 0));
+    if (querySeparator != NOT_FOUND) {
+      int fragmentSeparator = url.indexOf('#', Math.max(schemeSeparator, 0));
+      if (fragmentSeparator == NOT_FOUND) {
+        queryStart = querySeparator + 1;
+        queryEnd = length;
+      } else if (fragmentSeparator > querySeparator) {
+        queryStart = querySeparator + 1;
+        queryEnd = fragmentSeparator;
+      }
+    }
+
+    return new UrlTokens(url, schemeSeparator, hostStart, hostEnd, pathStart, pathEnd, queryStart, queryEnd);
+  }
+
+  public String url() {
+    return url;
+  }
+
+  @Nullable
+  public String scheme() {
+    return schemeSeparator == NOT_FOUND ? null : url.substring(0, schemeSeparator);
+  }
+
+  /**
+   * @return Empty if the URL does not have a host. For instance, email addresses.
+   */
+  public String host() {
+    if (host == null) {
+      host = hostStart == NOT_FOUND ? "" : decode(url, hostStart, hostEnd, false);
+    }
+    return host;
+  }
+
+  /**
+   * Path is the part of the URL without the domain. E.g.,: /something/image.jpg.
+   *
+   * @return Empty if the URL does not have a path.
+   */
+  public String path() {
+    if (path == null) {
+      path = pathStart == NOT_FOUND ? "" : decode(url, pathStart, pathEnd, false);
+    }
+    return path;
+  }
+
+  /**
+   * Same as {@link me.saket.dank.utils.Urls#subdomain(android.net.Uri)}.
+   */
+  public Optional<String> subdomain() {
+    String host = host();
+    int lastDot = host.lastIndexOf('.');
+    int secondLastDot = lastDot > 0 ? host.lastIndexOf('.', lastDot - 1) : NOT_FOUND;
+    if (secondLastDot == NOT_FOUND) {
+      return Optional.empty();
+    }
+    return Optional.of(host.substring(0, secondLastDot));
+  }
+
+  @Nullable
+  public String queryParameter(String key) {
+    if (queryStart == NOT_FOUND) {
+      return null;
+    }
+
+    int start = queryStart;
+    while (start <= queryEnd) {
+      int end = url.indexOf('&', start);
+      if (end == NOT_FOUND || end > queryEnd) {
+        end = queryEnd;
+      }
+
+      int separator = url.indexOf('=', start);
+      if (separator == NOT_FOUND || separator > end) {
+        separator = end;
+      }
+
+      if (separator - start == key.length() && url.regionMatches(start, key, 0, key.length())) {
+        return separator == end ? "" : decode(url, separator + 1, end, true);
+      }
+      start = end + 1;
+    }
+    return null;
+  }
+
+  /**
+   * Decodes percent-escapes the way {@link android.net.Uri#decode(String)} does.
+   */
+  private static String decode(String text, int start, int end, boolean convertPlus) {
+    boolean needsDecoding = false;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c == '%' || (convertPlus && c == '+')) {
+        needsDecoding = true;
+        break;
+      }
+    }
+    if (!needsDecoding) {
+      return text.substring(start, end);
+    }
+
+    StringBuilder decoded = new StringBuilder(end - start);
+    ByteArrayOutputStream escapedBytes = new ByteArrayOutputStream();
+    int i = start;
+    while (i < end) {
+      char c = text.charAt(i);
+      if (c == '%') {
+        int high = i + 1 < end ? Character.digit(text.charAt(i + 1), 16) : -1;
+        int low = i + 2 < end ? Character.digit(text.charAt(i + 2), 16) : -1;
+        if (high != -1 && low != -1) {
+          escapedBytes.write((high << 4) | low);
+          i += 3;
+          continue;
+        }
+        flush(escapedBytes, decoded);
+        decoded.append('\uFFFD');
+        i++;
+        continue;
+      }
+
+      flush(escapedBytes, decoded);
+      decoded.append(convertPlus && c == '+' ? ' ' : c);
+      i++;
+    }
+    flush(escapedBytes, decoded);
+    return decoded.toString();
+  }
+
+  private static void flush(ByteArrayOutputStream escapedBytes, StringBuilder decoded) {
+    if (escapedBytes.size() > 0) {
+      decoded.append(new String(escapedBytes.toByteArray(), StandardCharsets.UTF_8));
+      escapedBytes.reset();
+    }
+  }
+}
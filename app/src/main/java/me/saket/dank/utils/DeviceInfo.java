@@ -1,13 +1,19 @@
 package me.saket.dank.utils;
 
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.Context;
 import android.os.Build;
 
 import javax.inject.Inject;
 
 public class DeviceInfo {
 
+  private final Application appContext;
+
   @Inject
-  public DeviceInfo() {
+  public DeviceInfo(Application appContext) {
+    this.appContext = appContext;
   }
 
   public boolean isRunningOnEmulator() {
@@ -17,4 +23,10 @@ public class DeviceInfo {
   public boolean isNougatMrOneOrAbove() {
     return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N_MR1;
   }
+
+  public boolean isLowRamDevice() {
+    ActivityManager activityManager = (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+    //noinspection ConstantConditions
+    return activityManager.isLowRamDevice();
+  }
 }
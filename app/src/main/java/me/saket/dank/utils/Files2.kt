@@ -17,20 +17,33 @@ object Files2 {
    */
   @Throws(IOException::class)
   fun copyFileToPicturesDirectory(resources: Resources, fileToCopy: File, newFileName: String): File {
+    val userAccessibleFile = fileInPicturesDirectory(resources, newFileName)
+    userAccessibleFile.createNewFile()
+
+    fileToCopy.copyTo(userAccessibleFile, overwrite = true)
+    return userAccessibleFile
+  }
+
+  /**
+   * File in sdcard/Pictures/ that media named [fileName] gets saved to. The file itself isn't created.
+   */
+  fun fileInPicturesDirectory(resources: Resources, fileName: String): File {
     val picturesDirectory = File(
         Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES).absolutePath,
         resources.getString(R.string.image_download_directory_name)
     )
-    val userAccessibleFile = File(picturesDirectory, newFileName)
-
     picturesDirectory.mkdirs()
-    userAccessibleFile.createNewFile()
-
-    fileToCopy.copyTo(userAccessibleFile, overwrite = true)
-    return userAccessibleFile
+    return File(picturesDirectory, fileName)
   }
 
   fun copy(from: File, to: File) {
     from.copyTo(to)
   }
+
+  /**
+   * @return False if some of the files couldn't be deleted.
+   */
+  fun deleteRecursively(file: File): Boolean {
+    return file.deleteRecursively()
+  }
 }
@@ -18,7 +18,15 @@ object JrawUtils2 {
 
   @JvmStatic
   fun <T> generateAdapterId(thing: T): Long where T : Identifiable, T : Created {
-    return thing.fullName.hashCode() + thing.created.time
+    return generateAdapterId(thing.fullName, thing.created.time)
+  }
+
+  /**
+   * Same as [generateAdapterId], for things that haven't been decoded.
+   */
+  @JvmStatic
+  fun generateAdapterId(fullName: String, createdTimeMillis: Long): Long {
+    return fullName.hashCode() + createdTimeMillis
   }
 
   @JvmStatic
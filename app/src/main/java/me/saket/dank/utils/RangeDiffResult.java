@@ -0,0 +1,49 @@
+package me.saket.dank.utils;
+
+import android.support.v7.util.AdapterListUpdateCallback;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+
+/**
+ * A {@link DiffUtil.DiffResult} that was calculated only for the range of items that
+ * changed between two lists. See {@link RxDiffUtil#calculateDiffOfChangedRange}.
+ */
+public class RangeDiffResult {
+
+  private final int rangeStart;
+  private final DiffUtil.DiffResult rangeDiffResult;
+
+  public RangeDiffResult(int rangeStart, DiffUtil.DiffResult rangeDiffResult) {
+    this.rangeStart = rangeStart;
+    this.rangeDiffResult = rangeDiffResult;
+  }
+
+  public void dispatchUpdatesTo(RecyclerView.Adapter adapter) {
+    dispatchUpdatesTo(new AdapterListUpdateCallback(adapter));
+  }
+
+  public void dispatchUpdatesTo(ListUpdateCallback callback) {
+    rangeDiffResult.dispatchUpdatesTo(new ListUpdateCallback() {
+      @Override
+      public void onInserted(int position, int count) {
+        callback.onInserted(rangeStart + position, count);
+      }
+
+      @Override
+      public void onRemoved(int position, int count) {
+        callback.onRemoved(rangeStart + position, count);
+      }
+
+      @Override
+      public void onMoved(int fromPosition, int toPosition) {
+        callback.onMoved(rangeStart + fromPosition, rangeStart + toPosition);
+      }
+
+      @Override
+      public void onChanged(int position, int count, Object payload) {
+        callback.onChanged(rangeStart + position, count, payload);
+      }
+    });
+  }
+}
@@ -37,4 +37,39 @@ public class RxDiffUtil {
         })
         .skip(1);  // Initial value is dummy.
   }
+
+  /**
+   * Like {@link #calculateDiff(BiFunction)}, but skips leading and trailing items that are the same
+   * instances in both lists and only diffs the range in between. Useful for large lists whose
+   * producers re-use instances of unchanged items, where diffing the entire list is expensive.
+   */
+  public static <T> FlowableTransformer<List<T>, Pair<List<T>, RangeDiffResult>> calculateDiffOfChangedRange(
+      BiFunction<List<T>, List<T>, SimpleDiffUtilsCallbacks<T>> diffCallbacks)
+  {
+    Pair<List<T>, RangeDiffResult> initialPair = Pair.createNullable(Collections.emptyList(), null);
+    return upstream -> upstream
+        .scan(initialPair, (latestPair, nextItems) -> {
+          List<T> oldItems = latestPair.first();
+          int maxUnchangedCount = Math.min(oldItems.size(), nextItems.size());
+
+          int rangeStart = 0;
+          while (rangeStart < maxUnchangedCount && oldItems.get(rangeStart) == nextItems.get(rangeStart)) {
+            rangeStart++;
+          }
+
+          int unchangedTrailingCount = 0;
+          while (unchangedTrailingCount < maxUnchangedCount - rangeStart
+              && oldItems.get(oldItems.size() - 1 - unchangedTrailingCount) == nextItems.get(nextItems.size() - 1 - unchangedTrailingCount))
+          {
+            unchangedTrailingCount++;
+          }
+
+          List<T> oldRange = oldItems.subList(rangeStart, oldItems.size() - unchangedTrailingCount);
+          List<T> newRange = nextItems.subList(rangeStart, nextItems.size() - unchangedTrailingCount);
+          DiffUtil.Callback callback = diffCallbacks.apply(oldRange, newRange);
+          DiffUtil.DiffResult result = DiffUtil.calculateDiff(callback, true);
+          return Pair.create(nextItems, new RangeDiffResult(rangeStart, result));
+        })
+        .skip(1);  // Initial value is dummy.
+  }
 }
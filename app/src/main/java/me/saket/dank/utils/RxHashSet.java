@@ -1,15 +1,19 @@
 package me.saket.dank.utils;
 
 import com.jakewharton.rxrelay2.BehaviorRelay;
+import com.jakewharton.rxrelay2.PublishRelay;
 import com.jakewharton.rxrelay2.Relay;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 
 import io.reactivex.Observable;
 
 public class RxHashSet<T> extends HashSet<T> {
   final Relay<Integer> changeEvents = BehaviorRelay.create();
+  final Relay<T> itemChangeEvents = PublishRelay.create();
 
   public RxHashSet() {
     changeEvents.accept(size());
@@ -24,16 +28,32 @@ public class RxHashSet<T> extends HashSet<T> {
     return changeEvents;
   }
 
+  /**
+   * Unlike {@link #changes()}, this emits the items that were added or removed.
+   */
+  public Observable<T> itemChanges() {
+    return itemChangeEvents;
+  }
+
   @Override
   public boolean add(T t) {
     boolean result = super.add(t);
+    if (result) {
+      itemChangeEvents.accept(t);
+    }
     changeEvents.accept(size());
     return result;
   }
 
   @Override
   public boolean addAll(Collection<? extends T> c) {
-    boolean result = super.addAll(c);
+    boolean result = false;
+    for (T item : c) {
+      if (super.add(item)) {
+        itemChangeEvents.accept(item);
+        result = true;
+      }
+    }
     changeEvents.accept(size());
     return result;
   }
@@ -41,20 +61,35 @@ public class RxHashSet<T> extends HashSet<T> {
   @Override
   public boolean remove(Object o) {
     boolean result = super.remove(o);
+    if (result) {
+      //noinspection unchecked
+      itemChangeEvents.accept((T) o);
+    }
     changeEvents.accept(size());
     return result;
   }
 
   @Override
   public boolean removeAll(Collection<?> c) {
-    boolean result = super.removeAll(c);
+    boolean result = false;
+    for (Object item : c) {
+      if (super.remove(item)) {
+        //noinspection unchecked
+        itemChangeEvents.accept((T) item);
+        result = true;
+      }
+    }
     changeEvents.accept(size());
     return result;
   }
 
   @Override
   public void clear() {
+    List<T> removedItems = new ArrayList<>(this);
     super.clear();
+    for (T removedItem : removedItems) {
+      itemChangeEvents.accept(removedItem);
+    }
     changeEvents.accept(size());
   }
 }
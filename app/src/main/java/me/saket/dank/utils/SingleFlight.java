@@ -0,0 +1,66 @@
+package me.saket.dank.utils;
+
+import android.support.annotation.CheckResult;
+
+import com.google.auto.value.AutoValue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Completable;
+
+/**
+ * Runs at-most one Completable per key at a time. Subscribers that arrive while work for their key is
+ * in flight are joined onto it instead of starting it again, and receive the same result.
+ * <p>
+ * In-flight work isn't canceled when its subscribers go away, so that work like a network call followed
+ * by a DB write doesn't get abandoned halfway because the screen that triggered it was closed.
+ */
+public class SingleFlight<K> {
+
+  private final ConcurrentMap<K, Completable> inFlightWork = new ConcurrentHashMap<>();
+  private final AtomicLong startedCount = new AtomicLong();
+  private final AtomicLong joinedCount = new AtomicLong();
+
+  @CheckResult
+  public Completable run(K key, Callable<Completable> work) {
+    return Completable.defer(() -> {
+      Completable existingFlight = inFlightWork.get(key);
+      if (existingFlight != null) {
+        joinedCount.incrementAndGet();
+        return existingFlight;
+      }
+
+      Completable[] newFlight = new Completable[1];
+      newFlight[0] = Completable.defer(work)
+          .doFinally(() -> inFlightWork.remove(key, newFlight[0]))
+          .cache();
+
+      existingFlight = inFlightWork.putIfAbsent(key, newFlight[0]);
+      if (existingFlight != null) {
+        joinedCount.incrementAndGet();
+        return existingFlight;
+      }
+      startedCount.incrementAndGet();
+      return newFlight[0];
+    });
+  }
+
+  public Stats stats() {
+    return Stats.create(startedCount.get(), joinedCount.get());
+  }
+
+  @AutoValue
+  public abstract static class Stats {
+    public abstract long startedCount();
+
+    /** Subscribers that were joined onto in-flight work instead of running it again. */
+    public abstract long joinedCount();
+
+    public static Stats create(long startedCount, long joinedCount) {
+      return new AutoValue_SingleFlight_Stats(startedCount, joinedCount);
+    }
+  }
+}
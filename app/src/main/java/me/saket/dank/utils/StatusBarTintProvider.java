@@ -10,6 +10,8 @@ import android.support.v7.graphics.Palette;
 import io.reactivex.Single;
 import io.reactivex.functions.Function;
 import me.saket.dank.data.StatusBarTint;
+import me.saket.dank.utils.palette.CachedPaletteGenerator;
+import me.saket.dank.utils.palette.PaletteSpec;
 
 /**
  * Extracts colors from Bitmap and tweaks them for making them suitable for the status bar.
@@ -21,29 +23,35 @@ public class StatusBarTintProvider {
   private final int statusBarHeight;
   private final int defaultStatusBarColor;
   private final int displayWidth;
+  private final CachedPaletteGenerator paletteGenerator;
 
-  public StatusBarTintProvider(int defaultStatusBarColor, int statusBarHeight, int displayWidth) {
+  public StatusBarTintProvider(int defaultStatusBarColor, int statusBarHeight, int displayWidth, CachedPaletteGenerator paletteGenerator) {
     this.statusBarHeight = statusBarHeight;
     this.defaultStatusBarColor = defaultStatusBarColor;
     this.displayWidth = displayWidth;
+    this.paletteGenerator = paletteGenerator;
   }
 
+  /**
+   * @param imageUrl For caching the palette generated for <var>bitmap</var>.
+   */
   @CheckResult
-  public Single<StatusBarTint> generateTint(Bitmap bitmap) {
-    return generatePaletteFromBitmap(bitmap).map(generateTintFromPalette(bitmap));
+  public Single<StatusBarTint> generateTint(String imageUrl, Bitmap bitmap) {
+    return generatePaletteFromBitmap(imageUrl, bitmap).map(generateTintFromPalette(bitmap));
   }
 
   @CheckResult
-  private Single<Palette> generatePaletteFromBitmap(Bitmap bitmap) {
-    return Single.fromCallable(() -> {
-      int imageHeightToUse = (int) (statusBarHeight * ((float) bitmap.getWidth() / displayWidth));
-
-      return Palette.from(bitmap)
-          .maximumColorCount(3)
-          .clearFilters() /* by default palette ignore certain hues (e.g. pure black/white) but we don't want this. */
-          .setRegion(0, 0, bitmap.getWidth(), imageHeightToUse)
-          .generate();
-    });
+  private Single<Palette> generatePaletteFromBitmap(String imageUrl, Bitmap bitmap) {
+    int imageHeightToUse = (int) (statusBarHeight * ((float) bitmap.getWidth() / displayWidth));
+    float topRegionFraction = Math.min(1f, (float) imageHeightToUse / bitmap.getHeight());
+
+    // The region depends on the widths of the display and the bitmap, so they're part of the spec's name.
+    // Otherwise a tint cached in one orientation, or for a lower quality video, would get used for the other.
+    String specName = "status_bar_" + displayWidth + "x" + statusBarHeight + "_" + bitmap.getWidth();
+
+    /* by default palette ignore certain hues (e.g. pure black/white) but we don't want this. */
+    PaletteSpec spec = PaletteSpec.create(specName, 3, true /* clearFilters */, topRegionFraction);
+    return paletteGenerator.generate(imageUrl, bitmap, spec);
   }
 
   private Function<Palette, StatusBarTint> generateTintFromPalette(Bitmap bitmap) {
@@ -0,0 +1,155 @@
+package me.saket.dank.utils.glide;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.CheckResult;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.SimpleTarget;
+import com.bumptech.glide.request.target.Target;
+import com.bumptech.glide.request.transition.Transition;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.functions.Function;
+import me.saket.dank.utils.Pair;
+
+/**
+ * Runs Glide requests with callbacks instead of {@link FutureTarget#get()}, so that no thread is parked
+ * while an image downloads and decodes. Disposing a load clears its request, which cancels the fetch and
+ * the decode if no other request shares them. At most {@link #MAX_RUNNING_LOADS} loads run at a time,
+ * and the rest wait in a queue ordered by their priority.
+ * <p>
+ * Results are delivered on the main thread. Loaded resources aren't cleared by this class, like
+ * {@link RequestBuilder#submit()}.
+ */
+@Singleton
+public class AsyncImageLoader {
+
+  /**
+   * Glide's source executor runs up to 4 network fetches. The rest of the slots are for loads
+   * that hit the disk or memory cache.
+   */
+  private static final int MAX_RUNNING_LOADS = 8;
+
+  private static final AtomicInteger BLOCKED_THREAD_COUNT = new AtomicInteger();
+
+  private final ImageLoadQueue queue = new ImageLoadQueue(MAX_RUNNING_LOADS);
+
+  @Inject
+  public AsyncImageLoader() {
+  }
+
+  /**
+   * @param request Built with the given {@link RequestManager}, which is also used for clearing the request on dispose.
+   */
+  @CheckResult
+  public <R> Single<R> load(Context context, Priority priority, Function<RequestManager, RequestBuilder<R>> request) {
+    return loadWithTarget(context, priority, request).map(targetAndResource -> targetAndResource.second());
+  }
+
+  @CheckResult
+  public <R> Single<R> load(Context context, Function<RequestManager, RequestBuilder<R>> request) {
+    return load(context, Priority.NORMAL, request);
+  }
+
+  /**
+   * For callers that clear loaded resources themselves.
+   */
+  @CheckResult
+  public <R> Single<Pair<Target<R>, R>> loadWithTarget(Context context, Priority priority, Function<RequestManager, RequestBuilder<R>> request) {
+    return queue.enqueue(priority, Single.create(emitter -> {
+      RequestManager requestManager = Glide.with(context);
+      RequestBuilder<R> requestBuilder = request.apply(requestManager);
+      CallbackTarget<R> target = new CallbackTarget<>(emitter);
+
+      emitter.setCancellable(() -> {
+        if (!target.resourceDelivered) {
+          requestManager.clear(target);
+        }
+      });
+
+      // Glide only accepts targets on the main thread.
+      AndroidSchedulers.mainThread().scheduleDirect(() -> {
+        if (!emitter.isDisposed()) {
+          requestBuilder.listener(target).into(target);
+        }
+      });
+    }));
+  }
+
+  /**
+   * For workers that can't continue without the resource, like a download service. Counted
+   * by {@link #blockedThreadCount()}.
+   */
+  @WorkerThread
+  public static <R> R blockingGet(FutureTarget<R> target) throws InterruptedException, ExecutionException {
+    BLOCKED_THREAD_COUNT.incrementAndGet();
+    try {
+      return target.get();
+    } finally {
+      BLOCKED_THREAD_COUNT.decrementAndGet();
+    }
+  }
+
+  /**
+   * Threads that are currently parked on an image load. Loads made through {@link #load(Context, Function)}
+   * don't park threads, so this stays at zero while browsing.
+   */
+  public static int blockedThreadCount() {
+    return BLOCKED_THREAD_COUNT.get();
+  }
+
+  private static class CallbackTarget<R> extends SimpleTarget<R> implements RequestListener<R> {
+    private final SingleEmitter<Pair<Target<R>, R>> emitter;
+    volatile boolean resourceDelivered;
+
+    CallbackTarget(SingleEmitter<Pair<Target<R>, R>> emitter) {
+      this.emitter = emitter;
+    }
+
+    @Override
+    public void onResourceReady(R resource, @Nullable Transition<? super R> transition) {
+      resourceDelivered = true;
+      emitter.onSuccess(Pair.create(this, resource));
+    }
+
+    @Override
+    public boolean onResourceReady(R resource, Object model, Target<R> target, DataSource dataSource, boolean isFirstResource) {
+      return false;
+    }
+
+    @Override
+    public boolean onLoadFailed(@Nullable GlideException e, Object model, Target<R> target, boolean isFirstResource) {
+      emitter.tryOnError(e != null ? e : new IOException("Couldn't load " + model));
+      return false;
+    }
+
+    @Override
+    public void onLoadFailed(@Nullable Drawable errorDrawable) {
+      // Reported by the RequestListener, which also gets the cause.
+    }
+
+    @Override
+    public void onLoadCleared(@Nullable Drawable placeholder) {
+      // The request was cleared by someone else, like Glide when its lifecycle owner got destroyed.
+      emitter.tryOnError(new IOException("Image load was cleared"));
+    }
+  }
+}
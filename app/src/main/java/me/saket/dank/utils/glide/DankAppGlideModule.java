@@ -9,6 +9,8 @@ import com.bumptech.glide.annotation.GlideModule;
 import com.bumptech.glide.integration.okhttp3.OkHttpLibraryGlideModule;
 import com.bumptech.glide.module.AppGlideModule;
 
+import me.saket.dank.di.Dank;
+
 /**
  * Glide requires atleast one app module if library modules are used.
  */
@@ -24,5 +26,6 @@ public class DankAppGlideModule extends AppGlideModule {
   @Override
   public void applyOptions(Context context, GlideBuilder builder) {
     builder.setLogLevel(Log.ERROR);
+    builder.setDiskCache(() -> Dank.dependencyInjector().glideDiskCache());
   }
 }
@@ -0,0 +1,171 @@
+package me.saket.dank.utils.glide;
+
+import android.app.Application;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.bumptech.glide.disklrucache.DiskLruCache;
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.cache.DiskCache;
+import com.bumptech.glide.load.engine.cache.SafeKeyGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import timber.log.Timber;
+
+/**
+ * Glide's disk cache, stored in the same directory and format as Glide's default one. Unlike the default,
+ * entries can also be removed by their file names, which is how {@link me.saket.dank.cache.CacheBudgetManager}
+ * knows them. Reads update the modification time of an entry's file, so that it can tell when it was last used.
+ */
+@Singleton
+public class GlideDiskCache implements DiskCache {
+
+  private static final int APP_VERSION = 1;
+  private static final int VALUES_PER_ENTRY = 1;
+
+  private final File directory;
+  private final long maxSizeBytes;
+  private final SafeKeyGenerator safeKeyGenerator = new SafeKeyGenerator();
+  private final Map<String, WriteLock> writeLocks = new HashMap<>();
+  private DiskLruCache diskLruCache;
+
+  @Inject
+  public GlideDiskCache(Application appContext) {
+    this(new File(appContext.getCacheDir(), DiskCache.Factory.DEFAULT_DISK_CACHE_DIR), DiskCache.Factory.DEFAULT_DISK_CACHE_SIZE);
+  }
+
+  @VisibleForTesting
+  GlideDiskCache(File directory, long maxSizeBytes) {
+    this.directory = directory;
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  public File directory() {
+    return directory;
+  }
+
+  private synchronized DiskLruCache diskLruCache() throws IOException {
+    if (diskLruCache == null) {
+      diskLruCache = DiskLruCache.open(directory, APP_VERSION, VALUES_PER_ENTRY, maxSizeBytes);
+    }
+    return diskLruCache;
+  }
+
+  @Nullable
+  @Override
+  public File get(Key key) {
+    String safeKey = safeKeyGenerator.getSafeKey(key);
+    try {
+      DiskLruCache.Value value = diskLruCache().get(safeKey);
+      if (value == null) {
+        return null;
+      }
+      File file = value.getFile(0);
+      //noinspection ResultOfMethodCallIgnored
+      file.setLastModified(System.currentTimeMillis());
+      return file;
+
+    } catch (IOException e) {
+      Timber.w(e, "Couldn't read from disk cache");
+      return null;
+    }
+  }
+
+  @Override
+  public void put(Key key, Writer writer) {
+    String safeKey = safeKeyGenerator.getSafeKey(key);
+    WriteLock writeLock = acquireWriteLock(safeKey);
+    try {
+      DiskLruCache cache = diskLruCache();
+      if (cache.get(safeKey) != null) {
+        // Another load of the same key got here first.
+        return;
+      }
+
+      DiskLruCache.Editor editor = cache.edit(safeKey);
+      if (editor == null) {
+        throw new IllegalStateException("Had two simultaneous puts for: " + safeKey);
+      }
+      try {
+        if (writer.write(editor.getFile(0))) {
+          editor.commit();
+        }
+      } finally {
+        editor.abortUnlessCommitted();
+      }
+
+    } catch (IOException e) {
+      Timber.w(e, "Couldn't write to disk cache");
+    } finally {
+      releaseWriteLock(safeKey, writeLock);
+    }
+  }
+
+  @Override
+  public void delete(Key key) {
+    try {
+      remove(safeKeyGenerator.getSafeKey(key));
+    } catch (IOException e) {
+      Timber.w(e, "Couldn't delete from disk cache");
+    }
+  }
+
+  /**
+   * @param safeKey Name of the entry's file, without its extension.
+   */
+  public void remove(String safeKey) throws IOException {
+    WriteLock writeLock = acquireWriteLock(safeKey);
+    try {
+      diskLruCache().remove(safeKey);
+    } finally {
+      releaseWriteLock(safeKey, writeLock);
+    }
+  }
+
+  @Override
+  public synchronized void clear() {
+    try {
+      diskLruCache().delete();
+    } catch (IOException e) {
+      Timber.w(e, "Couldn't clear disk cache");
+    } finally {
+      diskLruCache = null;
+    }
+  }
+
+  private WriteLock acquireWriteLock(String safeKey) {
+    WriteLock writeLock;
+    synchronized (writeLocks) {
+      writeLock = writeLocks.get(safeKey);
+      if (writeLock == null) {
+        writeLock = new WriteLock();
+        writeLocks.put(safeKey, writeLock);
+      }
+      writeLock.holderCount++;
+    }
+    writeLock.lock.lock();
+    return writeLock;
+  }
+
+  private void releaseWriteLock(String safeKey, WriteLock writeLock) {
+    synchronized (writeLocks) {
+      writeLock.holderCount--;
+      if (writeLock.holderCount == 0) {
+        writeLocks.remove(safeKey);
+      }
+    }
+    writeLock.lock.unlock();
+  }
+
+  private static class WriteLock {
+    final ReentrantLock lock = new ReentrantLock();
+    int holderCount;
+  }
+}
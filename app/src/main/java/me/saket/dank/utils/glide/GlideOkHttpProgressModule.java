@@ -10,9 +10,9 @@ import com.bumptech.glide.load.model.GlideUrl;
 import com.bumptech.glide.module.LibraryGlideModule;
 
 import java.io.InputStream;
-import java.util.concurrent.TimeUnit;
 
-import me.saket.dank.di.RootModule;
+import me.saket.dank.di.Dank;
+import me.saket.dank.utils.okhttp.OkHttpCore;
 import me.saket.dank.utils.okhttp.OkHttpResponseBodyWithProgress;
 import me.saket.dank.utils.okhttp.OkHttpResponseReadProgressListener;
 import okhttp3.Interceptor;
@@ -25,9 +25,9 @@ public class GlideOkHttpProgressModule extends LibraryGlideModule {
 
   @Override
   public void registerComponents(Context context, Glide glide, Registry registry) {
-    OkHttpClient.Builder builder = new OkHttpClient.Builder()
-        .connectTimeout(RootModule.NETWORK_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
-        .readTimeout(RootModule.NETWORK_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+    // Glide modules can't be injected, so the shared core has to be fetched from the graph.
+    OkHttpCore okHttpCore = Dank.dependencyInjector().okHttpCore();
+    OkHttpClient.Builder builder = okHttpCore.newClientBuilder("glide")
         .addNetworkInterceptor(createInterceptor(new OkHttpProgressListenersRepository()));
 
     //if (BuildConfig.DEBUG) {
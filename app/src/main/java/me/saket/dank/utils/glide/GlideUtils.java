@@ -4,11 +4,14 @@ import android.support.annotation.Nullable;
 
 import com.bumptech.glide.load.DataSource;
 import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.load.model.LazyHeaders;
 import com.bumptech.glide.request.RequestListener;
 import com.bumptech.glide.request.target.Target;
 
 import io.reactivex.exceptions.Exceptions;
 import io.reactivex.functions.Consumer;
+import me.saket.dank.utils.okhttp.RequestPriority;
 import timber.log.Timber;
 
 /**
@@ -16,6 +19,21 @@ import timber.log.Timber;
  */
 public class GlideUtils {
 
+  /**
+   * Model for loading <var>url</var> whose network request is made with <var>priority</var>. Glide runs its
+   * requests on its own threads, so the priority is carried in a header. Loads of the returned model share
+   * disk cache entries with loads of <var>url</var> because {@link GlideUrl} only uses its url for disk cache
+   * keys, but not memory cache entries.
+   */
+  public static Object modelWithPriority(String url, RequestPriority priority) {
+    if (priority == RequestPriority.UI) {
+      return url;
+    }
+    return new GlideUrl(url, new LazyHeaders.Builder()
+        .addHeader(RequestPriority.HEADER_NAME, priority.name())
+        .build());
+  }
+
   public static class LambdaRequestListener<R> implements RequestListener<R> {
     private final Consumer<R> resourceConsumer;
     private final Consumer<Exception> errorConsumer;
@@ -0,0 +1,128 @@
+package me.saket.dank.utils.glide;
+
+import com.bumptech.glide.Priority;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleObserver;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Limits running image loads without parking threads: loads that can't run yet wait in a queue,
+ * ordered by {@link Priority}, and get subscribed to once a running load finishes. Disposing a queued
+ * load removes it from the queue and disposing a running load frees its slot.
+ */
+class ImageLoadQueue {
+
+  private final int maxRunningLoads;
+  private final PriorityQueue<QueuedLoad<?>> waitingLoads = new PriorityQueue<>(16, (first, second) -> {
+    int priorityComparison = first.priority.compareTo(second.priority);
+    return priorityComparison != 0 ? priorityComparison : Long.compare(first.sequence, second.sequence);
+  });
+  private int runningCount;
+  private long enqueuedCount;
+
+  ImageLoadQueue(int maxRunningLoads) {
+    this.maxRunningLoads = maxRunningLoads;
+  }
+
+  /**
+   * @param load Subscribed to once a slot is free. Expected to not block the subscribing thread.
+   */
+  <T> Single<T> enqueue(Priority priority, Single<T> load) {
+    return Single.create(emitter -> {
+      QueuedLoad<T> queuedLoad;
+      synchronized (this) {
+        queuedLoad = new QueuedLoad<>(priority, enqueuedCount++, load, emitter);
+        if (runningCount < maxRunningLoads) {
+          runningCount++;
+        } else {
+          waitingLoads.add(queuedLoad);
+          queuedLoad = null;
+        }
+      }
+      if (queuedLoad != null) {
+        queuedLoad.start();
+      }
+    });
+  }
+
+  synchronized int runningCount() {
+    return runningCount;
+  }
+
+  synchronized int waitingCount() {
+    return waitingLoads.size();
+  }
+
+  private void onLoadFinished() {
+    QueuedLoad<?> nextLoad;
+    synchronized (this) {
+      nextLoad = waitingLoads.poll();
+      if (nextLoad == null) {
+        runningCount--;
+      }
+    }
+    if (nextLoad != null) {
+      nextLoad.start();
+    }
+  }
+
+  private class QueuedLoad<T> implements SingleObserver<T> {
+    final Priority priority;
+    final long sequence;
+    private final Single<T> load;
+    private final SingleEmitter<T> emitter;
+    private final CompositeDisposable subscription = new CompositeDisposable();
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    QueuedLoad(Priority priority, long sequence, Single<T> load, SingleEmitter<T> emitter) {
+      this.priority = priority;
+      this.sequence = sequence;
+      this.load = load;
+      this.emitter = emitter;
+      emitter.setCancellable(this::cancel);
+    }
+
+    void start() {
+      load.subscribe(this);
+    }
+
+    private void cancel() {
+      synchronized (ImageLoadQueue.this) {
+        if (waitingLoads.remove(this)) {
+          return;
+        }
+      }
+      subscription.dispose();
+      finish();
+    }
+
+    private void finish() {
+      if (finished.compareAndSet(false, true)) {
+        onLoadFinished();
+      }
+    }
+
+    @Override
+    public void onSubscribe(Disposable d) {
+      subscription.add(d);
+    }
+
+    @Override
+    public void onSuccess(T result) {
+      finish();
+      emitter.onSuccess(result);
+    }
+
+    @Override
+    public void onError(Throwable e) {
+      finish();
+      emitter.onError(e);
+    }
+  }
+}
@@ -0,0 +1,519 @@
+package me.saket.dank.utils.markdown.markwon;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import timber.log.Timber;
+
+/**
+ * Fixes reddit's flavor of markdown before it's handed to commonmark: html entities, tables with
+ * too few dashes, headings without a space, links with spaces, spoilers with invalid urls and
+ * superscripts.
+ * <p>
+ * All fixes are applied in a single pass over the text, writing into a re-used StringBuilder. The
+ * output is the same as applying each fix one after another, except where the older passes produced
+ * broken markdown:
+ * <ul>
+ * <li>Texts with multiple links no longer get garbled by stale match indices.</li>
+ * <li>Headings are fixed where they're found. The older fix replaced every copy of a heading's text,
+ * which added extra spaces to repeated headings and after '#'s in the middle of a line, and missed
+ * headings that came after a replaced copy.</li>
+ * <li>Link urls are no longer touched by the heading and table fixes ("#anchor" used to become "#%20anchor").</li>
+ * <li>Only matched spoilers are fixed. The older fix replaced every copy of a spoiler's text.</li>
+ * <li>A link inside a link's url is treated as part of the url, so its spaces get escaped instead of removed.</li>
+ * </ul>
+ * RedditMarkdownPreprocessorShould has an example of each.
+ */
+class RedditMarkdownPreprocessor {
+
+  static final int UNESCAPE_HTML_ENTITIES = 1;
+  static final int FIX_TABLES = 1 << 1;
+  static final int FIX_HEADINGS = 1 << 2;
+  static final int REMOVE_SPACE_BETWEEN_LINK_LABEL_AND_URL = 1 << 3;
+  static final int ESCAPE_SPACES_IN_LINK_URLS = 1 << 4;
+  static final int FIX_SPOILERS = 1 << 5;
+  static final int CONVERT_SUPERSCRIPTS = 1 << 6;
+  static final int ALL_FIXES = (1 << 7) - 1;
+
+  private static final Pattern POTENTIALLY_INVALID_SPOILER_MARKDOWN_PATTERN = Pattern.compile("\\[([^\\]]*)\\]\\((.*?)\"+(.*?(?<!\\\\))\"+\\)");
+  // Spoilers used to be searched after spaces between link labels and urls were removed.
+  private static final Pattern POTENTIALLY_INVALID_SPOILER_AFTER_LINK_WITH_SPACE_PATTERN = Pattern.compile("\\[([^\\]]*)\\]\\s*\\((.*?)\"+(.*?(?<!\\\\))\"+\\)");
+  private static final int MAX_HEADING_LEVEL = 6;
+  private static final int MAX_RETAINED_BUFFER_CAPACITY = 32 * 1024;
+  private static final int NONE = -1;
+
+  private final ThreadLocal<Lexer> lexers = new ThreadLocal<Lexer>() {
+    @Override
+    protected Lexer initialValue() {
+      return new Lexer();
+    }
+  };
+
+  /**
+   * @param fixes Flags of fixes to apply. For instance, {@link #ALL_FIXES}.
+   */
+  public String process(String markdown, int fixes) {
+    try {
+      return lexers.get().process(markdown, fixes);
+    } catch (Throwable e) {
+      Timber.e(e, "Couldn't pre-process markdown: %s", markdown);
+      return markdown;
+    }
+  }
+
+  /**
+   * Carries the state of one pass. Re-used across passes on the same thread to avoid re-allocating buffers.
+   */
+  private static class Lexer {
+    private static final int NO_CONSTRUCT = 0;
+    private static final int LINK = 1;
+    private static final int SPOILER = 2;
+
+    private final Matcher spoilerMatcher = POTENTIALLY_INVALID_SPOILER_MARKDOWN_PATTERN.matcher("");
+    private final Matcher spoilerAfterLinkWithSpaceMatcher = POTENTIALLY_INVALID_SPOILER_AFTER_LINK_WITH_SPACE_PATTERN.matcher("");
+    private StringBuilder unescaped = new StringBuilder();
+    private StringBuilder output = new StringBuilder();
+
+    private int fixes;
+    private CharSequence input;
+    private int length;
+
+    // Superscripts.
+    private int openSuperscripts;
+    private boolean pendingBackslash;
+
+    // Heading whose content runs until the end of its line.
+    private int headingContentEnd;
+    private int headingTrimmedContentEnd;
+
+    // Link or spoiler whose delimiters are being re-written. Their labels go through
+    // the rest of the fixes, but their urls are copied as-is.
+    private int construct;
+    private int labelEnd;
+    private int urlStart;
+    private int urlEnd;
+    private int spoilerContentStart;
+    private int spoilerContentEnd;
+    private int constructEnd;
+
+    private int nextClosingBracket;
+    private int rejectedLabelEnd;
+    private int spoilerSearchStart;
+
+    String process(String markdown, int fixes) {
+      this.fixes = fixes;
+      this.input = isEnabled(UNESCAPE_HTML_ENTITIES) ? unescapeHtmlEntities(markdown) : markdown;
+      this.length = input.length();
+      output.setLength(0);
+      output.ensureCapacity(length + length / 8);
+
+      openSuperscripts = 0;
+      pendingBackslash = false;
+      headingContentEnd = NONE;
+      headingTrimmedContentEnd = NONE;
+      construct = NO_CONSTRUCT;
+      nextClosingBracket = NONE;
+      rejectedLabelEnd = NONE;
+      spoilerSearchStart = 0;
+
+      int i = 0;
+      while (i < length) {
+        if (i >= headingTrimmedContentEnd && i < headingContentEnd) {
+          // Trailing whitespace of a heading.
+          i = headingContentEnd;
+          continue;
+        }
+
+        if (construct != NO_CONSTRUCT) {
+          if (i == labelEnd && construct == LINK) {
+            write("](");
+            trackHeadingsInUrl(urlStart, urlEnd);
+            writeUrl(urlStart, urlEnd);
+            write(')');
+            construct = NO_CONSTRUCT;
+            i = constructEnd;
+            continue;
+          }
+          if (i == labelEnd && construct == SPOILER) {
+            write("](/s \"");
+            trackHeadingsInUrl(labelEnd + 2, spoilerContentStart);
+            i = spoilerContentStart;
+            continue;
+          }
+          if (i == spoilerContentEnd && construct == SPOILER) {
+            write("\")");
+            construct = NO_CONSTRUCT;
+            i = constructEnd;
+            continue;
+          }
+        }
+
+        char c = input.charAt(i);
+
+        if (c == '[' && construct == NO_CONSTRUCT && startConstruct(i)) {
+          write(c);
+          i++;
+
+        } else if (c == '#' && isEnabled(FIX_HEADINGS) && i >= headingContentEnd) {
+          i = startHeading(i);
+
+        } else if (isTableSyntax(c) && isEnabled(FIX_TABLES)) {
+          i = writeTableSyntax(i);
+
+        } else {
+          write(c);
+          i++;
+        }
+      }
+
+      if (pendingBackslash) {
+        output.append('\\');
+      }
+      closeSuperscripts();
+
+      String processed = output.toString();
+      input = null;
+      if (output.capacity() > MAX_RETAINED_BUFFER_CAPACITY) {
+        output = new StringBuilder();
+      }
+      if (unescaped.capacity() > MAX_RETAINED_BUFFER_CAPACITY) {
+        unescaped = new StringBuilder();
+      }
+      return processed;
+    }
+
+    private boolean isEnabled(int fix) {
+      return (fixes & fix) != 0;
+    }
+
+    /**
+     * Reddit sends '&lt;', '&gt;', etc. Only the entities reddit commonly uses are decoded here.
+     * Anything else falls back to jsoup.
+     */
+    private CharSequence unescapeHtmlEntities(String markdown) {
+      int ampersand = markdown.indexOf('&');
+      if (ampersand == NONE) {
+        return markdown;
+      }
+
+      unescaped.setLength(0);
+      int copiedUntil = 0;
+      while (ampersand != NONE) {
+        char decoded;
+        int entityLength;
+        if (markdown.startsWith("&amp;", ampersand)) {
+          decoded = '&';
+          entityLength = 5;
+        } else if (markdown.startsWith("&lt;", ampersand)) {
+          decoded = '<';
+          entityLength = 4;
+        } else if (markdown.startsWith("&gt;", ampersand)) {
+          decoded = '>';
+          entityLength = 4;
+        } else if (markdown.startsWith("&quot;", ampersand)) {
+          decoded = '"';
+          entityLength = 6;
+        } else {
+          return org.jsoup.parser.Parser.unescapeEntities(markdown, true);
+        }
+
+        unescaped.append(markdown, copiedUntil, ampersand).append(decoded);
+        copiedUntil = ampersand + entityLength;
+        ampersand = markdown.indexOf('&', copiedUntil);
+      }
+      return unescaped.append(markdown, copiedUntil, markdown.length());
+    }
+
+    /**
+     * Headings without a space after their '#'s. Same as matching "(#{1,6})((?:(?!\\n).)*)" and
+     * trimming the content: the content runs until the end of the line or a literal "\n".
+     *
+     * @return Index to continue from.
+     */
+    private int startHeading(int start) {
+      int hashesEnd = trackHeading(start);
+      for (int i = start; i < hashesEnd; i++) {
+        write('#');
+      }
+      write(' ');
+
+      int contentStart = hashesEnd;
+      while (contentStart < headingTrimmedContentEnd && input.charAt(contentStart) <= ' ') {
+        contentStart++;
+      }
+      return contentStart;
+    }
+
+    /**
+     * A '#' inside a url still starts a heading that swallows the rest of its line, but the url
+     * itself is left untouched.
+     */
+    private void trackHeadingsInUrl(int start, int end) {
+      if (!isEnabled(FIX_HEADINGS)) {
+        return;
+      }
+      for (int i = Math.max(start, headingContentEnd); i < end; i++) {
+        if (input.charAt(i) == '#') {
+          trackHeading(i);
+          i = headingContentEnd;
+        }
+      }
+    }
+
+    /**
+     * @return End of the heading's '#'s.
+     */
+    private int trackHeading(int start) {
+      int hashesEnd = start;
+      while (hashesEnd < length && hashesEnd - start < MAX_HEADING_LEVEL && input.charAt(hashesEnd) == '#') {
+        hashesEnd++;
+      }
+
+      int contentEnd = hashesEnd;
+      while (contentEnd < length && !isHeadingEnd(contentEnd)) {
+        contentEnd++;
+      }
+      int trimmedContentEnd = contentEnd;
+      while (trimmedContentEnd > hashesEnd && input.charAt(trimmedContentEnd - 1) <= ' ') {
+        trimmedContentEnd--;
+      }
+
+      headingContentEnd = contentEnd;
+      headingTrimmedContentEnd = trimmedContentEnd;
+      return hashesEnd;
+    }
+
+    private boolean isHeadingEnd(int index) {
+      char c = input.charAt(index);
+      return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029'
+          || (c == '\\' && index + 1 < length && input.charAt(index + 1) == 'n');
+    }
+
+    /**
+     * Detects "[label](url)", "[label] (url)" and spoilers like "[label](#s "content")" starting at <var>start</var>.
+     */
+    private boolean startConstruct(int start) {
+      if (!isEnabled(REMOVE_SPACE_BETWEEN_LINK_LABEL_AND_URL | ESCAPE_SPACES_IN_LINK_URLS | FIX_SPOILERS)) {
+        return false;
+      }
+
+      if (nextClosingBracket < start) {
+        nextClosingBracket = indexOf(']', start);
+      }
+      int closingBracket = nextClosingBracket;
+      if (closingBracket == length || closingBracket == rejectedLabelEnd) {
+        // Labels can contain '[', so nested brackets share the same label end and the same fate.
+        return false;
+      }
+      boolean insideSkippedSpoilerText = start < spoilerSearchStart;
+
+      if (isEnabled(REMOVE_SPACE_BETWEEN_LINK_LABEL_AND_URL | ESCAPE_SPACES_IN_LINK_URLS)) {
+        int openingParenthesis = closingBracket + 1;
+        while (openingParenthesis < length && isWhitespace(input.charAt(openingParenthesis))) {
+          openingParenthesis++;
+        }
+        boolean hasSpaces = openingParenthesis > closingBracket + 1;
+        boolean spacesAllowed = hasSpaces
+            ? isEnabled(REMOVE_SPACE_BETWEEN_LINK_LABEL_AND_URL)
+            : isEnabled(ESCAPE_SPACES_IN_LINK_URLS);
+
+        if (spacesAllowed && openingParenthesis < length && input.charAt(openingParenthesis) == '(') {
+          int closingParenthesis = openingParenthesis + 1;
+          while (closingParenthesis < length && input.charAt(closingParenthesis) != ')' && input.charAt(closingParenthesis) != '"') {
+            closingParenthesis++;
+          }
+          if (closingParenthesis < length && input.charAt(closingParenthesis) == ')') {
+            // The spoiler fix used to run over links too, and skipped any text its regex matched.
+            if (hasSpaces) {
+              matchSpoilerAfterLinkWithSpace(start, openingParenthesis);
+            } else {
+              matchSpoiler(start, closingBracket);
+            }
+            construct = LINK;
+            labelEnd = closingBracket;
+            urlStart = openingParenthesis + 1;
+            urlEnd = closingParenthesis;
+            constructEnd = closingParenthesis + 1;
+            return true;
+          }
+        }
+      }
+
+      if (matchSpoiler(start, closingBracket)) {
+        // This will only match "/s", "#s", "# s ", "/ s ", /s ", and similar variations.
+        if (RedditSpoilerLinkVisitor.isValidSpoilerUrl(spoilerMatcher.group(2).trim())) {
+          construct = SPOILER;
+          labelEnd = closingBracket;
+          spoilerContentStart = spoilerMatcher.start(3);
+          spoilerContentEnd = spoilerMatcher.end(3);
+          constructEnd = spoilerMatcher.end();
+          return true;
+        }
+      }
+
+      if (!insideSkippedSpoilerText) {
+        rejectedLabelEnd = closingBracket;
+      }
+      return false;
+    }
+
+    /**
+     * Texts matched by the spoiler regex are skipped by subsequent searches, whether or not
+     * they turn out to be valid spoilers.
+     */
+    private boolean matchSpoiler(int start, int closingBracket) {
+      if (!isEnabled(FIX_SPOILERS) || start < spoilerSearchStart || !isPotentialSpoiler(closingBracket)) {
+        return false;
+      }
+      spoilerMatcher.reset(input);
+      spoilerMatcher.region(start, length);
+      if (spoilerMatcher.lookingAt()) {
+        spoilerSearchStart = spoilerMatcher.end();
+        return true;
+      }
+      return false;
+    }
+
+    private void matchSpoilerAfterLinkWithSpace(int start, int openingParenthesis) {
+      if (isEnabled(FIX_SPOILERS) && start >= spoilerSearchStart && isPotentialSpoiler(openingParenthesis - 1)) {
+        spoilerAfterLinkWithSpaceMatcher.reset(input);
+        spoilerAfterLinkWithSpaceMatcher.region(start, length);
+        if (spoilerAfterLinkWithSpaceMatcher.lookingAt()) {
+          spoilerSearchStart = spoilerAfterLinkWithSpaceMatcher.end();
+        }
+      }
+    }
+
+    /**
+     * Avoids running the spoiler regex unless the label is followed by '(' and a quote on the same line.
+     *
+     * @param beforeOpeningParenthesis Usually the label's closing bracket.
+     */
+    private boolean isPotentialSpoiler(int beforeOpeningParenthesis) {
+      if (beforeOpeningParenthesis + 1 >= length || input.charAt(beforeOpeningParenthesis + 1) != '(') {
+        return false;
+      }
+      for (int i = beforeOpeningParenthesis + 2; i < length; i++) {
+        char c = input.charAt(i);
+        if (c == '"') {
+          return true;
+        }
+        if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+          return false;
+        }
+      }
+      return false;
+    }
+
+    private void writeUrl(int start, int end) {
+      boolean escapeSpaces = isEnabled(ESCAPE_SPACES_IN_LINK_URLS);
+      for (int i = start; i < end; i++) {
+        char c = input.charAt(i);
+        if (escapeSpaces && isWhitespace(c)) {
+          write("%20");
+        } else {
+          write(c);
+        }
+      }
+    }
+
+    /**
+     * Markwon needs at-least three dashes for table headers. None of the replaced sequences
+     * contain anything other than '|', ':' and '-', so each run of these characters can be
+     * fixed on its own.
+     *
+     * @return Index to continue from.
+     */
+    private int writeTableSyntax(int start) {
+      int end = start;
+      boolean hasPipe = false;
+      while (end < length && isTableSyntax(input.charAt(end))) {
+        hasPipe |= input.charAt(end) == '|';
+        end++;
+      }
+
+      if (hasPipe && end - start >= 3) {
+        String fixed = input.subSequence(start, end).toString()
+            .replace(":--|", ":---|")
+            .replace("|:--:|", "|:---:|")
+            .replace("|:--", "|:---")
+            .replace("|--:", "|---:")
+            .replace("|-:", "|---:");
+        write(fixed);
+
+      } else {
+        for (int i = start; i < end; i++) {
+          write(input.charAt(i));
+        }
+      }
+      return end;
+    }
+
+    private void write(String text) {
+      for (int i = 0; i < text.length(); i++) {
+        write(text.charAt(i));
+      }
+    }
+
+    /**
+     * commonmark-java does not recognize '^', so all '^' are replaced with {@code <sup>} tags
+     * that get closed at the next whitespace or literal "\n".
+     */
+    private void write(char c) {
+      if (!isEnabled(CONVERT_SUPERSCRIPTS)) {
+        output.append(c);
+        return;
+      }
+
+      if (pendingBackslash) {
+        pendingBackslash = false;
+        if (c == 'n') {
+          closeSuperscripts();
+        }
+        output.append('\\');
+      }
+
+      if (c == '^') {
+        openSuperscripts++;
+        output.append("<sup>");
+      } else if (c == '\\') {
+        // Can only be written once it's known whether this is a literal "\n".
+        pendingBackslash = true;
+      } else {
+        if (Character.isWhitespace(c)) {
+          closeSuperscripts();
+        }
+        output.append(c);
+      }
+    }
+
+    private void closeSuperscripts() {
+      for (; openSuperscripts > 0; openSuperscripts--) {
+        output.append("</sup>");
+      }
+    }
+
+    /**
+     * @return {@link #length} if not found.
+     */
+    private int indexOf(char c, int fromIndex) {
+      for (int i = fromIndex; i < length; i++) {
+        if (input.charAt(i) == c) {
+          return i;
+        }
+      }
+      return length;
+    }
+
+    private static boolean isTableSyntax(char c) {
+      return c == '|' || c == ':' || c == '-';
+    }
+
+    /**
+     * Same as regex's "\s".
+     */
+    private static boolean isWhitespace(char c) {
+      return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package me.saket.dank.utils.oauth;
+
+import com.google.auto.value.AutoValue;
+
+@AutoValue
+public abstract class OAuthToken {
+
+  public abstract String value();
+
+  public abstract long expiryTimeMillis();
+
+  public static OAuthToken create(String value, long expiryTimeMillis) {
+    return new AutoValue_OAuthToken(value, expiryTimeMillis);
+  }
+}
@@ -0,0 +1,188 @@
+package me.saket.dank.utils.oauth;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
+import timber.log.Timber;
+
+/**
+ * Keeps an OAuth token of a provider in memory and refreshes it on a timer, ahead of its expiry. Failed
+ * timed refreshes are retried with a backoff until the token expires. Callers only wait for a refresh if
+ * the timer couldn't refresh the token in time. Concurrent callers share one refresh.
+ */
+public class OAuthTokenManager {
+
+  /**
+   * Tokens that are about to expire aren't handed out, because they can expire before their request
+   * reaches the server.
+   */
+  private static final long MIN_REMAINING_VALIDITY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  static final long FIRST_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  public interface Provider {
+    /**
+     * Called once, before the first refresh. Blocking.
+     *
+     * @return The token that was last saved by {@link #refresh()}, if any.
+     */
+    @Nullable
+    OAuthToken restore() throws Exception;
+
+    /**
+     * Fetch and save a new token. Blocking.
+     */
+    OAuthToken refresh() throws Exception;
+  }
+
+  private interface RefreshCondition {
+    boolean isRefreshNeeded(@Nullable OAuthToken currentToken);
+  }
+
+  private final String name;
+  private final Provider provider;
+  private final Scheduler scheduler;
+  private final long refreshAheadMillis;
+  private final AtomicReference<FutureTask<OAuthToken>> inFlightRefresh = new AtomicReference<>();
+  private final RefreshCondition refreshIfUnusable = currentToken -> currentToken == null || !isUsable(currentToken);
+
+  private volatile OAuthToken token;
+  private volatile boolean restoreAttempted;
+  private volatile boolean released;
+  private volatile Disposable scheduledRefresh = Disposables.disposed();
+
+  /**
+   * @param scheduler          Used as the clock and for running scheduled refreshes.
+   * @param refreshAheadMillis How long before a token's expiry it gets refreshed.
+   */
+  public OAuthTokenManager(String name, Provider provider, Scheduler scheduler, long refreshAheadMillis) {
+    this.name = name;
+    this.provider = provider;
+    this.scheduler = scheduler;
+    this.refreshAheadMillis = refreshAheadMillis;
+  }
+
+  /**
+   * Cheap while the current token is usable: a volatile read and a clock read. Otherwise, blocks
+   * until the token gets refreshed.
+   */
+  public String token() throws IOException {
+    OAuthToken currentToken = token;
+    if (currentToken != null && isUsable(currentToken)) {
+      return currentToken.value();
+    }
+    return refresh(refreshIfUnusable).value();
+  }
+
+  /**
+   * Stop scheduled refreshes, for when the token isn't going to be used anymore.
+   */
+  public void release() {
+    released = true;
+    scheduledRefresh.dispose();
+  }
+
+  private boolean isUsable(OAuthToken token) {
+    return scheduler.now(TimeUnit.MILLISECONDS) < token.expiryTimeMillis() - MIN_REMAINING_VALIDITY_MILLIS;
+  }
+
+  /**
+   * Joins an in-flight refresh if there's one, or else runs one on the calling thread. The condition
+   * is checked again once the refresh starts, so that callers who were late for the previous refresh
+   * don't start another one.
+   */
+  private OAuthToken refresh(RefreshCondition condition) throws IOException {
+    FutureTask<OAuthToken> refresh;
+    while ((refresh = inFlightRefresh.get()) == null) {
+      FutureTask<OAuthToken> newRefresh = new FutureTask<>(() -> refreshIfNeeded(condition));
+      if (inFlightRefresh.compareAndSet(null, newRefresh)) {
+        newRefresh.run();
+        inFlightRefresh.compareAndSet(newRefresh, null);
+        refresh = newRefresh;
+        break;
+      }
+    }
+
+    try {
+      return refresh.get();
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while refreshing " + name + " token");
+
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Couldn't refresh " + name + " token", e.getCause());
+    }
+  }
+
+  private OAuthToken refreshIfNeeded(RefreshCondition condition) throws Exception {
+    if (!restoreAttempted) {
+      restoreAttempted = true;
+      OAuthToken restoredToken = provider.restore();
+      if (restoredToken != null && token == null) {
+        onTokenReceived(restoredToken);
+      }
+    }
+
+    OAuthToken currentToken = token;
+    if (!condition.isRefreshNeeded(currentToken)) {
+      //noinspection ConstantConditions
+      return currentToken;
+    }
+
+    Timber.i("Refreshing %s token", name);
+    OAuthToken freshToken = provider.refresh();
+    onTokenReceived(freshToken);
+    return freshToken;
+  }
+
+  private synchronized void onTokenReceived(OAuthToken newToken) {
+    token = newToken;
+    long delayMillis = newToken.expiryTimeMillis() - refreshAheadMillis - scheduler.now(TimeUnit.MILLISECONDS);
+    scheduleRefresh(newToken, Math.max(0, delayMillis), FIRST_RETRY_DELAY_MILLIS);
+  }
+
+  /**
+   * Synchronized with {@link #onTokenReceived(OAuthToken)} so that a retry doesn't replace the refresh
+   * that got scheduled for a newer token.
+   */
+  private synchronized void scheduleRefresh(OAuthToken tokenToReplace, long delayMillis, long retryDelayMillis) {
+    scheduledRefresh.dispose();
+    if (released || token != tokenToReplace) {
+      return;
+    }
+
+    scheduledRefresh = scheduler.scheduleDirect(
+        () -> {
+          try {
+            // Skipped if a caller already replaced this token.
+            refresh(currentToken -> currentToken == tokenToReplace);
+
+          } catch (IOException e) {
+            long retryTimeMillis = scheduler.now(TimeUnit.MILLISECONDS) + retryDelayMillis;
+            if (retryTimeMillis < tokenToReplace.expiryTimeMillis() - MIN_REMAINING_VALIDITY_MILLIS) {
+              Timber.w(e, "Scheduled refresh of %s token failed. Retrying in %sms", name, retryDelayMillis);
+              scheduleRefresh(tokenToReplace, retryDelayMillis, Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS));
+            } else {
+              // The next caller will refresh it.
+              Timber.w(e, "Scheduled refresh of %s token failed. Not retrying because it expires before the retry", name);
+            }
+          }
+        },
+        delayMillis,
+        TimeUnit.MILLISECONDS);
+  }
+}
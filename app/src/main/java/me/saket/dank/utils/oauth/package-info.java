@@ -0,0 +1,4 @@
+@ParametersAreNonnullByDefault
+package me.saket.dank.utils.oauth;
+
+import javax.annotation.ParametersAreNonnullByDefault;
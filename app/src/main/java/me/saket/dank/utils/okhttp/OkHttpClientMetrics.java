@@ -0,0 +1,61 @@
+package me.saket.dank.utils.okhttp;
+
+import com.google.auto.value.AutoValue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a client derived from {@link OkHttpCore}.
+ */
+public class OkHttpClientMetrics {
+
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong queueTimeNanos = new AtomicLong();
+  private final AtomicLong maxQueueTimeNanos = new AtomicLong();
+  private final AtomicLong networkRequestCount = new AtomicLong();
+  private final AtomicLong reusedConnectionCount = new AtomicLong();
+
+  void onRequestDequeued(long queueTimeNanos) {
+    requestCount.incrementAndGet();
+    this.queueTimeNanos.addAndGet(queueTimeNanos);
+
+    long maxQueueTime;
+    do {
+      maxQueueTime = maxQueueTimeNanos.get();
+    } while (queueTimeNanos > maxQueueTime && !maxQueueTimeNanos.compareAndSet(maxQueueTime, queueTimeNanos));
+  }
+
+  void onNetworkRequest(boolean connectionReused) {
+    networkRequestCount.incrementAndGet();
+    if (connectionReused) {
+      reusedConnectionCount.incrementAndGet();
+    }
+  }
+
+  public Snapshot snapshot() {
+    long requests = requestCount.get();
+    long networkRequests = networkRequestCount.get();
+    return Snapshot.create(
+        requests,
+        networkRequests > 0 ? (float) reusedConnectionCount.get() / networkRequests : 0f,
+        requests > 0 ? queueTimeNanos.get() / requests / 1_000_000 : 0,
+        maxQueueTimeNanos.get() / 1_000_000);
+  }
+
+  @AutoValue
+  public abstract static class Snapshot {
+    public abstract long requestCount();
+
+    /** Fraction of requests sent on a connection opened earlier by any client, including redirects and retries. */
+    public abstract float connectionReuseRate();
+
+    /** Time spent waiting for a free slot on the request's host. Cache hits are included. */
+    public abstract long averageQueueTimeMillis();
+
+    public abstract long maxQueueTimeMillis();
+
+    public static Snapshot create(long requestCount, float connectionReuseRate, long averageQueueTimeMillis, long maxQueueTimeMillis) {
+      return new AutoValue_OkHttpClientMetrics_Snapshot(requestCount, connectionReuseRate, averageQueueTimeMillis, maxQueueTimeMillis);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package me.saket.dank.utils.okhttp;
+
+import android.app.Application;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import me.saket.dank.di.RootModule;
+import okhttp3.Cache;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.ByteString;
+
+/**
+ * Connection pool, dispatcher and request limits shared by all of the app's OkHttp clients, so that
+ * sockets and TLS sessions to the same hosts get reused across Retrofit, Glide and JRAW.
+ * <p>
+ * Requests are limited to {@link #MAX_REQUESTS} in total and {@link #MAX_REQUESTS_PER_HOST} per host, with
+ * {@link RequestPriority#UI} requests going ahead of {@link RequestPriority#PRE_FILL} ones. A request stops
+ * counting towards these limits once its response headers are received.
+ */
+@Singleton
+public class OkHttpCore {
+
+  static final int MAX_REQUESTS = 24;
+  static final int MAX_REQUESTS_PER_HOST = 6;
+  private static final long DISK_CACHE_SIZE_BYTES = 10 * 1024 * 1024;
+
+  private final OkHttpClient sharedClient;
+  private final OkHttpRequestGate requestGate;
+  private final Cache diskCache;
+  private final ConcurrentMap<String, OkHttpClientMetrics> metricsByClient = new ConcurrentHashMap<>();
+  private final Set<Connection> seenConnections = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+  @Inject
+  public OkHttpCore(Application appContext) {
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(MAX_REQUESTS);
+    dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+    this.sharedClient = new OkHttpClient.Builder()
+        .dispatcher(dispatcher)
+        .connectionPool(new ConnectionPool())
+        .connectTimeout(RootModule.NETWORK_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        .readTimeout(RootModule.NETWORK_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        .build();
+    this.requestGate = new OkHttpRequestGate(MAX_REQUESTS, MAX_REQUESTS_PER_HOST);
+    this.diskCache = new Cache(new File(appContext.getCacheDir(), "okhttp_responses"), DISK_CACHE_SIZE_BYTES);
+  }
+
+  /**
+   * Interceptors added to the returned builder run after the request has been let through by this core.
+   *
+   * @param clientName Name under which this client's {@link #metrics()} are reported.
+   */
+  public OkHttpClient.Builder newClientBuilder(String clientName) {
+    OkHttpClientMetrics newMetrics = new OkHttpClientMetrics();
+    OkHttpClientMetrics existingMetrics = metricsByClient.putIfAbsent(clientName, newMetrics);
+    OkHttpClientMetrics metrics = existingMetrics != null ? existingMetrics : newMetrics;
+
+    return sharedClient.newBuilder()
+        .addInterceptor(chain -> {
+          Request request = chain.request();
+          String host = request.url().host();
+          RequestPriority priority = RequestPriority.of(request);
+          if (request.header(RequestPriority.HEADER_NAME) != null) {
+            // Carried as a tag from here on, so that it doesn't reach the server.
+            request = request.newBuilder()
+                .removeHeader(RequestPriority.HEADER_NAME)
+                .tag(priority)
+                .build();
+          }
+
+          long queueStartTimeNanos = System.nanoTime();
+          boolean acquired = requestGate.acquire(host, priority);
+          metrics.onRequestDequeued(System.nanoTime() - queueStartTimeNanos);
+
+          try {
+            Response response = chain.proceed(request);
+            if (response.cacheResponse() != null) {
+              recordDiskCacheRead(request);
+            }
+            return response;
+          } finally {
+            if (acquired) {
+              requestGate.release(host);
+            }
+          }
+        })
+        .addNetworkInterceptor(chain -> {
+          boolean isNewConnection = seenConnections.add(chain.connection());
+          metrics.onNetworkRequest(!isNewConnection);
+
+          Response response = chain.proceed(chain.request());
+          ResponseByteCounter byteCounter = ResponseByteCounter.forCurrentThread();
+          return byteCounter != null ? byteCounter.count(response) : response;
+        });
+  }
+
+  /**
+   * HTTP response cache for clients whose servers send useful cache headers. Glide and
+   * reddit's API are better off without it: Glide caches images itself and reddit
+   * marks its responses as uncacheable.
+   */
+  public Cache diskCache() {
+    return diskCache;
+  }
+
+  /**
+   * OkHttp doesn't touch the files of entries that it reads, which CacheBudgetManager
+   * uses for finding entries that haven't been used in a while.
+   */
+  private void recordDiskCacheRead(Request request) {
+    String key = ByteString.encodeUtf8(request.url().toString()).md5().hex();
+    //noinspection ResultOfMethodCallIgnored
+    new File(diskCache.directory(), key + ".0").setLastModified(System.currentTimeMillis());
+  }
+
+  public Map<String, OkHttpClientMetrics.Snapshot> metrics() {
+    Map<String, OkHttpClientMetrics.Snapshot> snapshots = new LinkedHashMap<>(metricsByClient.size());
+    for (Map.Entry<String, OkHttpClientMetrics> entry : metricsByClient.entrySet()) {
+      snapshots.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return snapshots;
+  }
+}
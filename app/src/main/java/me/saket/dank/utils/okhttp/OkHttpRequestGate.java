@@ -0,0 +1,100 @@
+package me.saket.dank.utils.okhttp;
+
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limits in-flight requests of all clients derived from {@link OkHttpCore}, in total and per host.
+ * Unlike {@link okhttp3.Dispatcher}'s limits, these also apply to synchronous calls, which is how
+ * JRAW and Retrofit's Rx adapter execute requests.
+ * <p>
+ * Requests other than {@link RequestPriority#UI} ones leave {@link #PERMITS_RESERVED_FOR_UI} permits
+ * free and wait for as long as any UI request is waiting.
+ */
+class OkHttpRequestGate {
+
+  static final int PERMITS_RESERVED_FOR_UI = 2;
+
+  private final int maxRequests;
+  private final int maxRequestsPerHost;
+  private final Map<String, Integer> runningCountsByHost = new HashMap<>();
+  private int runningCount;
+  private int waitingUiCount;
+
+  /**
+   * Requests made while executing another request, like JRAW refreshing its access
+   * token from a network interceptor, are let through to avoid deadlocking on a full gate.
+   */
+  private final ThreadLocal<Boolean> holdsPermit = new ThreadLocal<>();
+
+  OkHttpRequestGate(int maxRequests, int maxRequestsPerHost) {
+    this.maxRequests = maxRequests;
+    this.maxRequestsPerHost = maxRequestsPerHost;
+  }
+
+  /**
+   * Blocks until a request to <var>host</var> can be made.
+   *
+   * @return False if the calling thread already holds a permit, in which case {@link #release(String)} must not be called.
+   */
+  boolean acquire(String host, RequestPriority priority) throws InterruptedIOException {
+    if (holdsPermit.get() == Boolean.TRUE) {
+      return false;
+    }
+
+    synchronized (this) {
+      if (priority == RequestPriority.UI) {
+        waitingUiCount++;
+      }
+      try {
+        while (!canRun(host, priority)) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted while waiting to make a request to " + host);
+      } finally {
+        if (priority == RequestPriority.UI && --waitingUiCount == 0) {
+          // Pre-fill requests that were waiting on this one can go now.
+          notifyAll();
+        }
+      }
+
+      runningCount++;
+      runningCountsByHost.put(host, runningCount(host) + 1);
+    }
+    holdsPermit.set(Boolean.TRUE);
+    return true;
+  }
+
+  void release(String host) {
+    holdsPermit.remove();
+
+    synchronized (this) {
+      runningCount--;
+      int hostRunningCount = runningCount(host) - 1;
+      if (hostRunningCount > 0) {
+        runningCountsByHost.put(host, hostRunningCount);
+      } else {
+        runningCountsByHost.remove(host);
+      }
+      notifyAll();
+    }
+  }
+
+  private boolean canRun(String host, RequestPriority priority) {
+    if (priority == RequestPriority.UI) {
+      return runningCount < maxRequests && runningCount(host) < maxRequestsPerHost;
+
+    } else {
+      return waitingUiCount == 0
+          && runningCount < maxRequests - PERMITS_RESERVED_FOR_UI
+          && runningCount(host) < maxRequestsPerHost - PERMITS_RESERVED_FOR_UI;
+    }
+  }
+
+  private int runningCount(String host) {
+    Integer count = runningCountsByHost.get(host);
+    return count != null ? count : 0;
+  }
+}
@@ -0,0 +1,248 @@
+package me.saket.dank.utils.okhttp;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import timber.log.Timber;
+
+/**
+ * Spends reddit's API quota in the order of {@link RequestPriority}. reddit reports the quota left in the
+ * current window and the time until the window resets in the headers of every response, and this
+ * holds back requests so that the quota isn't used up by work that the user isn't waiting for:
+ * <ul>
+ * <li>{@link RequestPriority#UI} requests only wait when the quota has run out.</li>
+ * <li>{@link RequestPriority#BACKGROUND} requests leave {@link #BACKGROUND_RESERVED_FRACTION} of the
+ * quota unused and wait for as long as any UI request is waiting.</li>
+ * <li>{@link RequestPriority#PRE_FILL} requests leave {@link #PRE_FILL_RESERVED_FRACTION} of the quota
+ * unused and are spread over the rest of the window, so they slow down as the quota shrinks.</li>
+ * </ul>
+ * reddit only reports a window's quota in its responses, so a new window is assumed to be as large and
+ * as long as the last one until its first response arrives. Requests aren't held back until reddit's first
+ * response has been received.
+ */
+@Singleton
+public class RedditRateLimitGovernor implements Interceptor {
+
+  /**
+   * Requests to other hosts, like the ones for access tokens, don't count towards the quota.
+   */
+  static final String API_HOST = "oauth.reddit.com";
+
+  static final String HEADER_REMAINING = "X-Ratelimit-Remaining";
+  static final String HEADER_USED = "X-Ratelimit-Used";
+  static final String HEADER_RESET_SECONDS = "X-Ratelimit-Reset";
+
+  static final float BACKGROUND_RESERVED_FRACTION = 0.1f;
+  static final float PRE_FILL_RESERVED_FRACTION = 0.3f;
+
+  /**
+   * For 429 responses that don't say when the window resets.
+   */
+  private static final long DEFAULT_RESET_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final Scheduler clock;
+  private final int[] waitingCounts = new int[RequestPriority.values().length];
+  private int inFlightCount;
+
+  /** Quota of a window, or 0 if it isn't known yet. */
+  private int limit;
+
+  /** Quota left in the current window as of the last response, not counting requests in flight. */
+  private double remaining;
+
+  private long resetTimeMillis;
+  private long windowMillis;
+  private long nextPreFillTimeMillis;
+
+  @Inject
+  public RedditRateLimitGovernor() {
+    this(Schedulers.computation());
+  }
+
+  /**
+   * @param clock Used as the clock and for waking up requests once their wait is over.
+   */
+  @VisibleForTesting
+  RedditRateLimitGovernor(Scheduler clock) {
+    this.clock = clock;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    if (!request.url().host().equals(API_HOST)) {
+      return chain.proceed(request);
+    }
+
+    acquire(RequestPriority.of(request));
+
+    Response response = null;
+    try {
+      response = chain.proceed(request);
+      return response;
+    } finally {
+      release(response);
+    }
+  }
+
+  /**
+   * Blocks until a request of <var>priority</var> can be made.
+   */
+  synchronized void acquire(RequestPriority priority) throws InterruptedIOException {
+    waitingCounts[priority.ordinal()]++;
+    try {
+      long waitMillis;
+      while ((waitMillis = waitTimeMillis(priority, nowMillis())) > 0) {
+        Disposable wakeUp = clock.scheduleDirect(this::wakeUpWaitingRequests, waitMillis, TimeUnit.MILLISECONDS);
+        try {
+          wait();
+        } finally {
+          wakeUp.dispose();
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while waiting for reddit's rate limit");
+    } finally {
+      waitingCounts[priority.ordinal()]--;
+      // Lower priority requests that were waiting on this one can go now.
+      notifyAll();
+    }
+
+    inFlightCount++;
+    if (priority == RequestPriority.PRE_FILL && limit > 0) {
+      long now = nowMillis();
+      double spareQuota = Math.max(1, spareQuota(priority));
+      nextPreFillTimeMillis = now + (long) ((resetTimeMillis - now) / spareQuota);
+    }
+  }
+
+  /**
+   * @param response Null if the request failed.
+   */
+  void release(@Nullable Response response) {
+    RateLimit rateLimit = response != null ? RateLimit.parse(response, nowMillis()) : null;
+    if (rateLimit != null && rateLimit.remaining <= 0) {
+      Timber.w("reddit's quota ran out. Resets in %sms", rateLimit.resetTimeMillis - nowMillis());
+    }
+
+    synchronized (this) {
+      inFlightCount--;
+      if (rateLimit != null) {
+        // Responses of concurrent requests can arrive out of order.
+        boolean isNewWindow = rateLimit.resetTimeMillis > resetTimeMillis + windowMillis / 2;
+        limit = rateLimit.limit > 0 ? rateLimit.limit : limit;
+        remaining = isNewWindow ? rateLimit.remaining : Math.min(remaining, rateLimit.remaining);
+        resetTimeMillis = rateLimit.resetTimeMillis;
+        windowMillis = Math.max(windowMillis, rateLimit.resetTimeMillis - nowMillis());
+      }
+      notifyAll();
+    }
+  }
+
+  private synchronized void wakeUpWaitingRequests() {
+    notifyAll();
+  }
+
+  @VisibleForTesting
+  synchronized int waitingCount(RequestPriority priority) {
+    return waitingCounts[priority.ordinal()];
+  }
+
+  private long waitTimeMillis(RequestPriority priority, long now) {
+    if (now >= resetTimeMillis) {
+      if (limit == 0) {
+        return 0;
+      }
+      remaining = limit;
+      resetTimeMillis = now + windowMillis;
+      nextPreFillTimeMillis = 0;
+    }
+
+    long millisUntilReset = resetTimeMillis - now;
+    for (RequestPriority higherPriority : RequestPriority.values()) {
+      if (higherPriority.ordinal() < priority.ordinal() && waitingCounts[higherPriority.ordinal()] > 0) {
+        return millisUntilReset;
+      }
+    }
+
+    if (spareQuota(priority) < 1) {
+      return millisUntilReset;
+    }
+    if (priority == RequestPriority.PRE_FILL) {
+      return Math.max(0, nextPreFillTimeMillis - now);
+    }
+    return 0;
+  }
+
+  private double spareQuota(RequestPriority priority) {
+    double reservedQuota;
+    switch (priority) {
+      case UI:
+        reservedQuota = 0;
+        break;
+
+      case BACKGROUND:
+        reservedQuota = limit * BACKGROUND_RESERVED_FRACTION;
+        break;
+
+      case PRE_FILL:
+        reservedQuota = limit * PRE_FILL_RESERVED_FRACTION;
+        break;
+
+      default:
+        throw new AssertionError("Unknown priority: " + priority);
+    }
+    return remaining - inFlightCount - reservedQuota;
+  }
+
+  private long nowMillis() {
+    return clock.now(TimeUnit.MILLISECONDS);
+  }
+
+  private static class RateLimit {
+    final int limit;
+    final double remaining;
+    final long resetTimeMillis;
+
+    RateLimit(int limit, double remaining, long resetTimeMillis) {
+      this.limit = limit;
+      this.remaining = remaining;
+      this.resetTimeMillis = resetTimeMillis;
+    }
+
+    @Nullable
+    static RateLimit parse(Response response, long nowMillis) {
+      String remainingHeader = response.header(HEADER_REMAINING);
+      String resetHeader = response.header(HEADER_RESET_SECONDS);
+
+      try {
+        if (remainingHeader != null && resetHeader != null) {
+          double remaining = Double.parseDouble(remainingHeader);
+          String usedHeader = response.header(HEADER_USED);
+          int limit = usedHeader != null ? (int) Math.round(remaining + Double.parseDouble(usedHeader)) : 0;
+          long resetMillis = (long) (Double.parseDouble(resetHeader) * 1000);
+          return new RateLimit(limit, remaining, nowMillis + resetMillis);
+        }
+      } catch (NumberFormatException e) {
+        Timber.e(e, "Couldn't parse reddit's rate limit headers");
+      }
+
+      if (response.code() == 429) {
+        return new RateLimit(0, 0, nowMillis + DEFAULT_RESET_MILLIS);
+      }
+      return null;
+    }
+  }
+}
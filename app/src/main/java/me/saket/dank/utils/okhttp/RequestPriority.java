@@ -0,0 +1,75 @@
+package me.saket.dank.utils.okhttp;
+
+import android.support.annotation.CheckResult;
+
+import io.reactivex.Single;
+import io.reactivex.SingleObserver;
+import io.reactivex.SingleTransformer;
+import okhttp3.Request;
+
+/**
+ * Used by {@link OkHttpCore} and {@link RedditRateLimitGovernor} for deciding which requests get to go
+ * first when a host is busy or reddit's quota is running low. Declared in order of importance.
+ * <p>
+ * A request's priority is read from its tag, or from its {@link #HEADER_NAME} header for requests built by
+ * libraries that don't take tags, like Glide. Requests made by JRAW can't carry either, so their callers
+ * use {@link #applyWhileSubscribing(RequestPriority)}. Requests without any of these inherit the priority
+ * of the thread they're executed on, or are treated as {@link #UI}.
+ */
+public enum RequestPriority {
+  /** Requests that the user is waiting for. */
+  UI,
+
+  /** Requests that the user asked for earlier and has moved on from, like retries of votes. */
+  BACKGROUND,
+
+  /** Speculative requests for things the user might see later. */
+  PRE_FILL;
+
+  /**
+   * Removed by {@link OkHttpCore} before the request is sent.
+   */
+  public static final String HEADER_NAME = "Dank-Request-Priority";
+
+  private static final ThreadLocal<RequestPriority> THREAD_PRIORITY = new ThreadLocal<>();
+
+  /**
+   * Expected to be called once, by threads that only run work of <var>priority</var>.
+   */
+  public static void setForCurrentThread(RequestPriority priority) {
+    THREAD_PRIORITY.set(priority);
+  }
+
+  static RequestPriority of(Request request) {
+    if (request.tag() instanceof RequestPriority) {
+      return (RequestPriority) request.tag();
+    }
+    String header = request.header(HEADER_NAME);
+    if (header != null) {
+      return valueOf(header);
+    }
+    RequestPriority threadPriority = THREAD_PRIORITY.get();
+    return threadPriority != null ? threadPriority : UI;
+  }
+
+  /**
+   * Marks requests that are made while subscribing to the upstream with <var>priority</var>. Meant for JRAW,
+   * which makes its requests synchronously on the subscribing thread and doesn't let callers tag them.
+   * Requests that the upstream makes later on other threads aren't marked.
+   */
+  @CheckResult
+  public static <T> SingleTransformer<T, T> applyWhileSubscribing(RequestPriority priority) {
+    return upstream -> new Single<T>() {
+      @Override
+      protected void subscribeActual(SingleObserver<? super T> observer) {
+        RequestPriority previousPriority = THREAD_PRIORITY.get();
+        THREAD_PRIORITY.set(priority);
+        try {
+          upstream.subscribe(observer);
+        } finally {
+          THREAD_PRIORITY.set(previousPriority);
+        }
+      }
+    };
+  }
+}
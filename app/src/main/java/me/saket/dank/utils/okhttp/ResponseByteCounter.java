@@ -0,0 +1,68 @@
+package me.saket.dank.utils.okhttp;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Counts the bytes of response bodies received over the network by requests executed on a thread, before
+ * they get decompressed. Cached responses aren't counted. Like {@link RequestPriority}, this works without
+ * touching the libraries that make the requests, as long as they execute their requests synchronously.
+ */
+public class ResponseByteCounter {
+
+  private static final ThreadLocal<ResponseByteCounter> THREAD_COUNTER = new ThreadLocal<>();
+
+  private final AtomicLong byteCount = new AtomicLong();
+
+  public void attachToCurrentThread() {
+    THREAD_COUNTER.set(this);
+  }
+
+  public void detachFromCurrentThread() {
+    THREAD_COUNTER.remove();
+  }
+
+  public long byteCount() {
+    return byteCount.get();
+  }
+
+  @Nullable
+  static ResponseByteCounter forCurrentThread() {
+    return THREAD_COUNTER.get();
+  }
+
+  /**
+   * Bodies can be read on a different thread, so they're counted towards the counter that was attached
+   * when their request was executed.
+   */
+  Response count(Response networkResponse) {
+    ResponseBody body = networkResponse.body();
+    if (body == null) {
+      return networkResponse;
+    }
+
+    BufferedSource countingSource = Okio.buffer(new ForwardingSource(body.source()) {
+      @Override
+      public long read(Buffer sink, long byteCount) throws IOException {
+        long readCount = super.read(sink, byteCount);
+        if (readCount > 0) {
+          ResponseByteCounter.this.byteCount.addAndGet(readCount);
+        }
+        return readCount;
+      }
+    });
+
+    return networkResponse.newBuilder()
+        .body(ResponseBody.create(body.contentType(), body.contentLength(), countingSource))
+        .build();
+  }
+}
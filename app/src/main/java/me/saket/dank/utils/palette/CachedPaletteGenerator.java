@@ -0,0 +1,184 @@
+package me.saket.dank.utils.palette;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.CheckResult;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.support.v7.graphics.Palette;
+import android.util.LruCache;
+
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
+import com.squareup.sqlbrite2.BriteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Generates palettes from a small thumbnail of an image instead of the full image, and stores their
+ * swatches against the image's URL so that each image gets analysed only once. Palettes are generated
+ * and cached on the IO scheduler, because looking them up touches the DB.
+ */
+@Singleton
+public class CachedPaletteGenerator {
+
+  /**
+   * Area of thumbnails in pixels. Palette quantizes colors to 5 bits per channel, so larger thumbnails
+   * rarely change the swatches.
+   */
+  private static final int THUMBNAIL_AREA = 64 * 64;
+  private static final int MEMORY_CACHE_SIZE = 200;
+  private static final int MAX_STORED_PALETTES = 5000;
+
+  private final BriteDatabase database;
+  private final BitmapPool bitmapPool;
+  private final LruCache<String, int[]> memoryCache = new LruCache<>(MEMORY_CACHE_SIZE);
+  private final AtomicBoolean oldPalettesRecycled = new AtomicBoolean();
+  private final Paint thumbnailPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+  private interface ThumbnailPainter {
+    void paint(Canvas canvas, int thumbnailWidth, int thumbnailHeight);
+  }
+
+  @Inject
+  public CachedPaletteGenerator(BriteDatabase database, BitmapPool bitmapPool) {
+    this.database = database;
+    this.bitmapPool = bitmapPool;
+  }
+
+  /**
+   * @param imageUrl Null if the palette shouldn't be cached.
+   */
+  @CheckResult
+  public Single<Palette> generate(@Nullable String imageUrl, Drawable image, PaletteSpec spec) {
+    return Single.fromCallable(() -> {
+      int width = image.getIntrinsicWidth();
+      int height = image.getIntrinsicHeight();
+      if (width <= 0 || height <= 0) {
+        throw new AssertionError("Drawable has no size: " + image);
+      }
+
+      return generate(imageUrl, spec, width, height, (canvas, thumbnailWidth, thumbnailHeight) -> {
+        int regionHeight = regionHeight(height, spec);
+        canvas.scale((float) thumbnailWidth / width, (float) thumbnailHeight / regionHeight);
+        image.setBounds(0, 0, width, height);
+        image.draw(canvas);
+      });
+    }).subscribeOn(Schedulers.io());
+  }
+
+  /**
+   * @param imageUrl Null if the palette shouldn't be cached.
+   */
+  @CheckResult
+  public Single<Palette> generate(@Nullable String imageUrl, Bitmap image, PaletteSpec spec) {
+    return Single.fromCallable(() -> generate(imageUrl, spec, image.getWidth(), image.getHeight(), (canvas, thumbnailWidth, thumbnailHeight) -> {
+      Rect region = new Rect(0, 0, image.getWidth(), regionHeight(image.getHeight(), spec));
+      canvas.drawBitmap(image, region, new Rect(0, 0, thumbnailWidth, thumbnailHeight), thumbnailPaint);
+    })).subscribeOn(Schedulers.io());
+  }
+
+  @WorkerThread
+  private Palette generate(@Nullable String imageUrl, PaletteSpec spec, int imageWidth, int imageHeight, ThumbnailPainter painter) {
+    if (imageUrl == null) {
+      return paletteFrom(extractSwatches(spec, imageWidth, regionHeight(imageHeight, spec), painter));
+    }
+
+    String key = spec.name() + ":" + imageUrl;
+
+    int[] swatches = memoryCache.get(key);
+    if (swatches == null) {
+      swatches = readFromDisk(key);
+
+      if (swatches == null) {
+        swatches = extractSwatches(spec, imageWidth, regionHeight(imageHeight, spec), painter);
+        database.insert(
+            CachedPaletteSwatches.TABLE_NAME,
+            CachedPaletteSwatches.toValues(key, swatches, System.currentTimeMillis()),
+            SQLiteDatabase.CONFLICT_REPLACE);
+      }
+      memoryCache.put(key, swatches);
+    }
+    return paletteFrom(swatches);
+  }
+
+  @Nullable
+  private int[] readFromDisk(String key) {
+    if (oldPalettesRecycled.compareAndSet(false, true)) {
+      database.executeAndTrigger(
+          CachedPaletteSwatches.TABLE_NAME,
+          CachedPaletteSwatches.QUERY_DELETE_ALL_EXCEPT_LATEST_N,
+          MAX_STORED_PALETTES);
+    }
+
+    try (Cursor cursor = database.query(CachedPaletteSwatches.QUERY_GET_SWATCHES_FOR_KEY, key)) {
+      return cursor.moveToFirst() ? CachedPaletteSwatches.swatchesFrom(cursor) : null;
+    }
+  }
+
+  /**
+   * @return RGB and population of each swatch.
+   */
+  private int[] extractSwatches(PaletteSpec spec, int imageWidth, int regionHeight, ThumbnailPainter painter) {
+    int[] thumbnailSize = thumbnailSize(imageWidth, regionHeight);
+    Bitmap thumbnail = bitmapPool.get(thumbnailSize[0], thumbnailSize[1], Bitmap.Config.RGB_565);
+    try {
+      painter.paint(new Canvas(thumbnail), thumbnailSize[0], thumbnailSize[1]);
+
+      Palette.Builder builder = Palette.from(thumbnail)
+          .maximumColorCount(spec.maximumColorCount())
+          .resizeBitmapArea(-1 /* already small enough */);
+      if (spec.clearFilters()) {
+        builder.clearFilters();
+      }
+
+      List<Palette.Swatch> swatches = builder.generate().getSwatches();
+      int[] rgbAndPopulations = new int[swatches.size() * 2];
+      for (int i = 0; i < swatches.size(); i++) {
+        rgbAndPopulations[i * 2] = swatches.get(i).getRgb();
+        rgbAndPopulations[i * 2 + 1] = swatches.get(i).getPopulation();
+      }
+      return rgbAndPopulations;
+
+    } finally {
+      bitmapPool.put(thumbnail);
+    }
+  }
+
+  private static Palette paletteFrom(int[] rgbAndPopulations) {
+    List<Palette.Swatch> swatches = new ArrayList<>(rgbAndPopulations.length / 2);
+    for (int i = 0; i < rgbAndPopulations.length; i += 2) {
+      swatches.add(new Palette.Swatch(rgbAndPopulations[i], rgbAndPopulations[i + 1]));
+    }
+    return Palette.from(swatches);
+  }
+
+  private static int regionHeight(int imageHeight, PaletteSpec spec) {
+    return Math.max(1, Math.round(imageHeight * spec.topRegionFraction()));
+  }
+
+  /**
+   * @return Width and height of a thumbnail that has the same aspect ratio as the image, with an area of
+   * at most {@link #THUMBNAIL_AREA}. Images are never scaled up.
+   */
+  @VisibleForTesting
+  static int[] thumbnailSize(int imageWidth, int imageHeight) {
+    double scale = Math.min(1, Math.sqrt((double) THUMBNAIL_AREA / ((long) imageWidth * imageHeight)));
+    return new int[] {
+        Math.max(1, (int) (imageWidth * scale)),
+        Math.max(1, (int) (imageHeight * scale))
+    };
+  }
+}
@@ -0,0 +1,63 @@
+package me.saket.dank.utils.palette;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Swatches generated by {@link CachedPaletteGenerator}, stored against their image's URL. Each swatch
+ * takes 8 bytes: its RGB and population.
+ */
+public class CachedPaletteSwatches {
+
+  public static final String TABLE_NAME = "CachedPaletteSwatches";
+  private static final String COLUMN_KEY = "key";
+  private static final String COLUMN_SWATCHES = "swatches";
+  private static final String COLUMN_SAVE_TIME_MILLIS = "save_time_millis";
+
+  public static final String QUERY_CREATE_TABLE =
+      "CREATE TABLE " + TABLE_NAME + " ("
+          + COLUMN_KEY + " TEXT NOT NULL PRIMARY KEY, "
+          + COLUMN_SWATCHES + " BLOB NOT NULL, "
+          + COLUMN_SAVE_TIME_MILLIS + " INTEGER NOT NULL"
+          + ")";
+
+  public static final String QUERY_GET_SWATCHES_FOR_KEY =
+      "SELECT " + COLUMN_SWATCHES + " FROM " + TABLE_NAME
+          + " WHERE " + COLUMN_KEY + " == ?";
+
+  /**
+   * Keeps the latest <var>n</var> rows.
+   */
+  public static final String QUERY_DELETE_ALL_EXCEPT_LATEST_N =
+      "DELETE FROM " + TABLE_NAME
+          + " WHERE " + COLUMN_KEY + " NOT IN ("
+          + "SELECT " + COLUMN_KEY + " FROM " + TABLE_NAME
+          + " ORDER BY " + COLUMN_SAVE_TIME_MILLIS + " DESC"
+          + " LIMIT ?)";
+
+  public static ContentValues toValues(String key, int[] rgbAndPopulations, long saveTimeMillis) {
+    ContentValues values = new ContentValues(3);
+    values.put(COLUMN_KEY, key);
+    values.put(COLUMN_SWATCHES, encode(rgbAndPopulations));
+    values.put(COLUMN_SAVE_TIME_MILLIS, saveTimeMillis);
+    return values;
+  }
+
+  public static int[] swatchesFrom(Cursor cursor) {
+    return decode(cursor.getBlob(cursor.getColumnIndexOrThrow(COLUMN_SWATCHES)));
+  }
+
+  static byte[] encode(int[] rgbAndPopulations) {
+    ByteBuffer buffer = ByteBuffer.allocate(rgbAndPopulations.length * 4);
+    buffer.asIntBuffer().put(rgbAndPopulations);
+    return buffer.array();
+  }
+
+  static int[] decode(byte[] bytes) {
+    int[] rgbAndPopulations = new int[bytes.length / 4];
+    ByteBuffer.wrap(bytes).asIntBuffer().get(rgbAndPopulations);
+    return rgbAndPopulations;
+  }
+}
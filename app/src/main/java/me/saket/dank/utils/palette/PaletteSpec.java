@@ -0,0 +1,38 @@
+package me.saket.dank.utils.palette;
+
+import android.support.annotation.FloatRange;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Palette settings used by {@link CachedPaletteGenerator}.
+ */
+@AutoValue
+public abstract class PaletteSpec {
+
+  /**
+   * Part of the cache key. Specs that generate different swatches must use different names.
+   */
+  public abstract String name();
+
+  public abstract int maximumColorCount();
+
+  /**
+   * By default palette ignores certain hues (e.g. pure black/white).
+   */
+  public abstract boolean clearFilters();
+
+  /**
+   * Colors are extracted from this fraction of the image's height, starting at the top.
+   */
+  public abstract float topRegionFraction();
+
+  public static PaletteSpec create(
+      String name,
+      int maximumColorCount,
+      boolean clearFilters,
+      @FloatRange(from = 0f, to = 1f, fromInclusive = false) float topRegionFraction)
+  {
+    return new AutoValue_PaletteSpec(name, maximumColorCount, clearFilters, topRegionFraction);
+  }
+}
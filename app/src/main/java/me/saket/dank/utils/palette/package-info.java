@@ -0,0 +1,4 @@
+@ParametersAreNonnullByDefault
+package me.saket.dank.utils.palette;
+
+import javax.annotation.ParametersAreNonnullByDefault;
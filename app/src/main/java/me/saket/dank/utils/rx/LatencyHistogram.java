@@ -0,0 +1,100 @@
+package me.saket.dank.utils.rx;
+
+import com.google.auto.value.AutoValue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets that double in width: under 64us, 64-128us, 128-256us and so on, up to
+ * everything over 16 seconds. Percentiles are reported as the upper bound of their bucket, so they're
+ * off by at most 2x, which is plenty for telling a slow stream apart from a fast one.
+ * <p>
+ * Recording doesn't allocate or lock, so it's cheap enough to be done for every emission in release builds.
+ */
+public class LatencyHistogram {
+
+  static final int BUCKET_COUNT = 20;
+  private static final int FIRST_BUCKET_WIDTH_MICROS_SHIFT = 6;  // 64us.
+
+  private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  public void record(long nanos) {
+    bucketCounts.incrementAndGet(bucketIndex(nanos));
+    count.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+
+    long max;
+    do {
+      max = maxNanos.get();
+    } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+  }
+
+  public Snapshot snapshot() {
+    long[] counts = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = bucketCounts.get(i);
+      total += counts[i];
+    }
+
+    float maxMillis = maxNanos.get() / 1e6f;
+    return Snapshot.create(
+        total,
+        total > 0 ? totalNanos.get() / 1e6f / total : 0f,
+        percentileMillis(counts, total, 0.5f, maxMillis),
+        percentileMillis(counts, total, 0.9f, maxMillis),
+        percentileMillis(counts, total, 0.99f, maxMillis),
+        maxMillis);
+  }
+
+  static int bucketIndex(long nanos) {
+    long scaled = (nanos / 1000) >> FIRST_BUCKET_WIDTH_MICROS_SHIFT;
+    if (scaled <= 0) {
+      return 0;
+    }
+    return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(scaled));
+  }
+
+  static float bucketUpperBoundMillis(int bucketIndex) {
+    return (1L << (bucketIndex + FIRST_BUCKET_WIDTH_MICROS_SHIFT)) / 1000f;
+  }
+
+  private static float percentileMillis(long[] counts, long total, float percentile, float maxMillis) {
+    if (total == 0) {
+      return 0f;
+    }
+    long rank = (long) Math.ceil(percentile * total);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        // The last bucket is unbounded. Max is also a tighter bound for other buckets when all their values are small.
+        return i == counts.length - 1 ? maxMillis : Math.min(bucketUpperBoundMillis(i), maxMillis);
+      }
+    }
+    return maxMillis;
+  }
+
+  @AutoValue
+  public abstract static class Snapshot {
+    public abstract long count();
+
+    public abstract float meanMillis();
+
+    public abstract float p50Millis();
+
+    public abstract float p90Millis();
+
+    public abstract float p99Millis();
+
+    public abstract float maxMillis();
+
+    public static Snapshot create(long count, float meanMillis, float p50Millis, float p90Millis, float p99Millis, float maxMillis) {
+      return new AutoValue_LatencyHistogram_Snapshot(count, meanMillis, p50Millis, p90Millis, p99Millis, maxMillis);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package me.saket.dank.utils.rx;
+
+import io.reactivex.ObservableOperator;
+import io.reactivex.Observer;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Records the time a source takes to emit its first item after getting subscribed, and the time spent
+ * downstream for each of its items. The second one covers the combiner of a combineLatest() and any
+ * synchronous operators after it, so it answers "how much work did this source's emission cause".
+ * <p>
+ * The only allocation is the Observer created for each subscription.
+ */
+class LatencyRecordingOperator<T> implements ObservableOperator<T, T> {
+
+  private final StreamLatencyMonitor.SourceLatencies latencies;
+
+  LatencyRecordingOperator(StreamLatencyMonitor.SourceLatencies latencies) {
+    this.latencies = latencies;
+  }
+
+  @Override
+  public Observer<? super T> apply(Observer<? super T> downstream) {
+    return new LatencyRecordingObserver<>(downstream, latencies);
+  }
+
+  private static class LatencyRecordingObserver<T> implements Observer<T>, Disposable {
+    private final Observer<? super T> downstream;
+    private final StreamLatencyMonitor.SourceLatencies latencies;
+    private Disposable upstream;
+    private long subscribeTimeNanos;
+    private boolean firstItemReceived;
+
+    LatencyRecordingObserver(Observer<? super T> downstream, StreamLatencyMonitor.SourceLatencies latencies) {
+      this.downstream = downstream;
+      this.latencies = latencies;
+    }
+
+    @Override
+    public void onSubscribe(Disposable d) {
+      upstream = d;
+      subscribeTimeNanos = System.nanoTime();
+      downstream.onSubscribe(this);
+    }
+
+    @Override
+    public void onNext(T item) {
+      long startTimeNanos = System.nanoTime();
+      if (!firstItemReceived) {
+        firstItemReceived = true;
+        latencies.recordFirstEmission(startTimeNanos - subscribeTimeNanos);
+      }
+
+      downstream.onNext(item);
+      latencies.recordComputeTime(System.nanoTime() - startTimeNanos);
+    }
+
+    @Override
+    public void onError(Throwable e) {
+      downstream.onError(e);
+    }
+
+    @Override
+    public void onComplete() {
+      downstream.onComplete();
+    }
+
+    @Override
+    public void dispose() {
+      upstream.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+      return upstream.isDisposed();
+    }
+  }
+}
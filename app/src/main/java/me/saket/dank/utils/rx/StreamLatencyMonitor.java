@@ -0,0 +1,158 @@
+package me.saket.dank.utils.rx;
+
+import android.support.annotation.CheckResult;
+
+import com.google.auto.value.AutoValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.reactivex.ObservableTransformer;
+import me.saket.dank.BuildConfig;
+import timber.log.Timber;
+
+/**
+ * Keeps latency histograms for the named sources of UI streams, like the ones combined for the subreddit
+ * and submission screens. Enabled in release builds too, so that slow screens can be explained by
+ * exporting a {@link #snapshot()}.
+ */
+@Singleton
+public class StreamLatencyMonitor {
+
+  private static final long SLOW_FIRST_EMISSION_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+  private final ConcurrentMap<String, SourceLatencies> sources = new ConcurrentHashMap<>();
+
+  @Inject
+  public StreamLatencyMonitor() {
+  }
+
+  /**
+   * @param streamName Groups the sources of a stream in snapshots.
+   */
+  public Stream stream(String streamName) {
+    return new Stream(streamName);
+  }
+
+  public class Stream {
+    private final String streamName;
+
+    private Stream(String streamName) {
+      this.streamName = streamName;
+    }
+
+    /**
+     * Histograms are shared by all subscriptions of sources with the same stream and source names.
+     */
+    @CheckResult
+    public <T> ObservableTransformer<T, T> source(String sourceName) {
+      SourceLatencies latencies = latenciesOf(streamName, sourceName);
+      return upstream -> upstream.lift(new LatencyRecordingOperator<>(latencies));
+    }
+  }
+
+  private SourceLatencies latenciesOf(String streamName, String sourceName) {
+    String key = streamName + "/" + sourceName;
+    SourceLatencies latencies = sources.get(key);
+    if (latencies == null) {
+      SourceLatencies newLatencies = new SourceLatencies(streamName, sourceName);
+      latencies = sources.putIfAbsent(key, newLatencies);
+      if (latencies == null) {
+        latencies = newLatencies;
+      }
+    }
+    return latencies;
+  }
+
+  /**
+   * Sorted by stream and source names.
+   */
+  public List<SourceSnapshot> snapshot() {
+    List<SourceSnapshot> snapshots = new ArrayList<>(sources.size());
+    for (SourceLatencies latencies : sources.values()) {
+      snapshots.add(SourceSnapshot.create(
+          latencies.streamName,
+          latencies.sourceName,
+          latencies.firstEmissions.snapshot(),
+          latencies.computeTimes.snapshot()));
+    }
+    Collections.sort(snapshots, (first, second) -> {
+      int streamComparison = first.streamName().compareTo(second.streamName());
+      return streamComparison != 0 ? streamComparison : first.sourceName().compareTo(second.sourceName());
+    });
+    return snapshots;
+  }
+
+  /**
+   * Tab separated, with a header row. Easy to paste into a spreadsheet.
+   */
+  public static String toTsv(List<SourceSnapshot> snapshots) {
+    StringBuilder builder = new StringBuilder(
+        "stream\tsource\tsubscriptions\tfirst p50 ms\tfirst p90 ms\tfirst p99 ms\tfirst max ms"
+            + "\temissions\tcompute mean ms\tcompute p50 ms\tcompute p90 ms\tcompute p99 ms\tcompute max ms");
+
+    for (SourceSnapshot snapshot : snapshots) {
+      LatencyHistogram.Snapshot first = snapshot.firstEmission();
+      LatencyHistogram.Snapshot compute = snapshot.computeTime();
+      builder.append(String.format(Locale.ENGLISH,
+          "\n%s\t%s\t%d\t%.2f\t%.2f\t%.2f\t%.2f\t%d\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f",
+          snapshot.streamName(), snapshot.sourceName(),
+          first.count(), first.p50Millis(), first.p90Millis(), first.p99Millis(), first.maxMillis(),
+          compute.count(), compute.meanMillis(), compute.p50Millis(), compute.p90Millis(), compute.p99Millis(), compute.maxMillis()));
+    }
+    return builder.toString();
+  }
+
+  static class SourceLatencies {
+    private final String streamName;
+    private final String sourceName;
+    private final LatencyHistogram firstEmissions = new LatencyHistogram();
+    private final LatencyHistogram computeTimes = new LatencyHistogram();
+
+    SourceLatencies(String streamName, String sourceName) {
+      this.streamName = streamName;
+      this.sourceName = sourceName;
+    }
+
+    void recordFirstEmission(long nanos) {
+      firstEmissions.record(nanos);
+
+      if (BuildConfig.DEBUG && nanos > SLOW_FIRST_EMISSION_NANOS) {
+        Timber.w("%s/%s took %sms to emit [SLOW]", streamName, sourceName, TimeUnit.NANOSECONDS.toMillis(nanos));
+      }
+    }
+
+    void recordComputeTime(long nanos) {
+      computeTimes.record(nanos);
+    }
+  }
+
+  @AutoValue
+  public abstract static class SourceSnapshot {
+    public abstract String streamName();
+
+    public abstract String sourceName();
+
+    /** Time from subscription to first item, recorded once per subscription. */
+    public abstract LatencyHistogram.Snapshot firstEmission();
+
+    /** Time spent downstream of each item, including the combiner it feeds. */
+    public abstract LatencyHistogram.Snapshot computeTime();
+
+    public static SourceSnapshot create(
+        String streamName,
+        String sourceName,
+        LatencyHistogram.Snapshot firstEmission,
+        LatencyHistogram.Snapshot computeTime)
+    {
+      return new AutoValue_StreamLatencyMonitor_SourceSnapshot(streamName, sourceName, firstEmission, computeTime);
+    }
+  }
+}
@@ -0,0 +1,4 @@
+@ParametersAreNonnullByDefault
+package me.saket.dank.utils.rx;
+
+import javax.annotation.ParametersAreNonnullByDefault;
@@ -0,0 +1,18 @@
+package me.saket.dank.vote;
+
+import com.google.auto.value.AutoValue;
+
+import java.util.Set;
+
+/**
+ * Emitted by {@link VotingManager#streamChanges()} when pending votes are added or removed.
+ */
+@AutoValue
+public abstract class PendingVoteChange {
+
+  public abstract Set<String> contributionFullNames();
+
+  public static PendingVoteChange create(Set<String> contributionFullNames) {
+    return new AutoValue_PendingVoteChange(contributionFullNames);
+  }
+}
@@ -15,11 +15,12 @@ import net.dean.jraw.models.Identifiable;
 import net.dean.jraw.models.VoteDirection;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 
 import io.reactivex.Completable;
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.DankJobService;
 import me.saket.dank.data.ResolvedError;
 import me.saket.dank.di.Dank;
@@ -36,6 +37,7 @@ public class VoteJobService extends DankJobService {
 
   @Inject Moshi moshi;
   @Inject VotingManager votingManager;
+  @Inject @Named("background_requests") Scheduler backgroundRequestsScheduler;
 
   /**
    * Schedule a voting attempt whenever JobScheduler deems it fit.
@@ -87,7 +89,7 @@ public class VoteJobService extends DankJobService {
           }
         })
         .ambWith(lifecycleOnDestroy().ignoreElements())
-        .subscribeOn(Schedulers.io())
+        .subscribeOn(backgroundRequestsScheduler)
         .observeOn(AndroidSchedulers.mainThread())
         .subscribe(
             () -> {
@@ -4,7 +4,11 @@ import android.app.Application;
 import android.content.SharedPreferences;
 import android.os.Looper;
 import android.support.annotation.CheckResult;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 
+import com.jakewharton.rxrelay2.PublishRelay;
+import com.jakewharton.rxrelay2.Relay;
 import com.squareup.moshi.Moshi;
 
 import net.dean.jraw.ApiException;
@@ -15,13 +19,24 @@ import net.dean.jraw.models.Submission;
 import net.dean.jraw.models.Votable;
 import net.dean.jraw.models.VoteDirection;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Singleton;
 
 import dagger.Lazy;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.BuildConfig;
 import me.saket.dank.di.Dank;
 import me.saket.dank.reddit.Reddit;
@@ -31,19 +46,34 @@ import timber.log.Timber;
  * Handles voting on {@link Submission Submissions} & {@link Comment Comments} and storing their values
  * locally, until they're refreshed from remote again.
  * <p>
+ * Pending votes are read for every submission and comment row, so they're kept in an in-memory index
+ * that is loaded once from shared prefs. Changes are written back to shared prefs in batches.
+ * <p>
  * TODO: Clear individual pending votes when they're received from remote.
  * TODO: Do we need to worry about recycling old pending votes because their jobs timed out and expired?
  */
+@Singleton
 public class VotingManager {
 
   private static final int HTTP_CODE_CONTRIBUTION_DELETED = 404;
   public static final int HTTP_CODE_TOO_MANY_REQUESTS = 429;
   private static final String KEY_PENDING_VOTE_ = "pendingVote_";
+  private static final long PERSIST_DELAY_MILLIS = 500;
 
   private final Application appContext;
   private final Lazy<Reddit> reddit;
   private final Lazy<SharedPreferences> sharedPrefs;
   private final Lazy<Moshi> moshi;
+  private final Scheduler persistScheduler;
+  private final Relay<PendingVoteChange> changes = PublishRelay.<PendingVoteChange>create().toSerialized();
+
+  /** Full-name -> pending vote. Lazily loaded from shared prefs. */
+  private volatile Map<String, VoteDirection> pendingVotes;
+
+  /** Full-name -> vote that hasn't been written to shared prefs yet. Null values are removed votes. */
+  private final Map<String, VoteDirection> unsavedVotes = new HashMap<>();
+  private boolean clearBeforeSaving;
+  private boolean isSaveScheduled;
 
   /**
    * @param appContext Used for scheduling {@link VoteJobService}.
@@ -54,21 +84,39 @@ public class VotingManager {
       Lazy<Reddit> reddit,
       @Named("votes") Lazy<SharedPreferences> sharedPrefs,
       Lazy<Moshi> moshi)
+  {
+    this(appContext, reddit, sharedPrefs, moshi, Schedulers.io());
+  }
+
+  @VisibleForTesting
+  VotingManager(
+      Application appContext,
+      Lazy<Reddit> reddit,
+      Lazy<SharedPreferences> sharedPrefs,
+      Lazy<Moshi> moshi,
+      Scheduler persistScheduler)
   {
     this.appContext = appContext;
     this.reddit = reddit;
     this.sharedPrefs = sharedPrefs;
     this.moshi = moshi;
+    this.persistScheduler = persistScheduler;
   }
 
+  /**
+   * Emits contributions whose pending votes changed. Does not emit an initial value.
+   */
   @CheckResult
-  public Observable<Object> streamChanges() {
-    return Observable.create(emitter -> {
-      SharedPreferences.OnSharedPreferenceChangeListener changeListener = (sharedPreferences, key) -> emitter.onNext(key);
-      sharedPrefs.get().registerOnSharedPreferenceChangeListener(changeListener);
-      emitter.setCancellable(() -> sharedPrefs.get().unregisterOnSharedPreferenceChangeListener(changeListener));
-      changeListener.onSharedPreferenceChanged(sharedPrefs.get(), "");    // Initial value.
-    });
+  public Observable<PendingVoteChange> streamChanges() {
+    return changes;
+  }
+
+  /**
+   * Like {@link #streamChanges()}, but emits each changed full-name individually.
+   */
+  @CheckResult
+  public Observable<String> streamChangedContributionFullNames() {
+    return streamChanges().flatMapIterable(PendingVoteChange::contributionFullNames);
   }
 
   @CheckResult
@@ -121,32 +169,30 @@ public class VotingManager {
             "Expected to be called on a background thread but was " + Thread.currentThread().getName());
       }
 
-      SharedPreferences.Editor sharedPrefsEditor = sharedPrefs.get().edit();
+      Set<String> removedFullNames = new HashSet<>();
       for (Submission submission : submissionsFromRemote) {
         if (isVotePending(submission)) {
           //Timber.i("Removing stale pending vote for %s", ((Submission) submission).getTitle());
-          sharedPrefsEditor.remove(keyFor(submission));
+          removedFullNames.add(submission.getFullName());
         }
       }
-      sharedPrefsEditor.apply();
+      if (!removedFullNames.isEmpty()) {
+        updatePendingVotes(removedFullNames, null);
+      }
     });
   }
 
   public <T extends Votable & Identifiable> VoteDirection getPendingOrDefaultVote(T votableContribution, VoteDirection defaultValue) {
-    String voteEnumString = sharedPrefs.get().getString(keyFor(votableContribution), defaultValue.name());
-    return VoteDirectionX.valueOfWithMigration(voteEnumString);
+    VoteDirection pendingVote = pendingVotes().get(votableContribution.getFullName());
+    return pendingVote != null ? pendingVote : defaultValue;
   }
 
-//  public boolean isVotePending(Identifiable votableContribution) {
-//    return sharedPrefs.get().contains(keyFor(votableContribution));
-//  }
-
   public boolean isVotePending(Identifiable identifiable) {
-    return sharedPrefs.get().contains(keyFor(identifiable));
+    return pendingVotes().containsKey(identifiable.getFullName());
   }
 
   private void markVoteAsPending(Identifiable votableContribution, VoteDirection voteDirection) {
-    sharedPrefs.get().edit().putString(keyFor(votableContribution), voteDirection.name()).apply();
+    updatePendingVotes(Collections.singleton(votableContribution.getFullName()), voteDirection);
   }
 
   @CheckResult
@@ -155,24 +201,28 @@ public class VotingManager {
       throw new IllegalStateException();
     }
 
-    return Completable.fromAction(() ->
+    return Completable.fromAction(() -> {
+      Set<String> removedFullNames;
+      synchronized (this) {
+        removedFullNames = new HashSet<>(pendingVotes().keySet());
+        pendingVotes().clear();
+        unsavedVotes.clear();
         // VotingManager uses a dedicated shared prefs file so we can safely clear everything.
-        sharedPrefs.get().edit().clear().apply()
-    );
+        clearBeforeSaving = true;
+        scheduleSave();
+      }
+      changes.accept(PendingVoteChange.create(removedFullNames));
+    });
   }
 
   /**
    * Get <var>thing</var>'s score assuming that any pending vote has been synced with remote.
    */
   public <T extends Votable & Identifiable> int getScoreAfterAdjustingPendingVote(T votableContribution) {
-    if (!isVotePending(votableContribution)) {
-      return votableContribution.getScore();
-    }
-
     VoteDirection actualVoteDirection = votableContribution.getVote();
-    VoteDirection pendingVoteDirection = getPendingOrDefaultVote(votableContribution, actualVoteDirection);
+    VoteDirection pendingVoteDirection = pendingVotes().get(votableContribution.getFullName());
 
-    if (actualVoteDirection == pendingVoteDirection) {
+    if (pendingVoteDirection == null || actualVoteDirection == pendingVoteDirection) {
       return votableContribution.getScore();
     }
 
@@ -207,12 +257,89 @@ public class VotingManager {
     return resultingScore;
   }
 
-  private String keyFor(String contributionFullName) {
-    return KEY_PENDING_VOTE_ + contributionFullName;
+  private Map<String, VoteDirection> pendingVotes() {
+    Map<String, VoteDirection> votes = pendingVotes;
+    if (votes == null) {
+      synchronized (this) {
+        votes = pendingVotes;
+        if (votes == null) {
+          votes = readPendingVotesFromPrefs();
+          pendingVotes = votes;
+        }
+      }
+    }
+    return votes;
+  }
+
+  private Map<String, VoteDirection> readPendingVotesFromPrefs() {
+    Map<String, ?> savedValues = sharedPrefs.get().getAll();
+    Map<String, VoteDirection> votes = new ConcurrentHashMap<>(savedValues.size());
+    for (Map.Entry<String, ?> entry : savedValues.entrySet()) {
+      if (entry.getKey().startsWith(KEY_PENDING_VOTE_) && entry.getValue() instanceof String) {
+        String fullName = entry.getKey().substring(KEY_PENDING_VOTE_.length());
+        votes.put(fullName, VoteDirectionX.valueOfWithMigration((String) entry.getValue()));
+      }
+    }
+    return votes;
+  }
+
+  /**
+   * @param voteDirection Null for removing pending votes.
+   */
+  private void updatePendingVotes(Set<String> contributionFullNames, @Nullable VoteDirection voteDirection) {
+    Map<String, VoteDirection> votes = pendingVotes();
+    synchronized (this) {
+      for (String fullName : contributionFullNames) {
+        if (voteDirection == null) {
+          votes.remove(fullName);
+        } else {
+          votes.put(fullName, voteDirection);
+        }
+        unsavedVotes.put(fullName, voteDirection);
+      }
+      scheduleSave();
+    }
+    changes.accept(PendingVoteChange.create(contributionFullNames));
   }
 
-  private String keyFor(Identifiable contribution) {
-    return keyFor(contribution.getFullName());
+  private synchronized void scheduleSave() {
+    if (!isSaveScheduled) {
+      isSaveScheduled = true;
+      persistScheduler.scheduleDirect(this::saveUnsavedVotes, PERSIST_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Writes all votes that changed since the last save in a single shared prefs transaction.
+   */
+  @VisibleForTesting
+  void saveUnsavedVotes() {
+    List<Map.Entry<String, VoteDirection>> votesToSave;
+    boolean clear;
+    synchronized (this) {
+      votesToSave = new ArrayList<>(unsavedVotes.entrySet());
+      clear = clearBeforeSaving;
+      unsavedVotes.clear();
+      clearBeforeSaving = false;
+      isSaveScheduled = false;
+    }
+
+    SharedPreferences.Editor sharedPrefsEditor = sharedPrefs.get().edit();
+    if (clear) {
+      sharedPrefsEditor.clear();
+    }
+    for (Map.Entry<String, VoteDirection> vote : votesToSave) {
+      if (vote.getValue() == null) {
+        sharedPrefsEditor.remove(keyFor(vote.getKey()));
+      } else {
+        sharedPrefsEditor.putString(keyFor(vote.getKey()), vote.getValue().name());
+      }
+    }
+    sharedPrefsEditor.apply();
+  }
+
+  private String keyFor(String contributionFullName) {
+    return KEY_PENDING_VOTE_ + contributionFullName;
   }
 
   public static boolean isTooManyRequestsError(Throwable error) {
@@ -0,0 +1,74 @@
+package me.saket.dank.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class CacheBudgetManagerShould {
+
+  private static final long NOW_MILLIS = TimeUnit.DAYS.toMillis(100);
+
+  @Test
+  public void notEvict_whenWithinBudget() {
+    List<CachedItem> items = Arrays.asList(
+        item("images", "a", 40, daysAgo(10), 1f),
+        item("videos", "b", 60, daysAgo(10), 1f));
+
+    assertThat(CacheBudgetManager.selectForEviction(items, 100, NOW_MILLIS)).isEmpty();
+  }
+
+  @Test
+  public void evictLeastRecentlyUsedItems_acrossTiers() {
+    CachedItem oldImage = item("images", "a", 40, daysAgo(10), 1f);
+    CachedItem newImage = item("images", "b", 40, daysAgo(1), 1f);
+    CachedItem oldVideo = item("videos", "c", 40, daysAgo(5), 1f);
+
+    List<CachedItem> itemsToEvict = CacheBudgetManager.selectForEviction(Arrays.asList(newImage, oldVideo, oldImage), 50, NOW_MILLIS);
+
+    assertThat(itemsToEvict).containsExactly(oldImage, oldVideo).inOrder();
+  }
+
+  @Test
+  public void keepExpensiveItems_forLonger() {
+    CachedItem cheapItem = item("http_responses", "a", 40, daysAgo(2), 1f);
+    CachedItem expensiveItem = item("submissions", "b", 40, daysAgo(4), 4f);
+
+    List<CachedItem> itemsToEvict = CacheBudgetManager.selectForEviction(Arrays.asList(expensiveItem, cheapItem), 50, NOW_MILLIS);
+
+    assertThat(itemsToEvict).containsExactly(cheapItem);
+  }
+
+  @Test
+  public void notEvictRecentlyUsedItems_evenWhenOverBudget() {
+    CachedItem recentItem = item("images", "a", 100, NOW_MILLIS - 1000, 1f);
+
+    assertThat(CacheBudgetManager.selectForEviction(Arrays.asList(recentItem), 50, NOW_MILLIS)).isEmpty();
+  }
+
+  @Test
+  public void breakDownUsage_byTierAndSubreddit() {
+    List<CachedItem> items = Arrays.asList(
+        CachedItem.create("submissions", "a", 10, daysAgo(1), 1f, "androiddev"),
+        CachedItem.create("submissions", "b", 30, daysAgo(1), 1f, "pics"),
+        CachedItem.create("submissions", "c", 5, daysAgo(1), 1f, "androiddev"),
+        item("images", "d", 100, daysAgo(1), 1f));
+
+    CacheBudgetManager.CacheUsage usage = CacheBudgetManager.CacheUsage.create(items, 1000);
+
+    assertThat(usage.totalBytes()).isEqualTo(145);
+    assertThat(usage.bytesByTier()).containsExactly("submissions", 45L, "images", 100L);
+    assertThat(usage.bytesBySubreddit()).containsExactly("pics", 30L, "androiddev", 15L).inOrder();
+  }
+
+  private static CachedItem item(String tierName, String key, long sizeBytes, long lastAccessTimeMillis, float refetchCost) {
+    return CachedItem.create(tierName, key, sizeBytes, lastAccessTimeMillis, refetchCost, null);
+  }
+
+  private static long daysAgo(int days) {
+    return NOW_MILLIS - TimeUnit.DAYS.toMillis(days);
+  }
+}
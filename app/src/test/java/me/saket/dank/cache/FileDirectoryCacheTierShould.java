@@ -0,0 +1,98 @@
+package me.saket.dank.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class FileDirectoryCacheTierShould {
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private FileDirectoryCacheTier tier;
+
+  @Before
+  public void setUp() {
+    File directory = temporaryFolder.getRoot();
+    tier = new FileDirectoryCacheTier("http_responses", directory, 1f, FileDirectoryCacheTier.fileDeletingEvictor(directory));
+  }
+
+  @Test
+  public void groupValuesOfDiskLruCacheEntries() throws IOException {
+    createFile("3a6f9.0", 10, 1000);
+    createFile("3a6f9.1", 20, 2000);
+
+    List<CachedItem> items = tier.items();
+
+    assertThat(items).containsExactly(CachedItem.create("http_responses", "3a6f9", 30, 2000, 1f, null));
+  }
+
+  @Test
+  public void skipJournals_andFilesThatAreBeingWritten() throws IOException {
+    createFile("journal", 10, 1000);
+    createFile("journal.bkp", 10, 1000);
+    createFile("3a6f9.0.tmp", 10, 1000);
+    createFile("b2c4e.mp4.download", 10, 1000);
+
+    assertThat(tier.items()).isEmpty();
+  }
+
+  @Test
+  public void evictAllValuesOfAnEntry() throws IOException {
+    createFile("3a6f9.0", 10, 1000);
+    createFile("3a6f9.1", 20, 1000);
+    createFile("journal", 10, 1000);
+    createFile("b2c4e.0", 10, 1000);
+
+    tier.evict(Collections.singletonList(CachedItem.create("http_responses", "3a6f9", 30, 1000, 1f, null)));
+
+    assertThat(temporaryFolder.getRoot().list()).asList().containsExactly("journal", "b2c4e.0");
+  }
+
+  @Test
+  public void evictThroughDiskLruCache_soThatItsJournalAndSizeStayCorrect() throws IOException {
+    File directory = temporaryFolder.newFolder("store");
+    DiskLruCache diskLruCache = DiskLruCache.open(directory, 1, 1, 1024);
+    write(diskLruCache, "a", "aaaa");
+    write(diskLruCache, "b", "bb");
+
+    FileDirectoryCacheTier storeTier = new FileDirectoryCacheTier("store", directory, 2f, FileDirectoryCacheTier.diskLruCacheEvictor(() -> diskLruCache));
+    List<CachedItem> items = storeTier.items();
+    assertThat(items).hasSize(2);
+
+    for (CachedItem item : items) {
+      if (item.key().equals("a")) {
+        storeTier.evict(Arrays.asList(item));
+      }
+    }
+
+    assertThat(diskLruCache.get("a")).isNull();
+    assertThat(diskLruCache.size()).isEqualTo(2);
+    assertThat(directory.list()).asList().doesNotContain("a.0");
+    diskLruCache.close();
+  }
+
+  private static void write(DiskLruCache diskLruCache, String key, String value) throws IOException {
+    DiskLruCache.Editor editor = diskLruCache.edit(key);
+    editor.set(0, value);
+    editor.commit();
+  }
+
+  private void createFile(String name, int sizeBytes, long lastModifiedMillis) throws IOException {
+    File file = new File(temporaryFolder.getRoot(), name);
+    Files.write(file.toPath(), new byte[sizeBytes]);
+    //noinspection ResultOfMethodCallIgnored
+    file.setLastModified(lastModifiedMillis);
+  }
+}
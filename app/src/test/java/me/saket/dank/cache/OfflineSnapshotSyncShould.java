@@ -0,0 +1,205 @@
+package me.saket.dank.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.Application;
+
+import com.f2prateek.rx.preferences2.Preference;
+
+import net.dean.jraw.models.SubredditSort;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import me.saket.dank.data.AppDatabase;
+import me.saket.dank.reddit.Reddit;
+import me.saket.dank.ui.submission.CachedFolderSize;
+import me.saket.dank.ui.submission.CachedSubmissionDao;
+import me.saket.dank.ui.submission.CachedSubmissionFolder;
+import me.saket.dank.ui.submission.FolderSnapshotTooLargeException;
+import me.saket.dank.ui.submission.SavedFolderSnapshot;
+import me.saket.dank.ui.submission.SortingAndTimePeriod;
+import me.saket.dank.ui.submission.SubmissionRepository;
+import me.saket.dank.ui.submission.SubmissionRepository.OfflineSnapshot;
+
+public class OfflineSnapshotSyncShould {
+
+  private static final SortingAndTimePeriod SORTING = SortingAndTimePeriod.create(Reddit.Companion.getDEFAULT_SUBREDDIT_SORT());
+  private static final int ROWS_PER_SNAPSHOT = 10;
+
+  @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+  @Mock SubmissionRepository submissionRepository;
+  @Mock AppDatabase database;
+  @Mock CachedSubmissionDao submissionDao;
+  @Mock OfflineSyncRunDao runDao;
+  @Mock Preference<Set<String>> subredditNames;
+  @Mock Preference<Long> storageCeilingBytes;
+
+  private final Map<String, Long> snapshotSizes = new HashMap<>();
+  private final List<String> fetchedSubreddits = new ArrayList<>();
+  private OfflineSnapshotSync offlineSnapshotSync;
+
+  @Before
+  public void setUp() {
+    when(database.submissionDao()).thenReturn(submissionDao);
+    when(database.offlineSyncRunDao()).thenReturn(runDao);
+    when(submissionDao.folderSizes()).thenReturn(Collections.emptyList());
+    when(submissionRepository.fetchOfflineSnapshot(any(CachedSubmissionFolder.class), anyInt(), anyInt())).thenAnswer(invocation -> {
+      CachedSubmissionFolder folder = (CachedSubmissionFolder) invocation.getArguments()[0];
+      fetchedSubreddits.add(folder.subredditName());
+
+      if (!snapshotSizes.containsKey(folder.subredditName())) {
+        throw new RuntimeException("Fake network failure");
+      }
+      return OfflineSnapshot.create(folder, Collections.emptyList(), Collections.emptyMap());
+    });
+
+    when(submissionRepository.saveOfflineSnapshot(any(OfflineSnapshot.class), anyLong())).thenAnswer(invocation -> {
+      OfflineSnapshot snapshot = (OfflineSnapshot) invocation.getArguments()[0];
+      long maxBytes = (long) invocation.getArguments()[1];
+
+      long sizeBytes = snapshotSizes.get(snapshot.folder().subredditName());
+      if (sizeBytes > maxBytes) {
+        throw new FolderSnapshotTooLargeException(sizeBytes);
+      }
+      return new SavedFolderSnapshot(ROWS_PER_SNAPSHOT, sizeBytes);
+    });
+
+    offlineSnapshotSync = new OfflineSnapshotSync(
+        mock(Application.class),
+        () -> submissionRepository,
+        () -> database,
+        subredditNames,
+        storageCeilingBytes);
+  }
+
+  @Test
+  public void syncSubredditsInAlphabeticalOrder_untilTheStorageCeilingIsReached() {
+    chooseSubreddits("pics", "androiddev", "Kotlin", "zen");
+    snapshotSizes.put("androiddev", 100L);
+    snapshotSizes.put("Kotlin", 100L);
+    snapshotSizes.put("pics", 100L);
+    snapshotSizes.put("zen", 10L);
+    when(storageCeilingBytes.get()).thenReturn(250L);
+
+    OfflineSyncRun run = offlineSnapshotSync.sync().blockingGet();
+
+    // pics is estimated to be as large as the others, so it isn't fetched.
+    assertThat(fetchedSubreddits).containsExactly("androiddev", "Kotlin").inOrder();
+    assertThat(run.getSyncedSubredditCount()).isEqualTo(2);
+    assertThat(run.getSkippedSubredditCount()).isEqualTo(2);
+    assertThat(run.getWrittenRowCount()).isEqualTo(2 * ROWS_PER_SNAPSHOT);
+  }
+
+  @Test
+  public void notCountTheSnapshotBeingReplaced_againstTheStorageCeiling() {
+    chooseSubreddits("androiddev", "pics");
+    snapshotSizes.put("androiddev", 150L);
+    snapshotSizes.put("pics", 150L);
+    when(storageCeilingBytes.get()).thenReturn(300L);
+    when(submissionDao.folderSizes()).thenReturn(Arrays.asList(
+        new CachedFolderSize("androiddev", SORTING, 200, 0),
+        new CachedFolderSize("pics", SORTING, 100, 0),
+        new CachedFolderSize("pics", SortingAndTimePeriod.create(SubredditSort.NEW), 1000, 0)));
+
+    OfflineSyncRun run = offlineSnapshotSync.sync().blockingGet();
+
+    assertThat(run.getSyncedSubredditCount()).isEqualTo(2);
+    assertThat(run.getSkippedSubredditCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void continueWithOtherSubreddits_whenOneFails() {
+    chooseSubreddits("androiddev", "broken", "pics");
+    snapshotSizes.put("androiddev", 10L);
+    snapshotSizes.put("pics", 10L);
+    when(storageCeilingBytes.get()).thenReturn(1000L);
+
+    OfflineSyncRun run = offlineSnapshotSync.sync().blockingGet();
+
+    assertThat(fetchedSubreddits).containsExactly("androiddev", "broken", "pics").inOrder();
+    assertThat(run.getSyncedSubredditCount()).isEqualTo(2);
+    assertThat(run.getFailedSubredditCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void notFetchAnything_whenOtherSubredditsAlreadyFillTheStorageCeiling() {
+    chooseSubreddits("androiddev", "pics");
+    snapshotSizes.put("androiddev", 10L);
+    snapshotSizes.put("pics", 10L);
+    when(storageCeilingBytes.get()).thenReturn(50L);
+    when(submissionDao.folderSizes()).thenReturn(Arrays.asList(
+        new CachedFolderSize("androiddev", SORTING, 60, 0),
+        new CachedFolderSize("pics", SORTING, 60, 0)));
+
+    OfflineSyncRun run = offlineSnapshotSync.sync().blockingGet();
+
+    assertThat(fetchedSubreddits).isEmpty();
+    assertThat(run.getSkippedSubredditCount()).isEqualTo(2);
+    verify(submissionRepository, never()).saveOfflineSnapshot(any(OfflineSnapshot.class), anyLong());
+  }
+
+  @Test
+  public void notFetchASubredditAgain_whenItsLastSnapshotDidNotFit() {
+    chooseSubreddits("androiddev", "pics");
+    snapshotSizes.put("androiddev", 100L);
+    snapshotSizes.put("pics", 200L);
+    when(storageCeilingBytes.get()).thenReturn(250L);
+
+    OfflineSyncRun firstRun = offlineSnapshotSync.sync().blockingGet();
+
+    assertThat(fetchedSubreddits).containsExactly("androiddev", "pics").inOrder();
+    assertThat(firstRun.getSkippedSubredditCount()).isEqualTo(1);
+
+    fetchedSubreddits.clear();
+    when(submissionDao.folderSizes()).thenReturn(Collections.singletonList(new CachedFolderSize("androiddev", SORTING, 100, 0)));
+
+    OfflineSyncRun secondRun = offlineSnapshotSync.sync().blockingGet();
+
+    assertThat(fetchedSubreddits).containsExactly("androiddev");
+    assertThat(secondRun.getSyncedSubredditCount()).isEqualTo(1);
+    assertThat(secondRun.getSkippedSubredditCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void recordStatsOfEachRun() {
+    chooseSubreddits("androiddev");
+    snapshotSizes.put("androiddev", 10L);
+    when(storageCeilingBytes.get()).thenReturn(1000L);
+
+    OfflineSyncRun run = offlineSnapshotSync.sync().blockingGet();
+
+    ArgumentCaptor<OfflineSyncRun> savedRun = ArgumentCaptor.forClass(OfflineSyncRun.class);
+    verify(runDao).save(savedRun.capture());
+    assertThat(savedRun.getValue()).isEqualTo(run);
+    assertThat(run.getWrittenRowCount()).isEqualTo(ROWS_PER_SNAPSHOT);
+    assertThat(run.getWallTimeMillis()).isAtLeast(0L);
+    verify(runDao).deleteAllExceptLatest(anyInt());
+  }
+
+  private void chooseSubreddits(String... names) {
+    when(subredditNames.get()).thenReturn(new HashSet<>(Arrays.asList(names)));
+  }
+}
@@ -0,0 +1,88 @@
+package me.saket.dank.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Completable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.CompletableSubject;
+import me.saket.dank.cache.PreFillQueue.Resource;
+
+public class PreFillQueueShould {
+
+  private PreFillQueue preFillQueue;
+  private List<Integer> startedPositions;
+
+  @Before
+  public void setUp() {
+    preFillQueue = new PreFillQueue(Schedulers.trampoline());
+    startedPositions = new ArrayList<>();
+  }
+
+  @Test
+  public void startClosestWorkFirst_withinConcurrencyLimit() {
+    CompletableSubject work5 = CompletableSubject.create();
+    CompletableSubject work20 = CompletableSubject.create();
+    CompletableSubject work1 = CompletableSubject.create();
+
+    preFillQueue.enqueue(Resource.DISK, 5, work(5, work5)).test();
+    preFillQueue.enqueue(Resource.DISK, 20, work(20, work20)).test();
+    preFillQueue.enqueue(Resource.DISK, 1, work(1, work1)).test();
+    assertThat(startedPositions).containsExactly(5);
+
+    work5.onComplete();
+    assertThat(startedPositions).containsExactly(5, 1).inOrder();
+
+    work1.onComplete();
+    assertThat(startedPositions).containsExactly(5, 1, 20).inOrder();
+  }
+
+  @Test
+  public void notStartWorkThatIsOutOfRange() {
+    TestObserver<Void> observer = preFillQueue
+        .enqueue(Resource.NETWORK, PreFillQueue.PRE_FILL_RANGE + 1, work(PreFillQueue.PRE_FILL_RANGE + 1, CompletableSubject.create()))
+        .test();
+
+    assertThat(startedPositions).isEmpty();
+    observer.assertNotComplete();
+  }
+
+  @Test
+  public void cancelWorkThatScrollsOutOfRange_andRestartItWhenBackInRange() {
+    CompletableSubject work = CompletableSubject.create();
+    TestObserver<Void> observer = preFillQueue.enqueue(Resource.DECODE, 0, work(0, work)).test();
+    assertThat(work.hasObservers()).isTrue();
+
+    preFillQueue.updateScrollPosition(PreFillQueue.PRE_FILL_RANGE);
+    assertThat(work.hasObservers()).isFalse();
+    observer.assertNotComplete();
+
+    preFillQueue.updateScrollPosition(0);
+    assertThat(startedPositions).containsExactly(0, 0);
+
+    work.onComplete();
+    observer.assertComplete();
+  }
+
+  @Test
+  public void removeWorkWhenDisposed() {
+    CompletableSubject runningWork = CompletableSubject.create();
+    preFillQueue.enqueue(Resource.DISK, 0, work(0, runningWork)).test();
+    TestObserver<Void> pendingObserver = preFillQueue.enqueue(Resource.DISK, 1, work(1, CompletableSubject.create())).test();
+
+    pendingObserver.dispose();
+    runningWork.onComplete();
+
+    assertThat(startedPositions).containsExactly(0);
+  }
+
+  private Completable work(int position, CompletableSubject completion) {
+    return completion.doOnSubscribe(o -> startedPositions.add(position));
+  }
+}
@@ -0,0 +1,267 @@
+package me.saket.dank.data;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonReader;
+import com.squareup.moshi.JsonWriter;
+import com.squareup.moshi.Moshi;
+import com.squareup.sqlbrite2.BriteDatabase;
+
+import net.dean.jraw.models.Message;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.saket.dank.ui.user.messages.CachedMessage;
+import me.saket.dank.ui.user.messages.CachedMessageEntry;
+import me.saket.dank.ui.user.messages.InboxFolder;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ BriteDatabase.class, CachedMessage.class, CachedMessageEntry.class })
+public class InboxRepositoryShould {
+
+  private static final String COLUMN_FULLNAME = "fullname";
+  private static final String COLUMN_FOLDER = "folder";
+  private static final String COLUMN_THREAD_FULLNAME = "thread_fullname";
+  private static final String COLUMN_CREATED_TIME_MILLIS = "created_time_millis";
+  private static final List<String> ENTRY_COLUMNS = Arrays.asList(COLUMN_FULLNAME, COLUMN_FOLDER, COLUMN_THREAD_FULLNAME, COLUMN_CREATED_TIME_MILLIS);
+
+  private BriteDatabase database;
+  private InboxRepository inboxRepository;
+
+  /** Rows of the message and message entry tables. Read and written through {@link #database}. */
+  private final List<Map<String, Object>> messageRows = new ArrayList<>();
+  private final List<Map<String, Object>> entryRows = new ArrayList<>();
+  private final Map<ContentValues, Map<String, Object>> contentValuesMaps = new IdentityHashMap<>();
+
+  @Before
+  public void setUp() throws Exception {
+    database = PowerMockito.mock(BriteDatabase.class);
+    when(database.newTransaction()).thenReturn(mock(BriteDatabase.Transaction.class));
+
+    Moshi moshi = new Moshi.Builder()
+        .add(Message.class, new FakeMessageJsonAdapter())
+        .build();
+    inboxRepository = new InboxRepository(null, database, () -> new MoshiAdapter(moshi), null);
+
+    fakeMessageTables();
+  }
+
+  @Test
+  public void emitAddedAndRemovedUnreads() throws Exception {
+    saveUnread("t4_a");
+    saveUnread("t4_b");
+
+    InboxRepository.UnreadMessagesDiff diff = inboxRepository.saveUnreadMessages(Arrays.asList(message("t4_b"), message("t4_c")));
+
+    assertThat(fullnamesOf(diff.added())).containsExactly("t4_c");
+    assertThat(diff.removed()).hasSize(1);
+    assertThat(diff.removed().get(0).fullname()).isEqualTo("t4_a");
+  }
+
+  @Test
+  public void emitEmptyDiff_whenUnreadsHaveNotChanged() throws Exception {
+    saveUnread("t4_a");
+    saveUnread("t4_b");
+
+    InboxRepository.UnreadMessagesDiff diff = inboxRepository.saveUnreadMessages(Arrays.asList(message("t4_a"), message("t4_b")));
+
+    assertThat(diff.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void deleteThreadsThatAreNoLongerUnread_alongWithTheirReplies() throws Exception {
+    saveUnread("t4_a");
+    saveEntry("t4_a_reply", InboxFolder.UNREAD, "t4_a");
+    saveEntry("t4_a", InboxFolder.PRIVATE_MESSAGES, "t4_a");
+
+    inboxRepository.saveUnreadMessages(Collections.singletonList(message("t4_b")));
+
+    assertThat(rowsOf(messageRows, InboxFolder.UNREAD)).containsExactly("t4_b");
+    assertThat(rowsOf(entryRows, InboxFolder.UNREAD)).containsExactly("t4_b");
+    assertThat(rowsOf(entryRows, InboxFolder.PRIVATE_MESSAGES)).containsExactly("t4_a");
+  }
+
+  @Test
+  public void removeAllUnreads_whenNoneAreReceived() throws Exception {
+    saveUnread("t4_a");
+
+    InboxRepository.UnreadMessagesDiff diff = inboxRepository.saveUnreadMessages(Collections.emptyList());
+
+    assertThat(diff.added()).isEmpty();
+    assertThat(diff.removed()).hasSize(1);
+    assertThat(rowsOf(entryRows, InboxFolder.UNREAD)).isEmpty();
+  }
+
+  private void saveUnread(String fullname) {
+    Map<String, Object> messageRow = new HashMap<>();
+    messageRow.put(COLUMN_FULLNAME, fullname);
+    messageRow.put(COLUMN_FOLDER, InboxFolder.UNREAD.name());
+    messageRows.add(messageRow);
+    saveEntry(fullname, InboxFolder.UNREAD, fullname);
+  }
+
+  private void saveEntry(String fullname, InboxFolder folder, String threadFullname) {
+    Map<String, Object> entryRow = new HashMap<>();
+    entryRow.put(COLUMN_FULLNAME, fullname);
+    entryRow.put(COLUMN_FOLDER, folder.name());
+    entryRow.put(COLUMN_THREAD_FULLNAME, threadFullname);
+    entryRow.put(COLUMN_CREATED_TIME_MILLIS, 0L);
+    entryRows.add(entryRow);
+  }
+
+  private static List<String> rowsOf(List<Map<String, Object>> rows, InboxFolder folder) {
+    List<String> fullnames = new ArrayList<>();
+    for (Map<String, Object> row : rows) {
+      if (folder.name().equals(row.get(COLUMN_FOLDER))) {
+        fullnames.add((String) row.get(COLUMN_FULLNAME));
+      }
+    }
+    return fullnames;
+  }
+
+  private static List<String> fullnamesOf(List<Message> messages) {
+    List<String> fullnames = new ArrayList<>();
+    for (Message message : messages) {
+      fullnames.add(message.getFullName());
+    }
+    return fullnames;
+  }
+
+  private static Message message(String fullname) {
+    Message message = mock(Message.class);
+    when(message.getFullName()).thenReturn(fullname);
+    when(message.getCreated()).thenReturn(new Date(0));
+    when(message.isComment()).thenReturn(true);
+    return message;
+  }
+
+  /**
+   * Backs inserts, deletes and diff queries of the message tables with {@link #messageRows} and {@link #entryRows}.
+   */
+  private void fakeMessageTables() throws Exception {
+    PowerMockito.whenNew(ContentValues.class).withAnyArguments().thenAnswer(o -> fakeContentValues());
+
+    when(database.insert(eq(CachedMessage.TABLE_NAME), any(ContentValues.class), anyInt())).thenAnswer(invocation -> {
+      Map<String, Object> row = contentValuesMaps.get((ContentValues) invocation.getArguments()[1]);
+      removeRows(messageRows, COLUMN_FULLNAME, (String) row.get(COLUMN_FOLDER), (String) row.get(COLUMN_FULLNAME));
+      messageRows.add(row);
+      return (long) messageRows.size();
+    });
+
+    when(database.insert(eq(CachedMessageEntry.TABLE_NAME), any(ContentValues.class), anyInt())).thenAnswer(invocation -> {
+      Map<String, Object> row = contentValuesMaps.get((ContentValues) invocation.getArguments()[1]);
+      removeRows(entryRows, COLUMN_FULLNAME, (String) row.get(COLUMN_FOLDER), (String) row.get(COLUMN_FULLNAME));
+      entryRows.add(row);
+      return (long) entryRows.size();
+    });
+
+    when(database.delete(eq(CachedMessage.TABLE_NAME), eq(CachedMessage.WHERE_FOLDER_AND_FULLNAME), (String[]) anyVararg())).thenAnswer(invocation ->
+        removeRows(messageRows, COLUMN_FULLNAME, (String) invocation.getArguments()[2], (String) invocation.getArguments()[3]));
+
+    when(database.delete(eq(CachedMessageEntry.TABLE_NAME), eq(CachedMessageEntry.WHERE_FOLDER_AND_THREAD_FULLNAME), (String[]) anyVararg())).thenAnswer(invocation ->
+        removeRows(entryRows, COLUMN_THREAD_FULLNAME, (String) invocation.getArguments()[2], (String) invocation.getArguments()[3]));
+
+    when(database.query(anyString(), (String[]) anyVararg())).thenAnswer(invocation -> {
+      Object[] arguments = invocation.getArguments();
+      String sql = (String) arguments[0];
+      String folder = (String) arguments[1];
+      List<Object> boundFullnames = Arrays.asList(arguments).subList(2, arguments.length);
+
+      boolean wantsPresent;
+      if (sql.equals(CachedMessageEntry.queryGetThreadsInFolderIn(boundFullnames.size()))) {
+        wantsPresent = true;
+      } else if (sql.equals(CachedMessageEntry.queryGetThreadsInFolderNotIn(boundFullnames.size()))) {
+        wantsPresent = false;
+      } else {
+        throw new AssertionError("Unknown query: " + sql);
+      }
+
+      List<Map<String, Object>> threadRows = new ArrayList<>();
+      for (Map<String, Object> row : entryRows) {
+        boolean isThread = row.get(COLUMN_FULLNAME).equals(row.get(COLUMN_THREAD_FULLNAME));
+        if (isThread && folder.equals(row.get(COLUMN_FOLDER)) && boundFullnames.contains(row.get(COLUMN_FULLNAME)) == wantsPresent) {
+          threadRows.add(row);
+        }
+      }
+      return cursorOf(threadRows);
+    });
+  }
+
+  private static int removeRows(List<Map<String, Object>> rows, String column, String folder, String value) {
+    int removedCount = 0;
+    for (int i = rows.size() - 1; i >= 0; i--) {
+      Map<String, Object> row = rows.get(i);
+      if (folder.equals(row.get(COLUMN_FOLDER)) && value.equals(row.get(column))) {
+        rows.remove(i);
+        removedCount++;
+      }
+    }
+    return removedCount;
+  }
+
+  private static Cursor cursorOf(List<Map<String, Object>> rows) {
+    int[] position = { -1 };
+    Cursor cursor = mock(Cursor.class);
+    when(cursor.moveToNext()).thenAnswer(o -> ++position[0] < rows.size());
+    when(cursor.getColumnIndexOrThrow(anyString())).thenAnswer(invocation -> ENTRY_COLUMNS.indexOf((String) invocation.getArguments()[0]));
+    when(cursor.getString(anyInt())).thenAnswer(invocation -> rows.get(position[0]).get(ENTRY_COLUMNS.get((int) invocation.getArguments()[0])));
+    when(cursor.getLong(anyInt())).thenAnswer(invocation -> rows.get(position[0]).get(ENTRY_COLUMNS.get((int) invocation.getArguments()[0])));
+    return cursor;
+  }
+
+  private ContentValues fakeContentValues() {
+    ContentValues contentValues = PowerMockito.mock(ContentValues.class);
+    Map<String, Object> values = new HashMap<>();
+    contentValuesMaps.put(contentValues, values);
+    doAnswer(invocation -> values.put((String) invocation.getArguments()[0], invocation.getArguments()[1]))
+        .when(contentValues).put(anyString(), anyString());
+    doAnswer(invocation -> values.put((String) invocation.getArguments()[0], invocation.getArguments()[1]))
+        .when(contentValues).put(anyString(), any(Long.class));
+    return contentValues;
+  }
+
+  /**
+   * Stored message JSON is never read by the unread diff. It only has to pass {@link CachedMessage}'s sanity check.
+   */
+  private static class FakeMessageJsonAdapter extends JsonAdapter<Message> {
+    @Override
+    public Message fromJson(JsonReader reader) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void toJson(JsonWriter writer, Message message) throws IOException {
+      writer.beginObject();
+      writer.name("name").value(message.getFullName());
+      writer.name("distinguished").value(false);
+      writer.endObject();
+    }
+  }
+}
@@ -11,12 +11,14 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
 import io.reactivex.Completable;
 import io.reactivex.Single;
 import me.saket.dank.notifs.MessagesNotificationManager.SeenUnreadMessagesIdStore;
+import me.saket.dank.utils.JrawUtils2;
 
 public class MessagesNotificationManagerTest {
 
@@ -122,4 +124,15 @@ public class MessagesNotificationManagerTest {
         .blockingGet();
     assertEquals(filteredUnseenMessages.size(), 0);
   }
+
+  @Test
+  public void notificationIdsOfUndecodedMessages_shouldMatchThoseOfDecodedMessages() {
+    Message mockedMessage = mock(Message.class);
+    when(mockedMessage.getFullName()).thenReturn("t4_c4xo11");
+    when(mockedMessage.getCreated()).thenReturn(new Date(1528532315000L));
+
+    int expectedId = (int) (NotificationConstants.UNREAD_MESSAGE_PREFIX_.hashCode() + JrawUtils2.generateAdapterId(mockedMessage));
+    assertEquals(expectedId, MessagesNotificationManager.createNotificationIdFor(mockedMessage));
+    assertEquals(expectedId, MessagesNotificationManager.createNotificationIdFor("t4_c4xo11", 1528532315000L));
+  }
 }
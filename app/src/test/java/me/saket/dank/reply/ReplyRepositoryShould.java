@@ -1,43 +1,63 @@
 package me.saket.dank.reply;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.annotation.SuppressLint;
+import android.content.ContentValues;
 import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 
-import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
+import com.squareup.sqlbrite2.BriteDatabase;
+import com.squareup.sqlbrite2.QueryObservable;
 
 import net.dean.jraw.models.Identifiable;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.TimeZone;
 
 import hirondelle.date4j.DateTime;
+import io.reactivex.Observable;
+import io.reactivex.functions.Function;
 import me.saket.dank.data.ErrorResolver;
 import me.saket.dank.utils.AutoValueMoshiAdapterFactory;
 
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ BriteDatabase.class, QueryObservable.class, ContentValues.class, ReplyDraft.class })
 public class ReplyRepositoryShould {
 
   private static final int RECYCLE_DRAFTS_IN_DAYS = 14;
+  private static final String COLUMN_PARENT_CONTRIBUTION_FULL_NAME = "parent_contribution_full_name";
+  private static final String COLUMN_BODY = "body";
 
   @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
 
@@ -47,58 +67,184 @@ public class ReplyRepositoryShould {
 
   @Captor ArgumentCaptor<String> stringArgCaptor;
 
+  private BriteDatabase database;
   private ReplyRepository replyRepository;
-  private JsonAdapter<ReplyDraft> replyDraftJsonAdapter;
+  private Moshi moshi;
+
+  /** Rows of the draft table, keyed by their parent's full-name. Read and written through {@link #database}. */
+  private final Map<String, Map<String, Object>> draftRows = new HashMap<>();
+  private final Map<ContentValues, Map<String, Object>> contentValuesMaps = new IdentityHashMap<>();
 
   @Before
   @SuppressLint("CommitPrefEdits")
-  public void setUp() {
-    Moshi moshi = new Moshi.Builder().add(AutoValueMoshiAdapterFactory.create()).build();
-    replyRepository = spy(new ReplyRepository(
-        null,
+  public void setUp() throws Exception {
+    database = PowerMockito.mock(BriteDatabase.class);
+    moshi = new Moshi.Builder().add(AutoValueMoshiAdapterFactory.create()).build();
+    replyRepository = new ReplyRepository(
         null,
+        database,
         null,
         sharedPrefs,
         moshi,
         RECYCLE_DRAFTS_IN_DAYS,
-        () -> errorResolver));
-    replyDraftJsonAdapter = moshi.adapter(ReplyDraft.class);
+        () -> errorResolver);
 
+    // No drafts left in shared prefs to migrate.
+    when(sharedPrefs.getAll()).thenAnswer(o -> Collections.emptyMap());
     when(sharedPrefs.edit()).thenReturn(sharedPrefsEditor);
-    when(sharedPrefsEditor.putString(anyString(), anyString())).thenReturn(sharedPrefsEditor);
-    when(sharedPrefsEditor.remove(anyString())).thenReturn(sharedPrefsEditor);
+    when(sharedPrefsEditor.clear()).thenReturn(sharedPrefsEditor);
+
+    fakeDraftTable();
+  }
+
+  @Test
+  public void onSaveDraft_shouldReplaceExistingDraftOfSameParent() {
+    Identifiable parentComment = mock(Identifiable.class);
+    when(parentComment.getFullName()).thenReturn("fullName");
+
+    replyRepository.saveDraft(parentComment, "first draft")
+        .test()
+        .assertValue(DraftSaveResult.SAVED_OR_UPDATED);
+    replyRepository.saveDraft(parentComment, "second draft")
+        .test()
+        .assertValue(DraftSaveResult.SAVED_OR_UPDATED);
+
+    verify(database, times(2)).insert(eq(ReplyDraft.TABLE_NAME), any(ContentValues.class), eq(SQLiteDatabase.CONFLICT_REPLACE));
+    assertEquals(1, draftRows.size());
+    replyRepository.streamDrafts(parentComment)
+        .test()
+        .assertValue("second draft");
+  }
+
+  @Test
+  public void onStreamDraft_shouldEmitEmptyBody_whenNoDraftIsSaved() {
+    Identifiable parentComment = mock(Identifiable.class);
+    when(parentComment.getFullName()).thenReturn("fullName");
+
+    replyRepository.streamDrafts(parentComment)
+        .test()
+        .assertValue("");
   }
 
   @Test
   @SuppressLint("CommitPrefEdits")
-  public void onSaveDraft_shouldSaveDraft_shouldCallRecycleDrafts() throws Exception {
+  public void onMigrateDrafts_shouldMoveDraftsFromSharedPrefsToDatabase() {
+    Map<String, Object> legacyDrafts = new HashMap<>();
+    legacyDrafts.put("replyDraftFor_t1_a", legacyDraftJson("draft for a"));
+    legacyDrafts.put("replyDraftFor_t3_b", legacyDraftJson("draft for b"));
+    legacyDrafts.put("replyDraftFor_t1_c", legacyDraftJson("older draft for c"));
+    legacyDrafts.put("someOtherKey", 42);
+    when(sharedPrefs.getAll()).thenAnswer(o -> legacyDrafts);
+    BriteDatabase.Transaction transaction = mock(BriteDatabase.Transaction.class);
+    when(database.newTransaction()).thenReturn(transaction);
+
+    // Drafts saved in the database already are newer than ones left in shared prefs.
+    draftRows.put("t1_c", Collections.singletonMap(COLUMN_BODY, "newer draft for c"));
+
+    replyRepository.migrateDraftsFromSharedPrefs();
+
+    assertEquals(3, draftRows.size());
+    assertEquals("draft for a", draftRows.get("t1_a").get(COLUMN_BODY));
+    assertEquals("draft for b", draftRows.get("t3_b").get(COLUMN_BODY));
+    assertEquals("newer draft for c", draftRows.get("t1_c").get(COLUMN_BODY));
+    verify(transaction).markSuccessful();
+    verify(sharedPrefsEditor).clear();
+    verify(sharedPrefsEditor).apply();
+  }
+
+  @Test
+  public void onMigrateDrafts_shouldOnlyRunOnce() {
     Identifiable parentComment = mock(Identifiable.class);
     when(parentComment.getFullName()).thenReturn("fullName");
-    when(sharedPrefs.getAll()).thenReturn(Collections.emptyMap());
 
-    replyRepository.saveDraft(parentComment, "draft").subscribe();
+    replyRepository.streamDrafts(parentComment).test();
+    replyRepository.saveDraft(parentComment, "draft").test();
+    replyRepository.streamDrafts(parentComment).test();
+
+    verify(sharedPrefs, times(1)).getAll();
+  }
+
+  @Test
+  @SuppressLint("CommitPrefEdits")
+  public void onSaveEmptyDraft_shouldRemoveDraft() {
+    Identifiable parentComment = mock(Identifiable.class);
+    when(parentComment.getFullName()).thenReturn("fullName");
 
-    // Verify that the draft was saved.
-    verify(sharedPrefsEditor).putString(stringArgCaptor.capture(), stringArgCaptor.capture());
-    assertEquals(stringArgCaptor.getAllValues().get(0), ReplyRepository.keyForDraft(parentComment));
-    ReplyDraft savedReplyDraft = replyDraftJsonAdapter.fromJson(stringArgCaptor.getAllValues().get(1));
-    //noinspection ConstantConditions
-    assertEquals(savedReplyDraft.body(), "draft");
+    replyRepository.saveDraft(parentComment, "")
+        .test()
+        .assertValue(DraftSaveResult.REMOVED);
 
-    verify(replyRepository).recycleOldDrafts(any());
+    verify(database).delete(ReplyDraft.TABLE_NAME, ReplyDraft.WHERE_PARENT_CONTRIBUTION_FULL_NAME, "fullName");
+    verify(sharedPrefs, never()).edit();
   }
 
   @Test
-  public void onRecycleOldDrafts_shouldCorrectlyRecycleStaleDrafts() {
-    Map<String, ReplyDraft> savedDrafts = new HashMap<>();
-    DateTime twoWeeksOldDate = DateTime.forInstant(System.currentTimeMillis(), TimeZone.getTimeZone("UTC")).minusDays(RECYCLE_DRAFTS_IN_DAYS + 1);
-    long twoWeeksOldTimeMillis = twoWeeksOldDate.getMilliseconds(TimeZone.getTimeZone("UTC"));
-    savedDrafts.put("oldKey", ReplyDraft.create("oldDraft", twoWeeksOldTimeMillis));
-    savedDrafts.put("newKey", ReplyDraft.create("newDraft", System.currentTimeMillis()));
+  public void onRecycleOldDrafts_shouldDeleteDraftsOlderThanRetainDuration() {
+    when(database.delete(eq(ReplyDraft.TABLE_NAME), eq(ReplyDraft.WHERE_CREATED_BEFORE), stringArgCaptor.capture())).thenReturn(2);
 
-    replyRepository.recycleOldDrafts(savedDrafts);
+    replyRepository.recycleOldDrafts()
+        .test()
+        .assertValue(2);
+
+    DateTime expectedDateLimit = DateTime.now(TimeZone.getTimeZone("UTC")).minusDays(RECYCLE_DRAFTS_IN_DAYS);
+    long expectedDateLimitMillis = expectedDateLimit.getMilliseconds(TimeZone.getTimeZone("UTC"));
+    long dateLimitMillis = Long.parseLong(stringArgCaptor.getValue());
+    assertTrue(Math.abs(expectedDateLimitMillis - dateLimitMillis) < 60_000);
+  }
+
+  private String legacyDraftJson(String body) {
+    return moshi.adapter(ReplyDraft.class).toJson(ReplyDraft.create(body, System.currentTimeMillis()));
+  }
+
+  /**
+   * Backs inserts and queries of the draft table with {@link #draftRows}, honoring their conflict algorithms.
+   */
+  @SuppressWarnings("unchecked")
+  private void fakeDraftTable() throws Exception {
+    PowerMockito.whenNew(ContentValues.class).withAnyArguments().thenAnswer(o -> fakeContentValues());
+
+    when(database.insert(eq(ReplyDraft.TABLE_NAME), any(ContentValues.class), anyInt())).thenAnswer(invocation -> {
+      Map<String, Object> row = contentValuesMaps.get((ContentValues) invocation.getArguments()[1]);
+      String parentFullName = (String) row.get(COLUMN_PARENT_CONTRIBUTION_FULL_NAME);
+      int conflictAlgorithm = (int) invocation.getArguments()[2];
+
+      if (draftRows.containsKey(parentFullName) && conflictAlgorithm != SQLiteDatabase.CONFLICT_REPLACE) {
+        return -1L;
+      }
+      draftRows.put(parentFullName, row);
+      return (long) draftRows.size();
+    });
+
+    when(database.createQuery(eq(ReplyDraft.TABLE_NAME), eq(ReplyDraft.QUERY_GET_BODY_FOR_PARENT), (String[]) anyVararg())).thenAnswer(invocation -> {
+      String parentFullName = (String) invocation.getArguments()[2];
+      QueryObservable query = PowerMockito.mock(QueryObservable.class);
+      when(query.mapToOneOrDefault(any(Function.class), any())).thenAnswer(mapInvocation -> {
+        Function<Cursor, String> mapper = (Function<Cursor, String>) mapInvocation.getArguments()[0];
+        Object defaultValue = mapInvocation.getArguments()[1];
+        return Observable.fromCallable(() -> {
+          Map<String, Object> row = draftRows.get(parentFullName);
+          return row == null ? defaultValue : mapper.apply(cursorOf(row));
+        });
+      });
+      return query;
+    });
+  }
+
+  private static Cursor cursorOf(Map<String, Object> row) {
+    Cursor cursor = mock(Cursor.class);
+    when(cursor.getColumnIndexOrThrow(COLUMN_BODY)).thenReturn(0);
+    when(cursor.getString(0)).thenReturn((String) row.get(COLUMN_BODY));
+    return cursor;
+  }
 
-    verify(sharedPrefsEditor).remove("oldKey");
-    verify(sharedPrefsEditor, never()).remove("newKey");
+  private ContentValues fakeContentValues() {
+    ContentValues contentValues = PowerMockito.mock(ContentValues.class);
+    Map<String, Object> values = new HashMap<>();
+    contentValuesMaps.put(contentValues, values);
+    doAnswer(invocation -> values.put((String) invocation.getArguments()[0], invocation.getArguments()[1]))
+        .when(contentValues).put(anyString(), anyString());
+    doAnswer(invocation -> values.put((String) invocation.getArguments()[0], invocation.getArguments()[1]))
+        .when(contentValues).put(anyString(), any(Long.class));
+    return contentValues;
   }
 }
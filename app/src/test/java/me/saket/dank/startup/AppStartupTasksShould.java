@@ -0,0 +1,154 @@
+package me.saket.dank.startup;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import android.os.Build;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs DankApplication's real {@link AppStartupTasks} through {@link StartupRunner} and checks which thread each
+ * of them ended up on. Android classes can't be used on the JVM, so tasks only record their thread instead of
+ * doing their work. How long the tasks take is logged by {@link StartupTrace} on a real device.
+ */
+public class AppStartupTasksShould {
+
+  @Test
+  public void runOnlyViewAndTimeSetupOnTheMainThread() throws Exception {
+    assertThat(threadsOfTasks(false, Build.VERSION_CODES.N)).containsExactly(
+        "view_pump", Where.MAIN_THREAD,
+        "typeface_preference", Where.BACKGROUND,
+        "reddit_client", Where.BACKGROUND,
+        "three_ten", Where.MAIN_THREAD,
+        "delayed_tasks", Where.BACKGROUND);
+  }
+
+  @Test
+  public void runChannelsInTheBackground_andExceptionHandlerOnTheMainThread_onOreo() throws Exception {
+    Map<String, Where> threads = threadsOfTasks(false, Build.VERSION_CODES.O);
+
+    assertThat(threads).containsEntry("notification_channels", Where.BACKGROUND);
+    assertThat(threads).containsEntry("uncaught_exception_handler", Where.MAIN_THREAD);
+    assertThat(threads).doesNotContainKey("stetho");
+  }
+
+  @Test
+  public void runStethoInTheBackground_onDebugBuilds() throws Exception {
+    Map<String, Where> threads = threadsOfTasks(true, Build.VERSION_CODES.O);
+
+    assertThat(threads).containsEntry("stetho", Where.BACKGROUND);
+    assertThat(threads).hasSize(AppStartupTasks.create(new ThreadRecorder(), true, Build.VERSION_CODES.O).size());
+  }
+
+  private enum Where {
+    MAIN_THREAD,
+    BACKGROUND
+  }
+
+  /**
+   * Background tasks are held back until {@link StartupRunner#run(List)} returns. If the main thread waits
+   * for any of them, the run never returns.
+   */
+  private static Map<String, Where> threadsOfTasks(boolean isDebugBuild, int sdkInt) throws Exception {
+    ThreadRecorder recorder = new ThreadRecorder();
+    List<StartupTask> tasks = AppStartupTasks.create(recorder, isDebugBuild, sdkInt);
+    List<Runnable> heldBackgroundTasks = new ArrayList<>();
+    StartupRunner runner = new StartupRunner(StartupTrace.startNow(), heldBackgroundTasks::add);
+
+    ExecutorService mainThread = Executors.newSingleThreadExecutor();
+    ExecutorService backgroundThread = Executors.newSingleThreadExecutor();
+    try {
+      Future<Thread> run = mainThread.submit(() -> {
+        //noinspection ResultOfMethodCallIgnored
+        runner.run(tasks);
+        return Thread.currentThread();
+      });
+
+      Thread runThread;
+      try {
+        runThread = run.get(5, TimeUnit.SECONDS);
+      } catch (TimeoutException e) {
+        fail("The main thread waited for a background task");
+        return null;
+      }
+
+      for (Runnable backgroundTask : heldBackgroundTasks) {
+        backgroundThread.execute(backgroundTask);
+      }
+      backgroundThread.shutdown();
+      assertThat(backgroundThread.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+
+      Map<String, Where> threadsByTask = new HashMap<>();
+      for (StartupTask task : tasks) {
+        Thread thread = recorder.threadsByTask.get(task.name());
+        assertThat(thread).named(task.name()).isNotNull();
+        threadsByTask.put(task.name(), thread == runThread ? Where.MAIN_THREAD : Where.BACKGROUND);
+      }
+      return threadsByTask;
+
+    } finally {
+      mainThread.shutdownNow();
+      backgroundThread.shutdownNow();
+    }
+  }
+
+  private static class ThreadRecorder implements AppStartupTasks.Initializers {
+    final Map<String, Thread> threadsByTask = new ConcurrentHashMap<>();
+
+    private void record(String taskName) {
+      threadsByTask.put(taskName, Thread.currentThread());
+    }
+
+    @Override
+    public void initStetho() {
+      record("stetho");
+    }
+
+    @Override
+    public void initViewPump() {
+      record("view_pump");
+    }
+
+    @Override
+    public void preloadTypeface() {
+      record("typeface_preference");
+    }
+
+    @Override
+    public void registerNotificationChannels() {
+      record("notification_channels");
+    }
+
+    @Override
+    public void setUncaughtExceptionHandler() {
+      record("uncaught_exception_handler");
+    }
+
+    @Override
+    public void initRedditClient() {
+      record("reddit_client");
+    }
+
+    @Override
+    public void initThreeTen() {
+      record("three_ten");
+    }
+
+    @Override
+    public void startDelayedTasks() {
+      record("delayed_tasks");
+    }
+  }
+}
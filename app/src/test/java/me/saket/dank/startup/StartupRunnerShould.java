@@ -0,0 +1,112 @@
+package me.saket.dank.startup;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.plugins.RxJavaPlugins;
+
+public class StartupRunnerShould {
+
+  private final List<String> executedTasks = Collections.synchronizedList(new ArrayList<>());
+  private final List<Throwable> reportedErrors = Collections.synchronizedList(new ArrayList<>());
+  private ExecutorService executor;
+  private StartupTrace trace;
+  private StartupRunner runner;
+
+  @Before
+  public void setUp() {
+    RxJavaPlugins.setErrorHandler(reportedErrors::add);
+    executor = Executors.newFixedThreadPool(2);
+    trace = StartupTrace.startNow();
+    runner = new StartupRunner(trace, executor);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    RxJavaPlugins.reset();
+  }
+
+  @Test
+  public void runMainThreadTasks_onCallingThread_inOrder() {
+    Thread callingThread = Thread.currentThread();
+    List<Thread> threads = new ArrayList<>();
+
+    runner.run(Arrays.asList(
+        StartupTask.onMainThread("a", () -> {
+          threads.add(Thread.currentThread());
+          executedTasks.add("a");
+        }),
+        StartupTask.onMainThread("b", () -> {
+          threads.add(Thread.currentThread());
+          executedTasks.add("b");
+        })));
+
+    assertThat(executedTasks).containsExactly("a", "b").inOrder();
+    assertThat(threads).containsExactly(callingThread, callingThread);
+  }
+
+  @Test
+  public void startTasks_onlyAfterTheirDependenciesFinish() {
+    runner.run(Arrays.asList(
+        StartupTask.inBackground("slow", () -> {
+          Thread.sleep(100);
+          executedTasks.add("slow");
+        }),
+        StartupTask.inBackground("dependent", () -> executedTasks.add("dependent")).dependsOn("slow"),
+        StartupTask.onMainThread("main", () -> executedTasks.add("main")).dependsOn("slow")))
+        .blockingAwait(5, TimeUnit.SECONDS);
+
+    assertThat(executedTasks).hasSize(3);
+    assertThat(executedTasks.get(0)).isEqualTo("slow");
+  }
+
+  @Test
+  public void skipDependents_andReportError_whenATaskFails() {
+    RuntimeException error = new RuntimeException("Failed");
+
+    runner.run(Arrays.asList(
+        StartupTask.inBackground("failing", () -> {
+          throw error;
+        }),
+        StartupTask.inBackground("dependent", () -> executedTasks.add("dependent")).dependsOn("failing"),
+        StartupTask.inBackground("independent", () -> executedTasks.add("independent"))))
+        .blockingAwait(5, TimeUnit.SECONDS);
+
+    assertThat(executedTasks).containsExactly("independent");
+    assertThat(reportedErrors).containsExactly(error);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void reject_dependenciesListedAfterTheirDependents() {
+    //noinspection ResultOfMethodCallIgnored
+    runner.run(Arrays.asList(
+        StartupTask.onMainThread("dependent", () -> executedTasks.add("dependent")).dependsOn("dependency"),
+        StartupTask.onMainThread("dependency", () -> executedTasks.add("dependency"))));
+  }
+
+  @Test
+  public void recordASpan_forEveryExecutedTask() {
+    runner.run(Arrays.asList(
+        StartupTask.onMainThread("main", () -> executedTasks.add("main")),
+        StartupTask.inBackground("background", () -> executedTasks.add("background"))))
+        .blockingAwait(5, TimeUnit.SECONDS);
+
+    List<String> spanNames = new ArrayList<>();
+    for (StartupTrace.Span span : trace.completedSpans()) {
+      spanNames.add(span.name());
+    }
+    assertThat(spanNames).containsExactly("main", "background");
+  }
+}
@@ -0,0 +1,326 @@
+package me.saket.dank.ui.media;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import me.saket.dank.urlparser.MediaLink;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+public class MediaFileDownloaderShould {
+
+  private static final String URL = "https://i.redd.it/abc.jpg";
+  private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(Charset.forName("UTF-8"));
+  private static final String ETAG = "\"v1\"";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final List<Request> receivedRequests = new CopyOnWriteArrayList<>();
+  private MediaLink mediaLink;
+  private File destination;
+
+  @Before
+  public void setUp() throws IOException {
+    mediaLink = mock(MediaLink.class);
+    destination = new File(temporaryFolder.getRoot(), "abc.jpg");
+  }
+
+  @Test
+  public void downloadStraightToDestination() throws IOException {
+    MediaFileDownloader downloader = downloaderWithServer(fakeServer(true));
+
+    MediaDownloadJob lastJob = downloader.download(mediaLink, URL, destination).blockingLast();
+
+    assertThat(lastJob.progressState()).isEqualTo(MediaDownloadJob.ProgressState.DOWNLOADED);
+    assertThat(lastJob.downloadedFile()).isEqualTo(destination);
+    assertThat(Files.readAllBytes(destination.toPath())).isEqualTo(CONTENT);
+    assertThat(partialFile().exists()).isFalse();
+    assertThat(receivedRequests.get(0).header("Range")).isNull();
+  }
+
+  @Test
+  public void resumeFromPartialFile() throws IOException {
+    writePartialFile(Arrays.copyOfRange(CONTENT, 0, 8));
+    MediaFileDownloader downloader = downloaderWithServer(fakeServer(true));
+
+    downloader.download(mediaLink, URL, destination).blockingLast();
+
+    assertThat(receivedRequests).hasSize(1);
+    assertThat(receivedRequests.get(0).header("Range")).isEqualTo("bytes=8-");
+    assertThat(receivedRequests.get(0).header("If-Range")).isEqualTo(ETAG);
+    assertThat(Files.readAllBytes(destination.toPath())).isEqualTo(CONTENT);
+    assertThat(MediaFileDownloader.validatorFileFor(partialFile()).exists()).isFalse();
+  }
+
+  @Test
+  public void rememberValidator_forResumingLater() throws IOException {
+    MediaFileDownloader downloader = downloaderWithServer(chain -> {
+      Source connectionResetHalfway = new ForwardingSource(new Buffer().write(Arrays.copyOfRange(CONTENT, 0, 8))) {
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+          long bytesRead = super.read(sink, byteCount);
+          if (bytesRead == -1) {
+            throw new IOException("Connection reset");
+          }
+          return bytesRead;
+        }
+      };
+      return fakeServer(true).intercept(chain).newBuilder()
+          .body(ResponseBody.create(null, CONTENT.length, Okio.buffer(connectionResetHalfway)))
+          .build();
+    });
+
+    downloader.download(mediaLink, URL, destination).test().assertError(IOException.class);
+
+    assertThat(partialFile().length()).isEqualTo(8);
+    assertThat(new String(Files.readAllBytes(MediaFileDownloader.validatorFileFor(partialFile()).toPath()), "UTF-8")).isEqualTo(ETAG);
+  }
+
+  @Test
+  public void notResumeFromPartialFile_withoutAValidator() throws IOException {
+    Files.write(partialFile().toPath(), Arrays.copyOfRange(CONTENT, 0, 8));
+    MediaFileDownloader downloader = downloaderWithServer(fakeServer(true));
+
+    downloader.download(mediaLink, URL, destination).blockingLast();
+
+    assertThat(receivedRequests.get(0).header("Range")).isNull();
+    assertThat(Files.readAllBytes(destination.toPath())).isEqualTo(CONTENT);
+  }
+
+  @Test
+  public void startOver_whenMediaHasChanged() throws IOException {
+    writePartialFile("xxxxxxxx".getBytes(Charset.forName("UTF-8")), "\"v0\"");
+    MediaFileDownloader downloader = downloaderWithServer(fakeServer(true));
+
+    downloader.download(mediaLink, URL, destination).blockingLast();
+
+    assertThat(receivedRequests).hasSize(1);
+    assertThat(Files.readAllBytes(destination.toPath())).isEqualTo(CONTENT);
+  }
+
+  @Test
+  public void startOver_whenContentRangeDoesNotStartAtPartialFileLength() throws IOException {
+    writePartialFile(Arrays.copyOfRange(CONTENT, 0, 8));
+    MediaFileDownloader downloader = downloaderWithServer(chain -> {
+      Request request = chain.request();
+      if (request.header("Range") == null) {
+        return fakeServer(true).intercept(chain);
+      }
+      return response(request, 206, Arrays.copyOfRange(CONTENT, 10, CONTENT.length))
+          .newBuilder()
+          .header("Content-Range", "bytes 10-19/20")
+          .build();
+    });
+
+    downloader.download(mediaLink, URL, destination).blockingLast();
+
+    assertThat(receivedRequests).hasSize(2);
+    assertThat(receivedRequests.get(1).header("Range")).isNull();
+    assertThat(Files.readAllBytes(destination.toPath())).isEqualTo(CONTENT);
+  }
+
+  @Test
+  public void keepPartialFilesOfDifferentUrlsApart() {
+    File otherPartialFile = MediaFileDownloader.partialFileFor(destination, "https://i.imgur.com/abc.jpg");
+
+    assertThat(otherPartialFile).isNotEqualTo(partialFile());
+    assertThat(otherPartialFile.getParentFile()).isEqualTo(partialFile().getParentFile());
+    assertThat(otherPartialFile.getName()).startsWith(".");
+  }
+
+  @Test
+  public void shareOneRequest_betweenDownloadsToTheSameDestination() throws Exception {
+    CountDownLatch serverBlocker = new CountDownLatch(1);
+    MediaFileDownloader downloader = downloaderWithServer(chain -> {
+      try {
+        serverBlocker.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      return fakeServer(true).intercept(chain);
+    });
+    MediaLink otherMediaLink = mock(MediaLink.class);
+
+    TestObserver<MediaDownloadJob> firstDownload = downloader.download(mediaLink, URL, destination)
+        .subscribeOn(Schedulers.io())
+        .test();
+    Thread.sleep(100);
+    TestObserver<MediaDownloadJob> secondDownload = downloader.download(otherMediaLink, URL, destination).test();
+    serverBlocker.countDown();
+
+    firstDownload.awaitTerminalEvent(5, TimeUnit.SECONDS);
+    secondDownload.awaitTerminalEvent(5, TimeUnit.SECONDS);
+
+    assertThat(receivedRequests).hasSize(1);
+    assertThat(lastValue(firstDownload).mediaLink()).isSameAs(mediaLink);
+    assertThat(lastValue(secondDownload).mediaLink()).isSameAs(otherMediaLink);
+    assertThat(lastValue(secondDownload).progressState()).isEqualTo(MediaDownloadJob.ProgressState.DOWNLOADED);
+    assertThat(Files.readAllBytes(destination.toPath())).isEqualTo(CONTENT);
+  }
+
+  @Test
+  public void discardPartialFile_ofOngoingDownload_onceItIsCanceled() throws Exception {
+    writePartialFile(Arrays.copyOfRange(CONTENT, 0, 8));
+    CountDownLatch requestReceived = new CountDownLatch(1);
+    MediaFileDownloader downloader = downloaderWithServer(chain -> {
+      requestReceived.countDown();
+      try {
+        new CountDownLatch(1).await();
+      } catch (InterruptedException e) {
+        // Canceled.
+      }
+      throw new IOException("Canceled");
+    });
+
+    TestObserver<MediaDownloadJob> download = downloader.download(mediaLink, URL, destination)
+        .subscribeOn(Schedulers.io())
+        .test();
+    assertThat(requestReceived.await(5, TimeUnit.SECONDS)).isTrue();
+
+    downloader.discardPartialDownload(URL, destination);
+    assertThat(partialFile().exists()).isTrue();
+
+    // Also interrupts the fake server.
+    download.dispose();
+    for (int i = 0; i < 50 && partialFile().exists(); i++) {
+      Thread.sleep(100);
+    }
+    assertThat(partialFile().exists()).isFalse();
+    assertThat(MediaFileDownloader.validatorFileFor(partialFile()).exists()).isFalse();
+  }
+
+  @Test
+  public void startOver_whenServerIgnoresRange() throws IOException {
+    writePartialFile(Arrays.copyOfRange(CONTENT, 0, 8));
+    MediaFileDownloader downloader = downloaderWithServer(fakeServer(false));
+
+    downloader.download(mediaLink, URL, destination).blockingLast();
+
+    assertThat(Files.readAllBytes(destination.toPath())).isEqualTo(CONTENT);
+  }
+
+  @Test
+  public void startOver_whenPartialFileIsLargerThanMedia() throws IOException {
+    byte[] staleContent = new byte[CONTENT.length + 10];
+    writePartialFile(staleContent);
+    MediaFileDownloader downloader = downloaderWithServer(fakeServer(true));
+
+    downloader.download(mediaLink, URL, destination).blockingLast();
+
+    assertThat(receivedRequests).hasSize(2);
+    assertThat(receivedRequests.get(1).header("Range")).isNull();
+    assertThat(Files.readAllBytes(destination.toPath())).isEqualTo(CONTENT);
+  }
+
+  @Test
+  public void keepPartialFile_whenDownloadFails() throws IOException {
+    writePartialFile(Arrays.copyOfRange(CONTENT, 0, 8));
+    MediaFileDownloader downloader = downloaderWithServer(chain -> response(chain.request(), 500, new byte[0]));
+
+    downloader.download(mediaLink, URL, destination).test().assertError(IOException.class);
+
+    assertThat(destination.exists()).isFalse();
+    assertThat(partialFile().length()).isEqualTo(8);
+  }
+
+  @Test
+  public void discardPartialFile() throws IOException {
+    writePartialFile(Arrays.copyOfRange(CONTENT, 0, 8));
+    MediaFileDownloader downloader = downloaderWithServer(fakeServer(true));
+
+    downloader.discardPartialDownload(URL, destination);
+
+    assertThat(partialFile().exists()).isFalse();
+    assertThat(MediaFileDownloader.validatorFileFor(partialFile()).exists()).isFalse();
+  }
+
+  private MediaFileDownloader downloaderWithServer(Interceptor server) {
+    OkHttpClient okHttpClient = new OkHttpClient.Builder()
+        .addInterceptor(chain -> {
+          receivedRequests.add(chain.request());
+          return chain.proceed(chain.request());
+        })
+        .addInterceptor(server)
+        .build();
+    return new MediaFileDownloader(okHttpClient);
+  }
+
+  private File partialFile() {
+    return MediaFileDownloader.partialFileFor(destination, URL);
+  }
+
+  private void writePartialFile(byte[] bytes) throws IOException {
+    writePartialFile(bytes, ETAG);
+  }
+
+  private void writePartialFile(byte[] bytes, String validator) throws IOException {
+    Files.write(partialFile().toPath(), bytes);
+    Files.write(MediaFileDownloader.validatorFileFor(partialFile()).toPath(), validator.getBytes(Charset.forName("UTF-8")));
+  }
+
+  private static MediaDownloadJob lastValue(TestObserver<MediaDownloadJob> observer) {
+    List<MediaDownloadJob> values = observer.values();
+    return values.get(values.size() - 1);
+  }
+
+  /**
+   * Responds with {@link #CONTENT} tagged with {@link #ETAG}, and understands "bytes=start-" ranges
+   * if <var>supportsRanges</var> is true.
+   */
+  private static Interceptor fakeServer(boolean supportsRanges) {
+    return chain -> {
+      Request request = chain.request();
+      String range = request.header("Range");
+      String ifRange = request.header("If-Range");
+      if (range == null || !supportsRanges || (ifRange != null && !ifRange.equals(ETAG))) {
+        return response(request, 200, CONTENT).newBuilder()
+            .header("ETag", ETAG)
+            .build();
+      }
+
+      int start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+      if (start >= CONTENT.length) {
+        return response(request, 416, new byte[0]);
+      }
+      return response(request, 206, Arrays.copyOfRange(CONTENT, start, CONTENT.length)).newBuilder()
+          .header("ETag", ETAG)
+          .header("Content-Range", "bytes " + start + "-" + (CONTENT.length - 1) + "/" + CONTENT.length)
+          .build();
+    };
+  }
+
+  private static Response response(Request request, int code, byte[] body) {
+    return new Response.Builder()
+        .request(request)
+        .protocol(Protocol.HTTP_1_1)
+        .code(code)
+        .message("")
+        .body(ResponseBody.create(null, body))
+        .build();
+  }
+}
@@ -0,0 +1,100 @@
+package me.saket.dank.ui.media;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import me.saket.dank.urlparser.ImgurAlbumUnresolvedLink;
+import me.saket.dank.urlparser.MediaLink;
+import me.saket.dank.urlparser.StreamableLink;
+import me.saket.dank.urlparser.StreamableUnresolvedLink;
+
+public class MediaLinkResolutionsShould {
+
+  private MediaLinkResolutions resolutions;
+
+  @Before
+  public void setUp() {
+    resolutions = new MediaLinkResolutions();
+  }
+
+  @Test
+  public void shareOneResolution_betweenConcurrentCallersOfTheSameLink() throws InterruptedException {
+    StreamableUnresolvedLink unresolvedLink = StreamableUnresolvedLink.create("https://streamable.com/abc", "abc");
+    StreamableLink resolvedLink = StreamableLink.create("https://streamable.com/abc", "https://cdn/abc.mp4", "https://cdn/abc-low.mp4");
+    CountDownLatch releaseResolution = new CountDownLatch(1);
+    AtomicInteger resolutionCount = new AtomicInteger();
+
+    List<TestObserver<MediaLink>> observers = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      observers.add(resolutions
+          .resolve(unresolvedLink, MediaLinkResolutions.MediaHost.STREAMABLE, () -> Single.fromCallable(() -> {
+            resolutionCount.incrementAndGet();
+            releaseResolution.await();
+            return resolvedLink;
+          }))
+          .test());
+    }
+    releaseResolution.countDown();
+
+    for (TestObserver<MediaLink> observer : observers) {
+      observer.awaitTerminalEvent(5, TimeUnit.SECONDS);
+      observer.assertValue(resolvedLink);
+    }
+    assertThat(resolutionCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void resolveAgain_onceTheLastResolutionHasFinished() {
+    StreamableUnresolvedLink unresolvedLink = StreamableUnresolvedLink.create("https://streamable.com/abc", "abc");
+    StreamableLink resolvedLink = StreamableLink.create("https://streamable.com/abc", "https://cdn/abc.mp4", "https://cdn/abc-low.mp4");
+    AtomicInteger resolutionCount = new AtomicInteger();
+
+    for (int i = 0; i < 2; i++) {
+      resolutions
+          .resolve(unresolvedLink, MediaLinkResolutions.MediaHost.STREAMABLE, () -> Single.fromCallable(() -> {
+            resolutionCount.incrementAndGet();
+            return resolvedLink;
+          }))
+          .blockingGet();
+    }
+
+    assertThat(resolutionCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void notRunMoreResolutionsOfAHostInParallel_thanItsMaxConcurrency() throws InterruptedException {
+    int linkCount = 8;
+    AtomicInteger runningResolutions = new AtomicInteger();
+    AtomicInteger maxRunningResolutions = new AtomicInteger();
+
+    List<TestObserver<MediaLink>> observers = new ArrayList<>();
+    for (int i = 0; i < linkCount; i++) {
+      ImgurAlbumUnresolvedLink unresolvedLink = ImgurAlbumUnresolvedLink.create("https://imgur.com/a/" + i, "album" + i);
+      observers.add(resolutions
+          .resolve(unresolvedLink, MediaLinkResolutions.MediaHost.IMGUR, () -> Single.fromCallable(() -> {
+            int running = runningResolutions.incrementAndGet();
+            maxRunningResolutions.accumulateAndGet(running, Math::max);
+            Thread.sleep(20);
+            runningResolutions.decrementAndGet();
+            return unresolvedLink;
+          }))
+          .test());
+    }
+
+    for (TestObserver<MediaLink> observer : observers) {
+      observer.awaitTerminalEvent(5, TimeUnit.SECONDS);
+      observer.assertComplete();
+    }
+    assertThat(maxRunningResolutions.get()).isAtMost(MediaLinkResolutions.MediaHost.IMGUR.maxConcurrency);
+  }
+}
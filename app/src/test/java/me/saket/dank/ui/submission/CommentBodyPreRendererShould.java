@@ -0,0 +1,239 @@
+package me.saket.dank.ui.submission;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import net.dean.jraw.models.Comment;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.observers.TestObserver;
+import me.saket.dank.utils.markdown.Markdown;
+
+public class CommentBodyPreRendererShould {
+
+  private Markdown markdown;
+  private ExecutorService pool;
+  private CommentBodyPreRenderer preRenderer;
+
+  /** Keeps the pool busy so that tasks queued after it don't start until it's released. */
+  private final CountDownLatch poolBlocker = new CountDownLatch(1);
+
+  @Before
+  public void setUp() {
+    markdown = mock(Markdown.class);
+    when(markdown.parse(any(Comment.class))).thenAnswer(invocation -> parsedBody((Comment) invocation.getArguments()[0]));
+
+    pool = Executors.newSingleThreadExecutor();
+    preRenderer = new CommentBodyPreRenderer(() -> markdown, pool);
+  }
+
+  @After
+  public void tearDown() {
+    poolBlocker.countDown();
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void parseOnCallingThread_whenPreRenderHasNotStarted() throws InterruptedException {
+    Comment comment = comment("t1_a");
+    blockPool();
+    preRenderer.preRender(Collections.singletonList(comment));
+
+    assertThat(preRenderer.body(comment).toString()).isEqualTo("parsed t1_a");
+
+    drainPool();
+    verify(markdown, times(1)).parse(comment);
+    assertThat(preRenderer.stats().missCount()).isEqualTo(1);
+    assertThat(preRenderer.stats().backgroundParseCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void waitForBodyInsteadOfParsingItAgain_whenItIsBeingPreRendered() throws Exception {
+    Comment comment = comment("t1_a");
+    CountDownLatch parseStarted = new CountDownLatch(1);
+    CountDownLatch parseBlocker = new CountDownLatch(1);
+    when(markdown.parse(comment)).thenAnswer(invocation -> {
+      parseStarted.countDown();
+      parseBlocker.await();
+      return "parsed t1_a";
+    });
+
+    preRenderer.preRender(Collections.singletonList(comment));
+    assertThat(parseStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+    ExecutorService caller = Executors.newSingleThreadExecutor();
+    Future<CharSequence> body = caller.submit(() -> preRenderer.body(comment));
+    Thread.sleep(100);
+    assertThat(body.isDone()).isFalse();
+
+    parseBlocker.countDown();
+    assertThat(body.get(5, TimeUnit.SECONDS).toString()).isEqualTo("parsed t1_a");
+    caller.shutdown();
+
+    verify(markdown, times(1)).parse(comment);
+    assertThat(preRenderer.stats().waitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void deferBody_untilItIsPreRendered() throws InterruptedException {
+    Comment comment = comment("t1_a");
+    TestObserver<String> backgroundRenders = preRenderer.streamBackgroundRenders().test();
+    blockPool();
+    preRenderer.preRender(Collections.singletonList(comment));
+
+    assertThat(preRenderer.bodyIfPreRendered(comment)).isNull();
+    backgroundRenders.assertNoValues();
+
+    drainPool();
+    backgroundRenders.assertValue("t1_a");
+    assertThat(preRenderer.bodyIfPreRendered(comment).toString()).isEqualTo("parsed t1_a");
+    assertThat(preRenderer.stats().deferCount()).isEqualTo(1);
+    assertThat(preRenderer.stats().hitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void dropUnstartedBodies_whenAnotherListReplacesThem() throws InterruptedException {
+    Comment a = comment("t1_a");
+    Comment b = comment("t1_b");
+    Comment c = comment("t1_c");
+    blockPool();
+    preRenderer.preRender(Arrays.asList(a, b));
+    preRenderer.preRender(Collections.singletonList(c));
+
+    drainPool();
+    verify(markdown, never()).parse(a);
+    verify(markdown, never()).parse(b);
+    verify(markdown, times(1)).parse(c);
+    assertThat(preRenderer.isRendered(a)).isFalse();
+    assertThat(preRenderer.isRendered(c)).isTrue();
+  }
+
+  @Test
+  public void notQueueBodiesAgain_whenTheyAreStillQueued() {
+    ExecutorService idlePool = mock(ExecutorService.class);
+    CommentBodyPreRenderer preRenderer = new CommentBodyPreRenderer(() -> markdown, idlePool);
+    Comment a = comment("t1_a");
+    Comment b = comment("t1_b");
+    Comment c = comment("t1_c");
+
+    preRenderer.preRender(Arrays.asList(a, b));
+    preRenderer.preRender(Arrays.asList(b, c));
+    preRenderer.preRender(Arrays.asList(b, c));
+
+    verify(idlePool, times(3)).execute(any(Runnable.class));
+    assertThat(preRenderer.bodyIfPreRendered(a)).isNull();
+    assertThat(preRenderer.body(a).toString()).isEqualTo("parsed t1_a");
+    assertThat(preRenderer.stats().missCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void returnPreRenderedBodies_withoutParsingThemAgain() throws InterruptedException {
+    Comment comment = comment("t1_a");
+    preRenderer.preRender(Collections.singletonList(comment));
+    drainPool();
+
+    assertThat(preRenderer.body(comment).toString()).isEqualTo("parsed t1_a");
+    assertThat(preRenderer.bodyIfPreRendered(comment).toString()).isEqualTo("parsed t1_a");
+
+    verify(markdown, times(1)).parse(comment);
+    assertThat(preRenderer.stats().hitCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void parseEachBodyOnce_whenConsumedWhilePreRendering() throws Exception {
+    ExecutorService twoThreadPool = Executors.newFixedThreadPool(2);
+    CommentBodyPreRenderer preRenderer = new CommentBodyPreRenderer(() -> markdown, twoThreadPool);
+
+    List<Comment> comments = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      comments.add(comment("t1_" + i));
+    }
+    preRenderer.preRender(comments);
+
+    for (Comment comment : comments) {
+      assertThat(preRenderer.body(comment).toString()).isEqualTo(parsedBody(comment));
+    }
+    twoThreadPool.shutdown();
+    assertThat(twoThreadPool.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+
+    CommentBodyPreRenderer.Stats stats = preRenderer.stats();
+    assertThat(stats.hitCount() + stats.waitCount() + stats.missCount()).isEqualTo(500);
+    assertThat(stats.backgroundParseCount() + stats.missCount()).isEqualTo(500);
+  }
+
+  @Test
+  public void returnCorrectBodies_whenScrollingReplacesQueuesWhileTheyAreConsumed() throws Exception {
+    ExecutorService twoThreadPool = Executors.newFixedThreadPool(2);
+    CommentBodyPreRenderer preRenderer = new CommentBodyPreRenderer(() -> markdown, twoThreadPool);
+
+    List<Comment> comments = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      comments.add(comment("t1_" + i));
+    }
+
+    ExecutorService scroller = Executors.newSingleThreadExecutor();
+    Future<?> scrolls = scroller.submit(() -> {
+      for (int first = 0; first < comments.size(); first += 10) {
+        int last = Math.min(first + CommentBodyPreRenderer.PRE_RENDER_AHEAD_COUNT, comments.size());
+        preRenderer.preRender(comments.subList(first, last));
+      }
+    });
+
+    for (Comment comment : comments) {
+      CharSequence body = preRenderer.bodyIfPreRendered(comment);
+      if (body == null) {
+        body = preRenderer.body(comment);
+      }
+      assertThat(body.toString()).isEqualTo(parsedBody(comment));
+    }
+
+    scrolls.get(5, TimeUnit.SECONDS);
+    scroller.shutdown();
+    twoThreadPool.shutdown();
+    assertThat(twoThreadPool.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  private void blockPool() {
+    pool.execute(() -> {
+      try {
+        poolBlocker.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+  }
+
+  private void drainPool() throws InterruptedException {
+    poolBlocker.countDown();
+    pool.shutdown();
+    assertThat(pool.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  private static String parsedBody(Comment comment) {
+    return "parsed " + comment.getFullName();
+  }
+
+  private static Comment comment(String fullName) {
+    Comment comment = mock(Comment.class);
+    when(comment.getFullName()).thenReturn(fullName);
+    return comment;
+  }
+}
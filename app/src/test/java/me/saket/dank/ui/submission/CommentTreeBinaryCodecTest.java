@@ -0,0 +1,59 @@
+package me.saket.dank.ui.submission;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.saket.dank.ui.submission.CommentTreeBinaryCodec.StringTable;
+
+public class CommentTreeBinaryCodecTest {
+
+  @Test
+  public void decodingShouldReturnTheEncodedRows() {
+    List<Object> comments = new SyntheticCommentTrees(7).topLevelComments(500);
+
+    StringTable sharedStrings = new StringTable();
+    List<byte[]> rows = new ArrayList<>(comments.size());
+    for (Object comment : comments) {
+      rows.add(CommentTreeBinaryCodec.encodeRow(comment, sharedStrings));
+    }
+    String[] storedStrings = StringTable.decodeStrings(sharedStrings.encode());
+
+    // Integral doubles get decoded as longs, so comparing their JSON-ish string representation isn't possible.
+    for (int i = 0; i < comments.size(); i++) {
+      assertThat(SyntheticCommentTrees.normalizeNumbers(CommentTreeBinaryCodec.decodeRow(rows.get(i), storedStrings)))
+          .isEqualTo(SyntheticCommentTrees.normalizeNumbers(comments.get(i)));
+    }
+  }
+
+  @Test
+  public void primitivesShouldSurviveARoundTrip() {
+    Map<String, Object> value = new LinkedHashMap<>();
+    value.put("negative", -42L);
+    value.put("large", Long.MAX_VALUE);
+    value.put("fraction", 0.5d);
+    value.put("unicode", "\u0CA0_\u0CA0 \uD83D\uDE02");
+    value.put("long_string", new String(new char[500]).replace('\0', 'a'));
+    value.put("empty_list", new ArrayList<>());
+    value.put("true", true);
+    value.put("null", null);
+
+    StringTable sharedStrings = new StringTable();
+    byte[] row = CommentTreeBinaryCodec.encodeRow(value, sharedStrings);
+    Object decoded = CommentTreeBinaryCodec.decodeRow(row, StringTable.decodeStrings(sharedStrings.encode()));
+
+    assertThat(decoded).isEqualTo(value);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownVersionsShouldBeRejected() {
+    byte[] bytes = new StringTable().encode();
+    bytes[CommentTreeBinaryCodec.MAGIC.length] = (byte) (CommentTreeBinaryCodec.VERSION + 1);
+    StringTable.decodeStrings(bytes);
+  }
+}
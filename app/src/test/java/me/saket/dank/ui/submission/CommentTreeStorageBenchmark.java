@@ -0,0 +1,110 @@
+package me.saket.dank.ui.submission;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+
+import net.dean.jraw.models.CommentSort;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.saket.dank.ui.submission.CommentTreeBinaryCodec.StringTable;
+import me.saket.dank.utils.DankSubmissionRequest;
+
+/**
+ * Compares the size and cold-open decode time of comment trees stored as one JSON blob (which is how
+ * comments used to be stored) against the {@link CachedComment} rows that {@link NormalizedCommentTree}
+ * stores them as now.
+ * <p>
+ * Row sizes include the encoded comments, their key columns and the tree's shared string table. SQLite's
+ * per-row and index overhead and the request column are left out. Decoding stops at JSON values (maps and
+ * lists) for both. Binding them to JRAW models is the same cost for both.
+ */
+@Ignore("Benchmark. Run manually.")
+public class CommentTreeStorageBenchmark {
+
+  private static final int[] THREAD_SIZES = { 500, 5_000, 20_000 };
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int MEASURED_ITERATIONS = 10;
+
+  private final DankSubmissionRequest request = DankSubmissionRequest.builder("8abcd")
+      .commentSort(CommentSort.TOP, AuditedCommentSort.SelectedBy.DEFAULT)
+      .build();
+
+  @Test
+  public void compareJsonAndRowStorage() throws IOException {
+    JsonAdapter<Object> jsonAdapter = new Moshi.Builder().build().adapter(Object.class).serializeNulls();
+
+    System.out.println("comments | json size | rows size | json decode | rows decode");
+    for (int threadSize : THREAD_SIZES) {
+      List<Object> comments = new SyntheticCommentTrees(threadSize).topLevelComments(threadSize);
+      String json = jsonAdapter.toJson(listing(comments));
+
+      StringTable sharedStrings = new StringTable();
+      List<CachedComment> rows = new ArrayList<>(threadSize);
+      SyntheticCommentTrees.addRows(rows, request, sharedStrings, comments, "t3_8abcd", "", 1, 0);
+      byte[] stringTable = sharedStrings.encode();
+
+      for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+        jsonAdapter.fromJson(json);
+        decodeRows(rows, stringTable);
+      }
+
+      long jsonStartNanos = System.nanoTime();
+      for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+        jsonAdapter.fromJson(json);
+      }
+      long jsonDecodeMicros = (System.nanoTime() - jsonStartNanos) / MEASURED_ITERATIONS / 1000;
+
+      long rowsStartNanos = System.nanoTime();
+      for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+        decodeRows(rows, stringTable);
+      }
+      long rowsDecodeMicros = (System.nanoTime() - rowsStartNanos) / MEASURED_ITERATIONS / 1000;
+
+      System.out.println(String.format(
+          "%8d | %7dKB | %7dKB | %9dus | %9dus",
+          threadSize,
+          json.getBytes(StandardCharsets.UTF_8).length / 1024,
+          (stringTable.length + rowBytes(rows)) / 1024,
+          jsonDecodeMicros,
+          rowsDecodeMicros));
+    }
+  }
+
+  /**
+   * Same work as opening a cached thread and reading all of it: the string table and every row get decoded.
+   */
+  private static void decodeRows(List<CachedComment> rowsInTreeOrder, byte[] stringTable) {
+    SyntheticCommentTrees.rebuildValues(rowsInTreeOrder, StringTable.decodeStrings(stringTable));
+  }
+
+  private static long rowBytes(List<CachedComment> rows) {
+    long bytes = 0;
+    for (CachedComment row : rows) {
+      bytes += row.getNode().length
+          + row.getSortKey().length()
+          + row.getFullName().length()
+          + row.getParentFullName().length()
+          + 4;  // Depth.
+    }
+    return bytes;
+  }
+
+  private static Map<String, Object> listing(List<Object> children) {
+    Map<String, Object> data = new LinkedHashMap<>();
+    data.put("after", null);
+    data.put("children", children);
+    Map<String, Object> listing = new LinkedHashMap<>();
+    listing.put("kind", "Listing");
+    listing.put("data", data);
+    return listing;
+  }
+}
@@ -0,0 +1,166 @@
+package me.saket.dank.ui.submission;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import net.dean.jraw.models.Comment;
+import net.dean.jraw.tree.CommentNode;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import me.saket.dank.ui.submission.adapter.SubmissionCommentRowType;
+import me.saket.dank.ui.submission.adapter.SubmissionCommentsLoadMore;
+import me.saket.dank.ui.submission.adapter.SubmissionRemoteComment;
+import me.saket.dank.ui.submission.adapter.SubmissionScreenUiModel;
+
+public class FlattenedCommentTreeShould {
+
+  private final SubmissionScreenUiModel a = comment("a", 0);
+  private final SubmissionScreenUiModel a1 = comment("a1", 1);
+  private final SubmissionScreenUiModel a2 = comment("a2", 1);
+  private final SubmissionScreenUiModel a2x = comment("a2x", 2);
+  private final SubmissionScreenUiModel b = comment("b", 0);
+  private final SubmissionScreenUiModel b1 = comment("b1", 1);
+  private final SubmissionScreenUiModel bLoadMore = loadMore(1);
+  private final SubmissionScreenUiModel c = comment("c", 0);
+  private final SubmissionScreenUiModel c1 = comment("c1", 1);
+
+  private FlattenedCommentTree tree;
+
+  @Before
+  public void setUp() {
+    tree = new FlattenedCommentTree();
+    tree.replaceAll(Arrays.asList(a, a1, a2, a2x, b, b1, bLoadMore, c, c1), Collections.emptyMap());
+  }
+
+  @Test
+  public void collapseFirstSubtree() {
+    SubmissionScreenUiModel collapsedA = comment("a", 0);
+    tree.replaceSubtree("a", Collections.singletonList(collapsedA), Collections.emptyMap());
+
+    assertThat(tree.snapshot()).containsExactly(collapsedA, b, b1, bLoadMore, c, c1).inOrder();
+    assertThat(tree.rowPosition("a")).isEqualTo(0);
+    assertThat(tree.rowPosition("b")).isEqualTo(1);
+    assertThat(tree.rowPosition("c1")).isEqualTo(5);
+    assertThat(tree.isVisible("a1")).isFalse();
+    assertThat(tree.isVisible("a2x")).isFalse();
+  }
+
+  @Test
+  public void expandFirstSubtree() {
+    SubmissionScreenUiModel collapsedA = comment("a", 0);
+    tree.replaceSubtree("a", Collections.singletonList(collapsedA), Collections.emptyMap());
+
+    CommentNode a1Node = mock(CommentNode.class);
+    tree.replaceSubtree("a", Arrays.asList(a, a1, a2, a2x), Collections.singletonMap("a1", a1Node));
+
+    assertThat(tree.snapshot()).containsExactly(a, a1, a2, a2x, b, b1, bLoadMore, c, c1).inOrder();
+    assertThat(tree.rowPosition("a2x")).isEqualTo(3);
+    assertThat(tree.rowPosition("b")).isEqualTo(4);
+    assertThat(tree.visibleNode("a1")).isSameAs(a1Node);
+  }
+
+  @Test
+  public void collapseMiddleSubtree_includingItsLoadMoreRow() {
+    SubmissionScreenUiModel collapsedB = comment("b", 0);
+    tree.replaceSubtree("b", Collections.singletonList(collapsedB), Collections.emptyMap());
+
+    assertThat(tree.snapshot()).containsExactly(a, a1, a2, a2x, collapsedB, c, c1).inOrder();
+    assertThat(tree.rowPosition("a2x")).isEqualTo(3);
+    assertThat(tree.rowPosition("b")).isEqualTo(4);
+    assertThat(tree.rowPosition("c")).isEqualTo(5);
+    assertThat(tree.isVisible("b1")).isFalse();
+  }
+
+  @Test
+  public void expandMiddleSubtree() {
+    SubmissionScreenUiModel collapsedB = comment("b", 0);
+    tree.replaceSubtree("b", Collections.singletonList(collapsedB), Collections.emptyMap());
+
+    SubmissionScreenUiModel b2 = comment("b2", 1);
+    tree.replaceSubtree("b", Arrays.asList(b, b1, b2, bLoadMore), Collections.emptyMap());
+
+    assertThat(tree.snapshot()).containsExactly(a, a1, a2, a2x, b, b1, b2, bLoadMore, c, c1).inOrder();
+    assertThat(tree.rowPosition("b2")).isEqualTo(6);
+    assertThat(tree.rowPosition("c")).isEqualTo(8);
+    assertThat(tree.rowPosition("c1")).isEqualTo(9);
+  }
+
+  @Test
+  public void collapseLastSubtree() {
+    SubmissionScreenUiModel collapsedC = comment("c", 0);
+    tree.replaceSubtree("c", Collections.singletonList(collapsedC), Collections.emptyMap());
+
+    assertThat(tree.snapshot()).containsExactly(a, a1, a2, a2x, b, b1, bLoadMore, collapsedC).inOrder();
+    assertThat(tree.rowPosition("c")).isEqualTo(7);
+    assertThat(tree.isVisible("c1")).isFalse();
+  }
+
+  @Test
+  public void expandLastSubtree() {
+    SubmissionScreenUiModel collapsedC = comment("c", 0);
+    tree.replaceSubtree("c", Collections.singletonList(collapsedC), Collections.emptyMap());
+
+    SubmissionScreenUiModel c2 = comment("c2", 1);
+    tree.replaceSubtree("c", Arrays.asList(c, c1, c2), Collections.emptyMap());
+
+    assertThat(tree.snapshot()).containsExactly(a, a1, a2, a2x, b, b1, bLoadMore, c, c1, c2).inOrder();
+    assertThat(tree.rowPosition("c1")).isEqualTo(8);
+    assertThat(tree.rowPosition("c2")).isEqualTo(9);
+  }
+
+  @Test
+  public void stopSubtreeOfNestedComment_atItsNextSibling() {
+    SubmissionScreenUiModel collapsedA1 = comment("a1", 1);
+    tree.replaceSubtree("a1", Collections.singletonList(collapsedA1), Collections.emptyMap());
+
+    SubmissionScreenUiModel collapsedA2 = comment("a2", 1);
+    tree.replaceSubtree("a2", Collections.singletonList(collapsedA2), Collections.emptyMap());
+
+    assertThat(tree.snapshot()).containsExactly(a, collapsedA1, collapsedA2, b, b1, bLoadMore, c, c1).inOrder();
+    assertThat(tree.isVisible("a2x")).isFalse();
+    assertThat(tree.rowPosition("b")).isEqualTo(3);
+  }
+
+  @Test
+  public void retainInstancesOfRowsOutsideTheSubtree() {
+    List<SubmissionScreenUiModel> before = tree.snapshot();
+    tree.replaceSubtree("b", Arrays.asList(comment("b", 0), comment("b1", 1), loadMore(1)), Collections.emptyMap());
+    List<SubmissionScreenUiModel> after = tree.snapshot();
+
+    assertThat(after).hasSize(before.size());
+    for (int i = 0; i < after.size(); i++) {
+      if (i < 4 || i > 6) {
+        assertThat(after.get(i)).isSameAs(before.get(i));
+      } else {
+        assertThat(after.get(i)).isNotSameAs(before.get(i));
+      }
+    }
+    assertThat(tree.rowPosition("b1")).isEqualTo(5);
+    assertThat(tree.rowPosition("c")).isEqualTo(7);
+  }
+
+  private static SubmissionScreenUiModel comment(String fullName, int indentationDepth) {
+    Comment comment = mock(Comment.class);
+    when(comment.getFullName()).thenReturn(fullName);
+
+    SubmissionRemoteComment.UiModel uiModel = mock(SubmissionRemoteComment.UiModel.class);
+    when(uiModel.type()).thenReturn(SubmissionCommentRowType.REMOTE_USER_COMMENT);
+    when(uiModel.indentationDepth()).thenReturn(indentationDepth);
+    when(uiModel.comment()).thenReturn(comment);
+    return uiModel;
+  }
+
+  private static SubmissionScreenUiModel loadMore(int indentationDepth) {
+    SubmissionCommentsLoadMore.UiModel uiModel = mock(SubmissionCommentsLoadMore.UiModel.class);
+    when(uiModel.type()).thenReturn(SubmissionCommentRowType.LOAD_MORE_COMMENTS);
+    when(uiModel.indentationDepth()).thenReturn(indentationDepth);
+    return uiModel;
+  }
+}
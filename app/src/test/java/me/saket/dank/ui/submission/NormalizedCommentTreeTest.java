@@ -0,0 +1,178 @@
+package me.saket.dank.ui.submission;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import net.dean.jraw.models.CommentSort;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import me.saket.dank.ui.submission.CommentTreeBinaryCodec.StringTable;
+import me.saket.dank.utils.DankSubmissionRequest;
+
+public class NormalizedCommentTreeTest {
+
+  private final DankSubmissionRequest request = DankSubmissionRequest.builder("8abcd")
+      .commentSort(CommentSort.TOP, AuditedCommentSort.SelectedBy.DEFAULT)
+      .build();
+
+  private StringTable sharedStrings = new StringTable();
+
+  @Test
+  public void sortKeysShouldFollowTreeOrder() {
+    String first = NormalizedCommentTree.childSortKey("", 0);
+    String firstChild = NormalizedCommentTree.childSortKey(first, 0);
+    String firstChildsChild = NormalizedCommentTree.childSortKey(firstChild, 0);
+    String tenthChild = NormalizedCommentTree.childSortKey(first, 9);
+    String eleventhChild = NormalizedCommentTree.childSortKey(first, 10);
+    String moreChildren = NormalizedCommentTree.moreChildrenSortKey(first);
+    String second = NormalizedCommentTree.childSortKey("", 1);
+    String topLevelMoreChildren = NormalizedCommentTree.moreChildrenSortKey("");
+
+    List<String> expectedOrder = Arrays.asList(first, firstChild, firstChildsChild, tenthChild, eleventhChild, moreChildren, second, topLevelMoreChildren);
+    List<String> sorted = new ArrayList<>(expectedOrder);
+    Collections.shuffle(sorted, new Random(3));
+    Collections.sort(sorted);
+
+    assertThat(sorted).containsExactlyElementsIn(expectedOrder).inOrder();
+  }
+
+  @Test
+  public void rebuildingShouldReturnTheStoredTree() {
+    List<Object> comments = new SyntheticCommentTrees(5).topLevelComments(800);
+
+    List<CachedComment> rows = new ArrayList<>();
+    addRows(rows, comments, "t3_8abcd", "", 1);
+    sortLikeRoom(rows);
+
+    List<Object> rebuilt = SyntheticCommentTrees.rebuildValues(rows, strings());
+    assertThat(SyntheticCommentTrees.normalizeNumbers(rebuilt)).isEqualTo(SyntheticCommentTrees.normalizeNumbers(comments));
+  }
+
+  @Test
+  public void newChildrenShouldBeRebuiltAfterExistingOnes() {
+    List<Object> comments = new SyntheticCommentTrees(9).topLevelComments(50);
+    List<Object> loadedLater = new SyntheticCommentTrees(10).topLevelComments(30);
+
+    List<CachedComment> rows = new ArrayList<>();
+    addRows(rows, comments, "t3_8abcd", "", 1);
+    rows.add(row(NormalizedCommentTree.moreChildrenSortKey(""), "t1_more", 1, moreChildren()));
+    sortLikeRoom(rows);
+
+    // "Load more" resolved: its row gets deleted and the fetched comments get inserted.
+    rows.removeIf(row -> row.getSortKey().equals(NormalizedCommentTree.moreChildrenSortKey("")));
+    for (int i = 0; i < loadedLater.size(); i++) {
+      addRows(rows, Collections.singletonList(loadedLater.get(i)), "t3_8abcd", "", 1, comments.size() + i);
+    }
+    sortLikeRoom(rows);
+
+    List<Object> expected = new ArrayList<>(comments);
+    expected.addAll(loadedLater);
+    assertThat(SyntheticCommentTrees.normalizeNumbers(SyntheticCommentTrees.rebuildValues(rows, strings())))
+        .isEqualTo(SyntheticCommentTrees.normalizeNumbers(expected));
+  }
+
+  @Test
+  public void rowsShouldShareOneStringTable() {
+    byte[] firstRow = CommentTreeBinaryCodec.encodeRow(moreChildren(), sharedStrings);
+    int stringCount = sharedStrings.strings.size();
+    byte[] secondRow = CommentTreeBinaryCodec.encodeRow(moreChildren(), sharedStrings);
+
+    // The second row only references strings that were added by the first row.
+    assertThat(sharedStrings.strings.size()).isEqualTo(stringCount);
+    assertThat(secondRow).isEqualTo(firstRow);
+  }
+
+  @Test
+  public void storedRowsShouldRemainReadable_whenMoreStringsAreAppendedToTheirTable() {
+    List<Object> comments = new SyntheticCommentTrees(19).topLevelComments(50);
+    List<Object> loadedLater = new SyntheticCommentTrees(20).topLevelComments(20);
+
+    List<CachedComment> rows = new ArrayList<>();
+    addRows(rows, comments, "t3_8abcd", "", 1);
+
+    // Loading more comments reads the stored table and appends to it.
+    sharedStrings = StringTable.decode(sharedStrings.encode());
+    for (int i = 0; i < loadedLater.size(); i++) {
+      addRows(rows, Collections.singletonList(loadedLater.get(i)), "t3_8abcd", "", 1, comments.size() + i);
+    }
+    sortLikeRoom(rows);
+
+    List<Object> expected = new ArrayList<>(comments);
+    expected.addAll(loadedLater);
+    String[] storedStrings = StringTable.decodeStrings(sharedStrings.encode());
+    assertThat(SyntheticCommentTrees.normalizeNumbers(SyntheticCommentTrees.rebuildValues(rows, storedStrings)))
+        .isEqualTo(SyntheticCommentTrees.normalizeNumbers(expected));
+  }
+
+  @Test
+  public void moreChildrenShouldBeRebuiltAsTheLastReply() {
+    List<Object> comments = new SyntheticCommentTrees(13).topLevelComments(1);
+    String parentSortKey = NormalizedCommentTree.childSortKey("", 0);
+
+    List<CachedComment> rows = new ArrayList<>();
+    addRows(rows, comments, "t3_8abcd", "", 1);
+    rows.add(row(NormalizedCommentTree.moreChildrenSortKey(parentSortKey), "t1_more", 2, moreChildren()));
+    sortLikeRoom(rows);
+
+    Map<?, ?> rebuiltComment = (Map<?, ?>) SyntheticCommentTrees.rebuildValues(rows, strings()).get(0);
+    List<?> replies = childrenOf(rebuiltComment);
+    assertThat(replies).hasSize(1);
+    assertThat(((Map<?, ?>) replies.get(0)).get("kind")).isEqualTo("more");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void orphanedRowsShouldBeRejected() {
+    List<CachedComment> rows = new ArrayList<>();
+    rows.add(row(NormalizedCommentTree.childSortKey("000000", 0), "t1_orphan", 2, moreChildren()));
+    SyntheticCommentTrees.rebuildValues(rows, strings());
+  }
+
+  private void addRows(List<CachedComment> rows, List<Object> values, String parentFullName, String parentSortKey, int depth) {
+    addRows(rows, values, parentFullName, parentSortKey, depth, 0);
+  }
+
+  private void addRows(List<CachedComment> rows, List<Object> values, String parentFullName, String parentSortKey, int depth, int firstSiblingIndex) {
+    SyntheticCommentTrees.addRows(rows, request, sharedStrings, values, parentFullName, parentSortKey, depth, firstSiblingIndex);
+  }
+
+  private CachedComment row(String sortKey, String fullName, int depth, Object value) {
+    return new CachedComment(request, sortKey, fullName, "unused", depth, CommentTreeBinaryCodec.encodeRow(value, sharedStrings));
+  }
+
+  private String[] strings() {
+    return sharedStrings.strings.toArray(new String[0]);
+  }
+
+  private static List<?> childrenOf(Map<?, ?> commentValue) {
+    Map<?, ?> replies = (Map<?, ?>) ((Map<?, ?>) commentValue.get("data")).get("replies");
+    return (List<?>) ((Map<?, ?>) replies.get("data")).get("children");
+  }
+
+  private static Map<String, Object> moreChildren() {
+    Map<String, Object> data = new LinkedHashMap<>();
+    data.put("count", 12L);
+    data.put("name", "t1_more");
+    data.put("id", "more");
+    data.put("children", Arrays.asList("a1", "a2"));
+    Map<String, Object> envelope = new LinkedHashMap<>();
+    envelope.put("kind", "more");
+    envelope.put("data", data);
+    return envelope;
+  }
+
+  /**
+   * Rows are read using "ORDER BY sortKey", which uses SQLite's binary collation.
+   */
+  private static void sortLikeRoom(List<CachedComment> rows) {
+    Collections.shuffle(rows, new Random(1));
+    Collections.sort(rows, (first, second) -> first.getSortKey().compareTo(second.getSortKey()));
+  }
+}
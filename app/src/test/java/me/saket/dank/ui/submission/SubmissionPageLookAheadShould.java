@@ -0,0 +1,75 @@
+package me.saket.dank.ui.submission;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import net.dean.jraw.models.Submission;
+import net.dean.jraw.models.SubredditSort;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import io.reactivex.schedulers.Schedulers;
+import me.saket.dank.data.PaginationAnchor;
+
+public class SubmissionPageLookAheadShould {
+
+  private static final CachedSubmissionFolder FOLDER = CachedSubmissionFolder.create("androiddev", SubredditSort.HOT);
+  private static final PaginationAnchor ANCHOR = PaginationAnchor.create("t3_abc");
+  private static final SubmissionRepository.FetchResult PAGE = SubmissionRepository.FetchResult.create(Collections.<Submission>emptyList(), true);
+
+  private SubmissionPageLookAhead lookAhead;
+
+  @Before
+  public void setUp() {
+    lookAhead = new SubmissionPageLookAhead(Schedulers.trampoline());
+  }
+
+  @Test
+  public void returnPage_onlyOnce() throws Exception {
+    lookAhead.start(FOLDER, ANCHOR, () -> PAGE);
+
+    assertThat(lookAhead.take(FOLDER, ANCHOR)).isSameAs(PAGE);
+    assertThat(lookAhead.take(FOLDER, ANCHOR)).isNull();
+  }
+
+  @Test
+  public void discardPage_whenFolderOrAnchorDoesNotMatch() throws Exception {
+    lookAhead.start(FOLDER, ANCHOR, () -> PAGE);
+    assertThat(lookAhead.take(FOLDER, PaginationAnchor.createEmpty())).isNull();
+    assertThat(lookAhead.take(FOLDER, ANCHOR)).isNull();
+
+    lookAhead.start(FOLDER, ANCHOR, () -> PAGE);
+    assertThat(lookAhead.take(CachedSubmissionFolder.create("androiddev", SubredditSort.NEW), ANCHOR)).isNull();
+    assertThat(lookAhead.take(FOLDER, ANCHOR)).isNull();
+  }
+
+  @Test
+  public void returnPage_forTheNewAnchor_whenReanchored() throws Exception {
+    PaginationAnchor lastSavedAnchor = PaginationAnchor.create("t3_xyz");
+    lookAhead.start(FOLDER, ANCHOR, () -> PAGE);
+    lookAhead.reanchor(FOLDER, PaginationAnchor.createEmpty(), PaginationAnchor.create("t3_other"));
+    lookAhead.reanchor(FOLDER, ANCHOR, lastSavedAnchor);
+
+    assertThat(lookAhead.take(FOLDER, lastSavedAnchor)).isSameAs(PAGE);
+  }
+
+  @Test
+  public void discardPage_whenStopped() throws Exception {
+    lookAhead.start(FOLDER, ANCHOR, () -> PAGE);
+    lookAhead.discard(FOLDER);
+
+    assertThat(lookAhead.take(FOLDER, ANCHOR)).isNull();
+  }
+
+  @Test
+  public void returnNull_whenFetchFails() throws Exception {
+    lookAhead.start(FOLDER, ANCHOR, () -> {
+      throw new IOException();
+    });
+
+    assertThat(lookAhead.take(FOLDER, ANCHOR)).isNull();
+  }
+}
@@ -0,0 +1,198 @@
+package me.saket.dank.ui.submission;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import me.saket.dank.ui.submission.CommentTreeBinaryCodec.StringTable;
+import me.saket.dank.utils.DankSubmissionRequest;
+
+/**
+ * Generates JSON values of reddit comment trees, shaped like what JRAW's adapters produce.
+ */
+class SyntheticCommentTrees {
+
+  private static final String[] WORDS = {
+      "the", "reddit", "comment", "thread", "upvote", "because", "actually", "source", "edit", "thanks", "gold",
+      "stranger", "this", "is", "why", "we", "can't", "have", "nice", "things", "[link](https://example.com)", "**bold**"
+  };
+
+  private final Random random;
+  private final String[] authors;
+  private int commentIdCounter;
+
+  SyntheticCommentTrees(long seed) {
+    random = new Random(seed);
+    authors = new String[200];
+    for (int i = 0; i < authors.length; i++) {
+      authors[i] = "user_" + Long.toString(random.nextLong() & 0xFFFFFF, 36);
+    }
+  }
+
+  /**
+   * @return JSON values of top-level comments, with <var>totalCount</var> comments in total.
+   */
+  List<Object> topLevelComments(int totalCount) {
+    List<Object> topLevel = new ArrayList<>();
+    int remaining = totalCount;
+    while (remaining > 0) {
+      int subtreeSize = Math.min(remaining, 1 + random.nextInt(40));
+      topLevel.add(comment(1, subtreeSize));
+      remaining -= subtreeSize;
+    }
+    return topLevel;
+  }
+
+  private Map<String, Object> comment(int depth, int subtreeSize) {
+    String id = Integer.toString(++commentIdCounter, 36);
+
+    Map<String, Object> data = new LinkedHashMap<>();
+    data.put("author", authors[random.nextInt(authors.length)]);
+    data.put("author_flair_text", random.nextInt(5) == 0 ? "Flair" : null);
+    data.put("archived", false);
+    data.put("body", body());
+    data.put("controversiality", 0L);
+    data.put("created_utc", 1527000000d + random.nextInt(100_000));
+    data.put("distinguished", null);
+    data.put("edited", false);
+    data.put("gilded", 0L);
+    data.put("id", id);
+    data.put("likes", null);
+    data.put("link_id", "t3_8abcd");
+    data.put("name", "t1_" + id);
+    data.put("parent_id", "t3_8abcd");
+    data.put("permalink", "/r/AskReddit/comments/8abcd/title/" + id + "/");
+    data.put("saved", false);
+    data.put("score", (double) (random.nextInt(5000) - 50));
+    data.put("score_hidden", false);
+    data.put("stickied", false);
+    data.put("subreddit", "AskReddit");
+    data.put("subreddit_id", "t5_2qh1i");
+    data.put("subreddit_type", "public");
+
+    int remainingChildren = subtreeSize - 1;
+    if (remainingChildren == 0 || depth >= 10) {
+      data.put("replies", "");
+    } else {
+      List<Object> children = new ArrayList<>();
+      while (remainingChildren > 0) {
+        int childSubtreeSize = Math.min(remainingChildren, 1 + random.nextInt(remainingChildren));
+        children.add(comment(depth + 1, childSubtreeSize));
+        remainingChildren -= childSubtreeSize;
+      }
+      Map<String, Object> listingData = new LinkedHashMap<>();
+      listingData.put("after", null);
+      listingData.put("children", children);
+      Map<String, Object> listing = new LinkedHashMap<>();
+      listing.put("kind", "Listing");
+      listing.put("data", listingData);
+      data.put("replies", listing);
+    }
+
+    Map<String, Object> envelope = new LinkedHashMap<>();
+    envelope.put("kind", "t1");
+    envelope.put("data", data);
+    return envelope;
+  }
+
+  private String body() {
+    int wordCount = 3 + random.nextInt(random.nextInt(10) == 0 ? 300 : 40);
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < wordCount; i++) {
+      if (i > 0) {
+        body.append(random.nextInt(15) == 0 ? "\n\n" : " ");
+      }
+      body.append(WORDS[random.nextInt(WORDS.length)]);
+    }
+    return body.toString();
+  }
+
+  /**
+   * Flattens comments into rows the same way {@link NormalizedCommentTree} flattens
+   * {@link net.dean.jraw.tree.CommentNode CommentNodes}. <var>values</var> are left untouched.
+   */
+  @SuppressWarnings("unchecked")
+  static void addRows(
+      List<CachedComment> rows,
+      DankSubmissionRequest request,
+      StringTable sharedStrings,
+      List<Object> values,
+      String parentFullName,
+      String parentSortKey,
+      int depth,
+      int firstSiblingIndex)
+  {
+    for (int i = 0; i < values.size(); i++) {
+      Map<String, Object> value = (Map<String, Object>) deepCopy(values.get(i));
+      Map<String, Object> data = (Map<String, Object>) value.get("data");
+      String fullName = (String) data.get("name");
+      String sortKey = NormalizedCommentTree.childSortKey(parentSortKey, firstSiblingIndex + i);
+
+      Object replies = data.put("replies", "");
+      byte[] node = CommentTreeBinaryCodec.encodeRow(value, sharedStrings);
+      rows.add(new CachedComment(request, sortKey, fullName, parentFullName, depth, node));
+
+      if (replies instanceof Map) {
+        List<Object> children = (List<Object>) ((Map<String, Object>) ((Map<String, Object>) replies).get("data")).get("children");
+        addRows(rows, request, sharedStrings, children, fullName, sortKey, depth + 1, 0);
+      }
+    }
+  }
+
+  /**
+   * @param rowsInTreeOrder Rows sorted by their sort-keys.
+   * @return JSON values of top-level comments, with their replies nested inside them again.
+   */
+  static List<Object> rebuildValues(List<CachedComment> rowsInTreeOrder, String[] sharedStrings) {
+    List<List<CachedComment>> subtrees = NormalizedCommentTree.splitIntoTopLevelSubtrees(rowsInTreeOrder);
+    List<Object> topLevelValues = new ArrayList<>(subtrees.size());
+    for (int i = 0; i < subtrees.size(); i++) {
+      topLevelValues.add(NormalizedCommentTree.rebuildSubtreeValue(subtrees.get(i), sharedStrings));
+    }
+    return topLevelValues;
+  }
+
+  /**
+   * Integral doubles get decoded as longs by {@link CommentTreeBinaryCodec}.
+   */
+  static Object normalizeNumbers(Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    if (value instanceof List) {
+      List<Object> normalized = new ArrayList<>();
+      for (Object item : (List<?>) value) {
+        normalized.add(normalizeNumbers(item));
+      }
+      return normalized;
+    }
+    if (value instanceof Map) {
+      Map<Object, Object> normalized = new LinkedHashMap<>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        normalized.put(entry.getKey(), normalizeNumbers(entry.getValue()));
+      }
+      return normalized;
+    }
+    return value;
+  }
+
+  static Object deepCopy(Object value) {
+    if (value instanceof List) {
+      List<Object> copy = new ArrayList<>();
+      for (Object item : (List<?>) value) {
+        copy.add(deepCopy(item));
+      }
+      return copy;
+    }
+    if (value instanceof Map) {
+      Map<Object, Object> copy = new LinkedHashMap<>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        copy.put(entry.getKey(), deepCopy(entry.getValue()));
+      }
+      return copy;
+    }
+    return value;
+  }
+}
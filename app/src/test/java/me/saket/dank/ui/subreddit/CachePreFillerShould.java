@@ -1,15 +1,26 @@
 package me.saket.dank.ui.subreddit;
 
+import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.text.TextUtils;
 import android.util.Size;
 
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.request.RequestOptions;
 import com.f2prateek.rx.preferences2.Preference;
 
 import net.dean.jraw.models.Submission;
@@ -18,6 +29,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
@@ -26,18 +38,25 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import io.reactivex.Observable;
 import io.reactivex.Single;
+import io.reactivex.functions.Function;
 import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.cache.CachePreFiller;
+import me.saket.dank.cache.CompletedPreFills;
+import me.saket.dank.cache.PreFillQueue;
 import me.saket.dank.data.CachePreFillThing;
 import me.saket.dank.data.LinkMetadataRepository;
 import me.saket.dank.ui.preferences.NetworkStrategy;
 import me.saket.dank.ui.submission.SubmissionImageLoader;
 import me.saket.dank.urlparser.ExternalLink;
+import me.saket.dank.urlparser.GenericMediaLink;
+import me.saket.dank.urlparser.Link;
 import me.saket.dank.urlparser.LinkMetadata;
 import me.saket.dank.ui.media.MediaHostRepository;
 import me.saket.dank.ui.submission.SubmissionRepository;
@@ -46,9 +65,11 @@ import me.saket.dank.utils.NetworkStateListener;
 import me.saket.dank.utils.Optional;
 import me.saket.dank.utils.RxUtils;
 import me.saket.dank.utils.UrlParserTest;
+import me.saket.dank.utils.glide.AsyncImageLoader;
+import me.saket.dank.utils.okhttp.RequestPriority;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({ Submission.class, Uri.class, RxUtils.class })
+@PrepareForTest({ Submission.class, Uri.class, RxUtils.class, TextUtils.class })
 public class CachePreFillerShould {
 
   @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
@@ -60,13 +81,22 @@ public class CachePreFillerShould {
   @Mock UrlParser urlParser;
   @Mock HashMap<CachePreFillThing, Preference<NetworkStrategy>> networkStrategies;
   @Mock SubmissionImageLoader imageLoader;
+  @Mock AsyncImageLoader asyncImageLoader;
 
   private CachePreFiller cachePreFiller;
   private static final Size DISPLAY_SIZE = new Size(1280, 1920);
 
   @Before
+  @SuppressLint("CommitPrefEdits")
   public void setUp() throws Exception {
     PowerMockito.mockStatic(Uri.class);
+
+    SharedPreferences completedPreFillsPrefs = mock(SharedPreferences.class);
+    SharedPreferences.Editor completedPreFillsPrefsEditor = mock(SharedPreferences.Editor.class);
+    when(completedPreFillsPrefs.getAll()).thenAnswer(o -> Collections.emptyMap());
+    when(completedPreFillsPrefs.edit()).thenReturn(completedPreFillsPrefsEditor);
+    when(completedPreFillsPrefsEditor.putLong(anyString(), anyLong())).thenReturn(completedPreFillsPrefsEditor);
+
     //noinspection ConstantConditions
     cachePreFiller = new CachePreFiller(
         null,
@@ -76,7 +106,9 @@ public class CachePreFillerShould {
         linkMetadataRepo,
         () -> urlParser,
         () -> imageLoader,
-        () -> Schedulers.computation(),
+        () -> asyncImageLoader,
+        () -> new PreFillQueue(Schedulers.trampoline()),
+        () -> new CompletedPreFills(() -> completedPreFillsPrefs),
         () -> networkStrategies);
 
     PowerMockito.mockStatic(RxUtils.class);
@@ -109,6 +141,7 @@ public class CachePreFillerShould {
     verify(mediaHostRepo, never()).resolveActualLinkIfNeeded(any());
     verify(linkMetadataRepo, never()).unfurl(any());
     verify(submissionRepo, never()).submissionWithComments(any());
+    verify(submissionRepo, never()).submissionWithComments(any(), any());
   }
 
   @Test
@@ -142,4 +175,82 @@ public class CachePreFillerShould {
 
     verify(linkMetadataRepo, times(1)).unfurl(any());
   }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void makeAllRequests_withPreFillPriority() throws Exception {
+    // Used by Glide's GlideUrl and LazyHeaders.
+    PowerMockito.mockStatic(TextUtils.class);
+    PowerMockito.when(TextUtils.isEmpty(any())).thenAnswer(invocation -> {
+      CharSequence text = (CharSequence) invocation.getArguments()[0];
+      return text == null || text.length() == 0;
+    });
+
+    Preference mockPref = mock(Preference.class);
+    when(mockPref.asObservable()).thenReturn(Observable.just(NetworkStrategy.WIFI_ONLY));
+    when(networkStrategies.get(any(CachePreFillThing.class))).thenReturn(mockPref);
+    when(networkStateListener.streamNetworkInternetCapability(NetworkStrategy.WIFI_ONLY, Optional.empty())).thenReturn(Observable.just(true));
+
+    String imageUrl = "https://i.imgur.com/pic.jpg";
+    String externalUrl = "https://play.google.com/store/apps/details?id=com.pinpinteam.vikings";
+    String faviconUrl = "https://play.google.com/favicon.ico";
+    Submission imageSubmission = submission("t3_image", imageUrl);
+    Submission externalLinkSubmission = submission("t3_link", externalUrl);
+    List<Submission> submissions = new ArrayList<>();
+    submissions.add(imageSubmission);
+    submissions.add(externalLinkSubmission);
+
+    GenericMediaLink imageLink = GenericMediaLink.create(imageUrl, Link.Type.SINGLE_IMAGE);
+    when(urlParser.parse(imageUrl, imageSubmission)).thenReturn(imageLink);
+    when(urlParser.parse(externalUrl, externalLinkSubmission)).thenReturn(ExternalLink.create(externalUrl));
+    when(mediaHostRepo.resolveActualLinkIfNeeded(imageLink)).thenReturn(Observable.just(imageLink));
+    when(imageLoader.load(any(), any(), any(), any(RequestOptions.class), any(RequestPriority.class))).thenReturn(Single.just(mock(Drawable.class)));
+
+    LinkMetadata linkMetadata = mock(LinkMetadata.class);
+    when(linkMetadata.hasFavicon()).thenReturn(true);
+    when(linkMetadata.faviconUrl()).thenReturn(faviconUrl);
+    when(linkMetadataRepo.unfurl(any())).thenReturn(Single.just(linkMetadata));
+
+    // Glide models are built the same way Glide would, and recorded.
+    List<Object> glideModels = new CopyOnWriteArrayList<>();
+    when(asyncImageLoader.load(any(), any(), any())).thenAnswer(invocation -> {
+      Function<RequestManager, ?> request = (Function<RequestManager, ?>) invocation.getArguments()[2];
+      RequestManager glide = mock(RequestManager.class);
+      request.apply(glide);
+
+      ArgumentCaptor<Object> modelCaptor = ArgumentCaptor.forClass(Object.class);
+      verify(glide).load(modelCaptor.capture());
+      glideModels.add(modelCaptor.getValue());
+      return Single.just(new Object());
+    });
+
+    List<RequestPriority> commentPriorities = new CopyOnWriteArrayList<>();
+    when(submissionRepo.submissionWithComments(any(), any())).thenAnswer(invocation -> {
+      commentPriorities.add((RequestPriority) invocation.getArguments()[1]);
+      return Observable.empty();
+    });
+
+    //noinspection ConstantConditions
+    cachePreFiller.preFillInParallelThreads(submissions, 160)
+        .test()
+        .assertNoErrors()
+        .assertComplete();
+
+    verify(imageLoader).load(any(), eq(imageLink), any(), any(RequestOptions.class), eq(RequestPriority.PRE_FILL));
+    verify(submissionRepo, never()).submissionWithComments(any());
+    assertThat(commentPriorities).containsExactly(RequestPriority.PRE_FILL, RequestPriority.PRE_FILL);
+
+    assertThat(glideModels).hasSize(1);
+    GlideUrl faviconModel = (GlideUrl) glideModels.get(0);
+    assertThat(faviconModel.toStringUrl()).isEqualTo(faviconUrl);
+    assertThat(faviconModel.getHeaders()).containsEntry(RequestPriority.HEADER_NAME, RequestPriority.PRE_FILL.name());
+  }
+
+  private static Submission submission(String fullName, String url) {
+    Submission submission = PowerMockito.mock(Submission.class);
+    PowerMockito.when(submission.getFullName()).thenReturn(fullName);
+    PowerMockito.when(submission.getId()).thenReturn(fullName.substring("t3_".length()));
+    PowerMockito.when(submission.getUrl()).thenReturn(url);
+    return submission;
+  }
 }
@@ -0,0 +1,32 @@
+package me.saket.dank.urlparser;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class HostSuffixTrieTest {
+
+  @Test
+  public void shouldMatchLikeEndsWith() {
+    HostSuffixTrie<String> trie = new HostSuffixTrie<>();
+    trie.put("reddit.com", "reddit");
+    trie.put("redd.it", "redd.it");
+
+    assertThat(trie.longestSuffixMatch("reddit.com")).isEqualTo("reddit");
+    assertThat(trie.longestSuffixMatch("www.reddit.com")).isEqualTo("reddit");
+    assertThat(trie.longestSuffixMatch("v.redd.it")).isEqualTo("redd.it");
+    assertThat(trie.longestSuffixMatch("redditmedia.com")).isNull();
+    assertThat(trie.longestSuffixMatch("eddit.com")).isNull();
+    assertThat(trie.longestSuffixMatch("")).isNull();
+  }
+
+  @Test
+  public void longestSuffixShouldWin() {
+    HostSuffixTrie<String> trie = new HostSuffixTrie<>();
+    trie.put("reddit.com", "reddit");
+    trie.put("i.reddit.com", "mobile reddit");
+
+    assertThat(trie.longestSuffixMatch("i.reddit.com")).isEqualTo("mobile reddit");
+    assertThat(trie.longestSuffixMatch("v.reddit.com")).isEqualTo("reddit");
+  }
+}
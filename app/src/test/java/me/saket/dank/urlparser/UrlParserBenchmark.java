@@ -0,0 +1,86 @@
+package me.saket.dank.urlparser;
+
+import static org.mockito.Matchers.any;
+
+import android.text.TextUtils;
+
+import com.nytimes.android.external.cache3.CacheBuilder;
+
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ * Measures how many URLs {@link UrlParser} can classify per second, with its cache disabled.
+ * The corpus is a mix of URLs usually found in submissions and comment bodies.
+ */
+@Ignore("Benchmark. Run manually.")
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ TextUtils.class })
+public class UrlParserBenchmark {
+
+  private static final String[] URLS = {
+      "https://www.reddit.com/r/androiddev/comments/5zm7tt/is_anyone_using_services_nowadays/dezzmre/?context=3",
+      "https://www.reddit.com/r/pics",
+      "https://www.reddit.com/u/saketme",
+      "/r/AskReddit",
+      "https://redd.it/5524cd",
+      "https://i.redd.it/ih32ovc92asy.png",
+      "https://v.redd.it/fjpqnd127wf01",
+      "https://i.reddituploads.com/df0af5450dd14902a3056ec73db8fa64?fit=max&h=1536&w=1536&amp;s=8fa077352b28b8a3e94fcd845cf7ca83",
+      "https://imgur.com/a/lBQGv",
+      "http://i.imgur.com/0Jp0l2R.jpg",
+      "https://i.imgur.com/cuPUfRY.gifv",
+      "https://gfycat.com/MessySpryAfricancivet",
+      "http://media.giphy.com/media/l2JJyLbhqCF4va86c/giphy.gif",
+      "http://streamable.com/jawcl",
+      "https://www.google.com/amp/s/amp.reddit.com/r/NoStupidQuestions/comments/2qwyo7/what_is_red_velvet_supposed_to_taste_like/",
+      "https://en.wikipedia.org/wiki/Reddit",
+      "https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+      "https://github.com/saket/Dank/blob/master/README.md",
+      "https://example.com/image.jpeg",
+      "https://www.nytimes.com/2018/06/01/technology/some-article.html",
+  };
+  private static final int WARMUP_ITERATIONS = 5_000;
+  private static final int MEASURED_ITERATIONS = 50_000;
+
+  @Before
+  public void setUp() {
+    PowerMockito.mockStatic(TextUtils.class);
+    PowerMockito.when(TextUtils.isEmpty(any(CharSequence.class))).thenAnswer(invocation -> {
+      CharSequence text = (CharSequence) invocation.getArguments()[0];
+      return text == null || text.length() == 0;
+    });
+  }
+
+  @Test
+  public void measureThroughput() {
+    UrlParser urlParser = new UrlParser(CacheBuilder.newBuilder().maximumSize(0).build(), new UrlParserConfig());
+
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      urlParser.parse(URLS[i % URLS.length]);
+    }
+
+    long tokenizeStartNanos = System.nanoTime();
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      UrlTokens tokens = UrlTokens.tokenize(URLS[i % URLS.length]);
+      tokens.host();
+      tokens.path();
+    }
+    long tokenizeNanos = System.nanoTime() - tokenizeStartNanos;
+
+    long parseStartNanos = System.nanoTime();
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      urlParser.parse(URLS[i % URLS.length]);
+    }
+    long parseNanos = System.nanoTime() - parseStartNanos;
+
+    System.out.println("step     | urls/sec | ns/url");
+    System.out.println(String.format("tokenize | %8d | %6d", MEASURED_ITERATIONS * 1_000_000_000L / tokenizeNanos, tokenizeNanos / MEASURED_ITERATIONS));
+    System.out.println(String.format("parse    | %8d | %6d", MEASURED_ITERATIONS * 1_000_000_000L / parseNanos, parseNanos / MEASURED_ITERATIONS));
+  }
+}
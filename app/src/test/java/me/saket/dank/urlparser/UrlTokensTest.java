@@ -0,0 +1,65 @@
+package me.saket.dank.urlparser;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class UrlTokensTest {
+
+  @Test
+  public void webUrl() {
+    UrlTokens tokens = UrlTokens.tokenize("https://user@www.reddit.com:443/r/androiddev/comments/5zm7tt/?context=100&sort=top#comments");
+
+    assertThat(tokens.scheme()).isEqualTo("https");
+    assertThat(tokens.host()).isEqualTo("www.reddit.com");
+    assertThat(tokens.path()).isEqualTo("/r/androiddev/comments/5zm7tt/");
+    assertThat(tokens.queryParameter("context")).isEqualTo("100");
+    assertThat(tokens.queryParameter("sort")).isEqualTo("top");
+    assertThat(tokens.queryParameter("comments")).isNull();
+    assertThat(tokens.subdomain().get()).isEqualTo("www");
+  }
+
+  @Test
+  public void urlWithoutPath() {
+    UrlTokens tokens = UrlTokens.tokenize("https://imgur.com?q=cats");
+
+    assertThat(tokens.host()).isEqualTo("imgur.com");
+    assertThat(tokens.path()).isEmpty();
+    assertThat(tokens.queryParameter("q")).isEqualTo("cats");
+    assertThat(tokens.subdomain().isPresent()).isFalse();
+  }
+
+  @Test
+  public void relativeUrl() {
+    UrlTokens tokens = UrlTokens.tokenize("/r/pics");
+
+    assertThat(tokens.scheme()).isNull();
+    assertThat(tokens.host()).isEmpty();
+    assertThat(tokens.path()).isEqualTo("/r/pics");
+  }
+
+  @Test
+  public void emailAddress() {
+    UrlTokens tokens = UrlTokens.tokenize("saket@saket.me");
+
+    assertThat(tokens.host()).isEmpty();
+    assertThat(tokens.path()).isEqualTo("saket@saket.me");
+  }
+
+  @Test
+  public void opaqueUrl() {
+    UrlTokens tokens = UrlTokens.tokenize("mailto:saket@saket.me");
+
+    assertThat(tokens.scheme()).isEqualTo("mailto");
+    assertThat(tokens.host()).isEmpty();
+    assertThat(tokens.path()).isEmpty();
+  }
+
+  @Test
+  public void escapedCharacters() {
+    UrlTokens tokens = UrlTokens.tokenize("https://example.com/caf%C3%A9%20menu?q=a+b%26c");
+
+    assertThat(tokens.path()).isEqualTo("/café menu");
+    assertThat(tokens.queryParameter("q")).isEqualTo("a b&c");
+  }
+}
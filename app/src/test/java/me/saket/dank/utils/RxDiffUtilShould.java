@@ -0,0 +1,153 @@
+package me.saket.dank.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.support.v7.util.ListUpdateCallback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.reactivex.Flowable;
+
+public class RxDiffUtilShould {
+
+  private final Row a = new Row("a", false);
+  private final Row a1 = new Row("a1", false);
+  private final Row a2 = new Row("a2", false);
+  private final Row b = new Row("b", false);
+  private final Row b1 = new Row("b1", false);
+  private final Row c = new Row("c", false);
+  private final Row c1 = new Row("c1", false);
+  private final Row c2 = new Row("c2", false);
+
+  @Test
+  public void offsetUpdates_whenFirstSubtreeIsCollapsed() {
+    List<String> updates = dispatchedUpdates(
+        Arrays.asList(a, a1, a2, b, c),
+        Arrays.asList(new Row("a", true), b, c));
+
+    assertThat(updates).containsExactly("changed 0 x1", "removed 1 x2");
+  }
+
+  @Test
+  public void offsetUpdates_whenFirstSubtreeIsExpanded() {
+    List<String> updates = dispatchedUpdates(
+        Arrays.asList(new Row("a", true), b, c),
+        Arrays.asList(a, a1, a2, b, c));
+
+    assertThat(updates).containsExactly("changed 0 x1", "inserted 1 x2");
+  }
+
+  @Test
+  public void offsetUpdates_whenMiddleSubtreeIsExpanded() {
+    List<String> updates = dispatchedUpdates(
+        Arrays.asList(a, new Row("b", true), c),
+        Arrays.asList(a, b, b1, c));
+
+    assertThat(updates).containsExactly("changed 1 x1", "inserted 2 x1");
+  }
+
+  @Test
+  public void offsetUpdates_whenMiddleSubtreeIsCollapsed() {
+    List<String> updates = dispatchedUpdates(
+        Arrays.asList(a, a1, b, b1, c, c1),
+        Arrays.asList(a, a1, new Row("b", true), c, c1));
+
+    assertThat(updates).containsExactly("changed 2 x1", "removed 3 x1");
+  }
+
+  @Test
+  public void offsetUpdates_whenLastSubtreeIsCollapsed() {
+    List<String> updates = dispatchedUpdates(
+        Arrays.asList(a, b, c, c1, c2),
+        Arrays.asList(a, b, new Row("c", true)));
+
+    assertThat(updates).containsExactly("changed 2 x1", "removed 3 x2");
+  }
+
+  @Test
+  public void offsetUpdates_whenLastSubtreeIsExpanded() {
+    List<String> updates = dispatchedUpdates(
+        Arrays.asList(a, b, new Row("c", true)),
+        Arrays.asList(a, b, c, c1, c2));
+
+    assertThat(updates).containsExactly("changed 2 x1", "inserted 3 x2");
+  }
+
+  @Test
+  public void notDispatchAnything_whenRowsAreSameInstances() {
+    List<Row> rows = Arrays.asList(a, b, c);
+    assertThat(dispatchedUpdates(rows, new ArrayList<>(rows))).isEmpty();
+  }
+
+  @Test
+  public void notOverlapUnchangedRanges_whenTheSameInstanceRepeats() {
+    List<String> updates = dispatchedUpdates(
+        Arrays.asList(a, a, a),
+        Arrays.asList(a, a));
+
+    assertThat(updates).containsExactly("removed 2 x1");
+  }
+
+  private static List<String> dispatchedUpdates(List<Row> oldRows, List<Row> newRows) {
+    List<String> updates = new ArrayList<>();
+    ListUpdateCallback recorder = new ListUpdateCallback() {
+      @Override
+      public void onInserted(int position, int count) {
+        updates.add("inserted " + position + " x" + count);
+      }
+
+      @Override
+      public void onRemoved(int position, int count) {
+        updates.add("removed " + position + " x" + count);
+      }
+
+      @Override
+      public void onMoved(int fromPosition, int toPosition) {
+        updates.add("moved " + fromPosition + " to " + toPosition);
+      }
+
+      @Override
+      public void onChanged(int position, int count, Object payload) {
+        updates.add("changed " + position + " x" + count);
+      }
+    };
+
+    Flowable.just(oldRows, newRows)
+        .compose(RxDiffUtil.calculateDiffOfChangedRange(RowDiffCallbacks::new))
+        .skip(1)
+        .blockingFirst()
+        .second()
+        .dispatchUpdatesTo(recorder);
+    return updates;
+  }
+
+  private static class Row {
+    private final String id;
+    private final boolean collapsed;
+
+    Row(String id, boolean collapsed) {
+      this.id = id;
+      this.collapsed = collapsed;
+    }
+  }
+
+  private static class RowDiffCallbacks extends SimpleDiffUtilsCallbacks<Row> {
+    RowDiffCallbacks(List<Row> oldItems, List<Row> newItems) {
+      super(oldItems, newItems);
+    }
+
+    @Override
+    public boolean areItemsTheSame(Row oldItem, Row newItem) {
+      return oldItem.id.equals(newItem.id);
+    }
+
+    @Override
+    protected boolean areContentsTheSame(Row oldItem, Row newItem) {
+      return oldItem.collapsed == newItem.collapsed;
+    }
+  }
+}
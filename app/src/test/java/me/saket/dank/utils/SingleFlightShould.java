@@ -0,0 +1,83 @@
+package me.saket.dank.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Completable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.CompletableSubject;
+
+public class SingleFlightShould {
+
+  private SingleFlight<String> singleFlight;
+  private AtomicInteger runCount;
+
+  @Before
+  public void setUp() {
+    singleFlight = new SingleFlight<>();
+    runCount = new AtomicInteger();
+  }
+
+  @Test
+  public void joinConcurrentSubscribers_ontoOneRun() {
+    CompletableSubject work = CompletableSubject.create();
+
+    TestObserver<Void> first = singleFlight.run("t3_abc", () -> countRuns(work)).test();
+    TestObserver<Void> second = singleFlight.run("t3_abc", () -> countRuns(work)).test();
+    assertThat(runCount.get()).isEqualTo(1);
+
+    work.onComplete();
+    first.assertComplete();
+    second.assertComplete();
+    assertThat(singleFlight.stats()).isEqualTo(SingleFlight.Stats.create(1, 1));
+  }
+
+  @Test
+  public void notJoinSubscribers_ofDifferentKeys() {
+    singleFlight.run("t3_abc", () -> countRuns(CompletableSubject.create())).test();
+    singleFlight.run("t3_xyz", () -> countRuns(CompletableSubject.create())).test();
+
+    assertThat(runCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void runAgain_afterPreviousRunTerminates() {
+    singleFlight.run("t3_abc", () -> countRuns(Completable.complete())).test().assertComplete();
+    singleFlight.run("t3_abc", () -> countRuns(Completable.error(new IOException()))).test().assertError(IOException.class);
+    singleFlight.run("t3_abc", () -> countRuns(Completable.complete())).test().assertComplete();
+
+    assertThat(runCount.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void shareErrors_withJoinedSubscribers() {
+    CompletableSubject work = CompletableSubject.create();
+    TestObserver<Void> first = singleFlight.run("t3_abc", () -> countRuns(work)).test();
+    TestObserver<Void> second = singleFlight.run("t3_abc", () -> countRuns(work)).test();
+
+    work.onError(new IOException());
+    first.assertError(IOException.class);
+    second.assertError(IOException.class);
+  }
+
+  @Test
+  public void keepRunning_whenSubscribersDispose() {
+    CompletableSubject work = CompletableSubject.create();
+    singleFlight.run("t3_abc", () -> countRuns(work)).test().dispose();
+
+    TestObserver<Void> laterSubscriber = singleFlight.run("t3_abc", () -> countRuns(work)).test();
+    work.onComplete();
+
+    laterSubscriber.assertComplete();
+    assertThat(runCount.get()).isEqualTo(1);
+  }
+
+  private Completable countRuns(Completable work) {
+    return work.doOnSubscribe(o -> runCount.incrementAndGet());
+  }
+}
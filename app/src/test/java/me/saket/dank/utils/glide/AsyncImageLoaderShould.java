@@ -0,0 +1,70 @@
+package me.saket.dank.utils.glide;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.bumptech.glide.request.FutureTarget;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncImageLoaderShould {
+
+  private ExecutorService workers;
+
+  @Before
+  public void setUp() {
+    workers = Executors.newFixedThreadPool(2);
+  }
+
+  @After
+  public void tearDown() {
+    workers.shutdownNow();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void countThreadsWhileTheyAreBlockedOnLoads() throws Exception {
+    CountDownLatch loadsStarted = new CountDownLatch(2);
+    CountDownLatch finishLoads = new CountDownLatch(1);
+    FutureTarget<String> target = mock(FutureTarget.class);
+    when(target.get()).thenAnswer(invocation -> {
+      loadsStarted.countDown();
+      finishLoads.await();
+      return "image";
+    });
+
+    Future<String> firstLoad = workers.submit(() -> AsyncImageLoader.blockingGet(target));
+    Future<String> secondLoad = workers.submit(() -> AsyncImageLoader.blockingGet(target));
+    assertThat(loadsStarted.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(AsyncImageLoader.blockedThreadCount()).isEqualTo(2);
+
+    finishLoads.countDown();
+    assertThat(firstLoad.get(5, TimeUnit.SECONDS)).isEqualTo("image");
+    assertThat(secondLoad.get(5, TimeUnit.SECONDS)).isEqualTo("image");
+    assertThat(AsyncImageLoader.blockedThreadCount()).isEqualTo(0);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void stopCountingThreads_whenTheirLoadsFail() throws Exception {
+    FutureTarget<String> target = mock(FutureTarget.class);
+    when(target.get()).thenThrow(new ExecutionException(new RuntimeException("Fake decode failure")));
+
+    try {
+      AsyncImageLoader.blockingGet(target);
+    } catch (ExecutionException ignored) {
+    }
+
+    assertThat(AsyncImageLoader.blockedThreadCount()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,123 @@
+package me.saket.dank.utils.glide;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.bumptech.glide.Priority;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.SingleSubject;
+
+public class ImageLoadQueueShould {
+
+  private static final int MAX_RUNNING_LOADS = 2;
+
+  private ImageLoadQueue queue;
+
+  @Before
+  public void setUp() {
+    queue = new ImageLoadQueue(MAX_RUNNING_LOADS);
+  }
+
+  @Test
+  public void startWaitingLoads_onlyWhenRunningLoadsFinish() {
+    List<SingleSubject<String>> loads = createLoads(4);
+    List<TestObserver<String>> observers = new ArrayList<>();
+    for (SingleSubject<String> load : loads) {
+      observers.add(queue.enqueue(Priority.NORMAL, load).test());
+    }
+
+    assertThat(subscribedCount(loads)).isEqualTo(MAX_RUNNING_LOADS);
+    assertThat(queue.waitingCount()).isEqualTo(2);
+
+    loads.get(0).onSuccess("image-0");
+    observers.get(0).assertValue("image-0");
+    assertThat(loads.get(2).hasObservers()).isTrue();
+    assertThat(loads.get(3).hasObservers()).isFalse();
+
+    loads.get(1).onError(new RuntimeException("Fake failure"));
+    observers.get(1).assertError(RuntimeException.class);
+    assertThat(loads.get(3).hasObservers()).isTrue();
+    assertThat(queue.runningCount()).isEqualTo(MAX_RUNNING_LOADS);
+  }
+
+  @Test
+  public void startWaitingLoads_inOrderOfPriority() {
+    List<SingleSubject<String>> loads = createLoads(5);
+    queue.enqueue(Priority.NORMAL, loads.get(0)).test();
+    queue.enqueue(Priority.NORMAL, loads.get(1)).test();
+    queue.enqueue(Priority.LOW, loads.get(2)).test();
+    queue.enqueue(Priority.NORMAL, loads.get(3)).test();
+    queue.enqueue(Priority.IMMEDIATE, loads.get(4)).test();
+
+    loads.get(0).onSuccess("image-0");
+    assertThat(loads.get(4).hasObservers()).isTrue();
+
+    loads.get(1).onSuccess("image-1");
+    assertThat(loads.get(3).hasObservers()).isTrue();
+    assertThat(loads.get(2).hasObservers()).isFalse();
+  }
+
+  @Test
+  public void notStartLoads_thatWereDisposedWhileWaiting() {
+    List<SingleSubject<String>> loads = createLoads(3);
+    queue.enqueue(Priority.NORMAL, loads.get(0)).test();
+    queue.enqueue(Priority.NORMAL, loads.get(1)).test();
+    TestObserver<String> waitingObserver = queue.enqueue(Priority.NORMAL, loads.get(2)).test();
+
+    waitingObserver.dispose();
+    loads.get(0).onSuccess("image-0");
+
+    assertThat(loads.get(2).hasObservers()).isFalse();
+    assertThat(queue.waitingCount()).isEqualTo(0);
+    assertThat(queue.runningCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void cancelRunningLoads_andFreeTheirSlots_whenDisposed() {
+    List<SingleSubject<String>> loads = createLoads(3);
+    TestObserver<String> runningObserver = queue.enqueue(Priority.NORMAL, loads.get(0)).test();
+    queue.enqueue(Priority.NORMAL, loads.get(1)).test();
+    queue.enqueue(Priority.NORMAL, loads.get(2)).test();
+
+    runningObserver.dispose();
+
+    assertThat(loads.get(0).hasObservers()).isFalse();
+    assertThat(loads.get(2).hasObservers()).isTrue();
+    assertThat(queue.runningCount()).isEqualTo(MAX_RUNNING_LOADS);
+  }
+
+  @Test
+  public void freeSlotsOnlyOnce_whenFinishedLoadsAreDisposed() {
+    List<SingleSubject<String>> loads = createLoads(1);
+    TestObserver<String> observer = queue.enqueue(Priority.NORMAL, loads.get(0)).test();
+
+    loads.get(0).onSuccess("image-0");
+    observer.dispose();
+
+    assertThat(queue.runningCount()).isEqualTo(0);
+  }
+
+  private static List<SingleSubject<String>> createLoads(int count) {
+    List<SingleSubject<String>> loads = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      loads.add(SingleSubject.create());
+    }
+    return loads;
+  }
+
+  private static int subscribedCount(List<SingleSubject<String>> loads) {
+    int count = 0;
+    for (SingleSubject<String> load : loads) {
+      if (load.hasObservers()) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -28,7 +28,11 @@ public class MarkwonBasedMarkdownRendererTest {
 
   @Test
   public void fixInvalidTables() {
-    // TODO.
+    String invalid = "Column 1 | Column 2 | Column 3\n:--|:--:|--:\nA | B | C";
+    String expected = "Column 1 | Column 2 | Column 3\n:---|:----:|---:\nA | B | C";
+
+    String parsed = renderer.fixInvalidTables(invalid);
+    assertEquals(expected, parsed);
   }
 
   @Test
@@ -75,6 +79,15 @@ public class MarkwonBasedMarkdownRendererTest {
     assertEquals(expected, parsed);
   }
 
+  @Test
+  public void fixMultipleInvalidLinks() {
+    String invalid = "[one] (a b) and [two] (c d)";
+    String expected = "[one](a b) and [two](c d)";
+
+    String parsed = renderer.removeSpaceBetweenLinkLabelAndUrl(invalid);
+    assertEquals(expected, parsed);
+  }
+
   @Test
   public void fixInvalidSpoilers() {
     String invalid = "[spoiler](/s \"I will be hanged\")\n" +
@@ -98,4 +111,22 @@ public class MarkwonBasedMarkdownRendererTest {
     String parsed = renderer.fixInvalidSpoilers(valid);
     assertEquals(valid, parsed);
   }
+
+  @Test
+  public void convertSuperscripts() {
+    String markdown = "x^2 and ^^double and ^(paren) end\\nnext^y";
+    String expected = "x<sup>2</sup> and <sup><sup>double</sup></sup> and <sup>(paren)</sup> end\\nnext<sup>y</sup>";
+
+    String parsed = renderer.convertSuperscripts(markdown);
+    assertEquals(expected, parsed);
+  }
+
+  @Test
+  public void avoidTouchingUrlsWhenFixingHeadings() {
+    String markdown = "#Heading\n\n[anchor](http://example.com/page#section)";
+    String expected = "# Heading\n\n[anchor](http://example.com/page#section)";
+
+    String parsed = renderer.preprocess(markdown);
+    assertEquals(expected, parsed);
+  }
 }
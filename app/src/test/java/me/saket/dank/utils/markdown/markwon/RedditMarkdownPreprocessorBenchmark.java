@@ -0,0 +1,78 @@
+package me.saket.dank.utils.markdown.markwon;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Compares {@link RedditMarkdownPreprocessor} with the regex passes it replaced ({@link SequentialMarkdownPasses}),
+ * over long comments and self-posts built from snippets usually found on reddit. Their outputs differ for texts
+ * with more than one link, see {@link RedditMarkdownPreprocessorShould}.
+ */
+@Ignore("Benchmark. Run manually.")
+public class RedditMarkdownPreprocessorBenchmark {
+
+  private static final String[] SNIPPETS = {
+      "&gt; I think the real problem here is that nobody reads the docs.\n\n",
+      "That's not true. See [the wiki](https://www.reddit.com/r/androiddev/wiki/index) for more.\n\n",
+      "Source: [Android Developers](https://developer.android.com/guide/components/activities/activity-lifecycle)\n\n",
+      "#Update\n\nFixed it by clearing the cache &amp; restarting.\n\n",
+      "##Results\n\n",
+      "Name | Score | Notes\n:--|:--:|--:\nFoo | 10 | Great\nBar | 7 | Okay\n\n",
+      "This is ^^^tiny text and x^2 is math.\n\n",
+      "[spoiler](#s \"Snape kills Dumbledore\")\n\n",
+      "Edit: thanks for the gold, kind stranger!\n\n",
+      "* Item one\n* Item two with **bold** and *italics*\n* ~~Struck~~ item\n\n",
+      "    code block with &lt;angle brackets&gt;\n\n",
+      "Have you tried turning it off and on again? &quot;It works on my machine&quot;, they said.\n\n",
+      "[^Info](https://np.reddit.com/r/autotldr/comments/31b9fm/faq_autotldr_bot/) ^| [^Feedback](https://np.reddit.com/message/compose?to=%23autotldr)\n\n",
+  };
+  private static final int COMMENT_SNIPPETS = 8;
+  private static final int SELF_POST_SNIPPETS = 120;
+  private static final int WARMUP_ITERATIONS = 2_000;
+  private static final int MEASURED_ITERATIONS = 20_000;
+
+  @Test
+  public void measureThroughput() {
+    Random random = new Random(7);
+    String comment = corpus(random, COMMENT_SNIPPETS);
+    String selfPost = corpus(random, SELF_POST_SNIPPETS);
+
+    SequentialMarkdownPasses sequentialPasses = new SequentialMarkdownPasses();
+    RedditMarkdownPreprocessor preprocessor = new RedditMarkdownPreprocessor();
+
+    System.out.println("input     | chars | sequential ns | single-pass ns");
+    for (String[] input : new String[][] { { "comment  ", comment }, { "self-post", selfPost } }) {
+      String markdown = input[1];
+      int iterations = markdown == comment ? MEASURED_ITERATIONS : MEASURED_ITERATIONS / 10;
+
+      for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+        sequentialPasses.process(markdown);
+        preprocessor.process(markdown, RedditMarkdownPreprocessor.ALL_FIXES);
+      }
+
+      long sequentialStartNanos = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        sequentialPasses.process(markdown);
+      }
+      long sequentialNanos = System.nanoTime() - sequentialStartNanos;
+
+      long singlePassStartNanos = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        preprocessor.process(markdown, RedditMarkdownPreprocessor.ALL_FIXES);
+      }
+      long singlePassNanos = System.nanoTime() - singlePassStartNanos;
+
+      System.out.println(String.format("%s | %5d | %13d | %14d", input[0], markdown.length(), sequentialNanos / iterations, singlePassNanos / iterations));
+    }
+  }
+
+  private static String corpus(Random random, int snippetCount) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < snippetCount; i++) {
+      builder.append(SNIPPETS[random.nextInt(SNIPPETS.length)]);
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,77 @@
+package me.saket.dank.utils.markdown.markwon;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+/**
+ * {@link RedditMarkdownPreprocessor} produces the same output as {@link SequentialMarkdownPasses}, except for the
+ * cases below. All of them come from the older passes re-using match indices after the text had changed, or
+ * replacing every copy of a matched text instead of just the match.
+ */
+public class RedditMarkdownPreprocessorShould {
+
+  private final SequentialMarkdownPasses sequentialPasses = new SequentialMarkdownPasses();
+  private final RedditMarkdownPreprocessor preprocessor = new RedditMarkdownPreprocessor();
+
+  @Test
+  public void produceSameOutputAsSequentialPasses_forTypicalMarkdown() {
+    String markdown = "Name | Score\n:--|--:\nFoo | 10\n\nThis is ^^tiny text &amp; &gt; quote\n\n#Update\n\n"
+        + "See [the wiki](https://www.reddit.com/r/androiddev/wiki/index)\n\n[spoiler](#s \"Snape kills Dumbledore\")";
+
+    String expected = "Name | Score\n:---|---:\nFoo | 10\n\nThis is <sup><sup>tiny</sup></sup> text & > quote\n\n# Update\n\n"
+        + "See [the wiki](https://www.reddit.com/r/androiddev/wiki/index)\n\n[spoiler](/s \"Snape kills Dumbledore\")";
+    assertThat(sequentialPasses.process(markdown)).isEqualTo(expected);
+    assertThat(preprocessor.process(markdown, RedditMarkdownPreprocessor.ALL_FIXES)).isEqualTo(expected);
+  }
+
+  @Test
+  public void notGarbleTextAfterTheFirstFixedLink() {
+    assertDifference(
+        "[Wiki](http://a.b/c d) [Docs] (http://e.f/g)",
+        "[Wiki](http://a.b/c%20d[Docs](http://e.f/g)g)",
+        "[Wiki](http://a.b/c%20d) [Docs](http://e.f/g)");
+  }
+
+  @Test
+  public void addOneSpaceToRepeatedHeadings() {
+    assertDifference("#\n#", "#  \n#  ", "# \n# ");
+  }
+
+  @Test
+  public void notAddSpacesAfterHashesInsideAHeading_whenTheirTextMatchesAnotherHeading() {
+    assertDifference("#a\n# b#a", "# a\n# b# a", "# a\n# b#a");
+  }
+
+  @Test
+  public void trimRepeatedHeadings() {
+    // The older fix only found the second heading in the original text, which its first replacement had changed.
+    assertDifference("#\n#a ", "# \n# a ", "# \n# a");
+  }
+
+  @Test
+  public void notFixHeadingsOrTablesInsideLinkUrls() {
+    assertDifference("[](#)", "[](#%20)", "[](#)");
+    assertDifference("[](:--|)", "[](:---|)", "[](:--|)");
+  }
+
+  @Test
+  public void onlyFixSpoilersThatItMatches() {
+    // The first spoiler is swallowed by the spoiler regex's match starting at "[l]". The older fix
+    // still fixed it because it replaced every copy of the second spoiler.
+    assertDifference(
+        "[l](u)[s](#s \"t\")\n[s](#s \"t\")",
+        "[l](u)[s](/s \"t\")\n[s](/s \"t\")",
+        "[l](u)[s](# s \"t\")\n[s](/s \"t\")");
+  }
+
+  @Test
+  public void treatLinksInsideLinkUrlsAsPartOfTheUrl() {
+    assertDifference("[]([l] (u v)", "[]([l](u%20v)", "[]([l]%20(u%20v)");
+  }
+
+  private void assertDifference(String markdown, String sequentialOutput, String singlePassOutput) {
+    assertThat(sequentialPasses.process(markdown)).isEqualTo(sequentialOutput);
+    assertThat(preprocessor.process(markdown, RedditMarkdownPreprocessor.ALL_FIXES)).isEqualTo(singlePassOutput);
+  }
+}
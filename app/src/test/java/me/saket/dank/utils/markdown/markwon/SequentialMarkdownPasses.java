@@ -0,0 +1,174 @@
+package me.saket.dank.utils.markdown.markwon;
+
+import java.util.Stack;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import timber.log.Timber;
+
+/**
+ * The pre-processing that {@link MarkwonBasedMarkdownRenderer} did before {@link RedditMarkdownPreprocessor},
+ * copied verbatim as a baseline for comparing their speed and output.
+ */
+class SequentialMarkdownPasses {
+
+  private static final Pattern LINK_MARKDOWN_PATTERN = Pattern.compile("\\[([^\\]]*)\\]\\(([^)\"]*)\\)");
+  private static final Pattern LINK_WITH_SPACE_MARKDOWN_PATTERN = Pattern.compile("\\[([^\\]]*)\\]\\s+\\(([^)\"]*)\\)");
+  private static final Pattern HEADING_WITHOUT_SPACE_MARKDOWN_PATTERN = Pattern.compile("(#{1,6})\\s{0}((?:(?!\\\\n).)*)");
+  private static final Pattern POTENTIALLY_INVALID_SPOILER_MARKDOWN_PATTERN = Pattern.compile("\\[([^\\]]*)\\]\\((.*?)\"+(.*?(?<!\\\\))\"+\\)");
+
+  String process(String markdown) {
+    // Convert '&lgt;' to '<', etc.
+    markdown = org.jsoup.parser.Parser.unescapeEntities(markdown, true);
+    markdown = fixInvalidTables(markdown);
+    markdown = fixInvalidHeadings(markdown);
+    markdown = removeSpaceBetweenLinkLabelAndUrl(markdown);
+    markdown = escapeSpacesInLinkUrls(markdown);
+    markdown = fixInvalidSpoilers(markdown);
+
+    // WARNING: this should be at the end.
+    markdown = new SuperscriptMarkdownToHtml().convert(markdown);
+    return markdown;
+  }
+
+  /**
+   * Markwon needs at-least three dashes for table headers.
+   */
+  String fixInvalidTables(String markdown) {
+    try {
+      markdown = markdown
+          .replace(":--|", ":---|")
+          .replace("|:--:|", "|:---:|")
+          .replace("|:--", "|:---")
+          .replace("|--:", "|---:")
+          .replace("|-:", "|---:");
+    } catch (Throwable e) {
+      Timber.e(e, "Couldn't fix table syntax in: %s", markdown);
+    }
+    return markdown;
+  }
+
+  /**
+   * Ensures a space between '#' and heading text.
+   */
+  String fixInvalidHeadings(String markdown) {
+    try {
+      Matcher matcher = HEADING_WITHOUT_SPACE_MARKDOWN_PATTERN.matcher(markdown);
+      while (matcher.find()) {
+        String heading = matcher.group(0);
+        String hashes = matcher.group(1);
+        String content = matcher.group(2).trim();
+        markdown = markdown.replace(heading, String.format("%s %s", hashes, content));
+      }
+    } catch (Throwable e) {
+      Timber.e(e, "Couldn't fix invalid headers in: %s", markdown);
+    }
+
+    return markdown;
+  }
+
+  String removeSpaceBetweenLinkLabelAndUrl(String markdown) {
+    try {
+      Matcher matcher = LINK_WITH_SPACE_MARKDOWN_PATTERN.matcher(markdown);
+
+      while (matcher.find()) {
+        String linkText = matcher.group(1);
+        String linkUrl = matcher.group(2);
+
+        markdown = markdown.substring(0, matcher.start())
+            + String.format("[%s](%s)", linkText, linkUrl)
+            + markdown.substring(matcher.end(), markdown.length());
+        //markdown = markdown.replace(matcher.group(0), String.format("[%s](%s)", linkText, linkUrl));
+      }
+    } catch (Throwable e) {
+      Timber.e(e, "Couldn't remove spaces between link and url in: %s", markdown);
+    }
+
+    return markdown;
+  }
+
+  String escapeSpacesInLinkUrls(String markdown) {
+    try {
+      Matcher matcher = LINK_MARKDOWN_PATTERN.matcher(markdown);
+
+      while (matcher.find()) {
+        String linkText = matcher.group(1);
+        String linkUrl = matcher.group(2).replaceAll("\\s", "%20");
+
+        markdown = markdown.substring(0, matcher.start())
+            + String.format("[%s](%s)", linkText, linkUrl)
+            + markdown.substring(matcher.end(), markdown.length());
+        //markdown = markdown.replace(matcher.group(0), String.format("[%s](%s)", linkText, linkUrl));
+      }
+    } catch (Throwable e) {
+      Timber.e(e, "Couldn't escape spaces in link url in: %s", markdown);
+    }
+
+    return markdown;
+  }
+
+  String fixInvalidSpoilers(String markdown) {
+    try {
+      Matcher matcher = POTENTIALLY_INVALID_SPOILER_MARKDOWN_PATTERN.matcher(markdown);
+
+      while (matcher.find()) {
+        String fullMatch = matcher.group(0);
+        String spoilerLabel = matcher.group(1);
+        String spoilerUrl = matcher.group(2).trim();
+        String spoilerContent = matcher.group(3);
+
+        if (!RedditSpoilerLinkVisitor.isValidSpoilerUrl(spoilerUrl)) {
+          // This will only match "/s", "#s", "# s ", "/ s ", /s ", and similar variations.
+          continue;
+        }
+
+        markdown = markdown.replace(fullMatch, String.format("[%s](/s \"%s\")", spoilerLabel, spoilerContent));
+      }
+    } catch (Throwable e) {
+      Timber.e(e, "Couldn't fix invalid spoilers in: %s", markdown);
+    }
+
+    return markdown;
+  }
+
+  /**
+   * commonmark-java does not recognize '^'. This replaces all '^' with {@code <sup>} tags.
+   */
+  static class SuperscriptMarkdownToHtml {
+    public String convert(String markdown) {
+      try {
+        Stack<Character> stack = new Stack<>();
+        StringBuilder builder = new StringBuilder(markdown.length());
+
+        for (int i = 0; i < markdown.length(); i++) {
+          char c = markdown.charAt(i);
+          char nextC = (i + 1) < markdown.length() ? markdown.charAt(i + 1) : Character.MIN_VALUE;
+
+          if (c == '^') {
+            stack.add(c);
+            builder.append("<sup>");
+          } else {
+            if (Character.isWhitespace(c) || (c == '\\' && nextC == 'n')) {
+              flush(stack, builder);
+            }
+            builder.append(c);
+          }
+        }
+
+        flush(stack, builder);
+        return builder.toString();
+
+      } catch (Throwable e) {
+        Timber.e(e, "Couldn't convert superscript markdown to html in: %s", markdown);
+        return markdown;
+      }
+    }
+
+    private void flush(Stack<Character> stack, StringBuilder builder) {
+      while (!stack.isEmpty()) {
+        stack.pop();
+        builder.append("</sup>");
+      }
+    }
+  }
+}
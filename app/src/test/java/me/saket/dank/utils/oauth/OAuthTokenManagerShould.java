@@ -0,0 +1,207 @@
+package me.saket.dank.utils.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.schedulers.TestScheduler;
+
+public class OAuthTokenManagerShould {
+
+  private static final long TOKEN_VALIDITY_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private static final long REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(10);
+  private static final int THREAD_COUNT = 16;
+  private static final int REQUEST_COUNT = 5000;
+
+  private TestScheduler clock;
+  private FakeProvider provider;
+  private OAuthTokenManager tokenManager;
+  private ExecutorService requestThreads;
+
+  @Before
+  public void setUp() {
+    clock = new TestScheduler();
+    provider = new FakeProvider();
+    tokenManager = new OAuthTokenManager("test", provider, clock, REFRESH_AHEAD_MILLIS);
+    requestThreads = Executors.newFixedThreadPool(THREAD_COUNT);
+  }
+
+  @After
+  public void tearDown() {
+    requestThreads.shutdownNow();
+  }
+
+  @Test
+  public void refreshOnce_whenParallelRequestsFindNoToken() throws Exception {
+    List<String> tokens = fireParallelRequests();
+
+    assertThat(provider.refreshCount.get()).isEqualTo(1);
+    assertThat(provider.restoreCount.get()).isEqualTo(1);
+    for (String token : tokens) {
+      assertThat(token).isEqualTo("token-1");
+    }
+  }
+
+  @Test
+  public void refreshOncePerExpiryWindow_aheadOfExpiry() throws Exception {
+    int windowCount = 5;
+
+    for (int window = 1; window <= windowCount; window++) {
+      List<String> tokens = fireParallelRequests();
+      assertThat(provider.refreshCount.get()).isEqualTo(window);
+      assertThat(tokens).containsNoneOf("token-" + (window - 1), "token-" + (window + 1));
+
+      // Move to just after the scheduled refresh.
+      clock.advanceTimeBy(TOKEN_VALIDITY_MILLIS - REFRESH_AHEAD_MILLIS, TimeUnit.MILLISECONDS);
+      assertThat(provider.refreshCount.get()).isEqualTo(window + 1);
+    }
+
+    fireParallelRequests();
+    assertThat(provider.refreshCount.get()).isEqualTo(windowCount + 1);
+  }
+
+  @Test
+  public void refreshOnce_whenParallelRequestsFindAnExpiredToken() throws Exception {
+    fireParallelRequests();
+    provider.refreshesToFail = Integer.MAX_VALUE;
+
+    // The scheduled refresh and its retries fail, so the token expires.
+    clock.advanceTimeBy(TOKEN_VALIDITY_MILLIS, TimeUnit.MILLISECONDS);
+    assertThat(provider.refreshCount.get()).isEqualTo(1);
+    provider.refreshesToFail = 0;
+
+    List<String> tokens = fireParallelRequests();
+
+    assertThat(provider.refreshCount.get()).isEqualTo(2);
+    for (String token : tokens) {
+      assertThat(token).isEqualTo("token-2");
+    }
+  }
+
+  @Test
+  public void retryFailedScheduledRefreshes_withBackoff() throws Exception {
+    fireParallelRequests();
+    provider.refreshesToFail = 2;
+
+    clock.advanceTimeBy(TOKEN_VALIDITY_MILLIS - REFRESH_AHEAD_MILLIS, TimeUnit.MILLISECONDS);
+    assertThat(provider.failedRefreshCount.get()).isEqualTo(1);
+
+    clock.advanceTimeBy(OAuthTokenManager.FIRST_RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    assertThat(provider.failedRefreshCount.get()).isEqualTo(2);
+
+    // The second retry waits twice as long.
+    clock.advanceTimeBy(OAuthTokenManager.FIRST_RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    assertThat(provider.refreshCount.get()).isEqualTo(1);
+    clock.advanceTimeBy(OAuthTokenManager.FIRST_RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    assertThat(provider.refreshCount.get()).isEqualTo(2);
+
+    // Callers get the new token without refreshing it themselves.
+    assertThat(fireParallelRequests()).containsExactly("token-2");
+    assertThat(provider.refreshCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void stopRetryingScheduledRefresh_whenReleased() throws Exception {
+    fireParallelRequests();
+    provider.refreshesToFail = 1;
+    clock.advanceTimeBy(TOKEN_VALIDITY_MILLIS - REFRESH_AHEAD_MILLIS, TimeUnit.MILLISECONDS);
+
+    tokenManager.release();
+    clock.advanceTimeBy(REFRESH_AHEAD_MILLIS, TimeUnit.MILLISECONDS);
+
+    assertThat(provider.failedRefreshCount.get()).isEqualTo(1);
+    assertThat(provider.refreshCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void useRestoredToken_whileItIsUsable() throws Exception {
+    provider.restoredToken = OAuthToken.create("restored", TOKEN_VALIDITY_MILLIS);
+
+    List<String> tokens = fireParallelRequests();
+
+    assertThat(provider.refreshCount.get()).isEqualTo(0);
+    assertThat(tokens).containsExactly("restored");
+  }
+
+  @Test
+  public void stopScheduledRefreshes_whenReleased() throws Exception {
+    fireParallelRequests();
+
+    tokenManager.release();
+    clock.advanceTimeBy(TOKEN_VALIDITY_MILLIS - REFRESH_AHEAD_MILLIS, TimeUnit.MILLISECONDS);
+
+    assertThat(provider.refreshCount.get()).isEqualTo(1);
+  }
+
+  @Test(expected = IOException.class)
+  public void throwIOException_whenRefreshFails() throws IOException {
+    provider.refreshesToFail = 1;
+    tokenManager.token();
+  }
+
+  /**
+   * All requests are released at once so that they race for the token.
+   *
+   * @return Distinct tokens received by the requests.
+   */
+  private List<String> fireParallelRequests() throws Exception {
+    CountDownLatch startSignal = new CountDownLatch(1);
+    List<Future<String>> requests = new ArrayList<>(REQUEST_COUNT);
+    for (int i = 0; i < REQUEST_COUNT; i++) {
+      requests.add(requestThreads.submit(() -> {
+        startSignal.await();
+        return tokenManager.token();
+      }));
+    }
+    startSignal.countDown();
+
+    List<String> distinctTokens = new ArrayList<>();
+    for (Future<String> request : requests) {
+      String token = request.get(10, TimeUnit.SECONDS);
+      if (!distinctTokens.contains(token)) {
+        distinctTokens.add(token);
+      }
+    }
+    return distinctTokens;
+  }
+
+  private class FakeProvider implements OAuthTokenManager.Provider {
+    final AtomicInteger refreshCount = new AtomicInteger();
+    final AtomicInteger restoreCount = new AtomicInteger();
+    final AtomicInteger failedRefreshCount = new AtomicInteger();
+    volatile OAuthToken restoredToken;
+    volatile int refreshesToFail;
+
+    @Override
+    public OAuthToken restore() {
+      restoreCount.incrementAndGet();
+      return restoredToken;
+    }
+
+    @Override
+    public OAuthToken refresh() throws Exception {
+      if (refreshesToFail > 0) {
+        refreshesToFail--;
+        failedRefreshCount.incrementAndGet();
+        throw new IOException("Fake network failure");
+      }
+
+      // Widens the window in which other requests can race this refresh.
+      Thread.sleep(20);
+      int count = refreshCount.incrementAndGet();
+      return OAuthToken.create("token-" + count, clock.now(TimeUnit.MILLISECONDS) + TOKEN_VALIDITY_MILLIS);
+    }
+  }
+}
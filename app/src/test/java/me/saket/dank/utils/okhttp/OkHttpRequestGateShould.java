@@ -0,0 +1,95 @@
+package me.saket.dank.utils.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class OkHttpRequestGateShould {
+
+  private static final String HOST = "i.redd.it";
+  private static final String OTHER_HOST = "oauth.reddit.com";
+
+  private OkHttpRequestGate gate;
+
+  @Before
+  public void setUp() {
+    gate = new OkHttpRequestGate(6, 3);
+  }
+
+  @Test
+  public void blockRequests_whenHostIsFull() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      acquireInBackground(HOST, RequestPriority.UI).await();
+    }
+
+    CountDownLatch fourthRequest = acquireInBackground(HOST, RequestPriority.UI);
+    CountDownLatch otherHostRequest = acquireInBackground(OTHER_HOST, RequestPriority.UI);
+    assertThat(otherHostRequest.await(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(fourthRequest.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+    gate.release(HOST);
+    assertThat(fourthRequest.await(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void leavePermitsFree_forUiRequests() throws Exception {
+    acquireInBackground(HOST, RequestPriority.PRE_FILL).await();
+
+    CountDownLatch secondPreFill = acquireInBackground(HOST, RequestPriority.PRE_FILL);
+    assertThat(secondPreFill.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+    assertThat(acquireInBackground(HOST, RequestPriority.UI).await(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(acquireInBackground(HOST, RequestPriority.UI).await(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void letUiRequestsGoFirst_whenAPermitFreesUp() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      acquireInBackground(HOST, RequestPriority.UI).await();
+    }
+
+    CountDownLatch preFillRequest = acquireInBackground(HOST, RequestPriority.PRE_FILL);
+    Thread.sleep(50);
+    CountDownLatch uiRequest = acquireInBackground(HOST, RequestPriority.UI);
+    Thread.sleep(50);
+
+    gate.release(HOST);
+    assertThat(uiRequest.await(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(preFillRequest.await(100, TimeUnit.MILLISECONDS)).isFalse();
+  }
+
+  @Test
+  public void notBlockNestedRequests_fromAThreadThatHoldsAPermit() throws Exception {
+    gate = new OkHttpRequestGate(1, 1);
+
+    assertThat(gate.acquire(HOST, RequestPriority.UI)).isTrue();
+    assertThat(gate.acquire(OTHER_HOST, RequestPriority.UI)).isFalse();
+    gate.release(HOST);
+
+    assertThat(acquireInBackground(OTHER_HOST, RequestPriority.UI).await(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  /**
+   * Uses a new thread every time because the gate lets threads that hold a permit through.
+   *
+   * @return Counted down once the permit is acquired. The permit is released by the test.
+   */
+  private CountDownLatch acquireInBackground(String host, RequestPriority priority) {
+    CountDownLatch acquired = new CountDownLatch(1);
+    Thread thread = new Thread(() -> {
+      try {
+        gate.acquire(host, priority);
+        acquired.countDown();
+      } catch (Exception e) {
+        throw new AssertionError(e);
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+    return acquired;
+  }
+}
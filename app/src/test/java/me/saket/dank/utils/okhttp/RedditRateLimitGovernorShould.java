@@ -0,0 +1,269 @@
+package me.saket.dank.utils.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.TestScheduler;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+public class RedditRateLimitGovernorShould {
+
+  private static final long WINDOW_MILLIS = 1000;
+
+  private TestScheduler clock;
+  private ExecutorService requestThreads;
+  private RedditRateLimitGovernor governor;
+  private FakeRedditServer server;
+  private OkHttpClient client;
+
+  @Before
+  public void setUp() {
+    clock = new TestScheduler();
+    requestThreads = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    requestThreads.shutdownNow();
+  }
+
+  @Test
+  public void holdUiRequests_untilTheWindowResets_whenQuotaRunsOut() throws Exception {
+    startServer(3);
+    for (int i = 0; i < 3; i++) {
+      execute(RequestPriority.UI);
+    }
+
+    Future<Integer> heldRequest = executeInBackground(RequestPriority.UI);
+    awaitUntil(() -> governor.waitingCount(RequestPriority.UI) == 1);
+
+    clock.advanceTimeBy(WINDOW_MILLIS - 1, TimeUnit.MILLISECONDS);
+    assertThat(governor.waitingCount(RequestPriority.UI)).isEqualTo(1);
+    assertThat(heldRequest.isDone()).isFalse();
+
+    clock.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+    assertThat(heldRequest.get(10, TimeUnit.SECONDS)).isEqualTo(200);
+    assertThat(server.tooManyRequestsCount.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void leaveReservedQuota_forUiRequests() throws Exception {
+    startServer(10);
+    execute(RequestPriority.UI);
+
+    List<Future<Integer>> backgroundRequests = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      backgroundRequests.add(executeInBackground(RequestPriority.BACKGROUND));
+    }
+
+    // 9 remaining, minus 1 reserved by background requests.
+    awaitUntil(() -> server.servedCount(RequestPriority.BACKGROUND) == 8 && governor.waitingCount(RequestPriority.BACKGROUND) == 12);
+
+    // The clock doesn't move, so this would never return if it had to wait for the window to reset.
+    assertThat(executeInBackground(RequestPriority.UI).get(10, TimeUnit.SECONDS)).isEqualTo(200);
+    assertThat(server.servedCount(RequestPriority.BACKGROUND)).isEqualTo(8);
+
+    // 10 in the next window, minus 1 reserved.
+    clock.advanceTimeBy(WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    awaitUntil(() -> server.servedCount(RequestPriority.BACKGROUND) == 17 && governor.waitingCount(RequestPriority.BACKGROUND) == 3);
+
+    clock.advanceTimeBy(WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    for (Future<Integer> request : backgroundRequests) {
+      assertThat(request.get(10, TimeUnit.SECONDS)).isEqualTo(200);
+    }
+    assertThat(server.tooManyRequestsCount.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void spreadPreFillRequests_overTheWindow_withoutDelayingUiRequests() throws Exception {
+    startServer(20);
+    execute(RequestPriority.UI);
+
+    List<Future<Integer>> preFillRequests = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      preFillRequests.add(executeInBackground(RequestPriority.PRE_FILL));
+    }
+    awaitUntil(() -> server.servedCount(RequestPriority.PRE_FILL) == 1 && governor.waitingCount(RequestPriority.PRE_FILL) == 9);
+
+    assertThat(executeInBackground(RequestPriority.UI).get(10, TimeUnit.SECONDS)).isEqualTo(200);
+    assertThat(server.servedCount(RequestPriority.PRE_FILL)).isEqualTo(1);
+
+    // The gap between pre-fill requests is at least 50ms until the window's last 100ms,
+    // so every step lets through about one more.
+    for (int step = 1; step < 10; step++) {
+      clock.advanceTimeBy(WINDOW_MILLIS / 10, TimeUnit.MILLISECONDS);
+      int expectedServedCount = step + 1;
+      awaitUntil(() -> server.servedCount(RequestPriority.PRE_FILL) >= expectedServedCount);
+
+      if (step == 4) {
+        assertThat(server.servedCount(RequestPriority.PRE_FILL)).isLessThan(10);
+      }
+    }
+
+    for (Future<Integer> request : preFillRequests) {
+      assertThat(request.get(10, TimeUnit.SECONDS)).isEqualTo(200);
+    }
+    assertThat(server.tooManyRequestsCount.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void notExceedQuota_whenRequestsOfAllPrioritiesRaceAcrossWindows() throws Exception {
+    startServer(10);
+    execute(RequestPriority.UI);
+
+    List<Future<Integer>> requests = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      requests.add(executeInBackground(RequestPriority.UI));
+      requests.add(executeInBackground(RequestPriority.BACKGROUND));
+      requests.add(executeInBackground(RequestPriority.PRE_FILL));
+    }
+
+    // The clock keeps moving while requests are in flight, so windows reset in between them.
+    awaitUntil(() -> {
+      clock.advanceTimeBy(WINDOW_MILLIS / 10, TimeUnit.MILLISECONDS);
+      for (Future<Integer> request : requests) {
+        if (!request.isDone()) {
+          return false;
+        }
+      }
+      return true;
+    });
+
+    for (Future<Integer> request : requests) {
+      assertThat(request.get()).isEqualTo(200);
+    }
+    assertThat(server.tooManyRequestsCount.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void letThroughRequestsToOtherHosts() throws Exception {
+    startServer(1);
+    execute(RequestPriority.UI);
+
+    Request tokenRequest = new Request.Builder()
+        .url("https://www.reddit.com/api/v1/access_token")
+        .build();
+    try (Response response = client.newCall(tokenRequest).execute()) {
+      assertThat(response.code()).isEqualTo(429);
+    }
+  }
+
+  private void startServer(int quota) {
+    governor = new RedditRateLimitGovernor(clock);
+    server = new FakeRedditServer(clock, quota, WINDOW_MILLIS);
+    client = new OkHttpClient.Builder()
+        .addInterceptor(governor)
+        .addInterceptor(server)
+        .build();
+  }
+
+  private int execute(RequestPriority priority) throws IOException {
+    Request request = new Request.Builder()
+        .url("https://" + RedditRateLimitGovernor.API_HOST + "/r/pics/hot")
+        .tag(priority)
+        .build();
+    try (Response response = client.newCall(request).execute()) {
+      return response.code();
+    }
+  }
+
+  private Future<Integer> executeInBackground(RequestPriority priority) {
+    return requestThreads.submit(() -> execute(priority));
+  }
+
+  /**
+   * For request threads to catch up with the fake clock. Time only passes when a test moves the clock,
+   * so the timeout is only there to fail tests that would otherwise hang.
+   */
+  private static void awaitUntil(Condition condition) throws Exception {
+    long timeoutNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.isMet()) {
+      if (System.nanoTime() > timeoutNanos) {
+        throw new AssertionError("Requests didn't reach the expected state");
+      }
+      Thread.yield();
+    }
+  }
+
+  private interface Condition {
+    boolean isMet() throws Exception;
+  }
+
+  /**
+   * Stands in for reddit: serves a fixed quota per window, reports it in the same headers and
+   * responds with 429 once it runs out. Never touches the network.
+   */
+  private static class FakeRedditServer implements Interceptor {
+    private final Scheduler clock;
+    private final int quota;
+    private final long windowMillis;
+    private final List<RequestPriority> servedRequests = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger tooManyRequestsCount = new AtomicInteger();
+
+    private long windowEndTimeMillis;
+    private int used;
+
+    FakeRedditServer(Scheduler clock, int quota, long windowMillis) {
+      this.clock = clock;
+      this.quota = quota;
+      this.windowMillis = windowMillis;
+    }
+
+    @Override
+    public synchronized Response intercept(Chain chain) {
+      long now = clock.now(TimeUnit.MILLISECONDS);
+      if (now >= windowEndTimeMillis) {
+        windowEndTimeMillis = now + windowMillis;
+        used = 0;
+      }
+
+      int code;
+      if (used < quota) {
+        used++;
+        code = 200;
+        servedRequests.add((RequestPriority) chain.request().tag());
+      } else {
+        code = 429;
+        tooManyRequestsCount.incrementAndGet();
+      }
+
+      return new Response.Builder()
+          .request(chain.request())
+          .protocol(Protocol.HTTP_1_1)
+          .code(code)
+          .message(code == 200 ? "OK" : "Too Many Requests")
+          .header(RedditRateLimitGovernor.HEADER_USED, String.valueOf(used))
+          .header(RedditRateLimitGovernor.HEADER_REMAINING, String.format(Locale.ENGLISH, "%.1f", (float) (quota - used)))
+          .header(RedditRateLimitGovernor.HEADER_RESET_SECONDS, String.valueOf((windowEndTimeMillis - now) / 1000f))
+          .body(ResponseBody.create(MediaType.parse("application/json"), "{}"))
+          .build();
+    }
+
+    int servedCount(RequestPriority priority) {
+      synchronized (servedRequests) {
+        return Collections.frequency(servedRequests, priority);
+      }
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package me.saket.dank.utils.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.app.Application;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+public class RequestPriorityShould {
+
+  @Rule public TemporaryFolder cacheDir = new TemporaryFolder();
+
+  private FakeServer server;
+  private OkHttpClient client;
+
+  @Before
+  public void setUp() {
+    Application appContext = mock(Application.class);
+    when(appContext.getCacheDir()).thenReturn(cacheDir.getRoot());
+
+    server = new FakeServer();
+    client = new OkHttpCore(appContext).newClientBuilder("test")
+        .addInterceptor(server)
+        .build();
+  }
+
+  @Test
+  public void treatRequestsAsUi_whenTheirPriorityIsUnknown() throws Exception {
+    execute(new Request.Builder().url("https://i.redd.it/pic.jpg").build());
+
+    assertThat(server.receivedPriorities).containsExactly(RequestPriority.UI);
+  }
+
+  @Test
+  public void readPriorityFromHeader_andNotSendTheHeader() throws Exception {
+    execute(new Request.Builder()
+        .url("https://i.redd.it/pic.jpg")
+        .header(RequestPriority.HEADER_NAME, RequestPriority.PRE_FILL.name())
+        .build());
+
+    assertThat(server.receivedPriorities).containsExactly(RequestPriority.PRE_FILL);
+    assertThat(server.receivedPriorityHeaders).containsExactly((String) null);
+  }
+
+  @Test
+  public void markRequestsMadeWhileSubscribing_afterSwitchingThreads() {
+    Single<Integer> fetch = Single.fromCallable(() -> execute(new Request.Builder().url("https://oauth.reddit.com/comments/abc").build()));
+
+    Single.just(1)
+        .observeOn(Schedulers.io())
+        .flatMap(o -> fetch.compose(RequestPriority.applyWhileSubscribing(RequestPriority.PRE_FILL)))
+        .test()
+        .awaitDone(5, TimeUnit.SECONDS)
+        .assertValue(200);
+
+    assertThat(server.receivedPriorities).containsExactly(RequestPriority.PRE_FILL);
+  }
+
+  @Test
+  public void notMarkRequestsMadeAfterSubscribing() throws Exception {
+    Single.fromCallable(() -> 0)
+        .compose(RequestPriority.applyWhileSubscribing(RequestPriority.PRE_FILL))
+        .test()
+        .assertValue(0);
+
+    execute(new Request.Builder().url("https://oauth.reddit.com/comments/abc").build());
+    assertThat(server.receivedPriorities).containsExactly(RequestPriority.UI);
+  }
+
+  private int execute(Request request) throws IOException {
+    try (Response response = client.newCall(request).execute()) {
+      return response.code();
+    }
+  }
+
+  /**
+   * Records what reaches the network. Never touches the network itself.
+   */
+  private static class FakeServer implements Interceptor {
+    final List<RequestPriority> receivedPriorities = Collections.synchronizedList(new ArrayList<>());
+    final List<String> receivedPriorityHeaders = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public Response intercept(Chain chain) {
+      receivedPriorities.add(RequestPriority.of(chain.request()));
+      receivedPriorityHeaders.add(chain.request().header(RequestPriority.HEADER_NAME));
+
+      return new Response.Builder()
+          .request(chain.request())
+          .protocol(Protocol.HTTP_1_1)
+          .code(200)
+          .message("OK")
+          .body(ResponseBody.create(MediaType.parse("application/json"), "{}"))
+          .build();
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package me.saket.dank.utils.okhttp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+public class ResponseByteCounterShould {
+
+  private final ResponseByteCounter counter = new ResponseByteCounter();
+
+  @After
+  public void tearDown() {
+    counter.detachFromCurrentThread();
+  }
+
+  @Test
+  public void countBytesOfResponseBodies_asTheyAreRead() throws Exception {
+    counter.attachToCurrentThread();
+
+    assertThat(counter.count(response("{\"kind\": \"Listing\"}")).body().string()).isEqualTo("{\"kind\": \"Listing\"}");
+    assertThat(counter.byteCount()).isEqualTo(19);
+
+    counter.count(response("{}")).body().string();
+    assertThat(counter.byteCount()).isEqualTo(21);
+  }
+
+  @Test
+  public void onlyBeAttachedToItsOwnThread() throws Exception {
+    counter.attachToCurrentThread();
+
+    ExecutorService otherThread = Executors.newSingleThreadExecutor();
+    ResponseByteCounter otherThreadCounter = otherThread.submit(ResponseByteCounter::forCurrentThread).get(1, TimeUnit.SECONDS);
+    otherThread.shutdown();
+
+    assertThat(ResponseByteCounter.forCurrentThread()).isSameAs(counter);
+    assertThat(otherThreadCounter).isNull();
+  }
+
+  private static Response response(String body) {
+    return new Response.Builder()
+        .request(new Request.Builder().url("https://oauth.reddit.com/r/androiddev").build())
+        .protocol(Protocol.HTTP_1_1)
+        .code(200)
+        .message("OK")
+        .body(ResponseBody.create(MediaType.parse("application/json"), body))
+        .build();
+  }
+}
@@ -0,0 +1,46 @@
+package me.saket.dank.utils.palette;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class CachedPaletteGeneratorShould {
+
+  @Test
+  public void downsampleLargeImages_toTheThumbnailArea() {
+    int[] size = CachedPaletteGenerator.thumbnailSize(1080, 1920);
+
+    assertThat(size[0] * size[1]).isAtMost(64 * 64);
+    assertThat(size[0] * size[1]).isAtLeast(60 * 60);
+  }
+
+  @Test
+  public void keepTheAspectRatio_whenDownsampling() {
+    int[] size = CachedPaletteGenerator.thumbnailSize(4000, 1000);
+
+    assertThat((float) size[0] / size[1]).isWithin(0.1f).of(4f);
+  }
+
+  @Test
+  public void notUpscaleSmallImages() {
+    assertThat(CachedPaletteGenerator.thumbnailSize(40, 30)).isEqualTo(new int[] { 40, 30 });
+  }
+
+  @Test
+  public void keepAtLeastOnePixel_forThinImages() {
+    int[] size = CachedPaletteGenerator.thumbnailSize(100_000, 1);
+
+    assertThat(size[1]).isEqualTo(1);
+    assertThat(size[0]).isAtLeast(1);
+  }
+
+  @Test
+  public void restoreStoredSwatches_asTheyWereSaved() {
+    int[] rgbAndPopulations = { 0xFF112233, 120, 0xFFFFFFFF, 7, 0xFF000000, Integer.MAX_VALUE };
+
+    byte[] encoded = CachedPaletteSwatches.encode(rgbAndPopulations);
+
+    assertThat(encoded.length).isEqualTo(rgbAndPopulations.length * 4);
+    assertThat(CachedPaletteSwatches.decode(encoded)).isEqualTo(rgbAndPopulations);
+  }
+}
@@ -0,0 +1,155 @@
+package me.saket.dank.utils.palette;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Reports time and allocations per tint when palettes were generated from full-size images on every bind,
+ * versus with {@link CachedPaletteGenerator} on a cache miss and on a hit from its table. Thumbnails are
+ * sized with {@link CachedPaletteGenerator#thumbnailSize(int, int)} and swatches are stored and read with
+ * {@link CachedPaletteSwatches}. Bitmap and Palette can't be used on the JVM, so they're stood in by int
+ * arrays and a 5-bit-per-channel histogram, which is how Palette quantizes colors. Palette's own median-cut
+ * is left out of the first two, so real savings are larger.
+ */
+@Ignore("Benchmark. Run manually.")
+public class PaletteExtractionBenchmark {
+
+  private static final int[][] IMAGE_SIZES = {
+      { 320, 240 },     // Thumbnails.
+      { 1080, 1350 },   // Portrait photos.
+      { 1920, 1080 },   // Screenshots of videos.
+      { 4032, 3024 }    // Photos straight from a phone's camera.
+  };
+  private static final int WARMUP_ITERATIONS = 20;
+  private static final int ITERATIONS = 100;
+
+  /** Palette's default resizeBitmapArea. */
+  private static final int PALETTE_DEFAULT_AREA = 112 * 112;
+  private static final int MAX_COLORS = 16;
+
+  @Test
+  public void measureTintGeneration() {
+    System.out.println("image       | tint      |      time per tint |     allocations per tint");
+
+    for (int[] size : IMAGE_SIZES) {
+      int width = size[0];
+      int height = size[1];
+      int[] image = randomImage(width, height);
+      byte[] storedSwatches = CachedPaletteSwatches.encode(uncachedTint(image, width, height));
+
+      String imageName = width + "x" + height;
+      measure(imageName, "full-size", () -> fullSizeTint(image, width, height));
+      measure(imageName, "miss", () -> {
+        int[] swatches = uncachedTint(image, width, height);
+        CachedPaletteSwatches.encode(swatches);
+        return swatches;
+      });
+      measure(imageName, "table hit", () -> paletteFrom(CachedPaletteSwatches.decode(storedSwatches)));
+    }
+  }
+
+  /**
+   * Like the old code: copy the image into a new bitmap, let Palette scale it down and then quantize it.
+   */
+  private static int[] fullSizeTint(int[] image, int width, int height) {
+    int[] copy = image.clone();
+    double scale = Math.min(1, Math.sqrt((double) PALETTE_DEFAULT_AREA / ((long) width * height)));
+    int[] scaled = downsample(copy, width, height, Math.max(1, (int) (width * scale)), Math.max(1, (int) (height * scale)));
+    return swatches(scaled, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Like {@link CachedPaletteGenerator} on a cache miss: draw straight into a small thumbnail.
+   */
+  private static int[] uncachedTint(int[] image, int width, int height) {
+    int[] thumbnailSize = CachedPaletteGenerator.thumbnailSize(width, height);
+    int[] thumbnail = downsample(image, width, height, thumbnailSize[0], thumbnailSize[1]);
+    return swatches(thumbnail, MAX_COLORS);
+  }
+
+  /**
+   * Stands in for creating a Palette from stored swatches, which allocates one object per swatch.
+   */
+  private static int[] paletteFrom(int[] rgbAndPopulations) {
+    List<int[]> swatches = new ArrayList<>(rgbAndPopulations.length / 2);
+    for (int i = 0; i < rgbAndPopulations.length; i += 2) {
+      swatches.add(new int[] { rgbAndPopulations[i], rgbAndPopulations[i + 1] });
+    }
+    return swatches.isEmpty() ? rgbAndPopulations : swatches.get(0);
+  }
+
+  private static int[] downsample(int[] pixels, int width, int height, int scaledWidth, int scaledHeight) {
+    int[] scaled = new int[scaledWidth * scaledHeight];
+    for (int y = 0; y < scaledHeight; y++) {
+      int sourceRow = y * height / scaledHeight * width;
+      for (int x = 0; x < scaledWidth; x++) {
+        scaled[y * scaledWidth + x] = pixels[sourceRow + x * width / scaledWidth];
+      }
+    }
+    return scaled;
+  }
+
+  private static int[] swatches(int[] pixels, int maxColors) {
+    int[] histogram = new int[1 << 15];
+    for (int pixel : pixels) {
+      int quantized = ((pixel >> 9) & 0x7C00) | ((pixel >> 6) & 0x03E0) | ((pixel >> 3) & 0x001F);
+      histogram[quantized]++;
+    }
+
+    int distinctColors = 0;
+    for (int count : histogram) {
+      if (count > 0) {
+        distinctColors++;
+      }
+    }
+
+    int swatchCount = Math.min(distinctColors, maxColors);
+    int[] rgbAndPopulations = new int[swatchCount * 2];
+    for (int color = 0, i = 0; color < histogram.length && i < swatchCount; color++) {
+      if (histogram[color] > 0) {
+        rgbAndPopulations[i * 2] = color;
+        rgbAndPopulations[i * 2 + 1] = histogram[color];
+        i++;
+      }
+    }
+    return rgbAndPopulations;
+  }
+
+  private static int[] randomImage(int width, int height) {
+    Random random = new Random(42);
+    int[] pixels = new int[width * height];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = 0xFF000000 | random.nextInt(0xFFFFFF);
+    }
+    return pixels;
+  }
+
+  private interface Tint {
+    int[] generate();
+  }
+
+  private static void measure(String imageName, String tintName, Tint tint) {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      tint.generate();
+    }
+
+    com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+    long startNanos = System.nanoTime();
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      tint.generate();
+    }
+
+    double micros = (System.nanoTime() - startNanos) / 1000d / ITERATIONS;
+    double kiloBytes = (threadBean.getThreadAllocatedBytes(threadId) - startBytes) / 1024d / ITERATIONS;
+    System.out.println(String.format(Locale.ENGLISH, "%-11s | %-9s | %10.1f us | %17.1f KB", imageName, tintName, micros, kiloBytes));
+  }
+}
@@ -0,0 +1,48 @@
+package me.saket.dank.utils.rx;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class LatencyHistogramShould {
+
+  @Test
+  public void putLatencies_inBucketsThatDoubleInWidth() {
+    assertThat(LatencyHistogram.bucketIndex(TimeUnit.MICROSECONDS.toNanos(10))).isEqualTo(0);
+    assertThat(LatencyHistogram.bucketIndex(TimeUnit.MICROSECONDS.toNanos(64))).isEqualTo(1);
+    assertThat(LatencyHistogram.bucketIndex(TimeUnit.MICROSECONDS.toNanos(127))).isEqualTo(1);
+    assertThat(LatencyHistogram.bucketIndex(TimeUnit.MICROSECONDS.toNanos(128))).isEqualTo(2);
+    assertThat(LatencyHistogram.bucketIndex(TimeUnit.MINUTES.toNanos(10))).isEqualTo(LatencyHistogram.BUCKET_COUNT - 1);
+  }
+
+  @Test
+  public void reportPercentiles_asUpperBoundsOfTheirBuckets() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 90; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(100));   // 64-128us.
+    }
+    for (int i = 0; i < 9; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(3));     // 2.048-4.096ms.
+    }
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(700));
+
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertThat(snapshot.count()).isEqualTo(100);
+    assertThat(snapshot.p50Millis()).isWithin(0.001f).of(0.128f);
+    assertThat(snapshot.p90Millis()).isWithin(0.001f).of(0.128f);
+    assertThat(snapshot.p99Millis()).isWithin(0.001f).of(4.096f);
+    assertThat(snapshot.maxMillis()).isWithin(0.001f).of(700f);
+    assertThat(snapshot.meanMillis()).isWithin(0.001f).of((90 * 0.1f + 9 * 3f + 700f) / 100);
+  }
+
+  @Test
+  public void reportZeroes_whenEmpty() {
+    LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+    assertThat(snapshot.count()).isEqualTo(0);
+    assertThat(snapshot.p99Millis()).isEqualTo(0f);
+    assertThat(snapshot.meanMillis()).isEqualTo(0f);
+  }
+}
@@ -0,0 +1,71 @@
+package me.saket.dank.utils.rx;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import io.reactivex.Observable;
+import io.reactivex.subjects.PublishSubject;
+
+public class StreamLatencyMonitorShould {
+
+  private StreamLatencyMonitor monitor;
+
+  @Before
+  public void setUp() {
+    monitor = new StreamLatencyMonitor();
+  }
+
+  @Test
+  public void recordFirstEmission_oncePerSubscription_andComputeTime_forEveryEmission() {
+    PublishSubject<Integer> source = PublishSubject.create();
+    Observable<Integer> recordedSource = source.compose(monitor.stream("subreddit").source("submissions"));
+
+    recordedSource.subscribe();
+    recordedSource.subscribe();
+    source.onNext(1);
+    source.onNext(2);
+
+    List<StreamLatencyMonitor.SourceSnapshot> snapshots = monitor.snapshot();
+    assertThat(snapshots).hasSize(1);
+    assertThat(snapshots.get(0).firstEmission().count()).isEqualTo(2);
+    assertThat(snapshots.get(0).computeTime().count()).isEqualTo(4);
+  }
+
+  @Test
+  public void shareHistograms_betweenSourcesWithSameNames() {
+    Observable.just(1).compose(monitor.stream("subreddit").source("submissions")).subscribe();
+    Observable.just(1).compose(monitor.stream("subreddit").source("submissions")).subscribe();
+    Observable.just(1).compose(monitor.stream("submission").source("submissions")).subscribe();
+
+    List<StreamLatencyMonitor.SourceSnapshot> snapshots = monitor.snapshot();
+    assertThat(snapshots).hasSize(2);
+    assertThat(snapshots.get(0).streamName()).isEqualTo("submission");
+    assertThat(snapshots.get(1).streamName()).isEqualTo("subreddit");
+    assertThat(snapshots.get(1).firstEmission().count()).isEqualTo(2);
+  }
+
+  @Test
+  public void forwardErrors() {
+    Exception error = new Exception();
+
+    Observable.error(error)
+        .compose(monitor.stream("subreddit").source("submissions"))
+        .test()
+        .assertError(error);
+  }
+
+  @Test
+  public void exportOneRowPerSource() {
+    Observable.just(1).compose(monitor.stream("subreddit").source("submissions")).subscribe();
+    Observable.just(1).compose(monitor.stream("subreddit").source("votes")).subscribe();
+
+    String[] rows = StreamLatencyMonitor.toTsv(monitor.snapshot()).split("\n");
+    assertThat(rows).hasLength(3);
+    assertThat(rows[1]).startsWith("subreddit\tsubmissions\t1\t");
+    assertThat(rows[2]).startsWith("subreddit\tvotes\t1\t");
+  }
+}
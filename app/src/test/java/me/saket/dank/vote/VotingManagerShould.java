@@ -0,0 +1,104 @@
+package me.saket.dank.vote;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
+
+import net.dean.jraw.models.VoteDirection;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+
+public class VotingManagerShould {
+
+  @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+  @Mock SharedPreferences sharedPrefs;
+  @Mock SharedPreferences.Editor sharedPrefsEditor;
+
+  private TestScheduler persistScheduler;
+  private VotingManager votingManager;
+
+  @Before
+  @SuppressLint("CommitPrefEdits")
+  public void setUp() {
+    persistScheduler = new TestScheduler();
+    votingManager = new VotingManager(null, () -> null, () -> sharedPrefs, () -> null, persistScheduler);
+
+    when(sharedPrefs.edit()).thenReturn(sharedPrefsEditor);
+    when(sharedPrefsEditor.putString(anyString(), anyString())).thenReturn(sharedPrefsEditor);
+    when(sharedPrefsEditor.remove(anyString())).thenReturn(sharedPrefsEditor);
+  }
+
+  @Test
+  public void readPendingVotesFromPrefsOnlyOnce() {
+    when(sharedPrefs.getAll()).thenAnswer(o -> Collections.singletonMap("pendingVote_t3_a", "UPVOTE"));
+    SimpleVotable submission = submission("t3_a", 10, VoteDirection.NONE);
+
+    assertEquals(VoteDirection.UP, votingManager.getPendingOrDefaultVote(submission, VoteDirection.NONE));
+    assertEquals(11, votingManager.getScoreAfterAdjustingPendingVote(submission));
+
+    verify(sharedPrefs, times(1)).getAll();
+  }
+
+  @Test
+  @SuppressLint("CommitPrefEdits")
+  public void saveChangedVotesInOneBatch() {
+    when(sharedPrefs.getAll()).thenAnswer(o -> Collections.emptyMap());
+
+    votingManager.saveAndSend(vote(submission("t3_a", 1, VoteDirection.NONE), VoteDirection.UP)).subscribe();
+    votingManager.saveAndSend(vote(submission("t3_b", 1, VoteDirection.NONE), VoteDirection.DOWN)).subscribe();
+    votingManager.saveAndSend(vote(submission("t3_a", 1, VoteDirection.NONE), VoteDirection.NONE)).subscribe();
+
+    assertEquals(VoteDirection.NONE, votingManager.getPendingOrDefaultVote(submission("t3_a", 1, VoteDirection.UP), VoteDirection.UP));
+    verify(sharedPrefs, never()).edit();
+
+    persistScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+    verify(sharedPrefs, times(1)).edit();
+    verify(sharedPrefsEditor).putString("pendingVote_t3_a", "NONE");
+    verify(sharedPrefsEditor).putString("pendingVote_t3_b", "DOWN");
+    verify(sharedPrefsEditor, times(1)).apply();
+  }
+
+  @Test
+  public void streamFullNamesOfChangedVotes() {
+    when(sharedPrefs.getAll()).thenAnswer(o -> Collections.emptyMap());
+    TestObserver<String> changedFullNames = votingManager.streamChangedContributionFullNames().test();
+
+    votingManager.saveAndSend(vote(submission("t3_a", 1, VoteDirection.NONE), VoteDirection.UP)).subscribe();
+    votingManager.saveAndSend(vote(submission("t3_b", 1, VoteDirection.NONE), VoteDirection.UP)).subscribe();
+
+    changedFullNames.assertValues("t3_a", "t3_b");
+  }
+
+  private static SimpleVotable submission(String fullName, int score, VoteDirection vote) {
+    return new SimpleVotable(score, vote, fullName, fullName.substring("t3_".length()));
+  }
+
+  private static Vote vote(SimpleVotable contribution, VoteDirection direction) {
+    Vote vote = mock(Vote.class);
+    when(vote.contributionToVote()).thenReturn(contribution);
+    when(vote.direction()).thenReturn(direction);
+    when(vote.sendToRemote(null)).thenReturn(Completable.complete());
+    return vote;
+  }
+}
@@ -0,0 +1,160 @@
+package me.saket.dank.markdownhints;
+
+/**
+ * Finds the range of top-level markdown blocks touched by an edit, so that only those
+ * blocks have to be parsed again.
+ * <p>
+ * A block starts at a line that isn't blank or indented, and follows a blank line. Indented
+ * lines after a blank line are left in their previous block because they can continue a
+ * list item or an indented code block.
+ */
+class MarkdownBlocks {
+
+  /**
+   * Affected range is widened by this many blocks on either side of the edited blocks.
+   */
+  private static final int NEIGHBOR_BLOCKS = 1;
+
+  /**
+   * Fenced code blocks, html blocks and link reference definitions can affect text beyond
+   * their block, so texts containing them are always parsed in full.
+   */
+  static boolean canParseIncrementally(CharSequence text) {
+    int length = text.length();
+    int lineStart = 0;
+    while (lineStart < length) {
+      int contentStart = lineStart;
+      while (contentStart < length && contentStart - lineStart < 4 && text.charAt(contentStart) == ' ') {
+        contentStart++;
+      }
+
+      if (contentStart < length) {
+        char c = text.charAt(contentStart);
+        if (c == '<') {
+          return false;
+        }
+        if ((c == '`' || c == '~') && startsWithRepeated(text, contentStart, c, 3)) {
+          return false;
+        }
+        if (c == '[' && isLinkReferenceDefinition(text, contentStart)) {
+          return false;
+        }
+      }
+      lineStart = nextLineStart(text, contentStart);
+    }
+    return true;
+  }
+
+  /**
+   * @return Start of the first block to parse again for an edit that starts at <var>editStart</var>.
+   */
+  static int affectedRangeStart(CharSequence text, int editStart) {
+    int blockStart = blockStartAtOrBefore(text, editStart);
+    for (int i = 0; i < NEIGHBOR_BLOCKS && blockStart > 0; i++) {
+      blockStart = blockStartAtOrBefore(text, blockStart - 1);
+    }
+    return blockStart;
+  }
+
+  /**
+   * @return End (exclusive) of the last block to parse again for an edit that ends at <var>editEnd</var>.
+   */
+  static int affectedRangeEnd(CharSequence text, int editEnd) {
+    int blockEnd = blockStartAfter(text, editEnd);
+    for (int i = 0; i < NEIGHBOR_BLOCKS && blockEnd < text.length(); i++) {
+      blockEnd = blockStartAfter(text, blockEnd);
+    }
+    return blockEnd;
+  }
+
+  static int blockStartAtOrBefore(CharSequence text, int index) {
+    int lineStart = lineStart(text, Math.min(index, text.length()));
+    while (lineStart > 0 && !isBlockStart(text, lineStart)) {
+      lineStart = lineStart(text, lineStart - 1);
+    }
+    return lineStart;
+  }
+
+  /**
+   * @return Start of the first block after the line containing <var>index</var>, or the text's length.
+   */
+  static int blockStartAfter(CharSequence text, int index) {
+    int lineStart = nextLineStart(text, index);
+    while (lineStart < text.length() && !isBlockStart(text, lineStart)) {
+      lineStart = nextLineStart(text, lineStart);
+    }
+    return lineStart;
+  }
+
+  private static boolean isBlockStart(CharSequence text, int lineStart) {
+    if (lineStart == 0) {
+      return true;
+    }
+    if (isBlankLine(text, lineStart) || isIndented(text, lineStart)) {
+      return false;
+    }
+    return isBlankLine(text, lineStart(text, lineStart - 1));
+  }
+
+  private static boolean isIndented(CharSequence text, int lineStart) {
+    char c = text.charAt(lineStart);
+    return c == ' ' || c == '\t';
+  }
+
+  private static boolean isBlankLine(CharSequence text, int lineStart) {
+    for (int i = lineStart; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\n') {
+        return true;
+      }
+      if (c != ' ' && c != '\t' && c != '\r') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int lineStart(CharSequence text, int index) {
+    int i = index;
+    while (i > 0 && text.charAt(i - 1) != '\n') {
+      i--;
+    }
+    return i;
+  }
+
+  private static int nextLineStart(CharSequence text, int index) {
+    int i = index;
+    while (i < text.length() && text.charAt(i) != '\n') {
+      i++;
+    }
+    return Math.min(i + 1, text.length());
+  }
+
+  private static boolean startsWithRepeated(CharSequence text, int start, char c, int count) {
+    if (start + count > text.length()) {
+      return false;
+    }
+    for (int i = start; i < start + count; i++) {
+      if (text.charAt(i) != c) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Like "[label]: url".
+   */
+  private static boolean isLinkReferenceDefinition(CharSequence text, int start) {
+    for (int i = start + 1; i < text.length() - 1; i++) {
+      char c = text.charAt(i);
+      if (c == '\n') {
+        return false;
+      }
+      if (c == ']') {
+        return text.charAt(i + 1) == ':';
+      }
+    }
+    return false;
+  }
+}
@@ -2,6 +2,7 @@ package me.saket.dank.markdownhints;
 
 import android.text.Editable;
 import android.text.Spannable;
+import android.text.TextUtils;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.LeadingMarginSpan;
 import android.text.style.StrikethroughSpan;
@@ -33,6 +34,13 @@ public class MarkdownHints extends SimpleTextWatcher {
 
   public static final Set<Object> SUPPORTED_MARKDOWN_SPANS = new HashSet<>();
 
+  /**
+   * Shorter texts are parsed in full on every change. Parsing them is cheap enough.
+   */
+  private static final int MIN_LENGTH_FOR_INCREMENTAL_HIGHLIGHTING = 1_000;
+  private static final int NO_EDIT = -1;
+  private static final long NOT_WIDENED = -1L;
+
   static {
     SUPPORTED_MARKDOWN_SPANS.add(StyleSpan.class);
     SUPPORTED_MARKDOWN_SPANS.add(ForegroundColorSpan.class);
@@ -52,6 +60,8 @@ public class MarkdownHints extends SimpleTextWatcher {
   private final Parser parser;
   private final MarkdownNodeTreeVisitor markdownNodeTreeVisitor;
   private final MarkdownHintsSpanWriter markdownHintsSpanWriter;
+  private int editStart = NO_EDIT;
+  private int editEnd = NO_EDIT;
 
   public static void enableLogging() {
     Timber.plant(new Timber.DebugTree());
@@ -68,27 +78,91 @@ public class MarkdownHints extends SimpleTextWatcher {
         .build();
   }
 
+  @Override
+  public void onTextChanged(CharSequence text, int start, int before, int count) {
+    if (editStart == NO_EDIT) {
+      editStart = start;
+      editEnd = start + count;
+    } else {
+      // More than one change before afterTextChanged(). Rare enough to not track precisely.
+      editStart = 0;
+      editEnd = text.length();
+    }
+  }
+
   @Override
   public void afterTextChanged(Editable editable) {
     editText.removeTextChangedListener(this);
 
-    // We'll see stale styling if previous spans aren't removed.
-    removeHintSpans(editable);
+    int rangeStart = 0;
+    int rangeEnd = editable.length();
+    if (editStart != NO_EDIT
+        && editable.length() >= MIN_LENGTH_FOR_INCREMENTAL_HIGHLIGHTING
+        && MarkdownBlocks.canParseIncrementally(editable))
+    {
+      rangeStart = MarkdownBlocks.affectedRangeStart(editable, editStart);
+      rangeEnd = MarkdownBlocks.affectedRangeEnd(editable, Math.min(editEnd, editable.length()));
+    }
+    editStart = NO_EDIT;
+    editEnd = NO_EDIT;
 
-    Node markdownRootNode = parser.parse(SubSequence.of(editable));
-    markdownHintsSpanWriter.setText(editable);
-    markdownNodeTreeVisitor.visit(markdownRootNode, markdownHintsSpanWriter);
+    highlight(editable, rangeStart, rangeEnd);
 
     editText.addTextChangedListener(this);
   }
 
-  private void removeHintSpans(Spannable spannable) {
-    Object[] spans = spannable.getSpans(0, spannable.length(), Object.class);
+  /**
+   * Re-highlights the blocks within [rangeStart, rangeEnd).
+   */
+  private void highlight(Editable editable, int rangeStart, int rangeEnd) {
+    // We'll see stale styling if previous spans aren't removed. Spans from before the
+    // edit can extend outside the range if the edit split their block, in which case
+    // their entire block gets highlighted again.
+    long widenedRange;
+    while ((widenedRange = removeHintSpans(editable, rangeStart, rangeEnd)) != NOT_WIDENED) {
+      rangeStart = MarkdownBlocks.blockStartAtOrBefore(editable, (int) (widenedRange >> 32));
+      rangeEnd = MarkdownBlocks.blockStartAfter(editable, Math.max((int) widenedRange - 1, rangeStart));
+    }
+
+    // TextUtils.substring() copies only the chars and not the spans, unlike subSequence().
+    String markdown = TextUtils.substring(editable, rangeStart, rangeEnd);
+    Node markdownRootNode = parser.parse(SubSequence.of(markdown));
+    markdownHintsSpanWriter.setText(editable, rangeStart);
+    markdownNodeTreeVisitor.visit(markdownRootNode, markdownHintsSpanWriter);
+  }
+
+  /**
+   * Removes and recycles hint spans that overlap [rangeStart, rangeEnd).
+   *
+   * @return {@link #NOT_WIDENED} if all removed spans were inside the range. Otherwise, a wider range
+   * that covers all removed spans, packed as (start << 32 | end).
+   */
+  private long removeHintSpans(Spannable spannable, int rangeStart, int rangeEnd) {
+    int widenedStart = rangeStart;
+    int widenedEnd = rangeEnd;
+
+    Object[] spans = spannable.getSpans(rangeStart, rangeEnd, Object.class);
     for (Object span : spans) {
-      if (SUPPORTED_MARKDOWN_SPANS.contains(span.getClass())) {
-        spannable.removeSpan(span);
-        spanPool.recycle(span);
+      if (!SUPPORTED_MARKDOWN_SPANS.contains(span.getClass())) {
+        continue;
       }
+      int spanStart = spannable.getSpanStart(span);
+      int spanEnd = spannable.getSpanEnd(span);
+      boolean isEmpty = spanStart == spanEnd;
+      if (!isEmpty && (spanEnd <= rangeStart || spanStart >= rangeEnd)) {
+        // Only touches the range.
+        continue;
+      }
+
+      widenedStart = Math.min(widenedStart, spanStart);
+      widenedEnd = Math.max(widenedEnd, spanEnd);
+      spannable.removeSpan(span);
+      spanPool.recycle(span);
+    }
+
+    if (widenedStart == rangeStart && widenedEnd == rangeEnd) {
+      return NOT_WIDENED;
     }
+    return ((long) widenedStart << 32) | widenedEnd;
   }
 }
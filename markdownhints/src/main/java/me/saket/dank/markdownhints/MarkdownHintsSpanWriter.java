@@ -4,14 +4,23 @@ import android.text.Editable;
 import android.text.Spanned;
 
 /**
- * TODO: Doc.
+ * Writes spans generated by {@link MarkdownNodeTreeVisitor} to the text being edited.
  */
 public class MarkdownHintsSpanWriter {
 
   private Editable editable;
+  private int textOffset;
 
   public void setText(Editable editable) {
+    setText(editable, 0);
+  }
+
+  /**
+   * @param textOffset Offset of the parsed markdown in <var>editable</var>, when only a part of it was parsed.
+   */
+  public void setText(Editable editable, int textOffset) {
     this.editable = editable;
+    this.textOffset = textOffset;
   }
 
   /** Starts {@code span} at the current position in the builder. */
@@ -19,7 +28,7 @@ public class MarkdownHintsSpanWriter {
     if (!MarkdownHints.SUPPORTED_MARKDOWN_SPANS.contains(span.getClass())) {
       throw new IllegalArgumentException("Span not supported: " + span.getClass());
     }
-    editable.setSpan(span, start, end, Spanned.SPAN_INCLUSIVE_EXCLUSIVE);
+    editable.setSpan(span, start + textOffset, end + textOffset, Spanned.SPAN_INCLUSIVE_EXCLUSIVE);
     return this;
   }
 }
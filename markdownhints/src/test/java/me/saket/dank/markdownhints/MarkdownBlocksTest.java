@@ -0,0 +1,43 @@
+package me.saket.dank.markdownhints;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MarkdownBlocksTest {
+
+  private static final String TEXT = "First block\n\nSecond block\nstill second\n\nThird block\n\n    indented\n\nFourth block";
+
+  @Test
+  public void affectedRange_includesNeighborBlocks() {
+    int editOffset = TEXT.indexOf("Third");
+
+    int rangeStart = MarkdownBlocks.affectedRangeStart(TEXT, editOffset);
+    int rangeEnd = MarkdownBlocks.affectedRangeEnd(TEXT, editOffset + 1);
+
+    assertEquals(TEXT.indexOf("Second"), rangeStart);
+    assertEquals(TEXT.length(), rangeEnd);
+  }
+
+  @Test
+  public void affectedRange_atEdgesOfText() {
+    assertEquals(0, MarkdownBlocks.affectedRangeStart(TEXT, 3));
+    assertEquals(TEXT.indexOf("Third"), MarkdownBlocks.affectedRangeEnd(TEXT, 3));
+    assertEquals(TEXT.length(), MarkdownBlocks.affectedRangeEnd(TEXT, TEXT.length()));
+  }
+
+  @Test
+  public void indentedLines_stayInPreviousBlock() {
+    assertEquals(TEXT.indexOf("Third"), MarkdownBlocks.blockStartAtOrBefore(TEXT, TEXT.indexOf("indented")));
+  }
+
+  @Test
+  public void canParseIncrementally() {
+    assertTrue(MarkdownBlocks.canParseIncrementally(TEXT));
+    assertFalse(MarkdownBlocks.canParseIncrementally("Some code:\n\n```\nfoo()\n\n```"));
+    assertFalse(MarkdownBlocks.canParseIncrementally("A [link][1].\n\n  [1]: https://reddit.com"));
+    assertFalse(MarkdownBlocks.canParseIncrementally("<div>\n\nhtml\n\n</div>"));
+  }
+}
@@ -0,0 +1,95 @@
+package me.saket.dank.markdownhints;
+
+import com.vladsch.flexmark.ext.gfm.strikethrough.StrikethroughExtension;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.sequence.SubSequence;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Compares parsing an entire draft on every keystroke with parsing only the blocks touched by it,
+ * the way {@link MarkdownHints} does for long drafts. Writing spans needs an Android Editable, so
+ * only the parsing and block lookup are measured here.
+ */
+@Ignore("Benchmark. Run manually.")
+public class MarkdownHintsBenchmark {
+
+  private static final String[] PARAGRAPHS = {
+      "I think the real problem here is that **nobody** reads the docs.\n\n",
+      "# Update\n\nFixed it by clearing the cache and ~~restarting~~ reinstalling.\n\n",
+      "> Have you tried turning it off and on again?\n> It works on my machine.\n\n",
+      "* Item one\n* Item two with **bold** and *italics*\n* ~~Struck~~ item\n\n",
+      "    val x = listOf(1, 2, 3)\n    println(x)\n\n",
+      "Use `adb logcat` to see what's going on, then file an issue with the logs.\n\n",
+      "---\n\n",
+  };
+  private static final int[] DRAFT_LENGTHS = { 10_000, 50_000 };
+  private static final int WARMUP_KEYSTROKES = 200;
+  private static final int MEASURED_KEYSTROKES = 1_000;
+
+  @Test
+  public void measureKeystrokes() {
+    Parser parser = Parser.builder()
+        .extensions(Collections.singletonList(StrikethroughExtension.create()))
+        .build();
+
+    System.out.println("draft chars | full parse µs | incremental µs");
+    for (int draftLength : DRAFT_LENGTHS) {
+      String draft = draft(new Random(7), draftLength);
+      int[] keystrokeOffsets = keystrokeOffsets(new Random(11), draft, MEASURED_KEYSTROKES);
+
+      for (int i = 0; i < WARMUP_KEYSTROKES; i++) {
+        int offset = keystrokeOffsets[i % keystrokeOffsets.length];
+        parser.parse(SubSequence.of(draft));
+        parseAffectedBlocks(parser, draft, offset);
+      }
+
+      long fullStartNanos = System.nanoTime();
+      for (int offset : keystrokeOffsets) {
+        parser.parse(SubSequence.of(draft));
+      }
+      long fullNanos = System.nanoTime() - fullStartNanos;
+
+      long incrementalStartNanos = System.nanoTime();
+      for (int offset : keystrokeOffsets) {
+        parseAffectedBlocks(parser, draft, offset);
+      }
+      long incrementalNanos = System.nanoTime() - incrementalStartNanos;
+
+      System.out.println(String.format(
+          "%11d | %12d | %14d",
+          draft.length(),
+          fullNanos / keystrokeOffsets.length / 1_000,
+          incrementalNanos / keystrokeOffsets.length / 1_000));
+    }
+  }
+
+  private static void parseAffectedBlocks(Parser parser, String draft, int keystrokeOffset) {
+    if (!MarkdownBlocks.canParseIncrementally(draft)) {
+      throw new AssertionError("Benchmark draft should be parsable incrementally");
+    }
+    int rangeStart = MarkdownBlocks.affectedRangeStart(draft, keystrokeOffset);
+    int rangeEnd = MarkdownBlocks.affectedRangeEnd(draft, keystrokeOffset + 1);
+    parser.parse(SubSequence.of(draft.substring(rangeStart, rangeEnd)));
+  }
+
+  private static String draft(Random random, int length) {
+    StringBuilder builder = new StringBuilder(length);
+    while (builder.length() < length) {
+      builder.append(PARAGRAPHS[random.nextInt(PARAGRAPHS.length)]);
+    }
+    return builder.toString();
+  }
+
+  private static int[] keystrokeOffsets(Random random, String draft, int count) {
+    int[] offsets = new int[count];
+    for (int i = 0; i < count; i++) {
+      offsets[i] = random.nextInt(draft.length() - 1);
+    }
+    return offsets;
+  }
+}